@@ -52,6 +52,7 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreemen
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
@@ -66,6 +67,73 @@ public class AgreementUtils
                 aCasMap);
     }
     
+    /**
+     * Merges coding studies which were created separately for single CASes, e.g. one document
+     * at a time. All studies must have been created for the same type, feature and users. In the
+     * merged study, the positions of the n-th study refer to the CAS with the id n. The
+     * agreement of the merged study is not calculated.
+     *
+     * @param aResults
+     *            the partial studies (at least one).
+     * @return the merged study.
+     */
+    public static CodingAgreementResult mergeCodingStudies(List<CodingAgreementResult> aResults)
+    {
+        CodingAgreementResult first = aResults.get(0);
+        List<String> users = first.getCasGroupIds();
+
+        List<DiffResult> diffs = new ArrayList<>();
+        List<ConfigurationSet> completeSets = new ArrayList<>();
+        List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
+        List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
+        List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
+        List<ConfigurationSet> pluralitySets = new ArrayList<>();
+        List<ConfigurationSet> irrelevantSets = new ArrayList<>();
+        CodingAnnotationStudy study = new CodingAnnotationStudy(users.size());
+
+        for (int casId = 0; casId < aResults.size(); casId++) {
+            CodingAgreementResult result = aResults.get(casId);
+            
+            // Keep the positions of the different studies apart
+            DiffResult diff = result.getDiff().withCasId(casId);
+            diffs.add(diff);
+            completeSets.addAll(withCasId(result.getCompleteSets(), diff, casId));
+            setsWithDifferences.addAll(withCasId(result.getSetsWithDifferences(), diff, casId));
+            incompleteSetsByPosition
+                    .addAll(withCasId(result.getIncompleteSetsByPosition(), diff, casId));
+            incompleteSetsByLabel
+                    .addAll(withCasId(result.getIncompleteSetsByLabel(), diff, casId));
+            pluralitySets.addAll(withCasId(result.getPluralitySets(), diff, casId));
+            irrelevantSets.addAll(withCasId(result.getIrrelevantSets(), diff, casId));
+
+            for (ICodingAnnotationItem item : result.getStudy().getItems()) {
+                Object[] values = new Object[users.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = item.getUnit(i).getCategory();
+                }
+                study.addItemAsArray(values);
+            }
+        }
+
+        return new CodingAgreementResult(first.getType(), first.getFeature(),
+                DiffResult.merge(diffs), study, users, completeSets, irrelevantSets,
+                setsWithDifferences, incompleteSetsByPosition, incompleteSetsByLabel,
+                pluralitySets, first.isExcludeIncomplete());
+    }
+
+    private static List<ConfigurationSet> withCasId(List<ConfigurationSet> aSets,
+            DiffResult aDiff, int aCasId)
+    {
+        List<ConfigurationSet> sets = new ArrayList<>(aSets.size());
+        for (ConfigurationSet set : aSets) {
+            // Prefer the instance from the diff so the sets and the diff remain consistent
+            ConfigurationSet rebased = aDiff.getConfigurtionSet(
+                    set.getPosition().withCasId(aCasId));
+            sets.add(rebased != null ? rebased : set.withCasId(aCasId));
+        }
+        return sets;
+    }
+    
     private static CAS findSomeCas(Map<String, List<CAS>> aCasMap)
     {
         for (List<CAS> l : aCasMap.values()) {
@@ -18,6 +18,9 @@
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +32,36 @@ public interface AggreementMeasure<R extends Serializable>
 {
     R getAgreement(Map<String, List<CAS>> aCasMap);
     
+    /**
+     * Calculates the agreement over documents which are provided one at a time. Measures which
+     * are able to process the documents individually should override this method such that only
+     * the CASes of the current document need to be held in memory. The default implementation
+     * collects all CASes and delegates to {@link #getAgreement(Map)}.
+     * 
+     * @param aUsers
+     *            the annotators.
+     * @param aDocuments
+     *            for every document, the CASes of the annotators. Annotators without a CAS for
+     *            the document can be omitted from the map.
+     * @return the agreement.
+     */
+    default R getAgreement(List<String> aUsers, Iterator<Map<String, CAS>> aDocuments)
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (String user : aUsers) {
+            casMap.put(user, new ArrayList<>());
+        }
+        
+        while (aDocuments.hasNext()) {
+            Map<String, CAS> document = aDocuments.next();
+            for (String user : aUsers) {
+                casMap.get(user).add(document.get(user));
+            }
+        }
+        
+        return getAgreement(casMap);
+    }
+    
     AnnotationFeature getFeature();
     
     DefaultAgreementTraits getTraits();
@@ -18,9 +18,6 @@
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures.cohenkappa;
 
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.makeCodingStudy;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getAdapters;
-import static java.util.Arrays.asList;
 
 import java.util.List;
 import java.util.Map;
@@ -34,45 +31,35 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAggreeme
 import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public class CohenKappaAgreementMeasure
     extends CodingAggreementMeasure_ImplBase<DefaultAgreementTraits>
 {
-    private final AnnotationSchemaService annotationService;
-    
     public CohenKappaAgreementMeasure(AnnotationFeature aFeature, DefaultAgreementTraits aTraits,
             AnnotationSchemaService aAnnotationService)
     {
-        super(aFeature, aTraits);
-        annotationService = aAnnotationService;
+        super(aFeature, aTraits, aAnnotationService);
     }
     
     @Override
-    public CodingAgreementResult calculatePairAgreement(
-            Map<String, List<CAS>> aCasMap)
+    protected CodingAgreementResult makeStudy(CasDiff aDiff, Map<String, List<CAS>> aCasMap)
     {
         AnnotationFeature feature = getFeature();
-        DefaultAgreementTraits traits = getTraits();
-        
-        List<DiffAdapter> adapters = getAdapters(annotationService, feature.getProject());
-
-        CasDiff diff = doDiff(asList(feature.getLayer().getName()), adapters,
-                traits.getLinkCompareBehavior(), aCasMap);
-
-        CodingAgreementResult agreementResult = makeCodingStudy(diff,
-                feature.getLayer().getName(), feature.getName(), true, aCasMap);
-
-        IAgreementMeasure agreement = new CohenKappaAgreement(agreementResult.getStudy());
+        return makeCodingStudy(aDiff, feature.getLayer().getName(), feature.getName(), true,
+                aCasMap);
+    }
+    
+    @Override
+    protected void calculateAgreement(CodingAgreementResult aResult)
+    {
+        IAgreementMeasure agreement = new CohenKappaAgreement(aResult.getStudy());
 
-        if (agreementResult.getStudy().getItemCount() > 0) {
-            agreementResult.setAgreement(agreement.calculateAgreement());
+        if (aResult.getStudy().getItemCount() > 0) {
+            aResult.setAgreement(agreement.calculateAgreement());
         }
         else {
-            agreementResult.setAgreement(Double.NaN);
+            aResult.setAgreement(Double.NaN);
         }
-        
-        return agreementResult;
     }
 }
@@ -18,9 +18,6 @@
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures.krippendorffalpha;
 
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.makeCodingStudy;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getAdapters;
-import static java.util.Arrays.asList;
 
 import java.util.List;
 import java.util.Map;
@@ -35,52 +32,49 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAggreeme
 import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public class KrippendorffAlphaAgreementMeasure
     extends CodingAggreementMeasure_ImplBase<KrippendorffAlphaAgreementTraits>
 {
-    private final AnnotationSchemaService annotationService;
-
     public KrippendorffAlphaAgreementMeasure(AnnotationFeature aFeature,
             KrippendorffAlphaAgreementTraits aTraits, AnnotationSchemaService aAnnotationService)
     {
-        super(aFeature, aTraits);
-        annotationService = aAnnotationService;
+        super(aFeature, aTraits, aAnnotationService);
+    }
+
+    @Override
+    public String getConfigurationKey()
+    {
+        return super.getConfigurationKey() + "|" + getTraits().isExcludeIncomplete();
     }
 
     @Override
-    public CodingAgreementResult calculatePairAgreement(
-            Map<String, List<CAS>> aCasMap)
+    protected CodingAgreementResult makeStudy(CasDiff aDiff, Map<String, List<CAS>> aCasMap)
     {
         AnnotationFeature feature = getFeature();
         KrippendorffAlphaAgreementTraits traits = getTraits();
         
-        List<DiffAdapter> adapters = getAdapters(annotationService, feature.getProject());
-
-        CasDiff diff = doDiff(asList(feature.getLayer().getName()), adapters,
-                traits.getLinkCompareBehavior(), aCasMap);
-
-        CodingAgreementResult agreementResult = makeCodingStudy(diff,
-                feature.getLayer().getName(), feature.getName(), traits.isExcludeIncomplete(),
-                aCasMap);
+        return makeCodingStudy(aDiff, feature.getLayer().getName(), feature.getName(),
+                traits.isExcludeIncomplete(), aCasMap);
+    }
 
-        IAgreementMeasure agreement = new KrippendorffAlphaAgreement(agreementResult.getStudy(),
+    @Override
+    protected void calculateAgreement(CodingAgreementResult aResult)
+    {
+        IAgreementMeasure agreement = new KrippendorffAlphaAgreement(aResult.getStudy(),
                 new NominalDistanceFunction());
 
-        if (agreementResult.getStudy().getItemCount() > 0) {
+        if (aResult.getStudy().getItemCount() > 0) {
             try {
-                agreementResult.setAgreement(agreement.calculateAgreement());
+                aResult.setAgreement(agreement.calculateAgreement());
             }
             catch (InsufficientDataException e) {
-                agreementResult.setAgreement(Double.NaN);
+                aResult.setAgreement(Double.NaN);
             }
         }
         else {
-            agreementResult.setAgreement(Double.NaN);
+            aResult.setAgreement(Double.NaN);
         }
-
-        return agreementResult;
     }
 }
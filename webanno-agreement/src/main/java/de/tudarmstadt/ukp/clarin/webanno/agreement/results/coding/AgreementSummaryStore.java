@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Persists the per-document coding studies created by
+ * {@link CodingAggreementMeasure_ImplBase#makeDocumentStudies} next to the annotation CASes of
+ * the document, so that an agreement calculation only needs to load and diff the documents which
+ * changed since the last calculation.
+ * <p>
+ * A stored summary is identified by the source document and the exact versions of the CASes it
+ * was created from. The version of a CAS is typically its timestamp in the CAS storage. Any value
+ * can be used to represent annotators that did not contribute a CAS, as long as it is used
+ * consistently. Since the studies do not depend on the other documents in a calculation, a
+ * summary remains valid when documents are added to or removed from the project.
+ */
+public interface AgreementSummaryStore
+{
+    /**
+     * @param aDocument
+     *            the document.
+     * @param aConfigurationKey
+     *            the configuration of the measure (cf.
+     *            {@link CodingAggreementMeasure_ImplBase#getConfigurationKey()}).
+     * @param aVersions
+     *            the current versions of the CASes by annotator.
+     * @return the stored studies if they were created for the given document, configuration
+     *         and CAS versions.
+     */
+    Optional<List<CodingAgreementResult>> load(SourceDocument aDocument,
+            String aConfigurationKey, Map<String, Long> aVersions);
+
+    /**
+     * Stores the studies for the given document. The versions must have been determined
+     * <b>before</b> the CASes were read - otherwise a concurrent change might go unnoticed.
+     */
+    void store(SourceDocument aDocument, String aConfigurationKey, Map<String, Long> aVersions,
+            List<CodingAgreementResult> aStudies);
+
+    /**
+     * Removes all summaries stored for the given document.
+     */
+    void invalidate(SourceDocument aDocument);
+}
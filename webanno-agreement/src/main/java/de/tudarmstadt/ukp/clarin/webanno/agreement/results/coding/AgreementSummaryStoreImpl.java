@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the summaries as serialized files in the {@code agreement} sub-folder of the annotation
+ * folder of the document. There is one file per measure configuration. The summaries of a
+ * document are dropped whenever one of its annotation CASes is written - they would not be valid
+ * for the new CAS version anyway.
+ */
+@ManagedResource
+@Component
+public class AgreementSummaryStoreImpl
+    implements AgreementSummaryStore
+{
+    private static final String SUMMARY_FOLDER = "agreement";
+    private static final String SUMMARY_SUFFIX = ".ser";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasStorageService casStorageService;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public AgreementSummaryStoreImpl(CasStorageService aCasStorageService)
+    {
+        casStorageService = aCasStorageService;
+    }
+
+    @EventListener
+    public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument());
+    }
+
+    @EventListener
+    public void onAfterDocumentReset(AfterDocumentResetEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument());
+    }
+
+    @Override
+    public Optional<List<CodingAgreementResult>> load(SourceDocument aDocument,
+            String aConfigurationKey, Map<String, Long> aVersions)
+    {
+        try {
+            File file = getSummaryFile(aDocument, aConfigurationKey);
+            if (file.exists()) {
+                Summary summary;
+                try (ObjectInputStream is = new ObjectInputStream(
+                        new BufferedInputStream(new FileInputStream(file)))) {
+                    summary = (Summary) is.readObject();
+                }
+
+                if (Objects.equals(summary.documentId, aDocument.getId())
+                        && summary.configurationKey.equals(aConfigurationKey)
+                        && summary.versions.equals(aVersions)) {
+                    hits.incrementAndGet();
+                    return Optional.of(summary.studies);
+                }
+            }
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // The summary is only a cache, so if it cannot be read, we simply calculate it again
+            log.debug("Unable to read agreement summary for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    @Override
+    public void store(SourceDocument aDocument, String aConfigurationKey,
+            Map<String, Long> aVersions, List<CodingAgreementResult> aStudies)
+    {
+        Summary summary = new Summary(aDocument.getId(), aConfigurationKey, aVersions, aStudies);
+
+        File tmpFile = null;
+        try {
+            File file = getSummaryFile(aDocument, aConfigurationKey);
+            FileUtils.forceMkdir(file.getParentFile());
+
+            // Write to a temporary file first so that concurrent readers never see a partially
+            // written summary
+            tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (ObjectOutputStream os = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                os.writeObject(summary);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Unable to store agreement summary for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    @Override
+    public void invalidate(SourceDocument aDocument)
+    {
+        try {
+            File folder = getSummaryFolder(aDocument);
+            if (folder.exists()) {
+                FileUtils.deleteDirectory(folder);
+                log.trace("Removed agreement summaries for document [{}]({})",
+                        aDocument.getName(), aDocument.getId());
+            }
+        }
+        catch (IOException e) {
+            log.warn("Unable to remove agreement summaries for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+        }
+    }
+
+    private File getSummaryFolder(SourceDocument aDocument) throws IOException
+    {
+        return new File(casStorageService.getAnnotationFolder(aDocument), SUMMARY_FOLDER);
+    }
+
+    private File getSummaryFile(SourceDocument aDocument, String aConfigurationKey)
+        throws IOException
+    {
+        // The key may contain characters which are not allowed in file names
+        return new File(getSummaryFolder(aDocument), sha1(aConfigurationKey) + SUMMARY_SUFFIX);
+    }
+
+    private static String sha1(String aData)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(aData.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static class Summary
+        implements Serializable
+    {
+        private static final long serialVersionUID = -4150787290958166415L;
+
+        private final Long documentId;
+        private final String configurationKey;
+        private final Map<String, Long> versions;
+        private final ArrayList<CodingAgreementResult> studies;
+
+        public Summary(Long aDocumentId, String aConfigurationKey, Map<String, Long> aVersions,
+                List<CodingAgreementResult> aStudies)
+        {
+            documentId = aDocumentId;
+            configurationKey = aConfigurationKey;
+            versions = new HashMap<>(aVersions);
+            studies = new ArrayList<>(aStudies);
+        }
+    }
+}
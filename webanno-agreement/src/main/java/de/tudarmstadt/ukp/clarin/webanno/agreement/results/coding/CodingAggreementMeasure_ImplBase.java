@@ -17,48 +17,244 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
 
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.mergeCodingStudies;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AggreementMeasure_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public abstract class CodingAggreementMeasure_ImplBase<T extends DefaultAgreementTraits>
     extends AggreementMeasure_ImplBase<PairwiseAnnotationResult<CodingAgreementResult>, T>
 {
-    public CodingAggreementMeasure_ImplBase(AnnotationFeature aFeature, T aTraits)
+    private final AnnotationSchemaService annotationService;
+    
+    private List<DiffAdapter> adapters;
+    
+    public CodingAggreementMeasure_ImplBase(AnnotationFeature aFeature, T aTraits,
+            AnnotationSchemaService aAnnotationService)
     {
         super(aFeature, aTraits);
+        annotationService = aAnnotationService;
     }
     
     @Override
     public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(
             Map<String, List<CAS>> aCasMap)
     {
-        PairwiseAnnotationResult<CodingAgreementResult> result = new PairwiseAnnotationResult<>(
-                getFeature(), getTraits());
-        List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
+        List<Pair<String, String>> pairs = listPairs(new ArrayList<>(aCasMap.keySet()));
+        
+        // Calculate the diff over all annotators only once - the diffs for the individual pairs
+        // of annotators are derived from it
+        CasDiff diff = createDiff(getAdapters(), aCasMap);
+        
+        List<CodingAgreementResult> pairResults = makePairStudies(diff, pairs, aCasMap);
+        pairResults.forEach(this::calculateAgreement);
+        
+        return toPairwiseResult(pairs, pairResults);
+    }
+    
+    /**
+     * Calculates the agreement one document at a time. The studies obtained for the individual
+     * documents are merged and the agreement is calculated on the merged studies, so the result
+     * is the same as when passing all CASes at once to {@link #getAgreement(Map)}. However, only
+     * the CASes of the current document are accessed at any time.
+     */
+    @Override
+    public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(List<String> aUsers,
+            Iterator<Map<String, CAS>> aDocuments)
+    {
+        List<List<CodingAgreementResult>> documentStudies = new ArrayList<>();
+        while (aDocuments.hasNext()) {
+            documentStudies.add(makeDocumentStudies(aUsers, aDocuments.next()));
+        }
+        
+        return mergeDocumentStudies(aUsers, documentStudies);
+    }
+    
+    /**
+     * Creates the coding studies for all pairs of annotators on a single document. The studies
+     * do not reference the CASes, so they can be retained (or persisted) after the CASes have
+     * been released. They do not depend on the other documents in the calculation either - the
+     * positions are bound to the documents only when the studies are merged.
+     * 
+     * @param aUsers
+     *            the annotators.
+     * @param aDocument
+     *            the CASes of the annotators for the document.
+     * @return the studies in the order of the annotator pairs.
+     */
+    public List<CodingAgreementResult> makeDocumentStudies(List<String> aUsers,
+            Map<String, CAS> aDocument)
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (String user : aUsers) {
+            casMap.put(user, asList(aDocument.get(user)));
+        }
+        
+        return makePairStudies(createDiff(getAdapters(), casMap), listPairs(aUsers), casMap);
+    }
+    
+    /**
+     * Merges the per-document studies obtained from
+     * {@link #makeDocumentStudies(List, Map)} and calculates the agreement.
+     * 
+     * @param aUsers
+     *            the annotators.
+     * @param aDocumentStudies
+     *            the studies for each document in the order of the documents.
+     * @return the agreement.
+     */
+    public PairwiseAnnotationResult<CodingAgreementResult> mergeDocumentStudies(
+            List<String> aUsers, List<List<CodingAgreementResult>> aDocumentStudies)
+    {
+        if (aDocumentStudies.isEmpty()) {
+            return mergeDocumentStudies(aUsers, asList(makeDocumentStudies(aUsers, emptyMap())));
+        }
+        
+        List<Pair<String, String>> pairs = listPairs(aUsers);
+        List<CodingAgreementResult> pairResults = new ArrayList<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            List<CodingAgreementResult> studies = new ArrayList<>();
+            for (List<CodingAgreementResult> documentStudies : aDocumentStudies) {
+                studies.add(documentStudies.get(i));
+            }
+            CodingAgreementResult pairResult = mergeCodingStudies(studies);
+            calculateAgreement(pairResult);
+            pairResults.add(pairResult);
+        }
+        
+        return toPairwiseResult(pairs, pairResults);
+    }
+    
+    /**
+     * Describes everything apart from the CASes which affects the studies created by
+     * {@link #makeDocumentStudies(List, Map)}: the measure, the layer and feature, the
+     * relevant traits and the layer configuration of the project. Subclasses using additional
+     * traits when creating the studies must include them.
+     * 
+     * @return a key identifying the configuration of the measure.
+     */
+    public String getConfigurationKey()
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(getClass().getName());
+        key.append('|').append(getFeature().getLayer().getName());
+        key.append('|').append(getFeature().getName());
+        key.append('|').append(getTraits().getLinkCompareBehavior());
+        for (DiffAdapter adapter : getAdapters()) {
+            key.append('|').append(adapter.getType()).append(adapter.getLabelFeatures());
+        }
+        return key.toString();
+    }
+    
+    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    {
+        return calculatePairAgreement(createDiff(getAdapters(), aCasMap), aCasMap);
+    }
+    
+    /**
+     * @param aDiff
+     *            the diff between the two annotators.
+     * @param aCasMap
+     *            the CASes of the two annotators.
+     * @return the agreement between the two annotators.
+     */
+    protected CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Map<String, List<CAS>> aCasMap)
+    {
+        CodingAgreementResult result = makeStudy(aDiff, aCasMap);
+        calculateAgreement(result);
+        return result;
+    }
+    
+    /**
+     * @param aDiff
+     *            the diff between the two annotators.
+     * @param aCasMap
+     *            the CASes of the two annotators.
+     * @return the coding study for the two annotators without the agreement.
+     */
+    protected abstract CodingAgreementResult makeStudy(CasDiff aDiff,
+            Map<String, List<CAS>> aCasMap);
+    
+    /**
+     * Calculates the agreement on the study and stores it in the given result.
+     * 
+     * @param aResult
+     *            the coding study.
+     */
+    protected abstract void calculateAgreement(CodingAgreementResult aResult);
+    
+    protected List<DiffAdapter> getAdapters()
+    {
+        // The adapters are obtained from the database, so we look them up only once
+        if (adapters == null) {
+            adapters = CasDiff.getAdapters(annotationService, getFeature().getProject());
+        }
+        return adapters;
+    }
+    
+    protected CasDiff createDiff(List<DiffAdapter> aAdapters, Map<String, List<CAS>> aCasMap)
+    {
+        return doDiff(asList(getFeature().getLayer().getName()), aAdapters,
+                getTraits().getLinkCompareBehavior(), aCasMap);
+    }
+    
+    private List<CodingAgreementResult> makePairStudies(CasDiff aDiff,
+            List<Pair<String, String>> aPairs, Map<String, List<CAS>> aCasMap)
+    {
+        // The pairs are independent of each other and only read the CASes, so they can be
+        // evaluated in parallel (on the common fork-join pool)
+        return aPairs.parallelStream()
+                .map(pair -> {
+                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
+                    pairwiseCasMap.put(pair.getKey(), aCasMap.get(pair.getKey()));
+                    pairwiseCasMap.put(pair.getValue(), aCasMap.get(pair.getValue()));
+                    return makeStudy(aDiff.getDiffForCasGroups(pairwiseCasMap.keySet()),
+                            pairwiseCasMap);
+                })
+                .collect(toList());
+    }
+    
+    private List<Pair<String, String>> listPairs(List<String> aUsers)
+    {
+        List<Pair<String, String>> pairs = new ArrayList<>();
+        for (int m = 0; m < aUsers.size(); m++) {
+            for (int n = 0; n < aUsers.size(); n++) {
                 // Triangle matrix mirrored
                 if (n < m) {
-                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    CodingAgreementResult res = calculatePairAgreement(pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
+                    pairs.add(Pair.of(aUsers.get(m), aUsers.get(n)));
                 }
             }
         }
-        return result;
+        return pairs;
     }
     
-    public abstract CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap);
+    private PairwiseAnnotationResult<CodingAgreementResult> toPairwiseResult(
+            List<Pair<String, String>> aPairs, List<CodingAgreementResult> aPairResults)
+    {
+        PairwiseAnnotationResult<CodingAgreementResult> result = new PairwiseAnnotationResult<>(
+                getFeature(), getTraits());
+        for (int i = 0; i < aPairs.size(); i++) {
+            result.add(aPairs.get(i).getKey(), aPairs.get(i).getValue(), aPairResults.get(i));
+        }
+        return result;
+    }
 }
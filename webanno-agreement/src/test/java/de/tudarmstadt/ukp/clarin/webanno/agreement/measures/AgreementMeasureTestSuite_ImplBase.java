@@ -30,6 +30,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.factory.JCasFactory.createJCas;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -39,6 +40,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
@@ -47,6 +49,7 @@ import org.junit.Before;
 import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
@@ -99,6 +102,10 @@ public class AgreementMeasureTestSuite_ImplBase
         when(annotationService.listAnnotationLayer(any())).thenReturn(layers);
         when(annotationService.listAnnotationFeature(any(AnnotationLayer.class)))
             .thenReturn(features);
+        ProjectSchema projectSchema = mock(ProjectSchema.class);
+        when(projectSchema.getLayers()).thenReturn(layers);
+        when(projectSchema.getFeatures(any(AnnotationLayer.class))).thenReturn(features);
+        when(annotationService.getProjectSchema(any())).thenReturn(projectSchema);
         when(annotationService.getAdapter(any(AnnotationLayer.class))).then(_call -> {
             AnnotationLayer l = _call.getArgument(0);
             return layerRegistry.getLayerSupport(l).createAdapter(l);
@@ -252,4 +259,62 @@ public class AgreementMeasureTestSuite_ImplBase
         
         return measure.getAgreement(casByUser);
     }
+
+    /**
+     * @return the agreement calculated on all CASes at once (left) and document by document
+     *         (right).
+     */
+    public <R extends Serializable, T extends DefaultAgreementTraits> Pair<R, R> 
+            documentByDocumentTest(AggreementMeasureSupport<T, R, ICodingAnnotationStudy> aSupport)
+        throws Exception
+    {
+        AnnotationLayer layer = new AnnotationLayer(POS.class.getName(),
+                POS.class.getSimpleName(), SPAN_TYPE, project, false, SINGLE_TOKEN, NO_OVERLAP);
+        layer.setId(1l);
+        layers.add(layer);
+
+        AnnotationFeature feature = new AnnotationFeature(project, layer, "PosValue", "PosValue",
+                CAS.TYPE_NAME_STRING);
+        feature.setId(1l);
+        features.add(feature);
+        
+        T traits = aSupport.createTraits();
+        
+        List<String> users = asList("user1", "user2", "user3");
+        String[][] labels = { 
+                { "A", "B", "A", "C" }, 
+                { "A", "B", "B", "C" }, 
+                { "A", "A", "A", null } };
+        
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        List<Map<String, CAS>> documents = new ArrayList<>();
+        for (int d = 0; d < 2; d++) {
+            Map<String, CAS> document = new LinkedHashMap<>();
+            for (int u = 0; u < users.size(); u++) {
+                CAS cas = null;
+                // The last user has not worked on the second document
+                if (d == 0 || u < users.size() - 1) {
+                    JCas jcas = JCasFactory.createJCas();
+                    jcas.setDocumentText("ab");
+                    for (int i = 0; i < 2; i++) {
+                        String label = labels[u][d * 2 + i];
+                        if (label != null) {
+                            POS pos = new POS(jcas, i, i + 1);
+                            pos.setPosValue(label);
+                            pos.addToIndexes();
+                        }
+                    }
+                    cas = jcas.getCas();
+                    document.put(users.get(u), cas);
+                }
+                casByUser.computeIfAbsent(users.get(u), k -> new ArrayList<>()).add(cas);
+            }
+            documents.add(document);
+        }
+        
+        AggreementMeasure<R> measure = aSupport.createMeasure(feature, traits);
+        
+        return Pair.of(measure.getAgreement(casByUser),
+                measure.getAgreement(users, documents.iterator()));
+    }
 }
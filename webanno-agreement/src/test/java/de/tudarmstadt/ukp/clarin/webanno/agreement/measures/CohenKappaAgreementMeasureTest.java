@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.agreement.measures;
 import static java.lang.Double.NaN;
 import static org.junit.Assert.assertEquals;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.dkpro.statistics.agreement.coding.ICodingAnnotationItem;
 import org.dkpro.statistics.agreement.coding.ICodingAnnotationStudy;
 import org.junit.Before;
@@ -126,4 +127,32 @@ public class CohenKappaAgreementMeasureTest
         assertEquals(4, result.getRelevantSetCount());
         assertEquals(0.333, result.getAgreement(), 0.01);
     }
+
+    @Test
+    public void documentByDocumentTest() throws Exception
+    {
+        Pair<PairwiseAnnotationResult<CodingAgreementResult>, 
+                PairwiseAnnotationResult<CodingAgreementResult>> agreement = 
+                documentByDocumentTest(sut);
+        
+        for (String[] pair : new String[][] { { "user1", "user2" }, { "user1", "user3" },
+                { "user2", "user3" } }) {
+            CodingAgreementResult expected = agreement.getLeft().getStudy(pair[0], pair[1]);
+            CodingAgreementResult actual = agreement.getRight().getStudy(pair[0], pair[1]);
+            
+            assertEquals(expected.getDiff().getPositions(), actual.getDiff().getPositions());
+            assertEquals(expected.getStudy().getItemCount(), actual.getStudy().getItemCount());
+            for (int i = 0; i < expected.getStudy().getItemCount(); i++) {
+                for (int u = 0; u < 2; u++) {
+                    assertEquals(expected.getStudy().getItem(i).getUnit(u).getCategory(),
+                            actual.getStudy().getItem(i).getUnit(u).getCategory());
+                }
+            }
+            assertEquals(expected.getTotalSetCount(), actual.getTotalSetCount());
+            assertEquals(expected.getIncompleteSetsByPosition().size(),
+                    actual.getIncompleteSetsByPosition().size());
+            assertEquals(expected.getDiffSetCount(), actual.getDiffSetCount());
+            assertEquals(expected.getAgreement(), actual.getAgreement(), 0.000001d);
+        }
+    }
 }
@@ -46,6 +46,7 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreemen
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -295,6 +296,51 @@ public class TwoPairedKappaTest
         System.out.printf("New agreement 1/3: %s%n", agreement13.toString());
     }
 
+    @Test
+    public void testPairwiseDiffDerivedFromThreeUserDiff()
+        throws Exception
+    {
+        Map<User, CAS> userCases = new LinkedHashMap<>();
+        userCases.put(user1, kappatestCas);
+        userCases.put(user2, kappaspandiff);
+        userCases.put(user3, kappaspanarcdiff);
+        
+        List<String> types = asList(POS.class.getName(), Dependency.class.getName());
+        List<? extends DiffAdapter> adapters = asList(POS_DIFF_ADAPTER, DEPENDENCY_DIFF_ADAPTER);
+        CasDiff diff = CasDiff.doDiff(types, adapters, LINK_TARGET_AS_LABEL, convert(userCases));
+        
+        for (String excluded : asList("user1", "user2", "user3")) {
+            Map<String, List<CAS>> pair = convert(userCases);
+            pair.remove(excluded);
+            
+            CasDiff derivedDiff = diff.getDiffForCasGroups(pair.keySet());
+            CasDiff pairDiff = CasDiff.doDiff(types, adapters, LINK_TARGET_AS_LABEL, pair);
+            
+            DiffResult derived = derivedDiff.toResult();
+            DiffResult expected = pairDiff.toResult();
+            assertEquals(expected.getPositions(), derived.getPositions());
+            assertEquals(expected.getDifferingConfigurationSets().keySet(),
+                    derived.getDifferingConfigurationSets().keySet());
+            assertEquals(expected.getIncompleteConfigurationSets().keySet(),
+                    derived.getIncompleteConfigurationSets().keySet());
+            
+            for (String type : asList(POS.class.getName(), Dependency.class.getName())) {
+                String feature = type.equals(POS.class.getName()) ? "PosValue"
+                        : "DependencyType";
+                CodingAgreementResult expectedAgreement = getCohenKappaAgreement(pairDiff, type,
+                        feature, pair);
+                CodingAgreementResult derivedAgreement = getCohenKappaAgreement(derivedDiff,
+                        type, feature, pair);
+                assertEquals(expectedAgreement.getAgreement(), derivedAgreement.getAgreement(),
+                        0.000001d);
+                assertEquals(expectedAgreement.getTotalSetCount(),
+                        derivedAgreement.getTotalSetCount());
+                assertEquals(expectedAgreement.getIrrelevantSets().size(),
+                        derivedAgreement.getIrrelevantSets().size());
+            }
+        }
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
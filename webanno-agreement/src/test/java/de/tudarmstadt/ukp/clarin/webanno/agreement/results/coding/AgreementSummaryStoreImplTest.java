@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.dkpro.statistics.agreement.coding.CodingAnnotationStudy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+public class AgreementSummaryStoreImplTest
+{
+    public @Rule TemporaryFolder repositoryFolder = new TemporaryFolder();
+    
+    private AgreementSummaryStoreImpl sut;
+    private SourceDocument document;
+    private Map<String, Long> versions;
+    private List<CodingAgreementResult> studies;
+    
+    @Before
+    public void setup() throws Exception
+    {
+        CasStorageService casStorageService = mock(CasStorageService.class);
+        when(casStorageService.getAnnotationFolder(any()))
+                .thenReturn(repositoryFolder.getRoot());
+        
+        sut = new AgreementSummaryStoreImpl(casStorageService);
+        
+        document = new SourceDocument();
+        document.setId(1l);
+        document.setName("document");
+        
+        versions = new HashMap<>();
+        versions.put("user1", 1000l);
+        versions.put("user2", -1l);
+        
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        casMap.put("user1", asList(JCasFactory.createText("test").getCas()));
+        casMap.put("user2", asList(JCasFactory.createText("test").getCas()));
+        DiffResult diff = CasDiff.doDiff(asList(POS.class.getName()), asList(POS_DIFF_ADAPTER),
+                LINK_TARGET_AS_LABEL, casMap).toResult();
+        
+        CodingAnnotationStudy study = new CodingAnnotationStudy(2);
+        study.addItem("A", "B");
+        
+        studies = asList(new CodingAgreementResult(POS.class.getName(), "PosValue", diff, study,
+                asList("user1", "user2"), emptyList(), emptyList(), emptyList(), emptyList(),
+                emptyList(), emptyList(), true));
+    }
+    
+    @Test
+    public void thatStoredSummaryCanBeLoaded()
+    {
+        sut.store(document, "key", versions, studies);
+        
+        List<CodingAgreementResult> loaded = sut.load(document, "key", versions).get();
+        
+        assertEquals(1, loaded.size());
+        assertEquals(asList("user1", "user2"), loaded.get(0).getCasGroupIds());
+        assertEquals(1, loaded.get(0).getStudy().getItemCount());
+        assertEquals("B", loaded.get(0).getStudy().getItem(0).getUnit(1).getCategory());
+        assertEquals(1, sut.getHits());
+    }
+    
+    @Test
+    public void thatSummaryIsNotUsedForOtherVersionsOrConfigurations()
+    {
+        sut.store(document, "key", versions, studies);
+        
+        Map<String, Long> newVersions = new HashMap<>(versions);
+        newVersions.put("user2", 2000l);
+        
+        // The summary folder is shared here, so the document ID must be checked as well
+        SourceDocument otherDocument = new SourceDocument();
+        otherDocument.setId(2l);
+        otherDocument.setName("document");
+        
+        assertFalse(sut.load(document, "key", newVersions).isPresent());
+        assertFalse(sut.load(otherDocument, "key", versions).isPresent());
+        assertFalse(sut.load(document, "other", versions).isPresent());
+        assertEquals(3, sut.getMisses());
+    }
+    
+    @Test
+    public void thatInvalidateRemovesSummaries()
+    {
+        sut.store(document, "key", versions, studies);
+        
+        sut.invalidate(document);
+        
+        assertFalse(sut.load(document, "key", versions).isPresent());
+    }
+}
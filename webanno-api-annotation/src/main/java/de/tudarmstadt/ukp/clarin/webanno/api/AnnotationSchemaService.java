@@ -29,6 +29,7 @@ import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.Renderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -421,6 +422,30 @@ public interface AnnotationSchemaService
      */
     TypeSystemDescription getFullProjectTypeSystem(Project aProject, boolean aIncludeInternalTypes)
         throws ResourceInitializationException;
+
+    /**
+     * Creates an empty CAS using the full type system of the project (cf.
+     * {@link #getFullProjectTypeSystem(Project)}). Unlike creating the CAS from the type system
+     * description, this does not compile the type system again for every new CAS.
+     */
+    CAS createProjectCas(Project aProject)
+        throws ResourceInitializationException;
+    
+    /**
+     * Returns the current schema version of the project. The version changes whenever layers,
+     * features or tagsets of the project are created, changed or removed. It can be used to
+     * detect that information derived from the schema needs to be refreshed. The version is only
+     * meaningful while the application is running and must not be persisted.
+     */
+    long getSchemaVersion(Project aProject);
+    
+    /**
+     * Returns an immutable snapshot of the layers, features and tagsets of the project at the
+     * current schema version. The snapshot is shared and is meant for code which only reads the
+     * schema, e.g. for rendering - repeated calls do not access the database until the schema
+     * changes.
+     */
+    ProjectSchema getProjectSchema(Project aProject);
     
     /**
      * Upgrade the CAS to the current project type system. This also compacts the CAS and removes
@@ -492,8 +517,38 @@ public interface AnnotationSchemaService
      */
     boolean upgradeCasIfRequired(Iterable<CAS> aCas, Project aProject)
         throws UIMAException, IOException;
+
+    /**
+     * Checks if the given CASes are compatible with the given type system and upgrades them if
+     * necessary. This variant allows callers which process many CASes in multiple steps to
+     * obtain the project type system (cf. {@link #getFullProjectTypeSystem(Project)}) only once.
+     * <br>
+     * This method can deal with null values in the iterable. It will simply skip them.
+     */
+    boolean upgradeCasIfRequired(Iterable<CAS> aCas, TypeSystemDescription aTargetTypeSystem)
+        throws UIMAException, IOException;
     
+    /**
+     * Returns the adapter for the given layer. The adapter is shared by all callers until the
+     * schema of the project changes and it is based on the layer as it was last saved. Thus, it
+     * must not be silenced (cf. {@link TypeAdapter#silenceEvents()}). Layers which have not been
+     * saved yet get a new adapter on every call.
+     */
     TypeAdapter getAdapter(AnnotationLayer aLayer);
+    
+    /**
+     * Creates a new adapter for the given layer which is not shared with anybody else, e.g. for
+     * bulk operations which need to silence the adapter.
+     */
+    TypeAdapter createAdapter(AnnotationLayer aLayer);
+    
+    /**
+     * Returns the renderer for the given layer. Like the adapters, the renderers are shared until
+     * the schema of the project changes.
+     * 
+     * @see #getAdapter(AnnotationLayer)
+     */
+    Renderer getRenderer(AnnotationLayer aLayer);
 
     /**
      * Performs a CAS upgrade and removes all internal feature structures from the CAS. The 
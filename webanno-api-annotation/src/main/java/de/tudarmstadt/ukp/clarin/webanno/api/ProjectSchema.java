@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+
+/**
+ * Immutable snapshot of the layers, features and tagsets of a project at a particular
+ * {@link AnnotationSchemaService#getSchemaVersion(Project) schema version}. The snapshot is
+ * shared by all users of the project and the entities it contains must not be modified. Code
+ * which edits the schema (e.g. the project settings) should obtain its entities directly from
+ * the {@link AnnotationSchemaService} instead.
+ */
+public class ProjectSchema
+{
+    private final Project project;
+    private final long version;
+    private final List<AnnotationLayer> layers;
+    private final Map<String, AnnotationLayer> layersByName;
+    private final Map<Long, List<AnnotationFeature>> featuresByLayer;
+    private final Map<Long, List<AnnotationLayer>> attachedRelationLayers;
+    private final List<TagSet> tagSets;
+    private final Map<Long, List<Tag>> tagsByTagSet;
+
+    /**
+     * @param aProject
+     *            the project.
+     * @param aVersion
+     *            the schema version the snapshot corresponds to.
+     * @param aLayers
+     *            the layers of the project ordered by UI name.
+     * @param aFeatures
+     *            the features of the project ordered by UI name.
+     * @param aTagSets
+     *            the tagsets of the project ordered by name.
+     * @param aTags
+     *            the tags of all tagsets of the project ordered by name.
+     */
+    public ProjectSchema(Project aProject, long aVersion, List<AnnotationLayer> aLayers,
+            List<AnnotationFeature> aFeatures, List<TagSet> aTagSets, List<Tag> aTags)
+    {
+        project = aProject;
+        version = aVersion;
+        layers = unmodifiableList(new ArrayList<>(aLayers));
+        tagSets = unmodifiableList(new ArrayList<>(aTagSets));
+
+        layersByName = new LinkedHashMap<>();
+        for (AnnotationLayer layer : layers) {
+            layersByName.put(layer.getName(), layer);
+        }
+
+        featuresByLayer = group(aFeatures.stream()
+                .collect(groupingBy(f -> f.getLayer().getId(), toList())));
+        tagsByTagSet = group(aTags.stream()
+                .collect(groupingBy(t -> t.getTagSet().getId(), toList())));
+
+        // Same criteria as AnnotationSchemaService.listAttachedRelationLayers
+        attachedRelationLayers = new LinkedHashMap<>();
+        for (AnnotationLayer layer : layers) {
+            attachedRelationLayers.put(layer.getId(), unmodifiableList(layers.stream()
+                    .filter(rel -> RELATION_TYPE.equals(rel.getType()))
+                    .filter(rel -> isAttachedTo(rel, layer))
+                    .collect(toList())));
+        }
+    }
+
+    private static boolean isAttachedTo(AnnotationLayer aRelationLayer, AnnotationLayer aLayer)
+    {
+        if (aRelationLayer.getAttachType() != null
+                && Objects.equals(aRelationLayer.getAttachType().getId(), aLayer.getId())) {
+            return true;
+        }
+
+        return aRelationLayer.getAttachFeature() != null
+                && aLayer.getName().equals(aRelationLayer.getAttachFeature().getType());
+    }
+
+    private static <T> Map<Long, List<T>> group(Map<Long, List<T>> aGroups)
+    {
+        Map<Long, List<T>> result = new LinkedHashMap<>();
+        aGroups.forEach((key, value) -> result.put(key, unmodifiableList(value)));
+        return result;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    /**
+     * @return the schema version the snapshot corresponds to.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the layers of the project in the same order as
+     *         {@link AnnotationSchemaService#listAnnotationLayer(Project)}.
+     */
+    public List<AnnotationLayer> getLayers()
+    {
+        return layers;
+    }
+
+    /**
+     * @param aName
+     *            the layer name (i.e. the UIMA type name).
+     * @return the layer with the given name. Unlike
+     *         {@link AnnotationSchemaService#findLayer(Project, String)}, super types are not
+     *         considered.
+     */
+    public Optional<AnnotationLayer> getLayer(String aName)
+    {
+        return Optional.ofNullable(layersByName.get(aName));
+    }
+
+    /**
+     * @return the features of the layer in the same order as
+     *         {@link AnnotationSchemaService#listAnnotationFeature(AnnotationLayer)}.
+     */
+    public List<AnnotationFeature> getFeatures(AnnotationLayer aLayer)
+    {
+        if (aLayer == null || aLayer.getId() == null) {
+            return emptyList();
+        }
+
+        return featuresByLayer.getOrDefault(aLayer.getId(), emptyList());
+    }
+
+    /**
+     * @return the relation layers attached to the given layer in the same order as
+     *         {@link AnnotationSchemaService#listAttachedRelationLayers(AnnotationLayer)}.
+     */
+    public List<AnnotationLayer> getAttachedRelationLayers(AnnotationLayer aLayer)
+    {
+        if (aLayer == null || aLayer.getId() == null) {
+            return emptyList();
+        }
+
+        return attachedRelationLayers.getOrDefault(aLayer.getId(), emptyList());
+    }
+
+    /**
+     * @return the tagsets of the project in the same order as
+     *         {@link AnnotationSchemaService#listTagSets(Project)}.
+     */
+    public List<TagSet> getTagSets()
+    {
+        return tagSets;
+    }
+
+    /**
+     * @return the tags of the tagset in the same order as
+     *         {@link AnnotationSchemaService#listTags(TagSet)}.
+     */
+    public List<Tag> getTags(TagSet aTagSet)
+    {
+        if (aTagSet == null || aTagSet.getId() == null) {
+            return emptyList();
+        }
+
+        return tagsByTagSet.getOrDefault(aTagSet.getId(), emptyList());
+    }
+}
@@ -156,6 +156,7 @@ public class RelationAdapter
         newAnnotation.setFeatureValue(dependentFeature, targetFS);
         newAnnotation.setFeatureValue(governorFeature, originFS);
         cas.addFsToIndexes(newAnnotation);
+        RelationEndpointIndex.relationCreated(cas, type, newAnnotation);
         return newAnnotation;
     }
 
@@ -164,6 +165,7 @@ public class RelationAdapter
     {
         AnnotationFS fs = selectByAddr(aCas, AnnotationFS.class, aVid.getId());
         aCas.removeFsFromIndexes(fs);
+        RelationEndpointIndex.relationDeleted(aCas, getType(aCas, getLayer().getName()), fs);
         publishEvent(new RelationDeletedEvent(this, aDocument, aUsername, getLayer(),
                 fs, getTargetAnnotation(fs), getSourceAnnotation(fs)));
     }
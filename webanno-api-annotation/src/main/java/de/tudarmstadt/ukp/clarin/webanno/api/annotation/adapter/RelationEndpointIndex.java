@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSame;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.fit.util.CasUtil.select;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+
+/**
+ * Index of the relations of a relation layer by their end-points. It allows looking up the
+ * relations attached to a given span without scanning all relations in the CAS.
+ * <p>
+ * Within a request cycle, the index is built once per CAS and layer and then kept up-to-date by
+ * the {@link RelationAdapter} when it creates or deletes relations. If feature structures have
+ * been created or relations have been removed in any other way since, the index is rebuilt the
+ * next time it is accessed. Outside a request cycle, a new index is built on every access.
+ * <p>
+ * Changing the end-points of an existing relation does not allocate new feature structures and
+ * can therefore not be detected. Code re-attaching relations must report this via
+ * {@link #relationUpdated}. Relations which are no longer attached to an end-point are never
+ * returned for it, even if the change has not been reported.
+ */
+public class RelationEndpointIndex
+{
+    private static final MetaDataKey<Map<CAS, Map<String, RelationEndpointIndex>>> INDEXES =
+            new MetaDataKey<Map<CAS, Map<String, RelationEndpointIndex>>>()
+    {
+        private static final long serialVersionUID = -3491547390298766531L;
+    };
+
+    private final Feature sourceFeature;
+    private final Feature targetFeature;
+    private final Map<Integer, List<AnnotationFS>> relationsByEndpoint = new HashMap<>();
+    private final Map<AnnotationFS, List<Integer>> endpointsByRelation = new IdentityHashMap<>();
+    
+    // State of the CAS the index corresponds to
+    private int relationCount;
+    private int lastFsId;
+    
+    private RelationEndpointIndex(CAS aCas, Type aType, Feature aSourceFeature,
+            Feature aTargetFeature)
+    {
+        sourceFeature = aSourceFeature;
+        targetFeature = aTargetFeature;
+        
+        for (AnnotationFS rel : select(aCas, aType)) {
+            add(rel);
+        }
+        
+        relationCount = aCas.getAnnotationIndex(aType).size();
+        lastFsId = ((CASImpl) aCas).getLastUsedFsId();
+    }
+    
+    /**
+     * Obtains the index for the given relation layer in the given CAS.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the relation type.
+     * @param aSourceFeature
+     *            the feature pointing to the source of the relation.
+     * @param aTargetFeature
+     *            the feature pointing to the target of the relation.
+     * @return the index.
+     */
+    public static RelationEndpointIndex get(CAS aCas, Type aType, Feature aSourceFeature,
+            Feature aTargetFeature)
+    {
+        Map<String, RelationEndpointIndex> indexes = getIndexes(aCas);
+        if (indexes == null) {
+            return new RelationEndpointIndex(aCas, aType, aSourceFeature, aTargetFeature);
+        }
+        
+        RelationEndpointIndex index = indexes.get(aType.getName());
+        if (
+                index == null || 
+                !index.sourceFeature.equals(aSourceFeature) ||
+                !index.targetFeature.equals(aTargetFeature) ||
+                !index.isInSync(aCas, aType)
+        ) {
+            index = new RelationEndpointIndex(aCas, aType, aSourceFeature, aTargetFeature);
+            indexes.put(aType.getName(), index);
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Updates the index after a relation has been created and added to the CAS indexes. If the
+     * CAS has been changed otherwise since the index was last used, the index is discarded.
+     */
+    static void relationCreated(CAS aCas, Type aType, AnnotationFS aRelation)
+    {
+        Map<String, RelationEndpointIndex> indexes = getIndexes(aCas);
+        RelationEndpointIndex index = indexes != null ? indexes.get(aType.getName()) : null;
+        if (index == null) {
+            return;
+        }
+        
+        // Creating the relation allocates exactly one new feature structure
+        if (
+                index.relationCount + 1 == aCas.getAnnotationIndex(aType).size() &&
+                index.lastFsId + 1 == getAddr(aRelation)
+        ) {
+            index.add(aRelation);
+            index.relationCount++;
+            index.lastFsId = ((CASImpl) aCas).getLastUsedFsId();
+        }
+        else {
+            indexes.remove(aType.getName());
+        }
+    }
+    
+    /**
+     * Updates the index after a relation has been removed from the CAS indexes. If the CAS has
+     * been changed otherwise since the index was last used, the index is discarded.
+     */
+    static void relationDeleted(CAS aCas, Type aType, AnnotationFS aRelation)
+    {
+        Map<String, RelationEndpointIndex> indexes = getIndexes(aCas);
+        RelationEndpointIndex index = indexes != null ? indexes.get(aType.getName()) : null;
+        if (index == null) {
+            return;
+        }
+        
+        if (
+                index.relationCount - 1 == aCas.getAnnotationIndex(aType).size() &&
+                index.lastFsId == ((CASImpl) aCas).getLastUsedFsId()
+        ) {
+            index.remove(aRelation);
+            index.relationCount--;
+        }
+        else {
+            indexes.remove(aType.getName());
+        }
+    }
+    
+    /**
+     * Updates the index after the source or target of a relation has been changed. The relation
+     * is then indexed under its current end-points.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the relation type.
+     * @param aRelation
+     *            the re-attached relation.
+     */
+    public static void relationUpdated(CAS aCas, Type aType, AnnotationFS aRelation)
+    {
+        Map<String, RelationEndpointIndex> indexes = getIndexes(aCas);
+        RelationEndpointIndex index = indexes != null ? indexes.get(aType.getName()) : null;
+        if (index == null) {
+            return;
+        }
+        
+        if (index.isInSync(aCas, aType)) {
+            index.remove(aRelation);
+            index.add(aRelation);
+        }
+        else {
+            indexes.remove(aType.getName());
+        }
+    }
+    
+    /**
+     * Returns the relations having any of the given feature structures as source or target.
+     * Relations which have been re-attached to other end-points since they were indexed are
+     * skipped.
+     * 
+     * @param aEndpoints
+     *            the end-points. {@code null} values are ignored.
+     * @return the relations attached to the end-points.
+     */
+    public Collection<AnnotationFS> getRelations(FeatureStructure... aEndpoints)
+    {
+        Set<AnnotationFS> relations = new LinkedHashSet<>();
+        for (FeatureStructure endpoint : aEndpoints) {
+            if (endpoint == null) {
+                continue;
+            }
+            
+            for (AnnotationFS rel : relationsByEndpoint.getOrDefault(getAddr(endpoint),
+                    emptyList())) {
+                if (
+                        isSame(rel.getFeatureValue(sourceFeature), endpoint) ||
+                        isSame(rel.getFeatureValue(targetFeature), endpoint)
+                ) {
+                    relations.add(rel);
+                }
+            }
+        }
+        return relations;
+    }
+    
+    private boolean isInSync(CAS aCas, Type aType)
+    {
+        return relationCount == aCas.getAnnotationIndex(aType).size()
+                && lastFsId == ((CASImpl) aCas).getLastUsedFsId();
+    }
+    
+    private void add(AnnotationFS aRelation)
+    {
+        List<Integer> endpoints = new ArrayList<>(2);
+        FeatureStructure sourceFs = aRelation.getFeatureValue(sourceFeature);
+        FeatureStructure targetFs = aRelation.getFeatureValue(targetFeature);
+        if (sourceFs != null) {
+            endpoints.add(getAddr(sourceFs));
+        }
+        if (targetFs != null && !isSame(sourceFs, targetFs)) {
+            endpoints.add(getAddr(targetFs));
+        }
+        
+        for (Integer endpoint : endpoints) {
+            relationsByEndpoint.computeIfAbsent(endpoint, k -> new ArrayList<>()).add(aRelation);
+        }
+        endpointsByRelation.put(aRelation, endpoints);
+    }
+    
+    private void remove(AnnotationFS aRelation)
+    {
+        // Use the end-points under which the relation was indexed - they might have been changed
+        // since
+        List<Integer> endpoints = endpointsByRelation.remove(aRelation);
+        if (endpoints == null) {
+            return;
+        }
+        
+        for (Integer endpoint : endpoints) {
+            List<AnnotationFS> relations = relationsByEndpoint.get(endpoint);
+            relations.removeIf(rel -> rel == aRelation);
+            if (relations.isEmpty()) {
+                relationsByEndpoint.remove(endpoint);
+            }
+        }
+    }
+    
+    private static Map<String, RelationEndpointIndex> getIndexes(CAS aCas)
+    {
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle == null) {
+            return null;
+        }
+        
+        Map<CAS, Map<String, RelationEndpointIndex>> indexes = requestCycle.getMetaData(INDEXES);
+        if (indexes == null) {
+            indexes = new IdentityHashMap<>();
+            requestCycle.setMetaData(INDEXES, indexes);
+        }
+        
+        return indexes.computeIfAbsent(aCas, k -> new HashMap<>());
+    }
+}
@@ -18,13 +18,16 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType.ERROR;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSame;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.ANY_OVERLAP;
 import static java.util.Collections.emptyList;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -69,11 +72,21 @@ public class RelationOverlapBehavior
         final Feature targetFeature = type.getFeatureByBaseName(aAdapter.getTargetFeatureName());
         final Feature sourceFeature = type.getFeatureByBaseName(aAdapter.getSourceFeatureName());
         
+        if (layer.getOverlapMode() == ANY_OVERLAP) {
+            return aRequest;
+        }
+        
+        // Only relations attached to the end-points of the requested relation can overlap or
+        // stack with it
+        final Collection<AnnotationFS> candidates = RelationEndpointIndex
+                .get(cas, type, sourceFeature, targetFeature)
+                .getRelations(aRequest.getOriginFs(), aRequest.getTargetFs());
+        
         switch (layer.getOverlapMode()) {
         case ANY_OVERLAP:
             return aRequest;
         case NO_OVERLAP: {
-            boolean hasAnyOverlapping = select(cas, type).stream()
+            boolean hasAnyOverlapping = candidates.stream()
                 // Check if any of the end-points of the requested relation are already used as
                 // end-points in another relation
                 .filter(rel -> overlapping(aRequest, rel, sourceFeature, targetFeature))
@@ -87,7 +100,7 @@ public class RelationOverlapBehavior
             break;
         }
         case OVERLAP_ONLY: {
-            boolean hasStacking = select(cas, type).stream()
+            boolean hasStacking = candidates.stream()
                 // Check if the requested relation has the same end-points as an existing
                 // relation
                 .filter(rel -> stacking(aRequest, rel, sourceFeature, targetFeature))
@@ -101,7 +114,7 @@ public class RelationOverlapBehavior
             break;
         }
         case STACKING_ONLY: {
-            boolean hasOverlapping = select(cas, type).stream()
+            boolean hasOverlapping = candidates.stream()
                 .filter(rel -> 
                     overlapping(aRequest, rel, sourceFeature, targetFeature) &&
                     !stacking(aRequest, rel, sourceFeature, targetFeature))
@@ -165,11 +178,6 @@ public class RelationOverlapBehavior
         }
         case OVERLAP_ONLY:
             // Here, we must find all stacked relations because they are not permitted.
-            // We go through all relations based on the their offsets. Stacked relations must have
-            // the same offsets (at least if we consider relations as having a direction, i.e. 
-            // that a relation A->B does not count as stacked on a relation B->A). But since there 
-            // can be multiple relations going out from the same sourceFS, we need to consider all 
-            // of them for potential stacking.
             stackingRelations(sortedRelations, sourceFeature, targetFeature)
                     .forEach(fs -> aResponse
                             .add(new VComment(new VID(fs), ERROR, "Stacking is not permitted.")));
@@ -216,11 +224,6 @@ public class RelationOverlapBehavior
             break;
         case OVERLAP_ONLY:
             // Here, we must find all stacked relations because they are not permitted.
-            // We go through all relations based on the their offsets. Stacked relations must have
-            // the same offsets (at least if we consider relations as having a direction, i.e. 
-            // that a relation A->B does not count as stacked on a relation B->A). But since there 
-            // can be multiple relations going out from the same sourceFS, we need to consider all 
-            // of them for potential stacking.
             stackingRelations(select(aCas, type), sourceFeature, targetFeature)
                     .forEach(fs -> messages.add(Pair.of(LogMessage.error(this,
                             "Stacked relation at [%d-%d]", fs.getBegin(), fs.getEnd()), fs)));
@@ -230,94 +233,82 @@ public class RelationOverlapBehavior
         return messages;
     }
     
-    private void overlappingOrStackingRelations(Collection<AnnotationFS> aRelations,
+    void overlappingOrStackingRelations(Collection<AnnotationFS> aRelations,
             Feature sourceFeature, Feature targetFeature, Collection<AnnotationFS> aStacking,
             Collection<AnnotationFS> aOverlapping)
     {
-        for (AnnotationFS rel1 : aRelations) {
-            for (AnnotationFS rel2 : aRelations) {
-                if (rel1.equals(rel2)) {
-                    continue;
-                }
-                
-                if (stacking(rel1, rel2, sourceFeature, targetFeature)) {
-                    aStacking.add(rel1);
-                    aStacking.add(rel2);
-                }
-                else if (overlapping(rel1, rel2, sourceFeature, targetFeature)) {
-                    aOverlapping.add(rel1);
-                    aOverlapping.add(rel2);
-                }
-            }
-        }
+        // Two relations are either stacking or overlapping, so the relations overlapping any
+        // relation are exactly those overlapping a relation which they are not stacked with
+        aStacking.addAll(stackingRelations(aRelations, sourceFeature, targetFeature));
+        aOverlapping.addAll(
+                overlappingNonStackingRelations(aRelations, sourceFeature, targetFeature));
     }
     
-    private Set<AnnotationFS> overlappingNonStackingRelations(Collection<AnnotationFS> aRelations,
+    Set<AnnotationFS> overlappingNonStackingRelations(Collection<AnnotationFS> aRelations,
             Feature sourceFeature, Feature targetFeature)
     {
+        // Relations overlap if they share an end-point, so we only need to compare the relations
+        // attached to the same end-point
+        Map<Integer, List<AnnotationFS>> relationsByEndpoint = new HashMap<>();
+        for (AnnotationFS rel : aRelations) {
+            FeatureStructure sourceFs = rel.getFeatureValue(sourceFeature);
+            FeatureStructure targetFs = rel.getFeatureValue(targetFeature);
+            if (sourceFs != null) {
+                relationsByEndpoint.computeIfAbsent(getAddr(sourceFs), k -> new ArrayList<>())
+                        .add(rel);
+            }
+            if (targetFs != null && !isSame(sourceFs, targetFs)) {
+                relationsByEndpoint.computeIfAbsent(getAddr(targetFs), k -> new ArrayList<>())
+                        .add(rel);
+            }
+        }
+        
         Set<AnnotationFS> overlapping = new HashSet<>();
-        for (AnnotationFS rel1 : aRelations) {
-            for (AnnotationFS rel2 : aRelations) {
-                if (rel1.equals(rel2)) {
-                    continue;
-                }
-                 
-                if (
-                        overlapping(rel1, rel2, sourceFeature, targetFeature) && 
-                        !stacking(rel1, rel2, sourceFeature, targetFeature)
-                ) {
-                    overlapping.add(rel1);
-                    overlapping.add(rel2);
-                }
+        for (List<AnnotationFS> relations : relationsByEndpoint.values()) {
+            // If all relations at the end-point are stacked on the first one, they are all
+            // stacked on each other. Otherwise, each of them overlaps a relation it is not
+            // stacked with: either the first one or one which is not stacked on the first one.
+            AnnotationFS firstRel = relations.get(0);
+            boolean allStacked = relations.stream()
+                    .allMatch(rel -> rel == firstRel
+                            || stacking(firstRel, rel, sourceFeature, targetFeature));
+            if (!allStacked) {
+                overlapping.addAll(relations);
             }
         }
         return overlapping;
     }
     
-    private Set<AnnotationFS> stackingRelations(Collection<AnnotationFS> aRelations,
+    Set<AnnotationFS> stackingRelations(Collection<AnnotationFS> aRelations,
             Feature sourceFeature, Feature targetFeature)
     {
         // Here, we must find all stacked relations because they are not permitted.
-        // We go through all relations based on the their offsets. Stacked relations must have
-        // the same offsets (at least if we consider relations as having a direction, i.e. 
-        // that a relation A->B does not count as stacked on a relation B->A). But since there 
-        // can be multiple relations going out from the same sourceFS, we need to consider all 
-        // of them for potential stacking.
-        Set<AnnotationFS> stacking = new HashSet<>();
-        List<AnnotationFS> candidates = new ArrayList<>();
+        // Stacked relations must have the same end-points (at least if we consider relations as
+        // having a direction, i.e. that a relation A->B does not count as stacked on a relation
+        // B->A). But since there can be multiple relations going out from the same sourceFS, we
+        // group the relations by source and target.
+        Map<Pair<Integer, Integer>, List<AnnotationFS>> relationsByEndpoints = new HashMap<>();
         for (AnnotationFS fs : aRelations) {
-            AnnotationFS sourceFs = (AnnotationFS) fs.getFeatureValue(sourceFeature);
-            AnnotationFS targetFs = (AnnotationFS) fs.getFeatureValue(targetFeature);
+            FeatureStructure sourceFs = fs.getFeatureValue(sourceFeature);
+            FeatureStructure targetFs = fs.getFeatureValue(targetFeature);
             
-            // If there are no stacking candidates at the current position yet, collect the
-            // first
-            if (candidates.isEmpty()) {
-                candidates.add(fs);
-            }
-            // If the current FS is at a different position from the current candidates, clear 
-            // the candidates list and add the current one as the first new candidate
-            else if (
-                    candidates.get(0).getBegin() != fs.getBegin() || 
-                    candidates.get(0).getEnd() != fs.getEnd()
-            ) {
-                candidates.clear();
-                candidates.add(fs);
-            }
-            // If there are already stacking candidates, check if the current FS is stacking on 
-            // any of them. If yes, generate an error message
-            else {
-                for (AnnotationFS cand : candidates) {
-                    FeatureStructure candidateOriginFS = cand.getFeatureValue(sourceFeature);
-                    FeatureStructure candidateTargetFS = cand.getFeatureValue(targetFeature);
-
-                    if (stacking(candidateOriginFS, candidateTargetFS, sourceFs, targetFs)) {
-                        stacking.add(fs);
-                        stacking.add(cand);
-                    }
-                }
+            // Relations with a missing end-point cannot be stacked
+            if (sourceFs == null || targetFs == null) {
+                continue;
             }
+            
+            relationsByEndpoints
+                    .computeIfAbsent(Pair.of(getAddr(sourceFs), getAddr(targetFs)),
+                        k -> new ArrayList<>())
+                    .add(fs);
         }
         
+        Set<AnnotationFS> stacking = new HashSet<>();
+        for (List<AnnotationFS> relations : relationsByEndpoints.values()) {
+            if (relations.size() > 1) {
+                stacking.addAll(relations);
+            }
+        }
         return stacking;
     }
     
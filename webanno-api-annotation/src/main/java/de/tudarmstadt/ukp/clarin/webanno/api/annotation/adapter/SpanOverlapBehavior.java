@@ -19,6 +19,8 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType.ERROR;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
+import static java.lang.Math.max;
+import static java.util.Comparator.comparingInt;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectAt;
@@ -193,46 +195,106 @@ public class SpanOverlapBehavior
         return messages;
     }
 
-    private void overlappingOrStackingSpans(Collection<AnnotationFS> aSpans,
+    void overlappingOrStackingSpans(Collection<AnnotationFS> aSpans,
             Collection<AnnotationFS> aStacking, Collection<AnnotationFS> aOverlapping)
     {
-        for (AnnotationFS span1 : aSpans) {
-            for (AnnotationFS span2 : aSpans) {
-                if (span1.equals(span2)) {
-                    continue;
-                }
-                
-                if (stacking(span1, span2)) {
-                    aStacking.add(span1);
-                    aStacking.add(span2);
-                }
-                else if (overlapping(span1, span2)) {
-                    aOverlapping.add(span1);
-                    aOverlapping.add(span2);
-                }
-            }
-        }
+        // Two spans are either stacking or overlapping, so the spans overlapping any span are
+        // exactly those overlapping a span which they are not stacked with
+        aStacking.addAll(stackingSpans(aSpans));
+        aOverlapping.addAll(overlappingNonStackingSpans(aSpans));
     }
     
-    private Set<AnnotationFS> overlappingNonStackingSpans(Collection<AnnotationFS> aSpans)
+    Set<AnnotationFS> overlappingNonStackingSpans(Collection<AnnotationFS> aSpans)
     {
-        Set<AnnotationFS> overlapping = new HashSet<>();
-        for (AnnotationFS fs1 : aSpans) {
-            for (AnnotationFS fs2 : aSpans) {
-                if (fs1.equals(fs2)) {
-                    continue;
-                }
-                
-                if (overlapping(fs1, fs2) && !stacking(fs1, fs2)) {
-                    overlapping.add(fs1);
-                    overlapping.add(fs2);
-                }
+        List<AnnotationFS> spans = new ArrayList<>(aSpans);
+        spans.sort(comparingInt(AnnotationFS::getBegin).thenComparingInt(AnnotationFS::getEnd));
+        
+        // Stacked spans overlap exactly the same other spans, so we collapse them into a single
+        // interval and remember the index of the first span of each interval. Since the spans
+        // are sorted, the intervals are sorted by begin and end as well.
+        int[] first = new int[spans.size() + 1];
+        int intervals = 0;
+        for (int i = 0; i < spans.size(); i++) {
+            if (i == 0 || !stacking(spans.get(i - 1), spans.get(i))) {
+                first[intervals++] = i;
+            }
+        }
+        first[intervals] = spans.size();
+        
+        // Zero-width spans are handled separately because they overlap any span that covers
+        // them or that begins or ends at their position
+        int[] nonEmpty = new int[intervals];
+        int nonEmptyCount = 0;
+        int[] empty = new int[intervals];
+        int emptyCount = 0;
+        for (int n = 0; n < intervals; n++) {
+            AnnotationFS fs = spans.get(first[n]);
+            if (fs.getBegin() < fs.getEnd()) {
+                nonEmpty[nonEmptyCount++] = n;
+            }
+            else {
+                empty[emptyCount++] = n;
+            }
+        }
+        
+        boolean[] overlapping = new boolean[intervals];
+        
+        // Sweep over the non-empty intervals. An interval overlaps a preceding interval if it
+        // begins before the maximum end of the preceding intervals. It overlaps a following
+        // interval if the next interval begins before its end - following intervals do not
+        // begin earlier than the next one.
+        int maxEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < nonEmptyCount; i++) {
+            AnnotationFS fs = spans.get(first[nonEmpty[i]]);
+            if (fs.getBegin() < maxEnd) {
+                overlapping[nonEmpty[i]] = true;
+            }
+            if (i + 1 < nonEmptyCount
+                    && spans.get(first[nonEmpty[i + 1]]).getBegin() < fs.getEnd()) {
+                overlapping[nonEmpty[i]] = true;
+            }
+            maxEnd = max(maxEnd, fs.getEnd());
+        }
+        
+        // A zero-width interval at position p overlaps a non-empty interval [b, e] iff
+        // b <= p <= e. Both lists are sorted by begin, so we can check this by advancing through
+        // them in parallel.
+        int next = 0;
+        maxEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < emptyCount; i++) {
+            int pos = spans.get(first[empty[i]]).getBegin();
+            while (next < nonEmptyCount && spans.get(first[nonEmpty[next]]).getBegin() <= pos) {
+                maxEnd = max(maxEnd, spans.get(first[nonEmpty[next]]).getEnd());
+                next++;
+            }
+            if (maxEnd >= pos) {
+                overlapping[empty[i]] = true;
+            }
+        }
+        
+        int nextEmpty = 0;
+        for (int i = 0; i < nonEmptyCount; i++) {
+            AnnotationFS fs = spans.get(first[nonEmpty[i]]);
+            while (nextEmpty < emptyCount
+                    && spans.get(first[empty[nextEmpty]]).getBegin() < fs.getBegin()) {
+                nextEmpty++;
+            }
+            if (nextEmpty < emptyCount
+                    && spans.get(first[empty[nextEmpty]]).getBegin() <= fs.getEnd()) {
+                overlapping[nonEmpty[i]] = true;
+            }
+        }
+        
+        Set<AnnotationFS> result = new HashSet<>();
+        for (int n = 0; n < intervals; n++) {
+            if (overlapping[n]) {
+                result.addAll(spans.subList(first[n], first[n + 1]));
             }
         }
-        return overlapping;
+        return result;
     }
 
-    private Set<AnnotationFS> stackingSpans(Collection<AnnotationFS> aSpans)
+    Set<AnnotationFS> stackingSpans(Collection<AnnotationFS> aSpans)
     {
         // Since the annotations are sorted, we can easily find stacked annotation by scanning
         // through the entire list and checking if two adjacent annotations have the same
@@ -43,6 +43,14 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
  * the layer, e.g. creating annotations, deleting annotations, setting and getting feature values.
  * Most actions are defined by implementations of this interface such as {@link SpanAdapter},
  * {@link RelationAdapter} or {@link ChainAdapter}.
+ * <p>
+ * <b>Thread-safety:</b> the adapters obtained via {@link AnnotationSchemaService#getAdapter} are
+ * shared by all requests until the schema of the project changes. Implementations must therefore
+ * not keep any state which depends on the CAS, document or user being processed - these are
+ * passed to every method instead. The adapter may be used concurrently on different CASes, but
+ * as usual, a single CAS must not be modified concurrently. The only mutating operation is
+ * {@link #silenceEvents()} which must only be called on adapters obtained via
+ * {@link AnnotationSchemaService#createAdapter}.
  */
 public interface TypeAdapter
 {
@@ -192,7 +200,10 @@ public interface TypeAdapter
     
     /**
      * Disable the adapter from dispatching any events. This is useful for backend bulk operations
-     * that should not be tracked in detail.
+     * that should not be tracked in detail. Since this affects all users of the adapter, it must
+     * not be called on a shared adapter.
+     * 
+     * @see AnnotationSchemaService#createAdapter
      */
     void silenceEvents();
 }
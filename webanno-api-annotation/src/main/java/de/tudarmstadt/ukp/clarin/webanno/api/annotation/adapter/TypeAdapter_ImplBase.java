@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectFsByAddr;
+import static java.util.Collections.unmodifiableMap;
 
 import java.util.Collection;
 import java.util.List;
@@ -49,9 +50,10 @@ public abstract class TypeAdapter_ImplBase
     
     private final Supplier<Collection<AnnotationFeature>> featureSupplier;
 
-    private Map<String, AnnotationFeature> features;
+    // Initialized lazily and not modified afterwards - adapters may be shared across threads
+    private volatile Map<String, AnnotationFeature> features;
 
-    private ApplicationEventPublisher applicationEventPublisher;
+    private volatile ApplicationEventPublisher applicationEventPublisher;
 
     /**
      * Constructor.
@@ -89,16 +91,19 @@ public abstract class TypeAdapter_ImplBase
     @Override
     public Collection<AnnotationFeature> listFeatures()
     {
-        if (features == null) {
+        Map<String, AnnotationFeature> result = features;
+        if (result == null) {
             // Using a sorted map here so we have reliable positions in the map when iterating. We
             // use these positions to remember the armed slots!
-            features = new TreeMap<>();
+            result = new TreeMap<>();
             for (AnnotationFeature f : featureSupplier.get()) {
-                features.put(f.getName(), f);
+                result.put(f.getName(), f);
             }
+            result = unmodifiableMap(result);
+            features = result;
         }
         
-        return features.values();
+        return result.values();
     }
     
     @Override
@@ -203,7 +203,8 @@ public abstract class ColoringStrategy
 
     private static boolean hasLinkFeature(AnnotationSchemaService aService, AnnotationLayer aLayer)
     {
-        for (AnnotationFeature feature : aService.listAnnotationFeature(aLayer)) {
+        for (AnnotationFeature feature : aService.getProjectSchema(aLayer.getProject())
+                .getFeatures(aLayer)) {
             if (!LinkMode.NONE.equals(feature.getLinkMode())) {
                 return true;
             }
@@ -19,10 +19,10 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.Validate;
@@ -47,7 +47,7 @@ public class FeatureSupportRegistryImpl
     
     private List<FeatureSupport> featureSupports;
     
-    private final Map<Long, FeatureSupport> supportCache = new HashMap<>();
+    private final Map<Long, FeatureSupport> supportCache = new ConcurrentHashMap<>();
 
     public FeatureSupportRegistryImpl(
             @Lazy @Autowired(required = false) List<FeatureSupport> aFeatureSupports)
@@ -73,7 +73,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.event.FeatureEditorValueChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.event.LinkFeatureDeletedEvent;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.FeatureState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
@@ -99,7 +98,6 @@ public class LinkFeatureEditor
 
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean FeatureSupportRegistry featureSupportRegistry;
-    private @SpringBean LayerSupportRegistry layerSupportRegistry;
 
     private WebMarkupContainer content;
 
@@ -172,8 +170,7 @@ public class LinkFeatureEditor
                                 annotationService.findLayer(state.getProject(),  fs);
                         TypeAdapter adapter =
                                 annotationService.getAdapter(layer);
-                        Renderer renderer =
-                                layerSupportRegistry.getLayerSupport(layer).getRenderer(layer);
+                        Renderer renderer = annotationService.getRenderer(layer);
                         List<AnnotationFeature> features =
                                 annotationService.listAnnotationFeature(layer);
                         Map<String, String> renderedFeatures =
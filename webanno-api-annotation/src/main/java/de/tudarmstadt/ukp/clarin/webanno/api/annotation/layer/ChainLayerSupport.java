@@ -96,7 +96,7 @@ public class ChainLayerSupport
     public ChainAdapter createAdapter(AnnotationLayer aLayer)
     {
         ChainAdapter adapter = new ChainAdapter(featureSupportRegistry, eventPublisher, aLayer,
-            () -> schemaService.listAnnotationFeature(aLayer),
+            () -> schemaService.getProjectSchema(aLayer.getProject()).getFeatures(aLayer),
             layerBehaviorsRegistry.getLayerBehaviors(this, SpanLayerBehavior.class));
 
         return adapter;
@@ -19,10 +19,10 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.ClassUtils;
 import org.slf4j.Logger;
@@ -46,7 +46,7 @@ public class LayerSupportRegistryImpl
     
     private List<LayerSupport> layerSupports;
     
-    private final Map<Long, LayerSupport<?>> supportCache = new HashMap<>();
+    private final Map<Long, LayerSupport<?>> supportCache = new ConcurrentHashMap<>();
 
     public LayerSupportRegistryImpl(
             @Lazy @Autowired(required = false) List<LayerSupport> aLayerSupports)
@@ -100,7 +100,7 @@ public class RelationLayerSupport
     {
         RelationAdapter adapter = new RelationAdapter(featureSupportRegistry, eventPublisher,
             aLayer, FEAT_REL_TARGET, FEAT_REL_SOURCE,
-            () -> schemaService.listAnnotationFeature(aLayer),
+            () -> schemaService.getProjectSchema(aLayer.getProject()).getFeatures(aLayer),
             layerBehaviorsRegistry.getLayerBehaviors(this, RelationLayerBehavior.class));
 
         return adapter;
@@ -94,7 +94,7 @@ public class SpanLayerSupport
     public SpanAdapter createAdapter(AnnotationLayer aLayer)
     {
         SpanAdapter adapter = new SpanAdapter(featureSupportRegistry, eventPublisher, aLayer,
-            () -> schemaService.listAnnotationFeature(aLayer),
+            () -> schemaService.getProjectSchema(aLayer.getProject()).getFeatures(aLayer),
             layerBehaviorsRegistry.getLayerBehaviors(this, SpanLayerBehavior.class));
         
         return adapter;
@@ -24,7 +24,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -33,13 +32,10 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 public class PreRendererImpl implements PreRenderer
 {
     private final AnnotationSchemaService annotationService;
-    private final LayerSupportRegistry layerSupportRegistry;
 
     @Autowired
-    public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
-            AnnotationSchemaService aAnnotationService)
+    public PreRendererImpl(AnnotationSchemaService aAnnotationService)
     {
-        layerSupportRegistry = aLayerSupportRegistry;
         annotationService = aAnnotationService;
     }
     
@@ -49,8 +45,9 @@ public class PreRendererImpl implements PreRenderer
     {
         // Render (custom) layers
         for (AnnotationLayer layer : aLayers) {
-            List<AnnotationFeature> features = annotationService.listAnnotationFeature(layer);
-            Renderer renderer = layerSupportRegistry.getLayerSupport(layer).getRenderer(layer);
+            List<AnnotationFeature> features = annotationService
+                    .getProjectSchema(layer.getProject()).getFeatures(layer);
+            Renderer renderer = annotationService.getRenderer(layer);
             renderer.render(aCas, features, aResponse, windowBeginOffset, windowEndOffset);
         }
     }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
+
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Benchmarks the overlap behaviors on synthetic documents of 10k to 500k annotations and checks
+ * that the time needed to detect overlapping and stacked annotations grows near-linearly with
+ * the number of annotations. Each document contains one span and one relation per token, with a
+ * few overlapping and stacked annotations mixed in.
+ */
+public class OverlapBehaviorScalingTest
+{
+    private static final int[] SIZES = { 10_000, 100_000, 500_000 };
+    private static final int ROUNDS = 5;
+    
+    // A pairwise comparison would grow 10 times faster than linear from 10k to 100k annotations
+    // and 50 times faster up to 500k. This leaves ample room for cache effects and noise.
+    private static final double MAX_GROWTH_OVER_LINEAR = 5.0;
+    
+    private final SpanOverlapBehavior spanBehavior = new SpanOverlapBehavior();
+    private final RelationOverlapBehavior relationBehavior = new RelationOverlapBehavior();
+    
+    @Test
+    public void thatOverlapDetectionScalesNearLinearly() throws Exception
+    {
+        System.out.printf("%12s %12s %14s %14s%n", "annotations", "time (ms)", "overlapping",
+                "stacking");
+        
+        double baseTimePerAnnotation = 0;
+        for (int size : SIZES) {
+            CAS cas = createSyntheticCas(size).getCas();
+            
+            // Warm up such that the smallest size is not penalized by JIT compilation
+            measure(cas);
+            
+            long time = Long.MAX_VALUE;
+            Result result = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                result = measure(cas);
+                time = Math.min(time, System.nanoTime() - start);
+            }
+            
+            System.out.printf("%12d %12d %14d %14d%n", size, time / 1_000_000,
+                    result.overlapping.size(), result.stacking.size());
+            
+            assertThat(result.overlapping).isNotEmpty();
+            assertThat(result.stacking).isNotEmpty();
+            
+            double timePerAnnotation = (double) time / size;
+            if (baseTimePerAnnotation == 0) {
+                baseTimePerAnnotation = timePerAnnotation;
+            }
+            else {
+                assertThat(timePerAnnotation)
+                        .as("time per annotation for %d annotations", size)
+                        .isLessThan(baseTimePerAnnotation * MAX_GROWTH_OVER_LINEAR);
+            }
+        }
+    }
+    
+    private Result measure(CAS aCas)
+    {
+        Collection<AnnotationFS> spans = select(aCas, getType(aCas, NamedEntity.class));
+        Type depType = getType(aCas, Dependency.class);
+        Feature sourceFeature = depType.getFeatureByBaseName("Governor");
+        Feature targetFeature = depType.getFeatureByBaseName("Dependent");
+        Collection<AnnotationFS> relations = select(aCas, depType);
+        
+        Result result = new Result();
+        spanBehavior.overlappingOrStackingSpans(spans, result.stacking, result.overlapping);
+        relationBehavior.overlappingOrStackingRelations(relations, sourceFeature, targetFeature,
+                result.stacking, result.overlapping);
+        return result;
+    }
+    
+    private static JCas createSyntheticCas(int aAnnotations) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        
+        int tokenCount = aAnnotations / 2;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokenCount; i++) {
+            text.append("token ");
+        }
+        jcas.setDocumentText(text.toString());
+        
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = new Token(jcas, i * 6, i * 6 + 5);
+            token.addToIndexes();
+            tokens.add(token);
+        }
+        
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = tokens.get(i);
+            
+            // Every 250th span is stacked on the previous one and every 100th span overlaps
+            // the next one
+            int begin = token.getBegin();
+            int end = token.getEnd();
+            if (i % 250 == 249) {
+                begin = tokens.get(i - 1).getBegin();
+                end = tokens.get(i - 1).getEnd();
+            }
+            else if (i % 100 == 99 && i + 1 < tokenCount) {
+                end = tokens.get(i + 1).getEnd();
+            }
+            new NamedEntity(jcas, begin, end).addToIndexes();
+            
+            // Each token depends on its predecessor, i.e. adjacent relations share an end-point
+            // and every 250th relation is stacked
+            Token governor = tokens.get(i == 0 ? 0 : i % 250 == 249 ? i - 2 : i - 1);
+            Token dependent = i % 250 == 249 ? tokens.get(i - 1) : token;
+            Dependency dep = new Dependency(jcas, dependent.getBegin(), dependent.getEnd());
+            dep.setGovernor(governor);
+            dep.setDependent(dependent);
+            dep.addToIndexes();
+        }
+        
+        return jcas;
+    }
+    
+    private static class Result
+    {
+        private final Set<AnnotationFS> stacking = new HashSet<>();
+        private final Set<AnnotationFS> overlapping = new HashSet<>();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
+
+import static org.apache.commons.lang3.StringUtils.repeat;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Checks the overlap and stacking detection of the overlap behaviors against a pairwise
+ * comparison of all annotations on randomly generated documents.
+ */
+public class OverlapBehaviorTest
+{
+    private static final int ROUNDS = 200;
+    private static final int TEXT_LENGTH = 40;
+    
+    private JCas jcas;
+    private Random rnd;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        rnd = new Random(0);
+    }
+    
+    @Test
+    public void thatSpanOverlapDetectionMatchesPairwiseComparison()
+    {
+        SpanOverlapBehavior sut = new SpanOverlapBehavior();
+        
+        for (int round = 0; round < ROUNDS; round++) {
+            jcas.reset();
+            jcas.setDocumentText(repeat('x', TEXT_LENGTH));
+            
+            int count = rnd.nextInt(30);
+            for (int i = 0; i < count; i++) {
+                // Many short and zero-width spans to get plenty of stacking and touching spans
+                int begin = rnd.nextInt(TEXT_LENGTH);
+                int end = Math.min(TEXT_LENGTH, begin + rnd.nextInt(6));
+                new NamedEntity(jcas, begin, end).addToIndexes();
+            }
+            
+            CAS cas = jcas.getCas();
+            Collection<AnnotationFS> spans = select(cas, getType(cas, NamedEntity.class));
+            
+            Set<AnnotationFS> expectedStacking = new HashSet<>();
+            Set<AnnotationFS> expectedOverlapping = new HashSet<>();
+            for (AnnotationFS span1 : spans) {
+                for (AnnotationFS span2 : spans) {
+                    if (span1.equals(span2)) {
+                        continue;
+                    }
+                    
+                    if (sut.stacking(span1, span2)) {
+                        expectedStacking.add(span1);
+                    }
+                    else if (sut.overlapping(span1, span2) || sut.overlapping(span2, span1)) {
+                        expectedOverlapping.add(span1);
+                    }
+                }
+            }
+            
+            Set<AnnotationFS> stacking = new HashSet<>();
+            Set<AnnotationFS> overlapping = new HashSet<>();
+            sut.overlappingOrStackingSpans(spans, stacking, overlapping);
+            
+            assertThat(stacking).containsExactlyInAnyOrderElementsOf(expectedStacking);
+            assertThat(overlapping).containsExactlyInAnyOrderElementsOf(expectedOverlapping);
+            assertThat(sut.stackingSpans(spans))
+                    .containsExactlyInAnyOrderElementsOf(expectedStacking);
+            assertThat(sut.overlappingNonStackingSpans(spans))
+                    .containsExactlyInAnyOrderElementsOf(expectedOverlapping);
+        }
+    }
+    
+    @Test
+    public void thatRelationOverlapDetectionMatchesPairwiseComparison()
+    {
+        RelationOverlapBehavior sut = new RelationOverlapBehavior();
+        
+        for (int round = 0; round < ROUNDS; round++) {
+            jcas.reset();
+            jcas.setDocumentText(repeat("x ", TEXT_LENGTH / 2));
+            
+            List<Token> tokens = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Token token = new Token(jcas, i * 2, i * 2 + 1);
+                token.addToIndexes();
+                tokens.add(token);
+            }
+            
+            int count = rnd.nextInt(20);
+            for (int i = 0; i < count; i++) {
+                // Include relations with missing end-points and relations pointing to themselves
+                Token governor = rnd.nextInt(10) == 0 ? null : tokens.get(rnd.nextInt(8));
+                Token dependent = rnd.nextInt(10) == 0 ? null : tokens.get(rnd.nextInt(8));
+                Dependency dep = new Dependency(jcas);
+                if (dependent != null) {
+                    dep.setBegin(dependent.getBegin());
+                    dep.setEnd(dependent.getEnd());
+                }
+                dep.setGovernor(governor);
+                dep.setDependent(dependent);
+                dep.addToIndexes();
+            }
+            
+            CAS cas = jcas.getCas();
+            Type type = getType(cas, Dependency.class);
+            Feature sourceFeature = type.getFeatureByBaseName("Governor");
+            Feature targetFeature = type.getFeatureByBaseName("Dependent");
+            Collection<AnnotationFS> relations = select(cas, type);
+            
+            Set<AnnotationFS> expectedStacking = new HashSet<>();
+            Set<AnnotationFS> expectedOverlapping = new HashSet<>();
+            for (AnnotationFS rel1 : relations) {
+                for (AnnotationFS rel2 : relations) {
+                    if (rel1.equals(rel2)) {
+                        continue;
+                    }
+                    
+                    if (RelationOverlapBehavior.stacking(rel1, rel2, sourceFeature,
+                            targetFeature)) {
+                        expectedStacking.add(rel1);
+                    }
+                    else if (RelationOverlapBehavior.overlapping(rel1, rel2, sourceFeature,
+                            targetFeature)) {
+                        expectedOverlapping.add(rel1);
+                    }
+                }
+            }
+            
+            Set<AnnotationFS> stacking = new HashSet<>();
+            Set<AnnotationFS> overlapping = new HashSet<>();
+            sut.overlappingOrStackingRelations(relations, sourceFeature, targetFeature, stacking,
+                    overlapping);
+            
+            assertThat(stacking).containsExactlyInAnyOrderElementsOf(expectedStacking);
+            assertThat(overlapping).containsExactlyInAnyOrderElementsOf(expectedOverlapping);
+            assertThat(sut.stackingRelations(relations, sourceFeature, targetFeature))
+                    .containsExactlyInAnyOrderElementsOf(expectedStacking);
+            assertThat(sut.overlappingNonStackingRelations(relations, sourceFeature,
+                    targetFeature)).containsExactlyInAnyOrderElementsOf(expectedOverlapping);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_TARGET;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.request.IExceptionMapper;
+import org.apache.wicket.request.IRequestMapper;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.cycle.RequestCycleContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class RelationEndpointIndexTest
+{
+    private JCas jcas;
+    private CAS cas;
+    private Type type;
+    private Feature sourceFeature;
+    private Feature targetFeature;
+    private List<Token> tokens;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        cas = jcas.getCas();
+        
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is a test .");
+        tokens = new ArrayList<>(select(jcas, Token.class));
+        
+        type = cas.getTypeSystem().getType(Dependency.class.getName());
+        sourceFeature = type.getFeatureByBaseName(FEAT_REL_SOURCE);
+        targetFeature = type.getFeatureByBaseName(FEAT_REL_TARGET);
+        
+        // The index is only retained within a request cycle
+        ThreadContext.setRequestCycle(new RequestCycle(new RequestCycleContext(
+                mock(Request.class), mock(Response.class), mock(IRequestMapper.class),
+                mock(IExceptionMapper.class))));
+    }
+    
+    @After
+    public void tearDown()
+    {
+        ThreadContext.detach();
+    }
+    
+    @Test
+    public void thatCreatedRelationIsAddedToIndex()
+    {
+        RelationEndpointIndex sut = getIndex();
+        
+        Dependency dep = createRelation(tokens.get(0), tokens.get(1));
+        RelationEndpointIndex.relationCreated(cas, type, dep);
+        
+        assertThat(getIndex()).isSameAs(sut);
+        assertThat(sut.getRelations(tokens.get(0))).containsExactly(dep);
+        assertThat(sut.getRelations(tokens.get(1))).containsExactly(dep);
+        assertThat(sut.getRelations(tokens.get(2))).isEmpty();
+    }
+    
+    @Test
+    public void thatDeletedRelationIsRemovedFromIndex()
+    {
+        Dependency dep1 = createRelation(tokens.get(0), tokens.get(1));
+        Dependency dep2 = createRelation(tokens.get(1), tokens.get(2));
+        
+        RelationEndpointIndex sut = getIndex();
+        assertThat(sut.getRelations(tokens.get(1))).containsExactly(dep1, dep2);
+        
+        dep1.removeFromIndexes();
+        RelationEndpointIndex.relationDeleted(cas, type, dep1);
+        
+        assertThat(getIndex()).isSameAs(sut);
+        assertThat(sut.getRelations(tokens.get(0))).isEmpty();
+        assertThat(sut.getRelations(tokens.get(1))).containsExactly(dep2);
+    }
+    
+    @Test
+    public void thatIndexIsRebuiltWhenCasChangedBehindItsBack()
+    {
+        RelationEndpointIndex sut = getIndex();
+        
+        Dependency dep = createRelation(tokens.get(0), tokens.get(1));
+        
+        RelationEndpointIndex rebuilt = getIndex();
+        assertThat(rebuilt).isNotSameAs(sut);
+        assertThat(rebuilt.getRelations(tokens.get(0))).containsExactly(dep);
+        
+        dep.removeFromIndexes();
+        
+        assertThat(getIndex()).isNotSameAs(rebuilt);
+        assertThat(getIndex().getRelations(tokens.get(0))).isEmpty();
+    }
+    
+    @Test
+    public void thatIndexIsDiscardedWhenCreationIsReportedOutOfSync()
+    {
+        RelationEndpointIndex sut = getIndex();
+        
+        createRelation(tokens.get(0), tokens.get(1));
+        Dependency dep = createRelation(tokens.get(1), tokens.get(2));
+        RelationEndpointIndex.relationCreated(cas, type, dep);
+        
+        RelationEndpointIndex rebuilt = getIndex();
+        assertThat(rebuilt).isNotSameAs(sut);
+        assertThat(rebuilt.getRelations(tokens.get(1))).hasSize(2);
+    }
+    
+    @Test
+    public void thatReattachedRelationIsIndexedUnderNewEndpoint()
+    {
+        Dependency dep = createRelation(tokens.get(0), tokens.get(1));
+        
+        RelationEndpointIndex sut = getIndex();
+        
+        dep.setGovernor(tokens.get(2));
+        RelationEndpointIndex.relationUpdated(cas, type, dep);
+        
+        assertThat(getIndex()).isSameAs(sut);
+        assertThat(sut.getRelations(tokens.get(0))).isEmpty();
+        assertThat(sut.getRelations(tokens.get(2))).containsExactly(dep);
+        assertThat(sut.getRelations(tokens.get(1))).containsExactly(dep);
+        
+        // Deleting the relation must remove it from its new end-point
+        dep.removeFromIndexes();
+        RelationEndpointIndex.relationDeleted(cas, type, dep);
+        
+        assertThat(sut.getRelations(tokens.get(1), tokens.get(2))).isEmpty();
+    }
+    
+    @Test
+    public void thatUnreportedReattachmentIsNotReturnedForOldEndpoint()
+    {
+        Dependency dep = createRelation(tokens.get(0), tokens.get(1));
+        
+        RelationEndpointIndex sut = getIndex();
+        
+        dep.setGovernor(tokens.get(2));
+        dep.setDependent(tokens.get(3));
+        
+        assertThat(sut.getRelations(tokens.get(0), tokens.get(1))).isEmpty();
+    }
+    
+    private RelationEndpointIndex getIndex()
+    {
+        return RelationEndpointIndex.get(cas, type, sourceFeature, targetFeature);
+    }
+    
+    private Dependency createRelation(Token aSource, Token aTarget)
+    {
+        Dependency dep = new Dependency(jcas, aTarget.getBegin(), aTarget.getEnd());
+        dep.setGovernor(aSource);
+        dep.setDependent(aTarget);
+        dep.addToIndexes();
+        return dep;
+    }
+}
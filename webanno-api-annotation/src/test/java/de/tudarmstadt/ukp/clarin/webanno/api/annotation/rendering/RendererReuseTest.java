@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAnchoringModeBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanCrossSentenceBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanOverlapBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerBehaviorRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.SpanLayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Compares rendering a page with renderers (and their adapters) created anew for every render to
+ * rendering with renderers created only once, as they are shared per schema version by
+ * {@link AnnotationSchemaService#getRenderer}. Checks that sharing the renderers reduces the
+ * number of bytes allocated per render.
+ */
+public class RendererReuseTest
+{
+    private static final int LAYERS = 20;
+    private static final int SENTENCES = 10;
+    private static final int WARMUP = 500;
+    private static final int ROUNDS = 2_000;
+    
+    @Test
+    public void thatSharedRenderersAllocateLessPerRender() throws Exception
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Measuring allocations is not supported by this JVM.",
+                threadBean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threadBean)
+                                .isThreadAllocatedMemorySupported());
+        
+        Project project = new Project();
+        project.setId(1l);
+        
+        AnnotationFeature valueFeature = new AnnotationFeature();
+        valueFeature.setId(1l);
+        valueFeature.setName("value");
+        valueFeature.setUiName("value");
+        valueFeature.setType(CAS.TYPE_NAME_STRING);
+        valueFeature.setEnabled(true);
+        valueFeature.setVisible(true);
+        valueFeature.setProject(project);
+        
+        List<AnnotationLayer> layers = new ArrayList<>();
+        for (int i = 0; i < LAYERS; i++) {
+            AnnotationLayer layer = new AnnotationLayer(NamedEntity.class.getName(),
+                    "NE " + i, SPAN_TYPE, project, true, TOKENS, NO_OVERLAP);
+            layer.setId((long) i);
+            layers.add(layer);
+        }
+        
+        ProjectSchema projectSchema = mock(ProjectSchema.class);
+        when(projectSchema.getFeatures(any(AnnotationLayer.class)))
+                .thenReturn(asList(valueFeature));
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        when(schemaService.getProjectSchema(any())).thenReturn(projectSchema);
+        
+        FeatureSupportRegistryImpl featureSupportRegistry = new FeatureSupportRegistryImpl(
+                asList(new PrimitiveUimaFeatureSupport()));
+        featureSupportRegistry.init();
+        LayerBehaviorRegistryImpl layerBehaviorRegistry = new LayerBehaviorRegistryImpl(
+                asList(new SpanOverlapBehavior(), new SpanCrossSentenceBehavior(),
+                        new SpanAnchoringModeBehavior()));
+        layerBehaviorRegistry.init();
+        LayerSupport<?> layerSupport = new SpanLayerSupport(featureSupportRegistry, null,
+                schemaService, layerBehaviorRegistry);
+        
+        CAS cas = createCas();
+        
+        List<Renderer> sharedRenderers = new ArrayList<>();
+        for (AnnotationLayer layer : layers) {
+            sharedRenderers.add(layerSupport.getRenderer(layer));
+        }
+        
+        long perRenderAllocation = run("create per render", cas, layers, valueFeature,
+                layerSupport::getRenderer);
+        long sharedAllocation = run("shared", cas, layers, valueFeature,
+                layer -> sharedRenderers.get(layer.getId().intValue()));
+        
+        assertThat(sharedAllocation)
+                .as("bytes allocated per render with shared renderers")
+                .isLessThan(perRenderAllocation);
+    }
+    
+    /**
+     * @return the number of bytes allocated per render.
+     */
+    private long run(String aLabel, CAS aCas, List<AnnotationLayer> aLayers,
+            AnnotationFeature aFeature, Function<AnnotationLayer, Renderer> aRendererProvider)
+    {
+        for (int i = 0; i < WARMUP; i++) {
+            render(aCas, aLayers, aFeature, aRendererProvider);
+        }
+        
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            render(aCas, aLayers, aFeature, aRendererProvider);
+        }
+        long time = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        
+        System.out.printf("%-20s %10.1f us/render %12d bytes/render%n", aLabel,
+                time / 1000.0 / ROUNDS, allocated / ROUNDS);
+        
+        return allocated / ROUNDS;
+    }
+    
+    private void render(CAS aCas, List<AnnotationLayer> aLayers, AnnotationFeature aFeature,
+            Function<AnnotationLayer, Renderer> aRendererProvider)
+    {
+        VDocument vdoc = new VDocument();
+        for (AnnotationLayer layer : aLayers) {
+            Renderer renderer = aRendererProvider.apply(layer);
+            renderer.render(aCas, asList(aFeature), vdoc, 0, aCas.getDocumentText().length());
+        }
+    }
+    
+    private CAS createCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < SENTENCES; i++) {
+            int begin = text.length();
+            text.append("This is sentence number ").append(i).append(". ");
+            new Sentence(jcas, begin, text.length()).addToIndexes();
+            NamedEntity ne = new NamedEntity(jcas, begin, begin + 4);
+            ne.setValue("PER");
+            ne.addToIndexes();
+        }
+        jcas.setDocumentText(text.toString());
+        return jcas.getCas();
+    }
+    
+    private long getAllocatedBytes()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
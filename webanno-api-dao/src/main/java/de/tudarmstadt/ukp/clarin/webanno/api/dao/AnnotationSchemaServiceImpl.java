@@ -18,9 +18,12 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemVersion;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.setTypeSystemVersion;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isNativeUimaType;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.Objects.isNull;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
@@ -28,22 +31,29 @@ import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -60,6 +70,8 @@ import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
 import org.apache.uima.util.CasCreationUtils;
 import org.apache.uima.util.CasIOUtils;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -69,16 +81,25 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.Renderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis.RelationDetails;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.initializers.ProjectInitializer;
@@ -96,9 +117,23 @@ import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
  * Implementation of methods defined in the {@link AnnotationSchemaService} interface
  */
 @Component(AnnotationSchemaService.SERVICE_NAME)
+@ManagedResource
 public class AnnotationSchemaServiceImpl
     implements AnnotationSchemaService
 {
+    private static final MetaDataKey<AtomicInteger> SCHEMA_QUERIES =
+            new MetaDataKey<AtomicInteger>()
+    {
+        private static final long serialVersionUID = 2878472911045093871L;
+    };
+
+    // Buffers used to hold the CAS contents during an upgrade are re-used by the same thread up
+    // to this size
+    private static final int MAX_RETAINED_UPGRADE_BUFFER_SIZE = 16 * 1024 * 1024;
+    
+    private static final ThreadLocal<UpgradeBuffer> UPGRADE_BUFFER = ThreadLocal
+            .withInitial(UpgradeBuffer::new);
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private @PersistenceContext EntityManager entityManager;
@@ -109,6 +144,23 @@ public class AnnotationSchemaServiceImpl
     private @Lazy @Autowired(required = false) List<ProjectInitializer> initializerProxy;
     
     private List<ProjectInitializer> initializers;
+    
+    // The schema version of a project is bumped whenever its layers, features or tagsets
+    // change. The
+    // versions are drawn from a global counter such that a re-created project never re-uses
+    // the version of a deleted project with the same ID.
+    private final AtomicLong schemaVersionCounter = new AtomicLong();
+    private final Map<Long, Long> schemaVersions = new ConcurrentHashMap<>();
+    private final Map<Pair<Long, Boolean>, ProjectTypeSystem> projectTypeSystems =
+            new ConcurrentHashMap<>();
+    private final Map<Long, ProjectSchema> projectSchemas = new ConcurrentHashMap<>();
+    private final Map<Long, LayerComponents> layerComponents = new ConcurrentHashMap<>();
+    
+    // Number of schema queries sent to the database since the start of the application
+    private final AtomicLong schemaQueryCount = new AtomicLong();
+    
+    // The types detected by uimaFIT do not change at runtime
+    private volatile TypeSystemDescription builtInTypes;
 
     public AnnotationSchemaServiceImpl()
     {
@@ -156,6 +208,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aTag);
         }
+        
+        schemaChanged(aTag.getTagSet().getProject());
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTag.getTagSet().getProject().getId()))) {
@@ -178,6 +232,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aTagSet);
         }
         
+        schemaChanged(aTagSet.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTagSet.getProject().getId()))) {
             Project project = aTagSet.getProject();
@@ -197,6 +253,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
         
+        schemaChanged(aLayer.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -215,6 +273,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -223,7 +283,7 @@ public class AnnotationSchemaServiceImpl
     {
         try {
             final String query = "FROM Tag WHERE id = :id";
-            return Optional.of(entityManager.createQuery(query, Tag.class)
+            return Optional.of(createQuery(query, Tag.class)
                     .setParameter("id", aId)
                     .getSingleResult());
         }
@@ -236,8 +296,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public Tag getTag(String aTagName, TagSet aTagSet)
     {
-        return entityManager
-                .createQuery("FROM Tag WHERE name = :name AND" + " tagSet =:tagSet", Tag.class)
+        return createQuery("FROM Tag WHERE name = :name AND" + " tagSet =:tagSet", Tag.class)
                 .setParameter("name", aTagName).setParameter("tagSet", aTagSet).getSingleResult();
     }
 
@@ -259,8 +318,7 @@ public class AnnotationSchemaServiceImpl
     public boolean existsTagSet(String aName, Project aProject)
     {
         try {
-            entityManager
-                    .createQuery("FROM TagSet WHERE name = :name AND project = :project",
+            createQuery("FROM TagSet WHERE name = :name AND project = :project",
                             TagSet.class).setParameter("name", aName)
                     .setParameter("project", aProject).getSingleResult();
             return true;
@@ -276,7 +334,7 @@ public class AnnotationSchemaServiceImpl
     public boolean existsTagSet(Project aProject)
     {
         try {
-            entityManager.createQuery("FROM TagSet WHERE  project = :project", TagSet.class)
+            createQuery("FROM TagSet WHERE  project = :project", TagSet.class)
                     .setParameter("project", aProject).getSingleResult();
             return true;
         }
@@ -291,8 +349,7 @@ public class AnnotationSchemaServiceImpl
     public boolean existsLayer(String aName, Project aProject)
     {
         try {
-            entityManager
-                    .createQuery(
+            createQuery(
                             "FROM AnnotationLayer WHERE name = :name AND project = :project",
                             AnnotationLayer.class)
                     .setParameter("name", aName)
@@ -310,8 +367,7 @@ public class AnnotationSchemaServiceImpl
     public boolean existsLayer(String aName, String aType, Project aProject)
     {
         try {
-            entityManager
-                    .createQuery(
+            createQuery(
                             "FROM AnnotationLayer WHERE name = :name AND type = :type AND project = :project",
                             AnnotationLayer.class)
                     .setParameter("name", aName).setParameter("type", aType)
@@ -329,8 +385,7 @@ public class AnnotationSchemaServiceImpl
     {
 
         try {
-            entityManager
-                    .createQuery("FROM AnnotationFeature WHERE name = :name AND layer = :layer",
+            createQuery("FROM AnnotationFeature WHERE name = :name AND layer = :layer",
                             AnnotationFeature.class).setParameter("name", aName)
                     .setParameter("layer", aLayer).getSingleResult();
             return true;
@@ -345,8 +400,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public TagSet getTagSet(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet WHERE name = :name AND project =:project", TagSet.class)
+        return createQuery("FROM TagSet WHERE name = :name AND project =:project", TagSet.class)
                 .setParameter("name", aName).setParameter("project", aProject).getSingleResult();
     }
 
@@ -354,7 +408,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public TagSet getTagSet(long aId)
     {
-        return entityManager.createQuery("FROM TagSet WHERE id = :id", TagSet.class)
+        return createQuery("FROM TagSet WHERE id = :id", TagSet.class)
                 .setParameter("id", aId).getSingleResult();
     }
 
@@ -366,7 +420,7 @@ public class AnnotationSchemaServiceImpl
                 "FROM AnnotationLayer",
                 "WHERE id = :id");
         
-        return entityManager.createQuery(query, AnnotationLayer.class)
+        return createQuery(query, AnnotationLayer.class)
                 .setParameter("id", aId)
                 .getSingleResult();
     }
@@ -380,7 +434,7 @@ public class AnnotationSchemaServiceImpl
                 "WHERE id = :id",
                 "AND project = :project");
         
-        return entityManager.createQuery(query, AnnotationLayer.class)
+        return createQuery(query, AnnotationLayer.class)
                 .setParameter("id", aLayerId)
                 .setParameter("project", aProject)
                 .getResultStream().findFirst();
@@ -451,7 +505,7 @@ public class AnnotationSchemaServiceImpl
                 "FROM AnnotationLayer ",
                 "WHERE name = :name AND project = :project");
         
-        return entityManager.createQuery(query, AnnotationLayer.class)
+        return createQuery(query, AnnotationLayer.class)
                 .setParameter("name", aName)
                 .setParameter("project", aProject)
                 .getResultStream().findFirst();
@@ -483,8 +537,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(long aId)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
+        return createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
                 .setParameter("id", aId).getSingleResult();
     }
 
@@ -492,8 +545,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(String aName, AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where name = :name AND layer = :layer",
+        return createQuery("From AnnotationFeature where name = :name AND layer = :layer",
                         AnnotationFeature.class).setParameter("name", aName)
                 .setParameter("layer", aLayer).getSingleResult();
     }
@@ -503,8 +555,7 @@ public class AnnotationSchemaServiceImpl
     public boolean existsType(String aName, String aType)
     {
         try {
-            entityManager
-                    .createQuery("From AnnotationLayer where name = :name AND type = :type",
+            createQuery("From AnnotationLayer where name = :name AND type = :type",
                             AnnotationLayer.class).setParameter("name", aName)
                     .setParameter("type", aType).getSingleResult();
             return true;
@@ -589,7 +640,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationLayer> listAnnotationType()
     {
-        return entityManager.createQuery("FROM AnnotationLayer ORDER BY name",
+        return createQuery("FROM AnnotationLayer ORDER BY name",
                 AnnotationLayer.class).getResultList();
     }
 
@@ -597,8 +648,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationLayer> listAnnotationLayer(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
+        return createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
                         AnnotationLayer.class).setParameter("project", aProject).getResultList();
     }
 
@@ -606,8 +656,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationLayer> listAttachedRelationLayers(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
+        return createQuery(
                         "SELECT l FROM AnnotationLayer l LEFT JOIN l.attachFeature f "
                         + "WHERE l.type = :type AND l.project = :project AND "
                         + "(l.attachType = :attachType OR f.type = :attachTypeName) "
@@ -623,8 +672,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationFeature> listAttachedLinkFeatures(AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery(
+        return createQuery(
                         "FROM AnnotationFeature WHERE linkMode in (:modes) AND project = :project AND "
                                 + "type in (:attachType) ORDER BY uiName", AnnotationFeature.class)
                 .setParameter("modes", asList(LinkMode.SIMPLE, LinkMode.WITH_ROLE))
@@ -641,8 +689,7 @@ public class AnnotationSchemaServiceImpl
             return new ArrayList<>();
         }
 
-        return entityManager
-                .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
+        return createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
                         AnnotationFeature.class).setParameter("layer", aLayer).getResultList();
     }
 
@@ -650,8 +697,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AnnotationFeature> listAnnotationFeature(Project aProject)
     {
-        return entityManager
-                .createQuery(
+        return createQuery(
                         "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
                         AnnotationFeature.class).setParameter("project", aProject).getResultList();
     }
@@ -660,15 +706,14 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<Tag> listTags()
     {
-        return entityManager.createQuery("From Tag ORDER BY name", Tag.class).getResultList();
+        return createQuery("From Tag ORDER BY name", Tag.class).getResultList();
     }
 
     @Override
     @Transactional
     public List<Tag> listTags(TagSet aTagSet)
     {
-        return entityManager
-                .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
+        return createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
                 .setParameter("tagSet", aTagSet).getResultList();
     }
 
@@ -676,7 +721,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<TagSet> listTagSets()
     {
-        return entityManager.createQuery("FROM TagSet ORDER BY name ASC", TagSet.class)
+        return createQuery("FROM TagSet ORDER BY name ASC", TagSet.class)
                 .getResultList();
     }
 
@@ -684,8 +729,7 @@ public class AnnotationSchemaServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public List<TagSet> listTagSets(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
+        return createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
                 .setParameter("project", aProject).getResultList();
     }
 
@@ -694,6 +738,8 @@ public class AnnotationSchemaServiceImpl
     public void removeTag(Tag aTag)
     {
         entityManager.remove(entityManager.contains(aTag) ? aTag : entityManager.merge(aTag));
+        
+        schemaChanged(aTag.getTagSet().getProject());
     }
 
     @Override
@@ -705,6 +751,8 @@ public class AnnotationSchemaServiceImpl
         }
         entityManager
                 .remove(entityManager.contains(aTagSet) ? aTagSet : entityManager.merge(aTagSet));
+        
+        schemaChanged(aTagSet.getProject());
     }
 
     @Override
@@ -713,6 +761,8 @@ public class AnnotationSchemaServiceImpl
     {
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -720,6 +770,8 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        
+        schemaChanged(aLayer.getProject());
     }
 
     @Override
@@ -729,6 +781,8 @@ public class AnnotationSchemaServiceImpl
         for (Tag tag : listTags(aTagSet)) {
             entityManager.remove(tag);
         }
+        
+        schemaChanged(aTagSet.getProject());
     }
 
     @Override
@@ -754,7 +808,7 @@ public class AnnotationSchemaServiceImpl
         // Create a new type system from scratch
         TypeSystemDescription tsd = new TypeSystemDescription_impl();
 
-        TypeSystemDescription builtInTypes = createTypeSystemDescription();
+        TypeSystemDescription builtInTypes = getBuiltInTypes();
         
         List<AnnotationLayer> allLayersInProject = listAnnotationLayer(aProject);
         List<AnnotationFeature> allFeaturesInProject = listAnnotationFeature(aProject);
@@ -824,15 +878,200 @@ public class AnnotationSchemaServiceImpl
         return getFullProjectTypeSystem(aProject, true);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The type system is compiled only once per schema version of the project. The returned
+     * description is shared and must not be modified.
+     */
     @Override
     public TypeSystemDescription getFullProjectTypeSystem(Project aProject,
             boolean aIncludeInternalTypes)
         throws ResourceInitializationException
+    {
+        return getProjectTypeSystem(aProject, aIncludeInternalTypes).getDescription();
+    }
+    
+    @Override
+    public long getSchemaVersion(Project aProject)
+    {
+        return schemaVersions.getOrDefault(aProject.getId(), 0l);
+    }
+    
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        schemaChanged(aEvent.getProject());
+    }
+    
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        Long projectId = aEvent.getProject().getId();
+        schemaVersions.remove(projectId);
+        projectTypeSystems.keySet().removeIf(key -> key.getKey().equals(projectId));
+        projectSchemas.remove(projectId);
+        layerComponents.values().removeIf(c -> c.projectId == projectId);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The snapshot is loaded only once per schema version of the project. Loading it requires
+     * four queries.
+     */
+    @Override
+    @Transactional
+    public ProjectSchema getProjectSchema(Project aProject)
+    {
+        // Projects which have not been persisted yet do not have a schema
+        if (aProject.getId() == null) {
+            return new ProjectSchema(aProject, -1, emptyList(), emptyList(), emptyList(),
+                    emptyList());
+        }
+        
+        // Obtain the version before loading - if the schema changes while we load, the result
+        // is cached under the old version and is reloaded on the next access
+        long version = getSchemaVersion(aProject);
+        ProjectSchema cached = projectSchemas.get(aProject.getId());
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        
+        ProjectSchema loaded = new ProjectSchema(aProject, version,
+                listAnnotationLayer(aProject), listAnnotationFeature(aProject),
+                listTagSets(aProject), listProjectTags(aProject));
+        projectSchemas.merge(aProject.getId(), loaded, (oldValue, newValue) -> 
+                oldValue.getVersion() > newValue.getVersion() ? oldValue : newValue);
+        
+        log.debug("Loaded schema of project [{}]({}) at schema version {}", aProject.getName(),
+                aProject.getId(), version);
+        
+        return loaded;
+    }
+    
+    private List<Tag> listProjectTags(Project aProject)
+    {
+        return createQuery("FROM Tag WHERE tagSet.project = :project ORDER BY name ASC",
+                Tag.class).setParameter("project", aProject).getResultList();
+    }
+    
+    /**
+     * @return the number of schema queries (layers, features, tagsets and tags) sent to the
+     *         database since the application was started.
+     */
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSchemaQueryCount()
+    {
+        return schemaQueryCount.get();
+    }
+    
+    /**
+     * @return the number of schema queries sent to the database while handling the current
+     *         request. Once the schema of the project has been loaded, rendering the annotation
+     *         page should not require any schema queries.
+     */
+    public int getRequestSchemaQueryCount()
+    {
+        RequestCycle requestCycle = RequestCycle.get();
+        AtomicInteger count = requestCycle != null ? requestCycle.getMetaData(SCHEMA_QUERIES)
+                : null;
+        return count != null ? count.get() : 0;
+    }
+    
+    private <T> TypedQuery<T> createQuery(String aQuery, Class<T> aResultClass)
+    {
+        schemaQueryCount.incrementAndGet();
+        
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle != null) {
+            AtomicInteger count = requestCycle.getMetaData(SCHEMA_QUERIES);
+            if (count == null) {
+                count = new AtomicInteger();
+                requestCycle.setMetaData(SCHEMA_QUERIES, count);
+            }
+            log.trace("Schema query #{} in current request: {}", count.incrementAndGet(),
+                    aQuery);
+        }
+        
+        return entityManager.createQuery(aQuery, aResultClass);
+    }
+    
+    private void schemaChanged(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        bumpSchemaVersion(aProject.getId());
+        
+        // A type system compiled by another thread before the change has been committed would
+        // still be based on the old schema, so we bump the version again once the change is
+        // visible to everybody
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            Long projectId = aProject.getId();
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            bumpSchemaVersion(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private void bumpSchemaVersion(Long aProjectId)
+    {
+        schemaVersions.put(aProjectId, schemaVersionCounter.incrementAndGet());
+    }
+    
+    @Override
+    public CAS createProjectCas(Project aProject) throws ResourceInitializationException
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        getProjectTypeSystem(aProject, true).initialize(cas);
+        return cas;
+    }
+    
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
+    {
+        // Projects which have not been persisted yet cannot be tracked
+        if (aProject.getId() == null) {
+            return compileProjectTypeSystem(aProject, aIncludeInternalTypes, -1);
+        }
+        
+        // Obtain the version before compiling - if the schema changes while we compile, the
+        // result is cached under the old version and is recompiled on the next access
+        long version = getSchemaVersion(aProject);
+        Pair<Long, Boolean> key = Pair.of(aProject.getId(), aIncludeInternalTypes);
+        ProjectTypeSystem cached = projectTypeSystems.get(key);
+        if (cached != null && cached.getSchemaVersion() == version) {
+            return cached;
+        }
+        
+        ProjectTypeSystem compiled = compileProjectTypeSystem(aProject, aIncludeInternalTypes,
+                version);
+        projectTypeSystems.merge(key, compiled, (oldValue, newValue) -> 
+                oldValue.getSchemaVersion() > newValue.getSchemaVersion() ? oldValue : newValue);
+        
+        log.debug("Compiled type system of project [{}]({}) at schema version {}",
+                aProject.getName(), aProject.getId(), version);
+        
+        return compiled;
+    }
+    
+    private ProjectTypeSystem compileProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes, long aVersion)
+        throws ResourceInitializationException
     {
         List<TypeSystemDescription> typeSystems = new ArrayList<>();
         
         // Types detected by uimaFIT
-        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(getBuiltInTypes());
         
         if (aIncludeInternalTypes) {
             // Types internally used by WebAnno (which we intentionally exclude from being detected
@@ -844,7 +1083,27 @@ public class AnnotationSchemaServiceImpl
         // Types declared within the project
         typeSystems.add(getCustomProjectTypes(aProject));
 
-        return (TypeSystemDescription_impl) mergeTypeSystems(typeSystems);
+        TypeSystemDescription tsd = mergeTypeSystems(typeSystems);
+        return new ProjectTypeSystem(aVersion, tsd, createCas(tsd));
+    }
+    
+    private TypeSystemDescription getBuiltInTypes() throws ResourceInitializationException
+    {
+        if (builtInTypes == null) {
+            builtInTypes = createTypeSystemDescription();
+        }
+        return builtInTypes;
+    }
+    
+    /**
+     * Looks up the compiled project type system for the given description - if the description
+     * was obtained from {@link #getFullProjectTypeSystem(Project)}.
+     */
+    private Optional<ProjectTypeSystem> findProjectTypeSystem(TypeSystemDescription aDescription)
+    {
+        return projectTypeSystems.values().stream()
+                .filter(pts -> pts.getDescription() == aDescription)
+                .findFirst();
     }
     
     @Override
@@ -926,13 +1185,24 @@ public class AnnotationSchemaServiceImpl
     public boolean upgradeCasIfRequired(Iterable<CAS> aCasIter, Project aProject)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
+        return upgradeCasIfRequired(aCasIter, getProjectTypeSystem(aProject, true));
+    }
+    
+    @Override
+    public boolean upgradeCasIfRequired(Iterable<CAS> aCasIter,
+            TypeSystemDescription aTargetTypeSystem)
+        throws UIMAException, IOException
+    {
+        Optional<ProjectTypeSystem> projectTypeSystem = findProjectTypeSystem(aTargetTypeSystem);
+        if (projectTypeSystem.isPresent()) {
+            return upgradeCasIfRequired(aCasIter, projectTypeSystem.get());
+        }
         
         // Check if the current CAS already contains the required type system
         boolean upgradePerformed = false;
         for (CAS cas : aCasIter) {
-            if (cas != null && isUpgradeRequired(cas, ts)) {
-                upgradeCas(cas, ts);
+            if (cas != null && isUpgradeRequired(cas, aTargetTypeSystem)) {
+                upgradeCas(cas, aTargetTypeSystem);
                 upgradePerformed = true;
             }
         }
@@ -940,6 +1210,33 @@ public class AnnotationSchemaServiceImpl
         return upgradePerformed;
     }
     
+    private boolean upgradeCasIfRequired(Iterable<CAS> aCasIter, ProjectTypeSystem aTarget)
+        throws UIMAException, IOException
+    {
+        boolean upgradePerformed = false;
+        for (CAS cas : aCasIter) {
+            if (cas == null) {
+                continue;
+            }
+            
+            // If the CAS already uses the compiled type system or has already been checked
+            // against or upgraded to the same type system, we do not need to go through all the
+            // types and features again
+            boolean compatible = cas.getTypeSystem() == aTarget.getTypeSystem()
+                    || getTypeSystemVersion(cas).filter(aTarget.getVersion()::equals).isPresent();
+            
+            if (!compatible && isUpgradeRequired(cas, aTarget.getDescription())) {
+                upgradeCas(cas, cas, aTarget.getDescription(), aTarget);
+                upgradePerformed = true;
+            }
+            else {
+                setTypeSystemVersion(cas, aTarget.getVersion());
+            }
+        }
+        
+        return upgradePerformed;
+    }
+    
     @Override
     public CAS prepareCasForExport(CAS aCas, SourceDocument aSourceDocument)
         throws ResourceInitializationException, UIMAException, IOException
@@ -964,22 +1261,55 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystemDescription aTargetTypeSystem)
         throws UIMAException, IOException
+    {
+        upgradeCas(aSourceCas, aTargetCas, aTargetTypeSystem,
+                findProjectTypeSystem(aTargetTypeSystem).orElse(null));
+    }
+    
+    /**
+     * @param aProjectTypeSystem
+     *            the compiled project type system corresponding to the target type system
+     *            description or {@code null} if the description is not a project type system.
+     */
+    private void upgradeCas(CAS aSourceCas, CAS aTargetCas,
+            TypeSystemDescription aTargetTypeSystem, ProjectTypeSystem aProjectTypeSystem)
+        throws UIMAException, IOException
     {
         // Save source CAS type system (do this early since we might do an in-place upgrade)
         TypeSystem sourceTypeSystem = aSourceCas.getTypeSystem();
 
-        // Save source CAS contents
-        ByteArrayOutputStream serializedCasContents = new ByteArrayOutputStream();
-        Serialization.serializeWithCompression(aSourceCas, serializedCasContents, sourceTypeSystem);
-
-        // Re-initialize the target CAS with new type system
-        CAS tempCas = createCas(aTargetTypeSystem);
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) tempCas);
-        Serialization.deserializeCASComplete(serializer, (CASImpl) aTargetCas);
-
-        // Leniently load the source CAS contents into the target CAS
-        CasIOUtils.load(new ByteArrayInputStream(serializedCasContents.toByteArray()), aTargetCas,
-                sourceTypeSystem);
+        UpgradeBuffer buffer = UPGRADE_BUFFER.get();
+        try {
+            // Save source CAS contents
+            buffer.reset();
+            Serialization.serializeWithCompression(aSourceCas, buffer, sourceTypeSystem);
+    
+            // Re-initialize the target CAS with new type system - the project type systems come
+            // with a pre-built empty CAS, so they do not have to be compiled again
+            if (aProjectTypeSystem != null) {
+                aProjectTypeSystem.initialize(aTargetCas);
+            }
+            else {
+                CAS tempCas = createCas(aTargetTypeSystem);
+                CASCompleteSerializer serializer = Serialization
+                        .serializeCASComplete((CASImpl) tempCas);
+                Serialization.deserializeCASComplete(serializer, (CASImpl) aTargetCas);
+            }
+    
+            // Leniently load the source CAS contents into the target CAS
+            CasIOUtils.load(buffer.toInputStream(), aTargetCas, sourceTypeSystem);
+        }
+        finally {
+            // Do not let a single huge CAS pin a lot of memory to the thread
+            if (buffer.capacity() > MAX_RETAINED_UPGRADE_BUFFER_SIZE) {
+                UPGRADE_BUFFER.remove();
+            }
+        }
+        
+        // The version recorded in the source CAS does not apply to the upgraded CAS unless it
+        // has been upgraded to a project type system
+        setTypeSystemVersion(aTargetCas, aProjectTypeSystem != null
+                ? aProjectTypeSystem.getVersion() : null);
     }
     
     /**
@@ -1050,16 +1380,64 @@ public class AnnotationSchemaServiceImpl
     @Override
     @Transactional
     public TypeAdapter getAdapter(AnnotationLayer aLayer)
+    {
+        LayerComponents components = getLayerComponents(aLayer);
+        return components != null ? components.adapter : createAdapter(aLayer);
+    }
+    
+    @Override
+    public TypeAdapter createAdapter(AnnotationLayer aLayer)
     {
         return layerSupportRegistry.getLayerSupport(aLayer).createAdapter(aLayer);
     }
     
+    @Override
+    public Renderer getRenderer(AnnotationLayer aLayer)
+    {
+        LayerComponents components = getLayerComponents(aLayer);
+        return components != null ? components.renderer
+                : layerSupportRegistry.getLayerSupport(aLayer).getRenderer(aLayer);
+    }
+    
+    private LayerComponents getLayerComponents(AnnotationLayer aLayer)
+    {
+        // Layers which have not been persisted yet cannot be tracked
+        if (aLayer.getId() == null || aLayer.getProject() == null
+                || aLayer.getProject().getId() == null) {
+            return null;
+        }
+        
+        long version = getSchemaVersion(aLayer.getProject());
+        LayerComponents cached = layerComponents.get(aLayer.getId());
+        if (cached != null && cached.schemaVersion == version) {
+            return cached;
+        }
+        
+        // Create the components from the layer as it is known to the schema - the given layer
+        // object might carry changes which have not been saved yet and which must not leak into
+        // the shared components
+        Optional<AnnotationLayer> layer = getProjectSchema(aLayer.getProject())
+                .getLayer(aLayer.getName())
+                .filter(l -> l.getId().equals(aLayer.getId()));
+        if (!layer.isPresent()) {
+            return null;
+        }
+        
+        LayerSupport<?> layerSupport = layerSupportRegistry.getLayerSupport(layer.get());
+        LayerComponents created = new LayerComponents(aLayer.getProject().getId(), version,
+                layerSupport.createAdapter(layer.get()), layerSupport.getRenderer(layer.get()));
+        layerComponents.merge(aLayer.getId(), created, (oldValue, newValue) -> 
+                oldValue.schemaVersion > newValue.schemaVersion ? oldValue : newValue);
+        
+        return created;
+    }
+    
     @Override
     @Transactional
     public void importUimaTypeSystem(Project aProject, TypeSystemDescription aTSD)
         throws ResourceInitializationException
     {
-        TypeSystemDescription builtInTypes = createTypeSystemDescription();
+        TypeSystemDescription builtInTypes = getBuiltInTypes();
         
         TypeSystemAnalysis analysis = TypeSystemAnalysis.of(aTSD);
         for (AnnotationLayer l : analysis.getLayers()) {
@@ -1111,4 +1489,47 @@ public class AnnotationSchemaServiceImpl
             }
         }
     }
+    
+    /**
+     * The adapter and renderer of a layer at a particular schema version.
+     */
+    private static class LayerComponents
+    {
+        private final long projectId;
+        private final long schemaVersion;
+        private final TypeAdapter adapter;
+        private final Renderer renderer;
+        
+        public LayerComponents(long aProjectId, long aSchemaVersion, TypeAdapter aAdapter,
+                Renderer aRenderer)
+        {
+            projectId = aProjectId;
+            schemaVersion = aSchemaVersion;
+            adapter = aAdapter;
+            renderer = aRenderer;
+        }
+    }
+    
+    /**
+     * Buffer holding the serialized CAS contents during an upgrade. Unlike
+     * {@link ByteArrayOutputStream#toByteArray()}, reading the contents back does not copy them.
+     */
+    private static class UpgradeBuffer
+        extends ByteArrayOutputStream
+    {
+        public UpgradeBuffer()
+        {
+            super(64 * 1024);
+        }
+        
+        public InputStream toInputStream()
+        {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+        
+        public int capacity()
+        {
+            return buf.length;
+        }
+    }
 }
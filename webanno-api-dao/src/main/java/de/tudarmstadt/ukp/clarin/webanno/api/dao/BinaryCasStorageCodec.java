@@ -0,0 +1,255 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.apache.uima.cas.SerialFormat.COMPRESSED_FILTERED;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.util.CasIOUtils;
+
+/**
+ * Stores the CAS in UIMA compressed binary form 6. The type system is not stored in the CAS file
+ * itself. Instead, it is stored once per project in the {@link #TYPE_SYSTEM_FOLDER} and the CAS
+ * file refers to it by a hash of its contents. Optionally, the CAS data can additionally be
+ * compressed.
+ * <p>
+ * File layout:
+ * <ul>
+ * <li>magic: {@code WACB}</li>
+ * <li>version (byte)</li>
+ * <li>flags (byte)</li>
+ * <li>type system ID (modified UTF-8, see {@link DataOutputStream#writeUTF})</li>
+ * <li>CAS data in compressed binary form 6 (if the deflate flag is set, deflate-compressed)</li>
+ * </ul>
+ */
+public class BinaryCasStorageCodec
+    implements CasStorageCodec
+{
+    public static final String ID = "binary";
+
+    /**
+     * Name of the folder within the project folder in which the type systems are stored.
+     */
+    public static final String TYPE_SYSTEM_FOLDER = "annotation-typesystem";
+
+    private static final String TYPE_SYSTEM_SUFFIX = ".tsi";
+    
+    private static final byte[] MAGIC = "WACB".getBytes(US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean compress;
+
+    // Computing the type system ID requires serializing the type system - remember it for the
+    // type systems which are currently in use
+    private final Map<TypeSystem, String> typeSystemIds = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param aCompress
+     *            whether to additionally deflate-compress the CAS data when writing. Files are
+     *            read correctly irrespective of this setting.
+     */
+    public BinaryCasStorageCodec(boolean aCompress)
+    {
+        compress = aCompress;
+    }
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public boolean canRead(byte[] aHeader)
+    {
+        return aHeader.length >= MAGIC.length
+                && Arrays.equals(Arrays.copyOf(aHeader, MAGIC.length), MAGIC);
+    }
+
+    @Override
+    public void write(CAS aCas, File aFile) throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+
+        String typeSystemId = storeTypeSystem(aCas, getTypeSystemFolder(aFile));
+
+        try (FileChannel channel = FileChannel.open(aFile.toPath(), CREATE, WRITE,
+                TRUNCATE_EXISTING);
+                DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            os.write(MAGIC);
+            os.writeByte(VERSION);
+            os.writeByte(compress ? FLAG_DEFLATE : 0);
+            os.writeUTF(typeSystemId);
+
+            if (compress) {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater, BUFFER_SIZE);
+                    CasIOUtils.save(aCas, dos, COMPRESSED_FILTERED);
+                    dos.finish();
+                }
+                finally {
+                    deflater.end();
+                }
+            }
+            else {
+                CasIOUtils.save(aCas, os, COMPRESSED_FILTERED);
+            }
+        }
+    }
+
+    @Override
+    public void read(CAS aCas, File aFile) throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(aFile.toPath()), BUFFER_SIZE))) {
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("File [" + aFile + "] is not in the binary CAS format");
+            }
+
+            int version = is.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("File [" + aFile + "] uses unsupported binary CAS format "
+                        + "version [" + version + "]");
+            }
+
+            int flags = is.readUnsignedByte();
+            String typeSystemId = is.readUTF();
+            byte[] typeSystem = loadTypeSystem(getTypeSystemFolder(aFile), typeSystemId);
+
+            InputStream data = is;
+            if ((flags & FLAG_DEFLATE) != 0) {
+                data = new BufferedInputStream(new InflaterInputStream(is), BUFFER_SIZE);
+            }
+
+            CasIOUtils.load(data, new ByteArrayInputStream(typeSystem), aCas);
+        }
+    }
+
+    private String storeTypeSystem(CAS aCas, File aFolder) throws IOException
+    {
+        String id = typeSystemIds.get(aCas.getTypeSystem());
+        if (id != null && new File(aFolder, id + TYPE_SYSTEM_SUFFIX).exists()) {
+            return id;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        CasIOUtils.writeTypeSystem(aCas, buffer, true);
+        byte[] typeSystem = buffer.toByteArray();
+        id = hash(typeSystem);
+
+        File typeSystemFile = new File(aFolder, id + TYPE_SYSTEM_SUFFIX);
+        if (!typeSystemFile.exists()) {
+            FileUtils.forceMkdir(aFolder);
+            // Write to a temporary file first and then move it in place, so a concurrent reader
+            // never sees an incomplete type system
+            File tempFile = File.createTempFile(id, ".tmp", aFolder);
+            try {
+                Files.write(tempFile.toPath(), typeSystem);
+                Files.move(tempFile.toPath(), typeSystemFile.toPath(), ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+
+        typeSystemIds.put(aCas.getTypeSystem(), id);
+
+        return id;
+    }
+
+    private byte[] loadTypeSystem(File aFolder, String aId) throws IOException
+    {
+        File typeSystemFile = new File(aFolder, aId + TYPE_SYSTEM_SUFFIX);
+        if (!typeSystemFile.exists()) {
+            throw new FileNotFoundException(
+                    "Type system [" + aId + "] not found at [" + typeSystemFile + "]");
+        }
+
+        return Files.readAllBytes(typeSystemFile.toPath());
+    }
+
+    private static String hash(byte[] aData)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(aData);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * CAS files are stored at {@code project/<id>/document/<id>/annotation/<user>.ser}. The type
+     * systems are stored in the {@link #TYPE_SYSTEM_FOLDER} within the project folder. If the
+     * file is not located in such a structure, the type systems are stored next to it.
+     */
+    static File getTypeSystemFolder(File aCasFile)
+    {
+        File annotationFolder = aCasFile.getAbsoluteFile().getParentFile();
+        File projectFolder = annotationFolder;
+        for (int i = 0; i < 3 && projectFolder != null; i++) {
+            projectFolder = projectFolder.getParentFile();
+        }
+        
+        return new File(projectFolder != null ? projectFolder : annotationFolder,
+                TYPE_SYSTEM_FOLDER);
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static org.springframework.transaction.event.TransactionPhase.AFTER_COMMIT;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Upgrades all CASes of a project to the current type system of the project in the background.
+ * Otherwise, a CAS is only upgraded when it is loaded for the first time after the layers of the
+ * project have changed, which delays opening the document and slows down bulk operations such as
+ * the export of the project.
+ * <p>
+ * The CASes are upgraded in parallel. Each CAS is locked exclusively while it is upgraded (cf.
+ * {@link CasStorageService#upgradeCasIfRequired(SourceDocument, String)}), so users can keep
+ * working on the project. There is at most one upgrade per project - starting an upgrade cancels
+ * the upgrade which may still be running for the project.
+ * <p>
+ * Upgrades are started automatically when the layers of a project change if
+ * {@code cas-storage.upgrade.auto} is enabled. Otherwise, administrators can start them via the
+ * JMX operation {@link #upgradeProject(long)}.
+ */
+@ManagedResource
+@Component(BulkCasUpgradeService.SERVICE_NAME)
+public class BulkCasUpgradeService
+    implements DisposableBean
+{
+    public static final String SERVICE_NAME = "bulkCasUpgradeService";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ProjectService projectService;
+    private final DocumentService documentService;
+    private final CasStorageService casStorageService;
+    private final CasStorageProperties casStorageProperties;
+    private final ExecutorService executor;
+
+    private final Map<Long, UpgradeJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong upgradedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public BulkCasUpgradeService(@Autowired ProjectService aProjectService,
+            @Autowired DocumentService aDocumentService,
+            @Autowired CasStorageService aCasStorageService,
+            @Autowired CasStorageProperties aCasStorageProperties)
+    {
+        projectService = aProjectService;
+        documentService = aDocumentService;
+        casStorageService = aCasStorageService;
+        casStorageProperties = aCasStorageProperties;
+        
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(
+                Math.max(1, casStorageProperties.getUpgrade().getThreads()), r -> {
+                    Thread thread = new Thread(r, "cas-upgrade-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * The upgrade runs on other threads, so it must only start once the layer changes have been
+     * committed.
+     */
+    @TransactionalEventListener(phase = AFTER_COMMIT, fallbackExecution = true)
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        if (casStorageProperties.getUpgrade().isAuto()) {
+            startUpgrade(aEvent.getProject());
+        }
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        UpgradeJob job = jobs.remove(aEvent.getProject().getId());
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Starts upgrading all CASes of the given project in the background.
+     *
+     * @param aProject
+     *            the project.
+     * @return the upgrade job which can be used to track the progress.
+     */
+    public UpgradeJob startUpgrade(Project aProject)
+    {
+        UpgradeJob job = new UpgradeJob(aProject);
+        UpgradeJob previous = jobs.put(aProject.getId(), job);
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        executor.execute(() -> plan(job));
+        return job;
+    }
+
+    @ManagedOperation(description = "Upgrades all annotation CASes of a project in the background")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "projectId", description = "Project ID") })
+    public void upgradeProject(long aProjectId)
+    {
+        startUpgrade(projectService.getProject(aProjectId));
+    }
+
+    /**
+     * @param aProject
+     *            the project.
+     * @return the upgrade job currently running for the given project (if any).
+     */
+    public Optional<UpgradeJob> getUpgrade(Project aProject)
+    {
+        return Optional.ofNullable(jobs.get(aProject.getId()));
+    }
+
+    private void plan(UpgradeJob aJob)
+    {
+        if (aJob.isCancelled()) {
+            return;
+        }
+
+        Project project = aJob.getProject();
+        int total = 0;
+        try {
+            for (SourceDocument doc : documentService.listSourceDocuments(project)) {
+                Set<String> users = new LinkedHashSet<>();
+                users.add(INITIAL_CAS_PSEUDO_USER);
+                users.add(CURATION_USER);
+                for (AnnotationDocument annDoc : documentService
+                        .listAllAnnotationDocuments(doc)) {
+                    users.add(annDoc.getUser());
+                }
+
+                for (String user : users) {
+                    total++;
+                    executor.execute(() -> upgrade(aJob, doc, user));
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to plan CAS upgrade of project [{}]({})", project.getName(),
+                    project.getId(), e);
+        }
+        finally {
+            aJob.setTotal(total);
+            finishIfComplete(aJob);
+        }
+    }
+
+    private void upgrade(UpgradeJob aJob, SourceDocument aDocument, String aUser)
+    {
+        try {
+            if (aJob.isCancelled()) {
+                return;
+            }
+
+            if (casStorageService.upgradeCasIfRequired(aDocument, aUser)) {
+                aJob.upgraded.incrementAndGet();
+                upgradedCount.incrementAndGet();
+            }
+        }
+        catch (Exception e) {
+            aJob.failed.incrementAndGet();
+            failedCount.incrementAndGet();
+            log.error("Unable to upgrade CAS of user [{}] for document [{}]({}) in project "
+                    + "[{}]({})", aUser, aDocument.getName(), aDocument.getId(),
+                    aDocument.getProject().getName(), aDocument.getProject().getId(), e);
+        }
+        finally {
+            aJob.processed.incrementAndGet();
+            finishIfComplete(aJob);
+        }
+    }
+
+    private void finishIfComplete(UpgradeJob aJob)
+    {
+        if (!aJob.isDone() || !jobs.remove(aJob.getProject().getId(), aJob)) {
+            return;
+        }
+
+        Project project = aJob.getProject();
+        log.info("Upgraded {} of {} CASes in project [{}]({}) in {}ms ({} failed)",
+                aJob.getUpgraded(), aJob.getTotal(), project.getName(), project.getId(),
+                System.currentTimeMillis() - aJob.start, aJob.getFailed());
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getUpgradedCasCount()
+    {
+        return upgradedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getFailedCasUpgradeCount()
+    {
+        return failedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getRunningUpgradeCount()
+    {
+        return jobs.size();
+    }
+
+    /**
+     * The progress of upgrading the CASes of a project.
+     */
+    public static class UpgradeJob
+    {
+        private final Project project;
+        private final long start = System.currentTimeMillis();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger upgraded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile int total = -1;
+        private volatile boolean cancelled;
+
+        private UpgradeJob(Project aProject)
+        {
+            project = aProject;
+        }
+
+        public Project getProject()
+        {
+            return project;
+        }
+
+        /**
+         * @return the number of CASes to check or {@code -1} if they have not been determined yet.
+         */
+        public int getTotal()
+        {
+            return total;
+        }
+
+        private void setTotal(int aTotal)
+        {
+            total = aTotal;
+        }
+
+        /**
+         * @return the number of CASes which have been checked (and upgraded if necessary) so far.
+         */
+        public int getProcessed()
+        {
+            return processed.get();
+        }
+
+        public int getUpgraded()
+        {
+            return upgraded.get();
+        }
+
+        public int getFailed()
+        {
+            return failed.get();
+        }
+
+        public boolean isDone()
+        {
+            int t = total;
+            return t >= 0 && processed.get() >= t;
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        private void cancel()
+        {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the history of CAS files. Instead of copying the whole CAS file for every version, the
+ * file is split into content-defined chunks which are stored (compressed) only once per document.
+ * Successive versions of a CAS - and CASes of different users for the same document - mostly
+ * consist of the same chunks, so a new version only adds the chunks that actually changed.
+ * <p>
+ * For each CAS, an index file lists the versions and the chunks they consist of. Whether a new
+ * version needs to be recorded is decided from an in-memory record of the latest version, so
+ * saving a CAS does not need to list or sort any files. Pruning old versions and removing chunks
+ * that are no longer referenced happens asynchronously.
+ * <p>
+ * Layout within the annotation folder of a document:
+ * <ul>
+ * <li>{@code history/<user>.idx} - one line per version: {@code timestamp length chunk,...}</li>
+ * <li>{@code history/chunks/<sha1>} - deflate-compressed chunk data</li>
+ * </ul>
+ */
+public class CasHistoryStore
+{
+    public static final String HISTORY_FOLDER = "history";
+    private static final String CHUNK_FOLDER = "chunks";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    // Content-defined chunking parameters - chunks are on average ~8KB
+    private static final int MIN_CHUNK_SIZE = 2 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final long CHUNK_MASK = (1 << 13) - 1;
+    private static final long[] GEAR = new long[256];
+    static {
+        // Fixed seed - chunk boundaries must be the same across restarts
+        Random rnd = new Random(0x5eed);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = rnd.nextLong();
+        }
+    }
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final BackupProperties backupProperties;
+    private final ExecutorService pruner;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Timestamp of the latest version of each CAS by history folder and user. Missing if not known
+     * yet - a value of {@code -1} means that there is no version yet.
+     */
+    private final Map<File, Map<String, Long>> latestVersions = new ConcurrentHashMap<>();
+
+    public CasHistoryStore(BackupProperties aBackupProperties)
+    {
+        backupProperties = aBackupProperties;
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        pruner = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cas-history-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isEnabled()
+    {
+        return backupProperties.getInterval() > 0;
+    }
+
+    /**
+     * Records a new version of the given CAS file if the latest version is older than the
+     * backup interval. The caller must hold a lock preventing concurrent modifications of the CAS
+     * file.
+     *
+     * @return whether a new version was recorded.
+     */
+    public boolean snapshot(File aCasFile, String aUser) throws IOException
+    {
+        return snapshot(aCasFile, aUser, false);
+    }
+
+    /**
+     * Records a new version of the given CAS file. The caller must hold a lock preventing
+     * concurrent modifications of the CAS file.
+     *
+     * @param aForce
+     *            whether to record the version even if the latest version is not older than the
+     *            backup interval, e.g. before the CAS file is replaced by an older version.
+     * @return whether a new version was recorded.
+     */
+    public boolean snapshot(File aCasFile, String aUser, boolean aForce) throws IOException
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        File historyFolder = new File(aCasFile.getParentFile(), HISTORY_FOLDER);
+        File indexFile = new File(historyFolder, aUser + INDEX_SUFFIX);
+        long now = aCasFile.lastModified();
+
+        synchronized (lockFor(historyFolder)) {
+            Map<String, Long> users = latestVersions.computeIfAbsent(historyFolder,
+                    k -> new ConcurrentHashMap<>());
+            long latest = users.computeIfAbsent(aUser, k -> readLatestVersion(indexFile));
+            if (latest >= 0 && (latest >= now || (!aForce
+                    && latest + (backupProperties.getInterval() * 1000) >= now))) {
+                return false;
+            }
+
+            Version version = new Version(now, aCasFile.length(),
+                    writeChunks(aCasFile, new File(historyFolder, CHUNK_FOLDER)));
+            Files.write(indexFile.toPath(), (version.toString() + "\n").getBytes(UTF_8), CREATE,
+                    APPEND);
+            users.put(aUser, now);
+        }
+
+        if (backupProperties.getKeep().getNumber() > 0
+                || backupProperties.getKeep().getTime() > 0) {
+            pruner.execute(() -> prune(historyFolder, indexFile, now));
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the timestamps of all recorded versions of the given CAS (oldest first).
+     */
+    public List<Long> listVersions(File aCasFile, String aUser) throws IOException
+    {
+        File historyFolder = new File(aCasFile.getParentFile(), HISTORY_FOLDER);
+        synchronized (lockFor(historyFolder)) {
+            List<Long> timestamps = new ArrayList<>();
+            for (Version v : readIndex(new File(historyFolder, aUser + INDEX_SUFFIX))) {
+                timestamps.add(v.timestamp);
+            }
+            return timestamps;
+        }
+    }
+
+    /**
+     * Reconstructs the given version of the CAS file.
+     */
+    public void restore(File aCasFile, String aUser, long aTimestamp, File aTarget)
+        throws IOException
+    {
+        File historyFolder = new File(aCasFile.getParentFile(), HISTORY_FOLDER);
+        File chunkFolder = new File(historyFolder, CHUNK_FOLDER);
+        synchronized (lockFor(historyFolder)) {
+            Version version = readIndex(new File(historyFolder, aUser + INDEX_SUFFIX)).stream()
+                    .filter(v -> v.timestamp == aTimestamp)
+                    .findFirst()
+                    .orElseThrow(() -> new FileNotFoundException("No version [" + aTimestamp
+                            + "] of [" + aCasFile + "] in history"));
+
+            FileUtils.forceMkdir(aTarget.getAbsoluteFile().getParentFile());
+            try (OutputStream os = new BufferedOutputStream(
+                    Files.newOutputStream(aTarget.toPath()))) {
+                for (String chunk : version.chunks) {
+                    try (InputStream is = new InflaterInputStream(
+                            Files.newInputStream(new File(chunkFolder, chunk).toPath()))) {
+                        copy(is, os);
+                    }
+                }
+            }
+
+            if (aTarget.length() != version.length) {
+                throw new IOException("Restored version [" + aTimestamp + "] of [" + aCasFile
+                        + "] is corrupt - expected " + version.length + " bytes but got "
+                        + aTarget.length());
+            }
+        }
+    }
+
+    /**
+     * Discards the in-memory record of the latest version of the given CAS, e.g. because the CAS
+     * itself has been deleted. The history remains on disk, so a deleted or reset CAS can still be
+     * restored from it.
+     */
+    public void forget(File aCasFile, String aUser)
+    {
+        File historyFolder = new File(aCasFile.getParentFile(), HISTORY_FOLDER);
+        synchronized (lockFor(historyFolder)) {
+            Map<String, Long> users = latestVersions.get(historyFolder);
+            if (users != null) {
+                users.remove(aUser);
+                if (users.isEmpty()) {
+                    latestVersions.remove(historyFolder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the in-memory records of all CASes in the given annotation folder. This must be
+     * called when the folder is deleted along with its document.
+     */
+    public void forgetAll(File aAnnotationFolder)
+    {
+        File historyFolder = new File(aAnnotationFolder, HISTORY_FOLDER);
+        synchronized (lockFor(historyFolder)) {
+            latestVersions.remove(historyFolder);
+        }
+    }
+
+    /**
+     * @return the number of CASes for which the latest version is held in memory.
+     */
+    public int getTrackedCount()
+    {
+        return latestVersions.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public void shutdown()
+    {
+        pruner.shutdown();
+        try {
+            pruner.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prune(File aHistoryFolder, File aIndexFile, long aNow)
+    {
+        synchronized (lockFor(aHistoryFolder)) {
+            try {
+                List<Version> versions = readIndex(aIndexFile);
+                List<Version> keep = new ArrayList<>(versions);
+
+                // Prune history based on number of versions
+                int maxVersions = backupProperties.getKeep().getNumber();
+                if (maxVersions > 0 && keep.size() > maxVersions) {
+                    keep = new ArrayList<>(keep.subList(keep.size() - maxVersions, keep.size()));
+                }
+
+                // Prune history based on time - the latest version is always kept
+                long maxAge = backupProperties.getKeep().getTime() * 1000;
+                if (maxAge > 0) {
+                    for (int i = 0; i < keep.size() - 1;) {
+                        if (keep.get(i).timestamp + maxAge < aNow) {
+                            keep.remove(i);
+                        }
+                        else {
+                            i++;
+                        }
+                    }
+                }
+
+                if (keep.size() == versions.size()) {
+                    return;
+                }
+
+                File tempFile = new File(aIndexFile.getPath() + ".tmp");
+                StringBuilder sb = new StringBuilder();
+                for (Version v : keep) {
+                    sb.append(v).append("\n");
+                }
+                Files.write(tempFile.toPath(), sb.toString().getBytes(UTF_8));
+                Files.move(tempFile.toPath(), aIndexFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+
+                log.debug("Removed {} versions from history [{}]", versions.size() - keep.size(),
+                        aIndexFile);
+
+                removeUnreferencedChunks(aHistoryFolder);
+            }
+            catch (Exception e) {
+                log.error("Unable to prune history [{}]", aIndexFile, e);
+            }
+        }
+    }
+
+    private void removeUnreferencedChunks(File aHistoryFolder) throws IOException
+    {
+        // Chunks are shared between the CASes of all users of a document
+        Set<String> referenced = new HashSet<>();
+        File[] indexFiles = aHistoryFolder.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexFiles != null) {
+            for (File indexFile : indexFiles) {
+                for (Version v : readIndex(indexFile)) {
+                    referenced.addAll(v.chunks);
+                }
+            }
+        }
+
+        File[] chunks = new File(aHistoryFolder, CHUNK_FOLDER).listFiles();
+        if (chunks != null) {
+            int removed = 0;
+            for (File chunk : chunks) {
+                if (!referenced.contains(chunk.getName())) {
+                    Files.deleteIfExists(chunk.toPath());
+                    removed++;
+                }
+            }
+            log.debug("Removed {} unreferenced chunks from history [{}]", removed,
+                    aHistoryFolder);
+        }
+    }
+
+    private List<String> writeChunks(File aFile, File aChunkFolder) throws IOException
+    {
+        FileUtils.forceMkdir(aChunkFolder);
+
+        List<String> chunks = new ArrayList<>();
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(MAX_CHUNK_SIZE);
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(aFile.toPath()))) {
+            long hash = 0;
+            int b;
+            while ((b = is.read()) != -1) {
+                chunk.write(b);
+                hash = (hash << 1) + GEAR[b];
+                if ((chunk.size() >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0)
+                        || chunk.size() >= MAX_CHUNK_SIZE) {
+                    chunks.add(writeChunk(chunk.toByteArray(), aChunkFolder));
+                    chunk.reset();
+                    hash = 0;
+                }
+            }
+        }
+
+        if (chunk.size() > 0) {
+            chunks.add(writeChunk(chunk.toByteArray(), aChunkFolder));
+        }
+
+        return chunks;
+    }
+
+    private String writeChunk(byte[] aData, File aChunkFolder) throws IOException
+    {
+        String id = sha1(aData);
+        File chunkFile = new File(aChunkFolder, id);
+        if (chunkFile.exists()) {
+            return id;
+        }
+
+        File tempFile = new File(aChunkFolder, id + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            try (OutputStream os = new DeflaterOutputStream(
+                    Files.newOutputStream(tempFile.toPath()), deflater)) {
+                os.write(aData);
+            }
+            Files.move(tempFile.toPath(), chunkFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        finally {
+            deflater.end();
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        return id;
+    }
+
+    private long readLatestVersion(File aIndexFile)
+    {
+        try {
+            List<Version> versions = readIndex(aIndexFile);
+            return versions.isEmpty() ? -1 : versions.get(versions.size() - 1).timestamp;
+        }
+        catch (IOException e) {
+            log.error("Unable to read history index [{}]", aIndexFile, e);
+            return -1;
+        }
+    }
+
+    private List<Version> readIndex(File aIndexFile) throws IOException
+    {
+        List<Version> versions = new ArrayList<>();
+        if (!aIndexFile.exists()) {
+            return versions;
+        }
+
+        for (String line : Files.readAllLines(aIndexFile.toPath(), UTF_8)) {
+            if (StringUtils.isNotBlank(line)) {
+                versions.add(Version.parse(line));
+            }
+        }
+        return versions;
+    }
+
+    private Object lockFor(File aHistoryFolder)
+    {
+        return locks[Math.floorMod(aHistoryFolder.hashCode(), locks.length)];
+    }
+
+    private static void copy(InputStream aIn, OutputStream aOut) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = aIn.read(buffer)) != -1) {
+            aOut.write(buffer, 0, n);
+        }
+    }
+
+    private static String sha1(byte[] aData)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(aData);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Version
+    {
+        private final long timestamp;
+        private final long length;
+        private final List<String> chunks;
+
+        public Version(long aTimestamp, long aLength, List<String> aChunks)
+        {
+            timestamp = aTimestamp;
+            length = aLength;
+            chunks = aChunks;
+        }
+
+        public static Version parse(String aLine) throws IOException
+        {
+            String[] fields = aLine.trim().split(" ");
+            if (fields.length < 2) {
+                throw new IOException("Invalid history index entry [" + aLine + "]");
+            }
+            List<String> chunks = fields.length > 2 ? Arrays.asList(fields[2].split(","))
+                    : new ArrayList<>();
+            return new Version(Long.parseLong(fields[0]), Long.parseLong(fields[1]), chunks);
+        }
+
+        @Override
+        public String toString()
+        {
+            return timestamp + " " + length + " " + String.join(",", chunks);
+        }
+    }
+}
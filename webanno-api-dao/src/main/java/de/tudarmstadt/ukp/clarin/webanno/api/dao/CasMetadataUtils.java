@@ -43,6 +43,8 @@ public class CasMetadataUtils
 {
     private static final Logger LOG = LoggerFactory.getLogger(CasMetadataUtils.class);
     
+    private static final String TYPE_SYSTEM_VERSION = "typeSystemVersion";
+    
     public static TypeSystemDescription getInternalTypeSystem()
     {
         return createTypeSystemDescription(
@@ -162,6 +164,45 @@ public class CasMetadataUtils
         aCas.addFsToIndexes(cmd);
     }
     
+    /**
+     * Returns the version of the project type system which the CAS was last checked against or
+     * upgraded to.
+     */
+    public static Optional<String> getTypeSystemVersion(CAS aCas)
+    {
+        return getCasMetadata(aCas)
+                .filter(cmd -> cmd.getType().getFeatureByBaseName(TYPE_SYSTEM_VERSION) != null)
+                .map(cmd -> FSUtil.getFeature(cmd, TYPE_SYSTEM_VERSION, String.class));
+    }
+    
+    /**
+     * Records the version of the project type system which the CAS has been checked against or
+     * upgraded to. If the CAS does not have any metadata yet or does not support recording the
+     * version, nothing is recorded.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aVersion
+     *            the type system version or {@code null} to clear the version.
+     */
+    public static void setTypeSystemVersion(CAS aCas, String aVersion)
+    {
+        getCasMetadata(aCas)
+                .filter(cmd -> cmd.getType().getFeatureByBaseName(TYPE_SYSTEM_VERSION) != null)
+                .ifPresent(cmd -> FSUtil.setFeature(cmd, TYPE_SYSTEM_VERSION, aVersion));
+    }
+    
+    private static Optional<AnnotationFS> getCasMetadata(CAS aCas)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null) {
+            return Optional.empty();
+        }
+        
+        List<AnnotationFS> cmds = new ArrayList<>(CasUtil.select(aCas, casMetadataType));
+        return cmds.size() == 1 ? Optional.of(cmds.get(0)) : Optional.empty();
+    }
+    
     public static Optional<String> getSourceDocumentName(CAS aCas)
     {
         try {
@@ -17,48 +17,93 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
-import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
-import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static java.util.Arrays.asList;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.impl.CASCompleteSerializer;
-import org.apache.uima.cas.impl.CASImpl;
 
 public final class CasPersistenceUtils
 {
+    private static final CasStorageCodec SERIALIZED = new SerializedCasStorageCodec();
+    
+    private static final List<CasStorageCodec> CODECS = asList(SERIALIZED,
+            new BinaryCasStorageCodec(false));
+    
     private CasPersistenceUtils()
     {
         // No instances
     }
     
+    /**
+     * Writes the CAS using Java object serialization.
+     */
     public static void writeSerializedCas(CAS aCas, File aFile)
         throws IOException
     {
-        FileUtils.forceMkdir(aFile.getParentFile());
-
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-            CASCompleteSerializer serializer = serializeCASComplete((CASImpl) aCas);
-            os.writeObject(serializer);
-        }
+        SERIALIZED.write(aCas, aFile);
     }
 
+    /**
+     * Reads the CAS from the given file. The storage format of the file is detected
+     * automatically.
+     */
     public static void readSerializedCas(CAS aCas, File aFile)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, (CASImpl) aCas);
+        getCodec(aFile).read(aCas, aFile);
+    }
+    
+    /**
+     * @return the codec which is able to read the given file.
+     */
+    public static CasStorageCodec getCodec(File aFile) throws IOException
+    {
+        byte[] header = new byte[CasStorageCodec.HEADER_SIZE];
+        int length = 0;
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(aFile.toPath()))) {
+            int n;
+            while (length < header.length
+                    && (n = is.read(header, length, header.length - length)) != -1) {
+                length += n;
+            }
+        }
+        
+        byte[] actualHeader = Arrays.copyOf(header, length);
+        for (CasStorageCodec codec : CODECS) {
+            if (codec.canRead(actualHeader)) {
+                return codec;
+            }
+        }
+        
+        throw new IOException("Unable to determine storage format of CAS file [" + aFile + "]");
+    }
+    
+    /**
+     * Creates the codec with the given ID.
+     * 
+     * @param aId
+     *            the codec ID.
+     * @param aCompress
+     *            whether the codec should compress the data (if supported by the codec).
+     * @return the codec.
+     */
+    public static CasStorageCodec createCodec(String aId, boolean aCompress)
+    {
+        if (SerializedCasStorageCodec.ID.equals(aId)) {
+            return new SerializedCasStorageCodec();
+        }
+        else if (BinaryCasStorageCodec.ID.equals(aId)) {
+            return new BinaryCasStorageCodec(aCompress);
         }
-        catch (ClassNotFoundException e) {
-            throw new IOException(e);
+        else {
+            throw new IllegalArgumentException("Unknown CAS storage codec [" + aId + "]");
         }
     }
 }
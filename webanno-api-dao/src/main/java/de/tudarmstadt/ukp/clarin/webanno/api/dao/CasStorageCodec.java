@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.uima.cas.CAS;
+
+/**
+ * Encodes CASes into files of the CAS storage and decodes them again.
+ * 
+ * @see CasPersistenceUtils#readSerializedCas(CAS, File)
+ */
+public interface CasStorageCodec
+{
+    /**
+     * Number of bytes from the start of a file that are passed to {@link #canRead(byte[])}.
+     */
+    int HEADER_SIZE = 4;
+    
+    /**
+     * @return the identifier used to select the codec in the configuration.
+     */
+    String getId();
+
+    /**
+     * Checks if the file starting with the given bytes has been written by this codec.
+     * 
+     * @param aHeader
+     *            the first bytes of the file (may be shorter than {@link #HEADER_SIZE} if the
+     *            file is shorter).
+     * @return whether this codec can read the file.
+     */
+    boolean canRead(byte[] aHeader);
+
+    void write(CAS aCas, File aFile) throws IOException;
+
+    /**
+     * Reads the given file into the given CAS. The CAS is re-initialized with the type system
+     * stored with the file.
+     */
+    void read(CAS aCas, File aFile) throws IOException;
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the locks used by the {@link CasStorageServiceImpl}. There is one read/write lock per
+ * annotation CAS (i.e. per document and user) so that operations on different CASes do not block
+ * each other. Additionally, there is a global read/write lock: every regular operation holds it
+ * in shared mode while {@link #exclusiveLock() exclusive bulk operations} hold it in exclusive
+ * mode.
+ * <p>
+ * Locks are acquired via try-with-resources:
+ * <pre>
+ * try (CasStorageLock lock = lockManager.writeLock(key)) {
+ *     ...
+ * }
+ * </pre>
+ * <p>
+ * A thread holding the read lock on a CAS must not attempt to acquire the write lock on the same
+ * CAS - read locks cannot be upgraded. The lock manager also collects statistics on how long
+ * threads had to wait for their locks.
+ */
+public class CasStorageLockManager
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Waiting longer than this for a lock is logged as a warning.
+     */
+    private static final long SLOW_LOCK_THRESHOLD_MS = 1000;
+
+    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
+    private final ConcurrentHashMap<CasCacheKey, CasLock> casLocks = new ConcurrentHashMap<>();
+
+    private final AtomicLong lockCount = new AtomicLong();
+    private final AtomicLong contendedLockCount = new AtomicLong();
+    private final AtomicLong lockWaitTime = new AtomicLong();
+    private final AtomicLong maxLockWaitTime = new AtomicLong();
+
+    /**
+     * Acquires shared access to the given CAS. Multiple threads may read the same CAS
+     * concurrently.
+     */
+    public CasStorageLock readLock(CasCacheKey aKey)
+    {
+        return acquireCasLock(aKey, false);
+    }
+
+    /**
+     * Acquires exclusive access to the given CAS, e.g. for writing or deleting it.
+     */
+    public CasStorageLock writeLock(CasCacheKey aKey)
+    {
+        return acquireCasLock(aKey, true);
+    }
+
+    /**
+     * Acquires exclusive access to the entire CAS storage. The thread holding this lock may
+     * nevertheless acquire per-CAS locks.
+     */
+    public CasStorageLock exclusiveLock()
+    {
+        Lock lock = globalLock.writeLock();
+        acquire(lock, "<all>");
+        return lock::unlock;
+    }
+
+    private CasStorageLock acquireCasLock(CasCacheKey aKey, boolean aExclusive)
+    {
+        Lock global = globalLock.readLock();
+        acquire(global, aKey);
+
+        CasLock casLock;
+        try {
+            casLock = casLocks.compute(aKey, (k, v) -> {
+                CasLock l = v != null ? v : new CasLock();
+                l.users++;
+                return l;
+            });
+        }
+        catch (RuntimeException e) {
+            global.unlock();
+            throw e;
+        }
+
+        Lock lock = aExclusive ? casLock.lock.writeLock() : casLock.lock.readLock();
+        try {
+            acquire(lock, aKey);
+        }
+        catch (RuntimeException e) {
+            release(aKey);
+            global.unlock();
+            throw e;
+        }
+
+        return () -> {
+            lock.unlock();
+            release(aKey);
+            global.unlock();
+        };
+    }
+
+    private void release(CasCacheKey aKey)
+    {
+        // Drop the lock object once nobody uses it anymore so the map does not grow with the
+        // number of CASes ever accessed
+        casLocks.computeIfPresent(aKey, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    private void acquire(Lock aLock, Object aTarget)
+    {
+        lockCount.incrementAndGet();
+
+        if (aLock.tryLock()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        aLock.lock();
+        long duration = NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        contendedLockCount.incrementAndGet();
+        lockWaitTime.addAndGet(duration);
+        maxLockWaitTime.accumulateAndGet(duration, Math::max);
+
+        if (duration > SLOW_LOCK_THRESHOLD_MS) {
+            log.warn("Waited {}ms for CAS storage lock on {}", duration, aTarget);
+        }
+        else {
+            log.trace("Waited {}ms for CAS storage lock on {}", duration, aTarget);
+        }
+    }
+
+    /**
+     * @return total number of lock acquisitions.
+     */
+    public long getLockCount()
+    {
+        return lockCount.get();
+    }
+
+    /**
+     * @return number of lock acquisitions that had to wait for another thread.
+     */
+    public long getContendedLockCount()
+    {
+        return contendedLockCount.get();
+    }
+
+    /**
+     * @return accumulated time in milliseconds that threads waited for locks.
+     */
+    public long getLockWaitTime()
+    {
+        return lockWaitTime.get();
+    }
+
+    /**
+     * @return longest time in milliseconds a thread waited for a lock.
+     */
+    public long getMaxLockWaitTime()
+    {
+        return maxLockWaitTime.get();
+    }
+
+    /**
+     * @return number of CASes for which a lock is currently held or requested.
+     */
+    public int getActiveLockCount()
+    {
+        return casLocks.size();
+    }
+
+    private static class CasLock
+    {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * Number of threads holding or waiting for this lock. Only modified while the map entry
+         * is being computed.
+         */
+        private int users;
+    }
+
+    /**
+     * Handle for a held lock. Closing the handle releases the lock.
+     */
+    @FunctionalInterface
+    public interface CasStorageLock
+        extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+}
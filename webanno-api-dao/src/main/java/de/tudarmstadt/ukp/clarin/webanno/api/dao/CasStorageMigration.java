@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts all annotation CAS files in a repository to the given storage format. The application
+ * must not be running while the migration is performed. Each converted file is read back and
+ * compared to the original before the original is replaced.
+ * <p>
+ * Usage: {@code CasStorageMigration <repository-folder> <codec> [compressed]}
+ */
+public class CasStorageMigration
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasStorageCodec target;
+
+    private int converted;
+    private int skipped;
+    private int failed;
+    private long sizeBefore;
+    private long sizeAfter;
+
+    public CasStorageMigration(CasStorageCodec aTarget)
+    {
+        target = aTarget;
+    }
+
+    public static void main(String[] aArgs) throws IOException
+    {
+        if (aArgs.length < 2) {
+            System.err.println("Usage: CasStorageMigration <repository-folder> <codec> "
+                    + "[compressed]");
+            System.exit(1);
+        }
+
+        CasStorageCodec codec = CasPersistenceUtils.createCodec(aArgs[1],
+                aArgs.length > 2 && "compressed".equals(aArgs[2]));
+        CasStorageMigration migration = new CasStorageMigration(codec);
+
+        long start = System.currentTimeMillis();
+        migration.migrateRepository(new File(aArgs[0]));
+        long duration = System.currentTimeMillis() - start;
+
+        System.out.printf("Converted: %d  skipped: %d  failed: %d  in %dms%n",
+                migration.getConverted(), migration.getSkipped(), migration.getFailed(),
+                duration);
+        System.out.printf("Size of converted files: %d -> %d bytes%n",
+                migration.getSizeBefore(), migration.getSizeAfter());
+    }
+
+    public void migrateRepository(File aRepository) throws IOException
+    {
+        File[] projects = new File(aRepository, PROJECT_FOLDER).listFiles(File::isDirectory);
+        if (projects == null) {
+            throw new IOException("No projects found in repository [" + aRepository + "]");
+        }
+
+        for (File project : projects) {
+            File[] documents = new File(project, DOCUMENT_FOLDER).listFiles(File::isDirectory);
+            if (documents == null) {
+                continue;
+            }
+
+            for (File document : documents) {
+                File[] casFiles = new File(document, ANNOTATION_FOLDER)
+                        .listFiles((dir, name) -> name.endsWith(".ser"));
+                if (casFiles == null) {
+                    continue;
+                }
+
+                for (File casFile : casFiles) {
+                    try {
+                        migrateFile(casFile);
+                    }
+                    catch (Exception e) {
+                        failed++;
+                        log.error("Unable to convert [{}]", casFile, e);
+                    }
+                }
+            }
+        }
+    }
+
+    public void migrateFile(File aFile) throws IOException
+    {
+        CasStorageCodec source = CasPersistenceUtils.getCodec(aFile);
+        if (source.getId().equals(target.getId())) {
+            skipped++;
+            return;
+        }
+
+        CAS cas = createCas();
+        source.read(cas, aFile);
+
+        File tempFile = new File(aFile.getPath() + ".migrating");
+        try {
+            target.write(cas, tempFile);
+
+            CAS check = createCas();
+            target.read(check, tempFile);
+            verify(aFile, cas, check);
+
+            // Keep the timestamp - it is used to detect concurrent modifications
+            long size = aFile.length();
+            tempFile.setLastModified(aFile.lastModified());
+            Files.move(tempFile.toPath(), aFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+
+            sizeBefore += size;
+            sizeAfter += aFile.length();
+            converted++;
+            log.info("Converted [{}] from [{}] to [{}]", aFile, source.getId(), target.getId());
+        }
+        finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private void verify(File aFile, CAS aExpected, CAS aActual) throws IOException
+    {
+        if (!Objects.equals(aExpected.getDocumentText(), aActual.getDocumentText())) {
+            throw new IOException("Document text of [" + aFile + "] changed during conversion");
+        }
+
+        int expectedSize = CasUtil.selectAll(aExpected).size();
+        int actualSize = CasUtil.selectAll(aActual).size();
+        if (expectedSize != actualSize) {
+            throw new IOException("Number of feature structures in [" + aFile
+                    + "] changed during conversion: " + expectedSize + " -> " + actualSize);
+        }
+    }
+
+    private static CAS createCas() throws IOException
+    {
+        try {
+            return CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        }
+        catch (UIMAException e) {
+            throw new IOException("Unable to create empty CAS", e);
+        }
+    }
+
+    public int getConverted()
+    {
+        return converted;
+    }
+
+    public int getSkipped()
+    {
+        return skipped;
+    }
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+    public long getSizeBefore()
+    {
+        return sizeBefore;
+    }
+
+    public long getSizeAfter()
+    {
+        return sizeAfter;
+    }
+}
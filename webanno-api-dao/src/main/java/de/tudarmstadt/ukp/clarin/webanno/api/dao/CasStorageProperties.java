@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties("cas-storage")
+public class CasStorageProperties
+{
+    private final CacheOptions cache = new CacheOptions();
+    private final FormatOptions format = new FormatOptions();
+    private final UpgradeOptions upgrade = new UpgradeOptions();
+
+    public CacheOptions getCache()
+    {
+        return cache;
+    }
+
+    public FormatOptions getFormat()
+    {
+        return format;
+    }
+
+    public UpgradeOptions getUpgrade()
+    {
+        return upgrade;
+    }
+
+    public static class CacheOptions
+    {
+        private DataSize size = DataSize.ofMegabytes(64);
+
+        /**
+         * @return the approximate amount of memory the application-wide CAS cache may use. A
+         *         size of {@code 0} disables the cache.
+         */
+        public DataSize getSize()
+        {
+            return size;
+        }
+
+        public void setSize(DataSize aSize)
+        {
+            size = aSize;
+        }
+    }
+
+    public static class FormatOptions
+    {
+        private String codec = SerializedCasStorageCodec.ID;
+        private boolean compressed;
+
+        /**
+         * @return the ID of the {@link CasStorageCodec} used to write CASes. CASes are always
+         *         read irrespective of the format they were written in.
+         */
+        public String getCodec()
+        {
+            return codec;
+        }
+
+        public void setCodec(String aCodec)
+        {
+            codec = aCodec;
+        }
+
+        /**
+         * @return whether the codec should additionally compress the data (if supported).
+         */
+        public boolean isCompressed()
+        {
+            return compressed;
+        }
+
+        public void setCompressed(boolean aCompressed)
+        {
+            compressed = aCompressed;
+        }
+    }
+
+    public static class UpgradeOptions
+    {
+        private boolean auto;
+        private int threads = 2;
+
+        /**
+         * @return whether all CASes of a project are upgraded in the background when the layers
+         *         of the project change. Otherwise, each CAS is upgraded when it is loaded.
+         */
+        public boolean isAuto()
+        {
+            return auto;
+        }
+
+        public void setAuto(boolean aAuto)
+        {
+            auto = aAuto;
+        }
+
+        /**
+         * @return the number of CASes upgraded in parallel by background upgrades.
+         */
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+    }
+}
@@ -21,21 +21,20 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.NO_CAS_UPGRAD
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -47,8 +46,16 @@ import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
@@ -57,19 +64,25 @@ import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageLockManager.CasStorageLock;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 
+@ManagedResource
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    private final CasStorageLockManager lockManager = new CasStorageLockManager();
+    private final SharedCasCache sharedCache;
+    private final CasStorageCodec codec;
+    private final CasHistoryStore historyStore;
 
     public static final MetaDataKey<Map<CasCacheKey, CasCacheEntry>> CACHE = 
             new MetaDataKey<Map<CasCacheKey, CasCacheEntry>>()
@@ -86,6 +99,7 @@ public class CasStorageServiceImpl
     private final AnnotationSchemaService schemaService;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasStorageProperties casStorageProperties;
     
     /**
      * @param aCasDoctor
@@ -97,12 +111,18 @@ public class CasStorageServiceImpl
             @Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired(required = false) AnnotationSchemaService aSchemaService,
             @Autowired RepositoryProperties aRepositoryProperties,
-            @Autowired BackupProperties aBackupProperties)
+            @Autowired BackupProperties aBackupProperties,
+            @Autowired CasStorageProperties aCasStorageProperties)
     {
         casDoctor = aCasDoctor;
         schemaService = aSchemaService;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
+        casStorageProperties = aCasStorageProperties;
+        sharedCache = new SharedCasCache(casStorageProperties.getCache().getSize().toBytes());
+        codec = CasPersistenceUtils.createCodec(casStorageProperties.getFormat().getCodec(),
+                casStorageProperties.getFormat().isCompressed());
+        historyStore = new CasHistoryStore(backupProperties);
         
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -116,6 +136,16 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+        
+        log.info("CAS storage format: {} (compressed: {})", codec.getId(),
+                casStorageProperties.getFormat().isCompressed());
+        
+        if (sharedCache.isEnabled()) {
+            log.info("Shared CAS cache enabled - max-size: {} bytes", sharedCache.getMaxSize());
+        }
+        else {
+            log.info("Shared CAS cache disabled");
+        }
     }
 
     /**
@@ -158,12 +188,12 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getId() + ")", e);
         }
         
-        synchronized (lock) {
+        CasCacheKey key = CasCacheKey.of(aDocument, aUserName);
+        try (CasStorageLock lock = lockManager.writeLock(key)) {
             realWriteCas(aDocument, aUserName, aCas);
     
             // Update the CAS in the cache
             if (isCacheEnabled()) {
-                CasCacheKey key = CasCacheKey.of(aDocument, aUserName);
                 CasCacheEntry entry = getCache().get(key);
                 if (entry == null) {
                     entry = new CasCacheEntry();
@@ -190,6 +220,9 @@ public class CasStorageServiceImpl
 
         File currentVersion = new File(annotationFolder, username + ".ser");
         File oldVersion = new File(annotationFolder, username + ".ser.old");
+        
+        // Whatever happens below, the snapshot in the shared cache is no longer valid
+        sharedCache.invalidate(CasCacheKey.of(aDocument, aUserName));
 
         // Save current version
         try {
@@ -208,8 +241,7 @@ public class CasStorageServiceImpl
             WebAnnoCasUtil.setDocumentId(aCas, aUserName);
             
             long start = System.currentTimeMillis();
-            CasPersistenceUtils.writeSerializedCas(aCas,
-                    new File(annotationFolder, aUserName + ".ser"));
+            codec.write(aCas, new File(annotationFolder, aUserName + ".ser"));
             long duration = System.currentTimeMillis() - start;
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -267,98 +299,16 @@ public class CasStorageServiceImpl
         }
 
         // Manage history
-        if (backupProperties.getInterval() > 0) {
-            // Determine the reference point in time based on the current version
-            long now = currentVersion.lastModified();
-
-            // Get all history files for the current user
-            File[] history = annotationFolder.listFiles(new FileFilter()
-            {
-                private final Matcher matcher = Pattern
-                        .compile(Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                @Override
-                public boolean accept(File aFile)
-                {
-                    // Check if the filename matches the pattern given above.
-                    return matcher.reset(aFile.getName()).matches();
-                }
-            });
-
-            // Sort the files (oldest one first)
-            Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-            // Check if we need to make a new history file
-            boolean historyFileCreated = false;
-            File historyFile = new File(annotationFolder, username + ".ser." + now + ".bak");
-            if (history.length == 0) {
-                // If there is no history yet but we should keep history, then we create a
-                // history file in any case.
-                FileUtils.copyFile(currentVersion, historyFile);
-                historyFileCreated = true;
-            }
-            else {
-                // Check if the newest history file is significantly older than the current one
-                File latestHistory = history[history.length - 1];
-                if (latestHistory.lastModified() + (backupProperties.getInterval() * 1000) < now) {
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-            }
-
-            // Prune history based on number of backup
-            if (historyFileCreated) {
-                // The new version is not in the history, so we keep that in any case. That
-                // means we need to keep one less.
-                int toKeep = Math.max(backupProperties.getKeep().getNumber() - 1, 0);
-                if ((backupProperties.getKeep().getNumber() > 0) && (toKeep < history.length)) {
-                    // Copy the oldest files to a new array
-                    File[] toRemove = new File[history.length - toKeep];
-                    System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                    // Restrict the history to what is left
-                    File[] newHistory = new File[toKeep];
-                    if (toKeep > 0) {
-                        System.arraycopy(history, toRemove.length, newHistory, 0,
-                                newHistory.length);
-                    }
-                    history = newHistory;
-
-                    // Remove these old files
-                    for (File file : toRemove) {
-                        FileUtils.forceDelete(file);
-
-                        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                                String.valueOf(aDocument.getProject().getId()))) {
-                            log.debug(
-                                    "Removed surplus history file [{}] of user [{}] for "
-                                            + "document [{}]({}) in project [{}]({})",
-                                    file.getName(), aUserName, aDocument.getName(),
-                                    aDocument.getId(), aDocument.getProject().getName(),
-                                    aDocument.getProject().getId());
-                        }
-                    }
-                }
-
-                // Prune history based on time
-                if (backupProperties.getKeep().getTime() > 0) {
-                    for (File file : history) {
-                        if ((file.lastModified()
-                                + (backupProperties.getKeep().getTime() * 1000)) < now) {
-                            FileUtils.forceDelete(file);
-
-                            try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                    Logging.KEY_PROJECT_ID,
-                                    String.valueOf(aDocument.getProject().getId()))) {
-                                log.debug(
-                                        "Removed outdated history file [{}] of user [{}] for "
-                                                + "document [{}]({}) in project [{}]({})",
-                                        file.getName(), aUserName, aDocument.getName(),
-                                        aDocument.getId(), aDocument.getProject().getName(),
-                                        aDocument.getProject().getId());
-                            }
-                        }
-                    }
+        if (historyStore.isEnabled()) {
+            if (historyStore.snapshot(currentVersion, username)) {
+                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                        String.valueOf(aDocument.getProject().getId()))) {
+                    log.debug(
+                            "Added history version [{}] of user [{}] for document [{}]({}) in "
+                                    + "project [{}]({})",
+                            currentVersion.lastModified(), aUserName, aDocument.getName(),
+                            aDocument.getId(), aDocument.getProject().getName(),
+                            aDocument.getProject().getId());
                 }
             }
         }
@@ -390,12 +340,19 @@ public class CasStorageServiceImpl
             boolean aAnalyzeAndRepair, CasUpgradeMode aUpgradeMode, CasProvider aSupplier)
         throws IOException
     {
-        synchronized (lock) {
-            long start = System.currentTimeMillis();
-            
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        long start = System.currentTimeMillis();
+        
+        CAS cas = null;
+        String source = null;
+        File casFile = casFile(aDocument, aUsername);
+        
+        // Try loading the CAS under a shared lock first - that is sufficient as long as we do
+        // not need to create the CAS
+        try (CasStorageLock lock = lockManager.readLock(key)) {
             // Check if we have the CAS in the cache
             if (isCacheEnabled()) {
-                CasCacheEntry entry = getCache().get(CasCacheKey.of(aDocument, aUsername));
+                CasCacheEntry entry = getCache().get(key);
                 if (entry != null) {
                     log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
                     entry.reads++;
@@ -404,61 +361,84 @@ public class CasStorageServiceImpl
             }
             
             // If the CAS is not in the cache, load it from disk
-            CAS cas;
-            String source;
-            File casFile = getCasFile(aDocument, aUsername);
             if (casFile.exists()) {
-                cas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
-                if (schemaService != null) {
-                    try {
-                        schemaService.upgradeCas(cas, aDocument, aUsername, aUpgradeMode);
-                    }
-                    catch (UIMAException e) {
-                        throw new IOException(e);
-                    }
-                }
+                cas = readAndUpgradeCas(aDocument, aUsername, aAnalyzeAndRepair, aUpgradeMode,
+                        casFile);
                 source = "disk";
             }
-            else if (aSupplier != null) {
-                cas = aSupplier.get();
-                if (schemaService != null) {
-                    try {
-                        schemaService.upgradeCas(cas, aDocument, aUsername, aUpgradeMode);
-                    }
-                    catch (UIMAException e) {
-                        throw new IOException(e);
-                    }
-                }
-                source = "importer";
-                realWriteCas(aDocument, aUsername, cas);
-            }
-            else {
+        }
+        
+        if (cas == null) {
+            if (aSupplier == null) {
                 throw new FileNotFoundException("CAS file for [" + aDocument.getId() + ","
                         + aUsername + "] does not exist at [" + casFile
                         + "] and no initializer is specified.");
             }
             
-            // Add/update the CAS metadata
-            CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, aDocument, aUsername);
-            
-            long duration = System.currentTimeMillis() - start;
-            
-            // Update the cache
-            if (isCacheEnabled()) {
-                CasCacheEntry entry = new CasCacheEntry();
-                entry.cas = cas;
-                entry.writes++;
-                getCache().put(CasCacheKey.of(aDocument, aUsername), entry);
-                log.debug("Loaded CAS [{},{}] from {} in {}ms and stored in cache",
-                        aDocument.getId(), aUsername, source, duration);
+            try (CasStorageLock lock = lockManager.writeLock(key)) {
+                // Another thread may have created the CAS while we were waiting for the lock
+                if (casFile.exists()) {
+                    cas = readAndUpgradeCas(aDocument, aUsername, aAnalyzeAndRepair,
+                            aUpgradeMode, casFile);
+                    source = "disk";
+                }
+                else {
+                    cas = aSupplier.get();
+                    if (schemaService != null) {
+                        try {
+                            schemaService.upgradeCas(cas, aDocument, aUsername, aUpgradeMode);
+                        }
+                        catch (UIMAException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    source = "importer";
+                    realWriteCas(aDocument, aUsername, cas);
+                }
             }
-            else {
-                log.debug("Loaded CAS [{},{}] from {} in {}ms", aDocument.getId(), aUsername,
-                        source, duration);
+        }
+        
+        long duration = System.currentTimeMillis() - start;
+        
+        // Update the cache
+        if (isCacheEnabled()) {
+            CasCacheEntry entry = new CasCacheEntry();
+            entry.cas = cas;
+            entry.writes++;
+            getCache().put(key, entry);
+            log.debug("Loaded CAS [{},{}] from {} in {}ms and stored in cache",
+                    aDocument.getId(), aUsername, source, duration);
+        }
+        else {
+            log.debug("Loaded CAS [{},{}] from {} in {}ms", aDocument.getId(), aUsername,
+                    source, duration);
+        }
+        
+        return cas;
+    }
+    
+    /**
+     * Loads the CAS from disk, upgrades it if requested and updates its metadata. The caller
+     * must hold at least a read lock on the CAS.
+     */
+    private CAS readAndUpgradeCas(SourceDocument aDocument, String aUsername,
+            boolean aAnalyzeAndRepair, CasUpgradeMode aUpgradeMode, File aCasFile)
+        throws IOException
+    {
+        CAS cas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
+        if (schemaService != null) {
+            try {
+                schemaService.upgradeCas(cas, aDocument, aUsername, aUpgradeMode);
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
             }
-            
-            return cas;
         }
+        
+        // Add/update the CAS metadata
+        CasMetadataUtils.addOrUpdateCasMetadata(cas, aCasFile, aDocument, aUsername);
+        
+        return cas;
     }
     
     private CAS realReadCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
@@ -468,7 +448,7 @@ public class CasStorageServiceImpl
                 aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
                 aDocument.getProject().getId());
         
-        File casFile = getCasFile(aDocument, aUsername);
+        File casFile = casFile(aDocument, aUsername);
         File oldCasFile = new File(casFile.getPath() + ".old");
         
         String msgOldExists = "";
@@ -500,7 +480,17 @@ public class CasStorageServiceImpl
         }
         
         try {
-            CasPersistenceUtils.readSerializedCas(cas, casFile);
+            CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+            long timestamp = casFile.lastModified();
+            if (isSharedCacheEnabled() && sharedCache.checkout(key, timestamp, cas)) {
+                log.debug("Restored CAS [{},{}] from shared cache", aDocument.getId(), aUsername);
+            }
+            else {
+                CasPersistenceUtils.readSerializedCas(cas, casFile);
+                if (isSharedCacheEnabled()) {
+                    sharedCache.put(key, timestamp, cas);
+                }
+            }
         }
         catch (Exception e) {
             throw new IOException("Annotation document of user [" + aUsername
@@ -517,17 +507,152 @@ public class CasStorageServiceImpl
         return cas;
     }
     
+    @Override
+    public boolean upgradeCasIfRequired(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        if (schemaService == null) {
+            return false;
+        }
+        
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        
+        // The write lock is re-entrant, so we can keep it while writing the upgraded CAS
+        try (CasStorageLock lock = lockManager.writeLock(key)) {
+            File currentVersion = casFile(aDocument, aUsername);
+            if (!currentVersion.exists()) {
+                return false;
+            }
+            
+            CAS cas = realReadCas(aDocument, aUsername, false);
+            try {
+                if (!schemaService.upgradeCasIfRequired(cas, aDocument)) {
+                    return false;
+                }
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
+            }
+            
+            CasMetadataUtils.addOrUpdateCasMetadata(cas, currentVersion, aDocument, aUsername);
+            
+            // A CAS cached in the current request would be outdated now
+            if (isCacheEnabled()) {
+                getCache().remove(key);
+            }
+            
+            writeCas(aDocument, cas, aUsername);
+            return true;
+        }
+    }
+    
     @Override
     public boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException
     {
-        synchronized (lock) {
-
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        try (CasStorageLock lock = lockManager.writeLock(key)) {
             if (isCacheEnabled()) {
-                getCache().remove(CasCacheKey.of(aDocument, aUsername));
+                getCache().remove(key);
             }
+            
+            sharedCache.invalidate(key);
 
-            return new File(getAnnotationFolder(aDocument), aUsername + ".ser").delete();
+            File casFile = casFile(aDocument, aUsername);
+            historyStore.forget(casFile, aUsername);
+            return casFile.delete();
+        }
+    }
+    
+    @Override
+    public List<Long> listCasVersions(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Validate.notNull(aDocument, "Source document must be specified");
+        Validate.notBlank(aUsername, "User must be specified");
+        
+        return historyStore.listVersions(casFile(aDocument, aUsername), aUsername);
+    }
+    
+    @Override
+    public void restoreCas(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException
+    {
+        Validate.notNull(aDocument, "Source document must be specified");
+        Validate.notBlank(aUsername, "User must be specified");
+        
+        // Without the history, the current state of the CAS could not be preserved
+        if (!historyStore.isEnabled()) {
+            throw new IOException("Internal backups are disabled - not restoring CAS of user ["
+                    + aUsername + "] for source document [" + aDocument.getName() + "] ("
+                    + aDocument.getId() + ")");
         }
+        
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        try (CasStorageLock lock = lockManager.writeLock(key)) {
+            File casFile = casFile(aDocument, aUsername);
+            File restoredFile = new File(casFile.getPath() + ".restore");
+            long previousTimestamp = casFile.lastModified();
+            try {
+                historyStore.restore(casFile, aUsername, aTimestamp, restoredFile);
+                if (casFile.exists()) {
+                    historyStore.snapshot(casFile, aUsername, true);
+                }
+                Files.move(restoredFile.toPath(), casFile.toPath(), REPLACE_EXISTING,
+                        ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(restoredFile.toPath());
+            }
+            
+            // Editors still holding the replaced version must notice the change when saving
+            if (casFile.lastModified() <= previousTimestamp) {
+                casFile.setLastModified(previousTimestamp + 1000);
+            }
+            
+            sharedCache.invalidate(key);
+            if (isCacheEnabled()) {
+                getCache().remove(key);
+            }
+            
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aDocument.getProject().getId()))) {
+                log.info("Restored version [{}] of annotations for user [{}] on document [{}]({}) "
+                        + "in project [{}]({})", aTimestamp, aUsername, aDocument.getName(),
+                        aDocument.getId(), aDocument.getProject().getName(),
+                        aDocument.getProject().getId());
+            }
+        }
+    }
+    
+    @ManagedOperation(description = "Lists the backed up versions of an annotation CAS")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "projectId", description = "Project ID"),
+            @ManagedOperationParameter(name = "documentId", description = "Document ID"),
+            @ManagedOperationParameter(name = "user", description = "User name") })
+    public List<Long> listBackups(long aProjectId, long aDocumentId, String aUsername)
+        throws IOException
+    {
+        return listCasVersions(documentRef(aProjectId, aDocumentId), aUsername);
+    }
+    
+    @ManagedOperation(description = "Replaces an annotation CAS with a backed up version")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "projectId", description = "Project ID"),
+            @ManagedOperationParameter(name = "documentId", description = "Document ID"),
+            @ManagedOperationParameter(name = "user", description = "User name"),
+            @ManagedOperationParameter(name = "timestamp", description = "Version to restore") })
+    public void restoreBackup(long aProjectId, long aDocumentId, String aUsername,
+            long aTimestamp)
+        throws IOException
+    {
+        restoreCas(documentRef(aProjectId, aDocumentId), aUsername, aTimestamp);
+    }
+    
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        // The annotation folder including the history is deleted along with the document
+        historyStore.forgetAll(annotationFolder(aEvent.getDocument()));
     }
     
     @Override
@@ -590,6 +715,11 @@ public class CasStorageServiceImpl
         Validate.notNull(aDocument, "Source document must be specified");
         Validate.notBlank(aUser, "User must be specified");
 
+        return casFile(aDocument, aUser);
+    }
+    
+    private File casFile(SourceDocument aDocument, String aUser) throws IOException
+    {
         return new File(getAnnotationFolder(aDocument), aUser + ".ser");
     }
     
@@ -602,8 +732,8 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
-            return getCasFile(aDocument, aUser).exists();
+        try (CasStorageLock lock = lockManager.readLock(CasCacheKey.of(aDocument, aUser))) {
+            return casFile(aDocument, aUser).exists();
         }
     }
 
@@ -615,8 +745,8 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
-            File casFile = getCasFile(aDocument, aUser);
+        try (CasStorageLock lock = lockManager.readLock(CasCacheKey.of(aDocument, aUser))) {
+            File casFile = casFile(aDocument, aUser);
             if (!casFile.exists()) {
                 return Optional.empty();
             }
@@ -638,13 +768,31 @@ public class CasStorageServiceImpl
     {
         Validate.notNull(aDocument, "Source document must be specified");
         
-        File annotationFolder = new File(repositoryProperties.getPath(),
-                "/" + PROJECT_FOLDER + "/" + aDocument.getProject().getId() + "/" + DOCUMENT_FOLDER
-                        + "/" + aDocument.getId() + "/" + ANNOTATION_FOLDER);
+        File annotationFolder = annotationFolder(aDocument);
         FileUtils.forceMkdir(annotationFolder);
         return annotationFolder;
     }
     
+    private File annotationFolder(SourceDocument aDocument)
+    {
+        return new File(repositoryProperties.getPath(),
+                "/" + PROJECT_FOLDER + "/" + aDocument.getProject().getId() + "/" + DOCUMENT_FOLDER
+                        + "/" + aDocument.getId() + "/" + ANNOTATION_FOLDER);
+    }
+    
+    /**
+     * Creates a detached reference to a source document which is sufficient to locate its CASes.
+     */
+    private static SourceDocument documentRef(long aProjectId, long aDocumentId)
+    {
+        Project project = new Project();
+        project.setId(aProjectId);
+        SourceDocument document = new SourceDocument();
+        document.setId(aDocumentId);
+        document.setProject(project);
+        return document;
+    }
+    
     /**
      * Renames a file.
      *
@@ -668,11 +816,92 @@ public class CasStorageServiceImpl
     public void performExclusiveBulkOperation(CasStorageOperation aOperation)
         throws UIMAException, IOException
     {
-        synchronized (lock) {
+        try (CasStorageLock lock = lockManager.exclusiveLock()) {
             aOperation.execute();
         }
     }
     
+    /**
+     * @return the store holding the history of the annotation CASes.
+     */
+    public CasHistoryStore getHistoryStore()
+    {
+        return historyStore;
+    }
+    
+    @Override
+    public void destroy()
+    {
+        // Let pending history pruning complete
+        historyStore.shutdown();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getLockCount()
+    {
+        return lockManager.getLockCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getContendedLockCount()
+    {
+        return lockManager.getContendedLockCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getLockWaitTime()
+    {
+        return lockManager.getLockWaitTime();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
+    public long getMaxLockWaitTime()
+    {
+        return lockManager.getMaxLockWaitTime();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getActiveLockCount()
+    {
+        return lockManager.getActiveLockCount();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheHits()
+    {
+        return sharedCache.getHits();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheMisses()
+    {
+        return sharedCache.getMisses();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheEvictions()
+    {
+        return sharedCache.getEvictions();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheInvalidations()
+    {
+        return sharedCache.getInvalidations();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "bytes")
+    public long getSharedCacheSize()
+    {
+        return sharedCache.getSize();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getSharedCacheEntryCount()
+    {
+        return sharedCache.getEntryCount();
+    }
+    
     @Override
     public boolean isCacheEnabled()
     {
@@ -687,6 +916,25 @@ public class CasStorageServiceImpl
         }
     }
     
+    /**
+     * The shared cache is used unless it has been disabled in the configuration or the cache has
+     * been {@link #disableCache() explicitly disabled} for the current request cycle, e.g. because
+     * a bulk operation would otherwise flush all the frequently used CASes from the cache.
+     */
+    private boolean isSharedCacheEnabled()
+    {
+        if (!sharedCache.isEnabled()) {
+            return false;
+        }
+        
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle != null) {
+            return !Boolean.TRUE.equals(requestCycle.getMetaData(CACHE_DISABLED));
+        }
+        
+        return true;
+    }
+    
     @Override
     public void enableCache()
     {
@@ -735,71 +983,4 @@ public class CasStorageServiceImpl
         int writes;
         CAS cas;
     }
-    
-    private static class CasCacheKey
-    {
-        long sourceDocumentId;
-        String userId;
-        
-        public CasCacheKey(long aSourceDocumentId, String aUserId)
-        {
-            super();
-            sourceDocumentId = aSourceDocumentId;
-            userId = aUserId;
-        }
-        
-        public static CasCacheKey of(SourceDocument aSourceDocument, String aUserId)
-        {
-            return new CasCacheKey(aSourceDocument.getId(), aUserId);
-        }
-
-        @Override
-        public String toString()
-        {
-            StringBuilder builder = new StringBuilder();
-            builder.append("[");
-            builder.append(sourceDocumentId);
-            builder.append(",");
-            builder.append(userId);
-            builder.append("]");
-            return builder.toString();
-        }
-
-        @Override
-        public int hashCode()
-        {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + (int) (sourceDocumentId ^ (sourceDocumentId >>> 32));
-            result = prime * result + ((userId == null) ? 0 : userId.hashCode());
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            CasCacheKey other = (CasCacheKey) obj;
-            if (sourceDocumentId != other.sourceDocumentId) {
-                return false;
-            }
-            if (userId == null) {
-                if (other.userId != null) {
-                    return false;
-                }
-            }
-            else if (!userId.equals(other.userId)) {
-                return false;
-            }
-            return true;
-        }
-    }
 }
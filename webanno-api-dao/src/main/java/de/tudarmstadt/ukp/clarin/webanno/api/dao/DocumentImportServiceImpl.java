@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentImportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Imports documents in batches. The contents of the documents are copied to a work folder by the
+ * calling thread and converted to CASes by a pool of worker threads. While the workers convert
+ * the next batch, the calling thread stores the converted documents of the current batch. The
+ * metadata of all documents in a batch is committed in a single transaction.
+ */
+@Component(DocumentImportService.SERVICE_NAME)
+public class DocumentImportServiceImpl
+    implements DocumentImportService, DisposableBean
+{
+    // Number of documents committed to the database in a single transaction. At most two batches
+    // of converted CASes are held in memory at any time.
+    private static final int BATCH_SIZE = 50;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final ImportExportService importExportService;
+    private final CasStorageService casStorageService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final PlatformTransactionManager txManager;
+    private final ExecutorService converter;
+
+    public DocumentImportServiceImpl(@Autowired DocumentService aDocumentService,
+            @Autowired ImportExportService aImportExportService,
+            @Autowired CasStorageService aCasStorageService,
+            @Autowired ApplicationEventPublisher aApplicationEventPublisher,
+            @Autowired PlatformTransactionManager aTxManager)
+    {
+        documentService = aDocumentService;
+        importExportService = aImportExportService;
+        casStorageService = aCasStorageService;
+        applicationEventPublisher = aApplicationEventPublisher;
+        txManager = aTxManager;
+
+        // Leave some processing power to the users working while a large import is running
+        AtomicInteger threadCount = new AtomicInteger();
+        converter = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                    Thread thread = new Thread(r,
+                            "document-import-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public List<SourceDocument> importSourceDocuments(
+            Map<SourceDocument, InputStreamSource> aDocuments, DocumentImportListener aListener)
+        throws IOException
+    {
+        Progress progress = new Progress(aDocuments.size(), aListener);
+        List<SourceDocument> imported = new ArrayList<>();
+        // The hash code of a document changes once it has been persisted, so we do not look up
+        // the documents in the map later
+        List<Entry<SourceDocument, InputStreamSource>> documents = new ArrayList<>(
+                aDocuments.entrySet());
+        List<PendingDocument> current = new ArrayList<>();
+        List<PendingDocument> next = new ArrayList<>();
+
+        long start = System.currentTimeMillis();
+        File workFolder = Files.createTempDirectory("webanno-import").toFile();
+        try {
+            for (int i = 0; i < documents.size(); i += BATCH_SIZE) {
+                next = stage(workFolder, documents.subList(i,
+                        Math.min(i + BATCH_SIZE, documents.size())), progress);
+                store(current, progress, imported);
+                current = next;
+            }
+            store(current, progress, imported);
+        }
+        finally {
+            // If the import was aborted, do not waste any time on the remaining conversions
+            current.forEach(doc -> doc.conversion.cancel(true));
+            next.forEach(doc -> doc.conversion.cancel(true));
+            FileUtils.deleteQuietly(workFolder);
+        }
+
+        log.info("Imported {} of {} documents in {}ms", imported.size(), documents.size(),
+                System.currentTimeMillis() - start);
+
+        return imported;
+    }
+
+    /**
+     * Copies the contents of the given documents to the work folder and schedules their
+     * conversion.
+     */
+    private List<PendingDocument> stage(File aWorkFolder,
+            List<Entry<SourceDocument, InputStreamSource>> aDocuments, Progress aProgress)
+    {
+        List<PendingDocument> batch = new ArrayList<>();
+        for (Entry<SourceDocument, InputStreamSource> entry : aDocuments) {
+            SourceDocument doc = entry.getKey();
+            try {
+                // Keep the original file name - the readers may derive metadata from it
+                File folder = new File(aWorkFolder, String.valueOf(aProgress.staged++));
+                File file = new File(folder, doc.getName());
+                FileUtils.forceMkdir(folder);
+                try (InputStream is = entry.getValue().getInputStream()) {
+                    Files.copy(is, file.toPath(), REPLACE_EXISTING);
+                }
+
+                Future<CAS> conversion = converter.submit(() -> importExportService
+                        .importCasFromFile(file, doc.getProject(), doc.getFormat()));
+                batch.add(new PendingDocument(doc, file, conversion));
+            }
+            catch (Exception e) {
+                aProgress.failed(doc, e);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Waits for the conversion of the given documents and stores the converted documents.
+     */
+    private void store(List<PendingDocument> aBatch, Progress aProgress,
+            List<SourceDocument> aImported)
+        throws IOException
+    {
+        // Wait for all conversions before starting the transaction, so the transaction does not
+        // stay open longer than necessary
+        List<PendingDocument> converted = new ArrayList<>();
+        for (PendingDocument doc : aBatch) {
+            try {
+                doc.cas = doc.conversion.get();
+                converted.add(doc);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Document import was interrupted");
+            }
+            catch (ExecutionException e) {
+                aProgress.failed(doc.document, e.getCause() instanceof Exception
+                        ? (Exception) e.getCause() : e);
+            }
+        }
+
+        if (converted.isEmpty()) {
+            return;
+        }
+
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setName("documentImport");
+        def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+
+        List<PendingDocument> stored = new ArrayList<>();
+        TransactionStatus status = txManager.getTransaction(def);
+        try {
+            for (PendingDocument doc : converted) {
+                try {
+                    storeDocument(doc);
+                    stored.add(doc);
+                }
+                catch (Exception e) {
+                    aProgress.failed(doc.document, e);
+                }
+            }
+            txManager.commit(status);
+        }
+        catch (RuntimeException e) {
+            if (!status.isCompleted()) {
+                txManager.rollback(status);
+            }
+
+            // The documents are not in the database, so their files have to go as well
+            for (PendingDocument doc : stored) {
+                FileUtils.deleteQuietly(getDocumentRoot(doc.document));
+                aProgress.failed(doc.document, e);
+            }
+            return;
+        }
+
+        // Only announce the documents once they are committed - otherwise, listeners might
+        // react to documents which are rolled back
+        for (PendingDocument doc : stored) {
+            try {
+                applicationEventPublisher.publishEvent(
+                        new AfterDocumentCreatedEvent(this, doc.document, doc.cas));
+            }
+            catch (Exception e) {
+                // The document has been imported nevertheless
+                log.error("Error handling creation of source document [{}]({})",
+                        doc.document.getName(), doc.document.getId(), e);
+            }
+            aImported.add(doc.document);
+            aProgress.imported(doc.document);
+        }
+    }
+
+    /**
+     * Stores a converted document. The caller must provide the transaction.
+     */
+    private void storeDocument(PendingDocument aDocument) throws IOException
+    {
+        SourceDocument doc = aDocument.document;
+
+        // Create the metadata record - this also assigns the ID to the document
+        documentService.createSourceDocument(doc);
+
+        try {
+            File targetFile = documentService.getSourceDocumentFile(doc);
+            FileUtils.forceMkdir(targetFile.getParentFile());
+            Files.move(aDocument.file.toPath(), targetFile.toPath(), REPLACE_EXISTING);
+
+            casStorageService.readOrCreateCas(doc, INITIAL_CAS_PSEUDO_USER, () -> aDocument.cas);
+        }
+        catch (Exception e) {
+            documentService.removeSourceDocument(doc);
+            throw e;
+        }
+
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(doc.getProject().getId()))) {
+            Project project = doc.getProject();
+            log.info("Imported source document [{}]({}) to project [{}]({})", doc.getName(),
+                    doc.getId(), project.getName(), project.getId());
+        }
+    }
+
+    private File getDocumentRoot(SourceDocument aDocument)
+    {
+        // The source file is stored in the "source" folder within the folder of the document
+        return documentService.getSourceDocumentFile(aDocument).getParentFile().getParentFile();
+    }
+
+    @Override
+    public void destroy()
+    {
+        converter.shutdownNow();
+    }
+
+    private class Progress
+    {
+        private final int total;
+        private final DocumentImportListener listener;
+        private int staged;
+        private int processed;
+
+        public Progress(int aTotal, DocumentImportListener aListener)
+        {
+            total = aTotal;
+            listener = aListener;
+        }
+
+        public void imported(SourceDocument aDocument)
+        {
+            processed++;
+            if (listener != null) {
+                listener.documentProcessed(aDocument, null, processed, total);
+            }
+        }
+
+        public void failed(SourceDocument aDocument, Exception aError)
+        {
+            processed++;
+            log.error("Unable to import document [{}]: {}", aDocument.getName(),
+                    aError.getMessage(), aError);
+            if (listener != null) {
+                listener.documentProcessed(aDocument, aError, processed, total);
+            }
+        }
+    }
+
+    private static class PendingDocument
+    {
+        private final SourceDocument document;
+        private final File file;
+        private final Future<CAS> conversion;
+        private CAS cas;
+
+        public PendingDocument(SourceDocument aDocument, File aFile, Future<CAS> aConversion)
+        {
+            document = aDocument;
+            file = aFile;
+            conversion = aConversion;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -775,6 +776,48 @@ public class DocumentServiceImpl
                 .getResultList();
     }
 
+    @Override
+    @Transactional
+    public Map<SourceDocument, List<AnnotationDocument>> listAnnotationDocumentsBySourceDocument(
+            Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        
+        Map<SourceDocument, List<AnnotationDocument>> map = new LinkedHashMap<>();
+        for (SourceDocument doc : listSourceDocuments(aProject)) {
+            map.put(doc, new ArrayList<>());
+        }
+        
+        // Get all annotators in the project
+        List<String> users = getAllAnnotators(aProject);
+        // Bail out already. HQL doesn't seem to like queries with an empty
+        // parameter right of "in"
+        if (users.isEmpty()) {
+            return map;
+        }
+
+        List<AnnotationDocument> annotationDocuments = entityManager
+                .createQuery(
+                        "SELECT a FROM AnnotationDocument a JOIN FETCH a.document " +
+                        "WHERE a.project = :project AND a.user in (:users) " +
+                        "ORDER BY a.user ASC",
+                        AnnotationDocument.class)
+                .setParameter("project", aProject)
+                .setParameter("users", users)
+                .getResultList();
+        
+        for (AnnotationDocument adoc : annotationDocuments) {
+            // Annotation documents of source documents not listed by listSourceDocuments (i.e.
+            // TAB_SEP documents) are skipped
+            List<AnnotationDocument> docs = map.get(adoc.getDocument());
+            if (docs != null) {
+                docs.add(adoc);
+            }
+        }
+        
+        return map;
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<AnnotationDocument> listAllAnnotationDocuments(SourceDocument aDocument)
@@ -857,18 +900,27 @@ public class DocumentServiceImpl
             return 0;
         }
 
-        int ignored = 0;
-        List<AnnotationDocument> annotationDocuments = entityManager
+        // Count instead of loading all documents - only the numbers are needed here
+        long documents = entityManager
                 .createQuery(
-                        "FROM AnnotationDocument WHERE project = :project AND user in (:users)",
-                        AnnotationDocument.class).setParameter("project", aProject)
-                .setParameter("users", users).getResultList();
-        for (AnnotationDocument annotationDocument : annotationDocuments) {
-            if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                ignored++;
-            }
-        }
-        return listSourceDocuments(aProject).size() * users.size() - ignored;
+                        "SELECT COUNT(*) FROM SourceDocument " +
+                        "WHERE project = :project AND format != :format",
+                        Long.class)
+                .setParameter("project", aProject)
+                .setParameter("format", WebAnnoConst.TAB_SEP)
+                .getSingleResult();
+        
+        long ignored = entityManager
+                .createQuery(
+                        "SELECT COUNT(*) FROM AnnotationDocument " +
+                        "WHERE project = :project AND user in (:users) AND state = :state",
+                        Long.class)
+                .setParameter("project", aProject)
+                .setParameter("users", users)
+                .setParameter("state", AnnotationDocumentState.IGNORE)
+                .getSingleResult();
+        
+        return (int) (documents * users.size() - ignored);
     }
     
     @Override
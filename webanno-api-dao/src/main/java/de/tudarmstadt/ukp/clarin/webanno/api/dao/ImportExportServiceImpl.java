@@ -20,7 +20,6 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.SOURCE_FOLDER;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createToken;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.exists;
@@ -33,6 +32,7 @@ import static org.apache.uima.fit.util.CasUtil.getType;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.BreakIterator;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,6 +40,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ClassUtils;
@@ -54,6 +56,7 @@ import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.collection.CollectionReaderDescription;
 import org.apache.uima.fit.factory.ConfigurationParameterFactory;
 import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.CasCreationUtils;
 import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
@@ -99,6 +102,8 @@ public class ImportExportServiceImpl
 
     private final List<FormatSupport> formatsProxy;
     private Map<String, FormatSupport> formats;
+    private final Map<String, CollectionReaderDescription> readerDescriptions =
+            new ConcurrentHashMap<>();
     
     public ImportExportServiceImpl(
             @Autowired RepositoryProperties aRepositoryProperties, 
@@ -203,6 +208,44 @@ public class ImportExportServiceImpl
     public File exportAnnotationDocument(SourceDocument aDocument, String aUser,
             FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
+    {
+        return exportAnnotationDocument(aDocument, aUser, aFormat, aFileName, aMode,
+                aStripExtension, null);
+    }
+
+    @Override
+    @Transactional
+    public File exportAnnotationDocument(SourceDocument aDocument, String aUser,
+            FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension,
+            File aTargetFolder)
+        throws UIMAException, IOException, ClassNotFoundException
+    {
+        CAS cas = readAnnotationCas(aDocument, aUser, aMode);
+
+        File exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension,
+                aTargetFolder);
+
+        logAnnotationExport(aDocument, aUser, aFormat);
+
+        return exportFile;
+    }
+    
+    @Override
+    @Transactional
+    public void exportAnnotationDocumentToStream(SourceDocument aDocument, String aUser,
+            FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension,
+            ExportTarget aTarget)
+        throws UIMAException, IOException, ClassNotFoundException
+    {
+        CAS cas = readAnnotationCas(aDocument, aUser, aMode);
+
+        exportCasToStream(cas, aDocument, aFileName, aFormat, aStripExtension, aTarget);
+
+        logAnnotationExport(aDocument, aUser, aFormat);
+    }
+    
+    private CAS readAnnotationCas(SourceDocument aDocument, String aUser, Mode aMode)
+        throws UIMAException, IOException
     {
         File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
         String serializedCasFileName;
@@ -228,9 +271,12 @@ public class ImportExportServiceImpl
 
         CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
         CasPersistenceUtils.readSerializedCas(cas, serializedCasFile);
-
-        File exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension);
-
+        return cas;
+    }
+    
+    private void logAnnotationExport(SourceDocument aDocument, String aUser,
+            FormatSupport aFormat)
+    {
         Project project = aDocument.getProject();
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -239,8 +285,6 @@ public class ImportExportServiceImpl
                     + "using format [{}]", aDocument.getName(), aDocument.getId(), aUser, 
                     project.getName(), project.getId(), aFormat.getId());
         }
-
-        return exportFile;
     }
     
     @Override
@@ -248,14 +292,16 @@ public class ImportExportServiceImpl
         throws UIMAException, IOException
     {
         // Prepare a CAS with the project type system
-        TypeSystemDescription allTypes = annotationService.getFullProjectTypeSystem(aProject);
-        CAS cas = createCas(allTypes);
+        CAS cas = annotationService.createProjectCas(aProject);
 
         // Convert the source document to CAS
         FormatSupport format = getReadableFormatById(aFormatId).orElseThrow(() -> 
                 new IOException("No reader available for format [" + aFormatId + "]"));
         
-        CollectionReaderDescription readerDescription = format.getReaderDescription();
+        // Creating the reader description involves scanning the reader class, so we do that only
+        // once per format and configure a copy of the description for every file
+        CollectionReaderDescription readerDescription = (CollectionReaderDescription) 
+                getReaderDescription(format).clone();
         ConfigurationParameterFactory.addConfigurationParameters(readerDescription, 
                 ResourceCollectionReaderBase.PARAM_SOURCE_LOCATION, 
                     aFile.getParentFile().getAbsolutePath(), 
@@ -297,6 +343,17 @@ public class ImportExportServiceImpl
         return cas;
     }
     
+    private CollectionReaderDescription getReaderDescription(FormatSupport aFormat)
+        throws ResourceInitializationException
+    {
+        CollectionReaderDescription description = readerDescriptions.get(aFormat.getId());
+        if (description == null) {
+            description = aFormat.getReaderDescription();
+            readerDescriptions.put(aFormat.getId(), description);
+        }
+        return description;
+    }
+    
     public static void splitSentences(CAS aCas)
     {
         BreakIterator bi = BreakIterator.getSentenceInstance(Locale.US);
@@ -388,6 +445,91 @@ public class ImportExportServiceImpl
     public File exportCasToFile(CAS aCas, SourceDocument aDocument, String aFileName,
             FormatSupport aFormat, boolean aStripExtension)
         throws IOException, UIMAException
+    {
+        return exportCasToFile(aCas, aDocument, aFileName, aFormat, aStripExtension, null);
+    }
+    
+    private File exportCasToFile(CAS aCas, SourceDocument aDocument, String aFileName,
+            FormatSupport aFormat, boolean aStripExtension, File aTargetFolder)
+        throws IOException, UIMAException
+    {
+        File exportTempDir = File.createTempFile("webanno", "export");
+        try {
+            exportTempDir.delete();
+            exportTempDir.mkdirs();
+            
+            writeCas(aCas, aDocument, aFileName, aFormat, aStripExtension, exportTempDir);
+    
+            File targetFolder = aTargetFolder != null ? aTargetFolder
+                    : exportTempDir.getParentFile();
+            
+            // If the writer produced more than one file, we package it up as a ZIP file
+            File exportFile;
+            if (exportTempDir.listFiles().length > 1) {
+                exportFile = new File(targetFolder, exportTempDir.getName() + ".zip");
+                try {
+                    ZipUtils.zipFolder(exportTempDir, exportFile);
+                }
+                catch (Exception e) {
+                    try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                            String.valueOf(aDocument.getProject().getId()))) {
+                        log.info("Unable to create zip File");
+                    }
+                }
+            }
+            else {
+                exportFile = new File(targetFolder, exportTempDir.listFiles()[0].getName());
+                FileUtils.copyFile(exportTempDir.listFiles()[0], exportFile);
+            }
+            
+            return exportFile;
+        }
+        finally {
+            if (exportTempDir != null) {
+                FileUtils.forceDelete(exportTempDir);
+            }
+        }
+    }
+    
+    @Override
+    public void exportCasToStream(CAS aCas, SourceDocument aDocument, String aFileName,
+            FormatSupport aFormat, boolean aStripExtension, ExportTarget aTarget)
+        throws IOException, UIMAException
+    {
+        // The DKPro Core writers can only write to the file system, so the writer output still
+        // goes to a temporary folder - but from there it is sent straight to the target instead
+        // of being copied once more or loaded into memory
+        File exportTempDir = File.createTempFile("webanno", "export");
+        try {
+            exportTempDir.delete();
+            exportTempDir.mkdirs();
+            
+            writeCas(aCas, aDocument, aFileName, aFormat, aStripExtension, exportTempDir);
+            
+            // If the writer produced more than one file, we package it up as a ZIP file
+            File[] files = exportTempDir.listFiles();
+            if (files.length > 1) {
+                ZipOutputStream zip = new ZipOutputStream(
+                        aTarget.open(exportTempDir.getName() + ".zip"));
+                ZipUtils.addFolderToZip(zip, "", exportTempDir);
+                // Do not close the ZIP stream since that would close the target stream as well
+                zip.finish();
+                zip.flush();
+            }
+            else {
+                OutputStream out = aTarget.open(files[0].getName());
+                FileUtils.copyFile(files[0], out);
+                out.flush();
+            }
+        }
+        finally {
+            FileUtils.forceDelete(exportTempDir);
+        }
+    }
+    
+    private void writeCas(CAS aCas, SourceDocument aDocument, String aFileName,
+            FormatSupport aFormat, boolean aStripExtension, File aTargetFolder)
+        throws IOException, UIMAException
     {
         // Update type system the CAS, compact it (remove all non-reachable feature strucutres)
         // and remove all internal feature structures in the process
@@ -419,48 +561,15 @@ public class ImportExportServiceImpl
             }
         }
 
-        File exportTempDir = File.createTempFile("webanno", "export");
-        try {
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-            
-            AnalysisEngineDescription writer = aFormat.getWriterDescription(aDocument.getProject(),
-                    cas);
-            ConfigurationParameterFactory.addConfigurationParameters(writer,
-                    JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID, true,
-                    JCasFileWriter_ImplBase.PARAM_ESCAPE_FILENAME, false,
-                    JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, exportTempDir,
-                    JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
+        AnalysisEngineDescription writer = aFormat.getWriterDescription(aDocument.getProject(),
+                cas);
+        ConfigurationParameterFactory.addConfigurationParameters(writer,
+                JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID, true,
+                JCasFileWriter_ImplBase.PARAM_ESCAPE_FILENAME, false,
+                JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, aTargetFolder,
+                JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
 
-            runPipeline(cas, writer);
-    
-            // If the writer produced more than one file, we package it up as a ZIP file
-            File exportFile;
-            if (exportTempDir.listFiles().length > 1) {
-                exportFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-                try {
-                    ZipUtils.zipFolder(exportTempDir, exportFile);
-                }
-                catch (Exception e) {
-                    try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                            String.valueOf(project.getId()))) {
-                        log.info("Unable to create zip File");
-                    }
-                }
-            }
-            else {
-                exportFile = new File(exportTempDir.getParent(),
-                        exportTempDir.listFiles()[0].getName());
-                FileUtils.copyFile(exportTempDir.listFiles()[0], exportFile);
-            }
-            
-            return exportFile;
-        }
-        finally {
-            if (exportTempDir != null) {
-                FileUtils.forceDelete(exportTempDir);
-            }
-        }
+        runPipeline(cas, writer);
     }
     
     /**
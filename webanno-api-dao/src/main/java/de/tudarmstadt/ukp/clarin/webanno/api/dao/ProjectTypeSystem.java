@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.xml.sax.SAXException;
+
+/**
+ * Compiled type system of a project at a given schema version. Instances are shared between all
+ * users of the project and must not be modified.
+ */
+final class ProjectTypeSystem
+{
+    private final long schemaVersion;
+    private final TypeSystemDescription description;
+    private final TypeSystem typeSystem;
+    private final CASCompleteSerializer template;
+    private final String version;
+
+    /**
+     * @param aSchemaVersion
+     *            the schema version.
+     * @param aDescription
+     *            the type system description.
+     * @param aEmptyCas
+     *            an empty CAS created from the description. It serves as template for
+     *            {@link #initialize(CAS)} and must not be used by the caller afterwards.
+     */
+    ProjectTypeSystem(long aSchemaVersion, TypeSystemDescription aDescription, CAS aEmptyCas)
+        throws ResourceInitializationException
+    {
+        schemaVersion = aSchemaVersion;
+        description = aDescription;
+        typeSystem = aEmptyCas.getTypeSystem();
+        template = serializeCASComplete((CASImpl) aEmptyCas);
+        version = fingerprint(aDescription);
+    }
+
+    /**
+     * @return the schema version of the project from which the type system was compiled. It is
+     *         only valid as long as the application is running.
+     */
+    public long getSchemaVersion()
+    {
+        return schemaVersion;
+    }
+
+    public TypeSystemDescription getDescription()
+    {
+        return description;
+    }
+
+    public TypeSystem getTypeSystem()
+    {
+        return typeSystem;
+    }
+
+    /**
+     * Resets the given CAS and switches it to this type system. This is considerably cheaper than
+     * creating a new CAS from the description because the type system does not need to be
+     * compiled again.
+     * 
+     * @param aCas
+     *            the CAS to re-initialize.
+     */
+    public void initialize(CAS aCas)
+    {
+        // Restoring from the same template is serialized - cf. SharedCasCache
+        synchronized (template) {
+            deserializeCASComplete(template, (CASImpl) aCas);
+        }
+    }
+
+    /**
+     * @return a fingerprint of the type system description. Unlike the schema version, it remains
+     *         valid across restarts and can therefore be stored in the CAS.
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+    
+    private static String fingerprint(TypeSystemDescription aDescription)
+        throws ResourceInitializationException
+    {
+        try {
+            StringWriter xml = new StringWriter();
+            aDescription.toXML(xml);
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(xml.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (SAXException | IOException e) {
+            throw new ResourceInitializationException(e);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+
+/**
+ * Stores the CAS using Java object serialization of a {@link CASCompleteSerializer}. Every file
+ * contains the full type system of the CAS. This is the traditional storage format of WebAnno.
+ */
+public class SerializedCasStorageCodec
+    implements CasStorageCodec
+{
+    public static final String ID = "serialized";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    // Java object serialization streams start with STREAM_MAGIC (0xACED)
+    private static final byte[] MAGIC = { (byte) 0xAC, (byte) 0xED };
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public boolean canRead(byte[] aHeader)
+    {
+        return aHeader.length >= MAGIC.length && aHeader[0] == MAGIC[0]
+                && aHeader[1] == MAGIC[1];
+    }
+
+    @Override
+    public void write(CAS aCas, File aFile) throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+
+        try (ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(aFile.toPath()), BUFFER_SIZE))) {
+            CASCompleteSerializer serializer = serializeCASComplete((CASImpl) aCas);
+            os.writeObject(serializer);
+        }
+    }
+
+    @Override
+    public void read(CAS aCas, File aFile) throws IOException
+    {
+        try (ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
+                Files.newInputStream(aFile.toPath()), BUFFER_SIZE))) {
+            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+            deserializeCASComplete(serializer, (CASImpl) aCas);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Application-wide cache of CAS contents shared by all requests and users. The cache does not
+ * hand out the cached CAS itself. Instead, it keeps an in-memory snapshot of the CAS and every
+ * {@link #checkout checkout} restores the snapshot into a CAS owned by the caller. Thus,
+ * concurrent requests cannot interfere with each other through the cache.
+ * <p>
+ * The cache is bounded by the approximate amount of heap memory occupied by the cached snapshots
+ * (cf. {@link #estimateSize(CASCompleteSerializer)}). This is usually several times the size of
+ * the CAS files in the storage, in particular if they are compressed. When the limit is
+ * exceeded, the least recently used snapshots are evicted. Callers are
+ * responsible for {@link #invalidate invalidating} entries when the underlying CAS changes and
+ * for holding the appropriate CAS storage lock while accessing the cache.
+ */
+public class SharedCasCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final long maxSize;
+
+    // Access-ordered, i.e. the eldest entry is the least recently used one
+    private final LinkedHashMap<CasCacheKey, Snapshot> snapshots = new LinkedHashMap<>(16,
+            0.75f, true);
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param aMaxSize
+     *            approximate maximum amount of memory (in bytes) to be used by the cache. A
+     *            value of {@code 0} or less disables the cache.
+     */
+    public SharedCasCache(long aMaxSize)
+    {
+        maxSize = aMaxSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Restores the cached state of the CAS into the given target CAS.
+     *
+     * @param aKey
+     *            the CAS to look up.
+     * @param aTimestamp
+     *            the timestamp of the CAS in the storage. If the cached snapshot was taken
+     *            from a different version, it is discarded.
+     * @param aTarget
+     *            the CAS into which the cached state is loaded.
+     * @return whether the cache contained the CAS.
+     */
+    public boolean checkout(CasCacheKey aKey, long aTimestamp, CAS aTarget)
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshots.get(aKey);
+            if (snapshot != null && snapshot.timestamp != aTimestamp) {
+                log.debug("Discarding outdated CAS snapshot {}", aKey);
+                remove(aKey);
+                snapshot = null;
+            }
+
+            if (snapshot == null) {
+                misses++;
+                return false;
+            }
+
+            hits++;
+        }
+
+        // Restore outside the cache monitor - only concurrent checkouts of the same CAS need to
+        // be serialized
+        synchronized (snapshot) {
+            deserializeCASComplete(snapshot.data, (CASImpl) aTarget);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stores a snapshot of the given CAS in the cache.
+     *
+     * @param aKey
+     *            the CAS.
+     * @param aTimestamp
+     *            the timestamp of the CAS in the storage.
+     * @param aCas
+     *            the CAS. It must correspond exactly to the persisted version of the CAS.
+     */
+    public void put(CasCacheKey aKey, long aTimestamp, CAS aCas)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        CASCompleteSerializer data = serializeCASComplete((CASImpl) aCas);
+        long weight = estimateSize(data);
+
+        // Do not let a single huge CAS flush the entire cache
+        if (weight > maxSize / 2) {
+            log.debug("CAS {} too large for shared cache ({} bytes)", aKey, weight);
+            return;
+        }
+
+        Snapshot snapshot = new Snapshot(aTimestamp, weight, data);
+
+        synchronized (this) {
+            remove(aKey);
+            snapshots.put(aKey, snapshot);
+            size += weight;
+
+            Iterator<Map.Entry<CasCacheKey, Snapshot>> i = snapshots.entrySet().iterator();
+            while (size > maxSize && i.hasNext()) {
+                Map.Entry<CasCacheKey, Snapshot> eldest = i.next();
+                i.remove();
+                size -= eldest.getValue().weight;
+                evictions++;
+                log.trace("Evicted CAS snapshot {} from shared cache", eldest.getKey());
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap memory occupied by a snapshot from the sizes of the heaps and the string
+     * table of the serialized CAS. Object headers and the type system are only roughly accounted
+     * for.
+     *
+     * @param aData
+     *            the snapshot.
+     * @return the approximate size of the snapshot in bytes.
+     */
+    static long estimateSize(CASCompleteSerializer aData)
+    {
+        // Arrays - header and length
+        final long arrayOverhead = 16;
+        // String object plus its character array
+        final long stringOverhead = 24 + arrayOverhead;
+        // The type system is shared by the CASes of a project, but each snapshot holds its own
+        // copy - it does not depend on the size of the document, so we use a rough constant
+        final long typeSystemSize = 64 * 1024;
+
+        CASSerializer cas = aData.getCASSerializer();
+        long size = typeSystemSize;
+        size += sizeOf(cas.heapMetaData, 4, arrayOverhead);
+        size += sizeOf(cas.heapArray, 4, arrayOverhead);
+        size += sizeOf(cas.fsIndex, 4, arrayOverhead);
+        size += cas.byteHeapArray != null ? cas.byteHeapArray.length + arrayOverhead : 0;
+        size += cas.shortHeapArray != null ? 2l * cas.shortHeapArray.length + arrayOverhead : 0;
+        size += cas.longHeapArray != null ? 8l * cas.longHeapArray.length + arrayOverhead : 0;
+        if (cas.stringTable != null) {
+            size += 8l * cas.stringTable.length + arrayOverhead;
+            for (String s : cas.stringTable) {
+                if (s != null) {
+                    size += 2l * s.length() + stringOverhead;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(int[] aArray, int aElementSize, long aOverhead)
+    {
+        return aArray != null ? (long) aElementSize * aArray.length + aOverhead : 0;
+    }
+
+    public synchronized void invalidate(CasCacheKey aKey)
+    {
+        if (remove(aKey)) {
+            invalidations++;
+        }
+    }
+
+    private boolean remove(CasCacheKey aKey)
+    {
+        Snapshot old = snapshots.remove(aKey);
+        if (old != null) {
+            size -= old.weight;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations()
+    {
+        return invalidations;
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return snapshots.size();
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    private static class Snapshot
+    {
+        private final long timestamp;
+        private final long weight;
+        private final CASCompleteSerializer data;
+
+        public Snapshot(long aTimestamp, long aWeight, CASCompleteSerializer aData)
+        {
+            timestamp = aTimestamp;
+            weight = aWeight;
+            data = aData;
+        }
+    }
+}
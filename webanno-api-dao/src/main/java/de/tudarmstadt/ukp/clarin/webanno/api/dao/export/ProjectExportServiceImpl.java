@@ -17,9 +17,14 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
@@ -31,6 +36,7 @@ import java.util.Locale;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.io.FileUtils;
@@ -56,7 +62,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
-import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 
 @Component
 public class ProjectExportServiceImpl
@@ -116,52 +121,53 @@ public class ProjectExportServiceImpl
     public File exportProject(final ProjectExportRequest aRequest)
         throws ProjectExportException, IOException
     {
+        File projectZipFile = File.createTempFile("webanno-project", "export.zip");
         boolean success = false;
-        File exportTempDir = null;
         try {
-            // Directory to store source documents and annotation documents
-            exportTempDir = File.createTempFile("webanno-project", "export");
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-            
-            // Target file
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-    
-            ExportedProject exProjekt = exportProject(aRequest, exportTempDir);
-                    
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            JSONUtil.generatePrettyJson(exProjekt, projectSettings);
-            FileUtils.copyFileToDirectory(projectSettings, exportTempDir);
-    
-            try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
+            try (OutputStream os = new BufferedOutputStream(
+                    new FileOutputStream(projectZipFile))) {
+                exportProject(aRequest, os);
             }
-            finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
-            }
-            
-            aRequest.progress = 100;
             
             success = true;
     
             return projectZipFile;
         }
         finally {
-            if (!success && exportTempDir != null) {
+            if (!success) {
                 try {
-                    FileUtils.forceDelete(exportTempDir);
+                    FileUtils.forceDelete(projectZipFile);
                 } catch (IOException e) {
-                    log.error(
-                            "Unable to delete temporary export directory [" + exportTempDir + "]");
+                    log.error("Unable to delete temporary export file [" + projectZipFile + "]");
                 }
             }
         }
     }
     
-    private ExportedProject exportProject(ProjectExportRequest aRequest, File aStage)
+    @Override
+    @Transactional
+    public void exportProject(ProjectExportRequest aRequest, OutputStream aOut)
+        throws ProjectExportException, IOException
+    {
+        // The exporters write their files directly into the ZIP stream, so the archive does not
+        // need to be staged on disk before. Closing the ZIP stream would close the target stream
+        // which is owned by the caller, so we only finish the archive.
+        ZipOutputStream zip = new ZipOutputStream(aOut);
+        
+        ExportedProject exProjekt = exportProject(aRequest, zip);
+        
+        // all metadata and project settings data from the database as JSON file - the model is
+        // only complete when all exporters have run, so this is the last entry in the archive
+        zip.putNextEntry(new ZipEntry(EXPORTED_PROJECT + ".json"));
+        zip.write(JSONUtil.toPrettyJsonString(exProjekt).getBytes(UTF_8));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+        
+        aRequest.progress = 100;
+    }
+    
+    private ExportedProject exportProject(ProjectExportRequest aRequest, ZipOutputStream aStage)
         throws ProjectExportException, IOException
     {
         Deque<ProjectExporter> deque = new LinkedList<>(exporters);
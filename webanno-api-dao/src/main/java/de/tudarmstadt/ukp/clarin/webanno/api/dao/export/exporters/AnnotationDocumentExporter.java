@@ -24,20 +24,34 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_CO
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
 import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.uima.UIMAException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -54,31 +68,42 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
-import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
 @Component
 public class AnnotationDocumentExporter
-    implements ProjectExporter
+    implements ProjectExporter, DisposableBean
 {
-    private static final String ANNOTATION_ORIGINAL_FOLDER = "/annotation/";
+    private static final String ANNOTATION_ORIGINAL_FOLDER = "annotation/";
     private static final String ANNOTATION_AS_SERIALISED_CAS = "annotation_ser";
-    private static final String ANNOTATION_CAS_FOLDER = "/" + ANNOTATION_AS_SERIALISED_CAS + "/";
+    private static final String ANNOTATION_CAS_FOLDER = ANNOTATION_AS_SERIALISED_CAS + "/";
     
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private final DocumentService documentService;
-    private final UserDao userRepository;
     private final ImportExportService importExportService;
     
+    private final ExecutorService converter;
+    private final int maxPendingDocuments;
+    
     @Autowired
-    public AnnotationDocumentExporter(DocumentService aDocumentService, UserDao aUserRepository,
+    public AnnotationDocumentExporter(DocumentService aDocumentService,
             ImportExportService aImportExportService)
     {
         documentService = aDocumentService;
-        userRepository = aUserRepository;
         importExportService = aImportExportService;
+        
+        // Leave some processing power to the users working while a large export is running
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        converter = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "project-export-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxPendingDocuments = threads * 2;
     }
 
     @Override
@@ -94,23 +119,28 @@ public class AnnotationDocumentExporter
     }
     
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        exportAnnotationDocuments(aRequest.getProject(), aExProject);
-        exportAnnotationDocumentContents(aRequest, aExProject, aStage);
+        // Fetch the annotation documents of all source documents at once instead of querying
+        // them document by document
+        Map<SourceDocument, List<AnnotationDocument>> documents = documentService
+                .listAnnotationDocumentsBySourceDocument(aRequest.getProject());
+        
+        exportAnnotationDocuments(documents, aExProject);
+        exportAnnotationDocumentContents(aRequest, documents, aStage);
     }
     
-    private void exportAnnotationDocuments(Project aProject, ExportedProject aExProject)
+    private void exportAnnotationDocuments(
+            Map<SourceDocument, List<AnnotationDocument>> aDocuments, ExportedProject aExProject)
     {
         List<ExportedAnnotationDocument> annotationDocuments = new ArrayList<>();
 
         // add source documents to a project
-        List<SourceDocument> documents = documentService.listSourceDocuments(aProject);
-        for (SourceDocument sourceDocument : documents) {
+        for (List<AnnotationDocument> documentAnnotationDocuments : aDocuments.values()) {
             // add annotation document to Project
-            for (AnnotationDocument annotationDocument : documentService
-                    .listAnnotationDocuments(sourceDocument)) {
+            for (AnnotationDocument annotationDocument : documentAnnotationDocuments) {
                 ExportedAnnotationDocument exAnnotationDocument = new ExportedAnnotationDocument();
                 exAnnotationDocument.setName(annotationDocument.getName());
                 exAnnotationDocument.setState(annotationDocument.getState());
@@ -127,137 +157,209 @@ public class AnnotationDocumentExporter
     }
 
     private void exportAnnotationDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
+            Map<SourceDocument, List<AnnotationDocument>> aDocuments, ZipOutputStream aStage)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        Project project = aRequest.getProject();
-        
-        List<SourceDocument> documents = documentService.listSourceDocuments(project);
+        int documentCount = aDocuments.size();
         int i = 1;
         int initProgress = aRequest.progress;
-        for (SourceDocument sourceDocument : documents) {
-            //
-            // Export initial CASes
-            //
-            
-            // The initial CAS must always be exported to ensure that the converted source document
-            // will *always* have the state it had at the time of the initial import. We we do have
-            // a reliably initial CAS and instead lazily convert whenever an annotator starts
-            // annotating, then we could end up with two annotators having two different versions of
-            // their CAS e.g. if there was a code change in the reader component that affects its
-            // output.
-
-            // If the initial CAS does not exist yet, it must be created before export.
-            documentService.createOrReadInitialCas(sourceDocument);
-            
-            File targetDir = new File(aStage, ANNOTATION_CAS_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(targetDir);
-            
-            File initialCasFile = documentService.getCasFile(sourceDocument,
-                    INITIAL_CAS_PSEUDO_USER);
-            
-            FileUtils.copyFileToDirectory(initialCasFile, targetDir);
-            
-            log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
-                    + "] for source document [" + sourceDocument.getId() + "] in project ["
-                    + project.getName() + "] with id [" + project.getId() + "]");
-
-            //
-            // Export per-user annotation document
-            // 
-            
-            // Determine which format to use for export
-            String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? sourceDocument.getFormat()
-                    : aRequest.getFormat();
+        
+        // The conversions run on the worker pool while the documents are added to the archive
+        // strictly in their original order. Only a limited number of documents is in flight
+        // to bound the amount of temporary disk space used by the converted files.
+        File workFolder = Files.createTempDirectory("webanno-project-export").toFile();
+        Deque<PendingDocument> pending = new ArrayDeque<>();
+        try {
+            for (Entry<SourceDocument, List<AnnotationDocument>> e : aDocuments.entrySet()) {
+                pending.add(submitDocument(aRequest, e.getKey(), e.getValue(), workFolder));
+                
+                if (pending.size() >= maxPendingDocuments) {
+                    writeDocument(aStage, pending.poll());
+                    aRequest.progress = initProgress
+                            + (int) Math.ceil(((double) i) / documentCount * 80.0);
+                    i++;
+                }
+            }
             
-            FormatSupport format = importExportService.getWritableFormatById(formatId)
-                    .orElseGet(() -> {
-                        aRequest.addMessage(LogMessage.error(this,"[%s] No writer found for "
-                                + "format [%s] - exporting as WebAnno TSV instead.",
-                                sourceDocument.getName(), aRequest.getFormat()));
-                        return new WebAnnoTsv3FormatSupport();
-                    });
+            while (!pending.isEmpty()) {
+                writeDocument(aStage, pending.poll());
+                aRequest.progress = initProgress
+                        + (int) Math.ceil(((double) i) / documentCount * 80.0);
+                i++;
+            }
+        }
+        finally {
+            // Only non-empty if the export failed or was cancelled
+            pending.forEach(PendingDocument::cancel);
+            FileUtils.deleteQuietly(workFolder);
+        }
+    }
+    
+    private PendingDocument submitDocument(ProjectExportRequest aRequest,
+            SourceDocument aDocument, List<AnnotationDocument> aAnnotationDocuments,
+            File aWorkFolder)
+    {
+        Project project = aRequest.getProject();
+        PendingDocument document = new PendingDocument(aDocument);
+        
+        //
+        // Export initial CASes
+        //
+        
+        // The initial CAS must always be exported to ensure that the converted source document
+        // will *always* have the state it had at the time of the initial import. We we do have
+        // a reliably initial CAS and instead lazily convert whenever an annotator starts
+        // annotating, then we could end up with two annotators having two different versions of
+        // their CAS e.g. if there was a code change in the reader component that affects its
+        // output.
 
-            // Export annotations from regular users
-            for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : 
-                    documentService.listAnnotationDocuments(sourceDocument)) {
-                // copy annotation document only for existing users and the state of the 
-                // annotation document is not NEW/IGNORE
-                if (
-                        userRepository.get(annotationDocument.getUser()) != null && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
-                ) {
-                    File annotationDocumentAsSerialisedCasDir = new File(
-                            aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                    + sourceDocument.getName());
-                    File annotationDocumentDir = new File(aStage.getAbsolutePath()
-                            + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
+        // If the initial CAS does not exist yet, it must be created before export.
+        document.add(ANNOTATION_CAS_FOLDER, false, converter.submit(() -> {
+            documentService.createOrReadInitialCas(aDocument);
+            return documentService.getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER);
+        }));
+        document.addUser(INITIAL_CAS_PSEUDO_USER);
 
-                    FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                    FileUtils.forceMkdir(annotationDocumentDir);
+        //
+        // Export per-user annotation document
+        // 
+        
+        // Determine which format to use for export
+        String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? aDocument.getFormat()
+                : aRequest.getFormat();
+        
+        FormatSupport format = importExportService.getWritableFormatById(formatId)
+                .orElseGet(() -> {
+                    aRequest.addMessage(LogMessage.error(this,"[%s] No writer found for "
+                            + "format [%s] - exporting as WebAnno TSV instead.",
+                            aDocument.getName(), aRequest.getFormat()));
+                    return new WebAnnoTsv3FormatSupport();
+                });
 
-                    File annotationFileAsSerialisedCas = documentService.getCasFile(
-                            sourceDocument, annotationDocument.getUser());
+        // Export annotations from regular users
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            // copy annotation document only if the state of the annotation document is not
+            // NEW/IGNORE - the annotation documents only include those of existing users
+            if (
+                    !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
+                    !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
+            ) {
+                File annotationFileAsSerialisedCas = documentService.getCasFile(aDocument,
+                        annotationDocument.getUser());
 
-                    File annotationFile = null;
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        annotationFile = importExportService.exportAnnotationDocument(
-                                sourceDocument, annotationDocument.getUser(), format,
-                                annotationDocument.getUser(), Mode.ANNOTATION, false);
-                    }
-                    
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                annotationDocumentAsSerialisedCasDir);
-                        FileUtils.copyFileToDirectory(annotationFile, annotationDocumentDir);
-                        FileUtils.forceDelete(annotationFile);
-                    }
-                    
-                    log.info("Exported annotation document content for user ["
-                            + annotationDocument.getUser() + "] for source document ["
-                            + sourceDocument.getId() + "] in project [" + project.getName()
-                            + "] with id [" + project.getId() + "]");
+                if (annotationFileAsSerialisedCas.exists()) {
+                    File targetFolder = document.newTargetFolder(aWorkFolder);
+                    document.add(ANNOTATION_CAS_FOLDER, false,
+                            completedFuture(annotationFileAsSerialisedCas));
+                    document.add(ANNOTATION_ORIGINAL_FOLDER, true, converter.submit(() -> 
+                            importExportService.exportAnnotationDocument(aDocument,
+                                    annotationDocument.getUser(), format,
+                                    annotationDocument.getUser(), Mode.ANNOTATION, false,
+                                    targetFolder)));
                 }
+                
+                document.addUser(annotationDocument.getUser());
             }
-            
-            // Special handling for the virtual CORRECTION_USER data used in automation and
-            // correction type projects.
-            if (
-                    PROJECT_TYPE_AUTOMATION.equals(project.getMode()) || 
-                    PROJECT_TYPE_CORRECTION.equals(project.getMode())
-            ) {
-                File correctionCasFile = documentService.getCasFile(sourceDocument,
-                        CORRECTION_USER);
-                if (correctionCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    // Util WebAnno 3.4.x, the CORRECTION_USER CAS was exported to 'curation' and
-                    // 'curation_ser'.
-                    // Since WebAnno 3.5.x, the CORRECTION_USER CAS is exported to 'annotation' and
-                    // 'annotation_ser'.
-                    File curationCasDir = new File(aStage + ANNOTATION_AS_SERIALISED_CAS
-                            + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationCasDir);
-                    FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
-                    
-                    // Copy secondary export format for convenience - not used during import
-                    File curationDir = new File(
-                            aStage + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationDir);
-                    File correctionFile = importExportService.exportAnnotationDocument(
-                            sourceDocument, CORRECTION_USER, format, CORRECTION_USER,
-                            CORRECTION);
-                    FileUtils.copyFileToDirectory(correctionFile, curationDir);
-                    FileUtils.forceDelete(correctionFile);
+        }
+        
+        // Special handling for the virtual CORRECTION_USER data used in automation and
+        // correction type projects.
+        if (
+                PROJECT_TYPE_AUTOMATION.equals(project.getMode()) || 
+                PROJECT_TYPE_CORRECTION.equals(project.getMode())
+        ) {
+            File correctionCasFile = documentService.getCasFile(aDocument, CORRECTION_USER);
+            if (correctionCasFile.exists()) {
+                // Copy CAS - this is used when importing the project again
+                // Util WebAnno 3.4.x, the CORRECTION_USER CAS was exported to 'curation' and
+                // 'curation_ser'.
+                // Since WebAnno 3.5.x, the CORRECTION_USER CAS is exported to 'annotation' and
+                // 'annotation_ser'.
+                document.add(ANNOTATION_CAS_FOLDER, false, completedFuture(correctionCasFile));
+                
+                // Copy secondary export format for convenience - not used during import
+                File targetFolder = document.newTargetFolder(aWorkFolder);
+                document.add(ANNOTATION_ORIGINAL_FOLDER, true, converter.submit(() -> 
+                        importExportService.exportAnnotationDocument(aDocument,
+                                CORRECTION_USER, format, CORRECTION_USER, CORRECTION, true,
+                                targetFolder)));
+            }
+        }
+        
+        return document;
+    }
+    
+    private void writeDocument(ZipOutputStream aStage, PendingDocument aDocument)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        SourceDocument sourceDocument = aDocument.document;
+        Project project = sourceDocument.getProject();
+        
+        while (!aDocument.entries.isEmpty()) {
+            PendingEntry entry = aDocument.entries.peek();
+            File file = await(entry.file);
+            try {
+                addFileToZip(aStage, entry.folder, sourceDocument, file);
+            }
+            finally {
+                aDocument.entries.poll();
+                if (entry.temporary) {
+                    FileUtils.forceDelete(file);
                 }
             }
-            
-            aRequest.progress = initProgress
-                    + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-            i++;
+        }
+        
+        for (String user : aDocument.users) {
+            log.info("Exported annotation document content for user [" + user
+                    + "] for source document [" + sourceDocument.getId() + "] in project ["
+                    + project.getName() + "] with id [" + project.getId() + "]");
         }
     }
     
+    private File await(Future<File> aFile)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        try {
+            return aFile.get();
+        }
+        catch (InterruptedException e) {
+            // The project export UI cancels an export by interrupting the export thread and
+            // expects to receive this exception in that case
+            Thread.currentThread().interrupt();
+            throw new ClosedByInterruptException();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UIMAException) {
+                throw (UIMAException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+    
+    private void addFileToZip(ZipOutputStream aStage, String aFolder,
+            SourceDocument aDocument, File aFile)
+        throws IOException
+    {
+        ZipUtils.addFileToZip(aStage, aFolder + aDocument.getName() + "/" + aFile.getName(),
+                aFile);
+    }
+    
+    @Override
+    public void destroy()
+    {
+        converter.shutdownNow();
+    }
+    
     @Override
     public void importData(ProjectImportRequest aRequest, Project aProject,
             ExportedProject aExProject, ZipFile aZip)
@@ -341,4 +443,63 @@ public class AnnotationDocumentExporter
             }
         }
     }
+    
+    /**
+     * The files of a document which are added to the export archive once they are available.
+     */
+    private static class PendingDocument
+    {
+        private final SourceDocument document;
+        private final Deque<PendingEntry> entries = new ArrayDeque<>();
+        private final List<String> users = new ArrayList<>();
+        private int targetFolders = 0;
+        
+        public PendingDocument(SourceDocument aDocument)
+        {
+            document = aDocument;
+        }
+        
+        public void add(String aFolder, boolean aTemporary, Future<File> aFile)
+        {
+            entries.add(new PendingEntry(aFolder, aTemporary, aFile));
+        }
+        
+        public void addUser(String aUser)
+        {
+            users.add(aUser);
+        }
+        
+        /**
+         * Each conversion writes to its own folder since the name of the converted file is only
+         * unique within a single document.
+         */
+        public File newTargetFolder(File aWorkFolder)
+        {
+            File folder = new File(aWorkFolder, document.getId() + "-" + targetFolders);
+            targetFolders++;
+            folder.mkdirs();
+            return folder;
+        }
+        
+        public void cancel()
+        {
+            for (PendingEntry entry : entries) {
+                entry.file.cancel(true);
+            }
+        }
+    }
+    
+    private static class PendingEntry
+    {
+        private final String folder;
+        private final boolean temporary;
+        private final Future<File> file;
+
+        public PendingEntry(String aFolder, boolean aTemporary, Future<File> aFile)
+        {
+            folder = aFolder;
+            temporary = aTemporary;
+            file = aFile;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.BinaryCasStorageCodec;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
+
+/**
+ * Exports the type systems referenced by CAS files stored using the
+ * {@link BinaryCasStorageCodec}. Without these, the exported CAS files cannot be read.
+ */
+@Component
+public class AnnotationTypeSystemExporter
+    implements ProjectExporter
+{
+    private static final String TYPE_SYSTEM_FOLDER = BinaryCasStorageCodec.TYPE_SYSTEM_FOLDER;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private @Autowired RepositoryProperties repositoryProperties;
+
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
+        throws IOException
+    {
+        File typeSystemFolder = getTypeSystemFolder(aRequest.getProject());
+        if (typeSystemFolder.exists()) {
+            ZipUtils.addFolderToZip(aStage, TYPE_SYSTEM_FOLDER + "/", typeSystemFolder);
+        }
+    }
+
+    @Override
+    public void importData(ProjectImportRequest aRequest, Project aProject,
+            ExportedProject aExProject, ZipFile aZip)
+        throws IOException
+    {
+        int n = 0;
+        for (Enumeration<? extends ZipEntry> zipEnumerate = aZip.entries(); zipEnumerate
+                .hasMoreElements();) {
+            ZipEntry entry = zipEnumerate.nextElement();
+
+            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
+            String entryName = ZipUtils.normalizeEntryName(entry);
+
+            if (entryName.startsWith(TYPE_SYSTEM_FOLDER + "/")) {
+                String fileName = FilenameUtils.getName(entryName);
+                if (fileName.trim().isEmpty()) {
+                    continue;
+                }
+                
+                FileUtils.copyInputStreamToFile(aZip.getInputStream(entry),
+                        new File(getTypeSystemFolder(aProject), fileName));
+                n++;
+            }
+        }
+        
+        if (n > 0) {
+            log.info("Imported [{}] annotation type systems for project [{}] with id [{}]", n,
+                    aProject.getName(), aProject.getId());
+        }
+    }
+
+    private File getTypeSystemFolder(Project aProject)
+    {
+        return new File(repositoryProperties.getPath(), "/" + PROJECT_FOLDER + "/"
+                + aProject.getId() + "/" + TYPE_SYSTEM_FOLDER);
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -48,6 +49,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
@@ -55,9 +57,8 @@ import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 public class CuratedDocumentsExporter
     implements ProjectExporter
 {
-    private static final String CURATION_FOLDER = "/curation/";
+    private static final String CURATION_FOLDER = "curation/";
     private static final String CURATION_AS_SERIALISED_CAS = "curation_ser";
-    private static final String CURATION_CAS_FOLDER = "/" + CURATION_AS_SERIALISED_CAS + "/";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -80,13 +81,14 @@ public class CuratedDocumentsExporter
     
     
     /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
+     * Copy, if exists, curation documents to the exported Zip file
      * 
      * @param aStage
-     *            The folder where curated documents are copied to be exported as Zip File
+     *            The Zip stream to which the curated documents are written
      */
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws Exception
     {
         Project project = aRequest.getProject();
@@ -112,12 +114,6 @@ public class CuratedDocumentsExporter
         int initProgress = aRequest.progress - 1;
         int i = 1;
         for (SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(aStage, CURATION_CAS_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationCasDir);
-
-            File curationDir = new File(aStage, CURATION_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationDir);
-
             // If depending on aInProgress, include only the the curation documents that are
             // finished or also the ones that are in progress
             if (
@@ -128,14 +124,22 @@ public class CuratedDocumentsExporter
                 File curationCasFile = documentService.getCasFile(sourceDocument, CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    ZipUtils.addFileToZip(aStage, CURATION_AS_SERIALISED_CAS + "/"
+                            + sourceDocument.getName() + "/" + curationCasFile.getName(),
+                            curationCasFile);
 
                     // Copy secondary export format for convenience - not used during import
                     try {
                         File curationFile = importExportService.exportAnnotationDocument(
                                 sourceDocument, CURATION_USER, format, CURATION_USER, CURATION);
-                        FileUtils.copyFileToDirectory(curationFile, curationDir);
-                        FileUtils.forceDelete(curationFile);
+                        try {
+                            ZipUtils.addFileToZip(aStage, CURATION_FOLDER
+                                    + sourceDocument.getName() + "/" + curationFile.getName(),
+                                    curationFile);
+                        }
+                        finally {
+                            FileUtils.forceDelete(curationFile);
+                        }
                     }
                     catch (Exception e) {
                         // error("Unexpected error while exporting project: " +
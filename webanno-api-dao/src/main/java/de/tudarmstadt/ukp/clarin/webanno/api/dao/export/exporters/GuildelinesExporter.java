@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -50,20 +51,17 @@ public class GuildelinesExporter
     private @Autowired ProjectService projectService;
 
     /**
-     * Copy Project guidelines from the file system of this project to the export folder
+     * Copy Project guidelines from the file system of this project to the export archive
      */
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws Exception
     {
-        File guidelineDir = new File(aStage + GUIDELINES_FOLDER);
-        FileUtils.forceMkdir(guidelineDir);
         File annotationGuidlines = projectService.getGuidelinesFolder(aRequest.getProject());
         
         if (annotationGuidlines.exists()) {
-            for (File annotationGuideline : annotationGuidlines.listFiles()) {
-                FileUtils.copyFileToDirectory(annotationGuideline, guidelineDir);
-            }
+            ZipUtils.addFolderToZip(aStage, GUIDELINE + "/", annotationGuidlines);
         }
     }
     
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -48,14 +49,15 @@ public class ProjectLogExporter
     private @Autowired ProjectService projectService;
 
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws IOException
     {
         Project project = aRequest.getProject();
-        File logDir = new File(aStage + LOG_FOLDER);
-        FileUtils.forceMkdir(logDir);
-        if (projectService.getProjectLogFile(project).exists()) {
-            FileUtils.copyFileToDirectory(projectService.getProjectLogFile(project), logDir);
+        File logFile = projectService.getProjectLogFile(project);
+        if (logFile.exists()) {
+            ZipUtils.addFileToZip(aStage, ProjectService.LOG_FOLDER + "/" + logFile.getName(),
+                    logFile);
         }
     }
     
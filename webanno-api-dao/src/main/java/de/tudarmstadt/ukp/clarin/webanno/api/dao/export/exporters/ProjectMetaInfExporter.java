@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -43,21 +44,19 @@ public class ProjectMetaInfExporter
     implements ProjectExporter
 {
     private static final String META_INF_FOLDER = "META-INF";
-    private static final String META_INF = "/" + META_INF_FOLDER;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private @Autowired ProjectService projectService;
 
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws IOException
     {
-        File metaInfDir = new File(aStage + META_INF);
-        FileUtils.forceMkdir(metaInfDir);
         File metaInf = projectService.getMetaInfFolder(aRequest.getProject());
         if (metaInf.exists()) {
-            FileUtils.copyDirectory(metaInf, metaInfDir);
+            ZipUtils.addFolderToZip(aStage, META_INF_FOLDER + "/", metaInf);
         }
     }
     
@@ -25,6 +25,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -43,6 +44,7 @@ import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedSourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 
 @Component
@@ -50,14 +52,14 @@ public class SourceDocumentExporter
     implements ProjectExporter
 {
     private static final String SOURCE = "source";
-    private static final String SOURCE_FOLDER = "/" + SOURCE;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private @Autowired DocumentService documentService;
 
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws IOException, ProjectExportException
     {
         exportSourceDocuments(aRequest.getProject(), aExProject);
@@ -87,19 +89,18 @@ public class SourceDocumentExporter
     }
 
     private void exportSourceDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws IOException, ProjectExportException
     {
         Project project = aRequest.getProject();
-        File sourceDocumentDir = new File(aStage + SOURCE_FOLDER);
-        FileUtils.forceMkdir(sourceDocumentDir);
         // Get all the source documents from the project
         List<SourceDocument> documents = documentService.listSourceDocuments(project);
         int i = 1;
         for (SourceDocument sourceDocument : documents) {
             try {
-                FileUtils.copyFileToDirectory(documentService.getSourceDocumentFile(sourceDocument),
-                        sourceDocumentDir);
+                File sourceDocumentFile = documentService.getSourceDocumentFile(sourceDocument);
+                ZipUtils.addFileToZip(aStage, SOURCE + "/" + sourceDocumentFile.getName(),
+                        sourceDocumentFile);
                 aRequest.progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
                 i++;
                 log.info("Exported content for source document [" + sourceDocument.getId()
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+import de.tudarmstadt.ukp.clarin.webanno.project.ProjectServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDaoImpl;
+import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+@RunWith(SpringRunner.class) 
+@EnableAutoConfiguration
+@DataJpaTest
+@EntityScan({
+    "de.tudarmstadt.ukp.clarin.webanno.model",
+    "de.tudarmstadt.ukp.clarin.webanno.security.model" })
+@Transactional(propagation = Propagation.NEVER)
+public class AnnotationSchemaServiceImplDatabaseTest
+{
+    private @Autowired ProjectService projectService;
+    private @Autowired AnnotationSchemaService sut;
+    
+    @Test
+    public void thatProjectTypeSystemIsCompiledOncePerSchemaVersion() throws Exception
+    {
+        Project project = new Project("project1");
+        projectService.createProject(project);
+        
+        long version = sut.getSchemaVersion(project);
+        TypeSystemDescription tsd = sut.getFullProjectTypeSystem(project);
+        
+        assertThat(sut.getFullProjectTypeSystem(project)).isSameAs(tsd);
+        
+        sut.createLayer(new AnnotationLayer(NamedEntity.class.getName(), "Named entity",
+                SPAN_TYPE, project, true, TOKENS, NO_OVERLAP));
+        
+        assertThat(sut.getSchemaVersion(project)).isGreaterThan(version);
+        assertThat(sut.getFullProjectTypeSystem(project)).isNotSameAs(tsd);
+    }
+    
+    @Test
+    public void thatCheckedCasRecordsTypeSystemVersion() throws Exception
+    {
+        Project project = new Project("project2");
+        projectService.createProject(project);
+        
+        // A CAS without the internal types needs to be upgraded
+        CAS cas = createCas();
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isTrue();
+        
+        // Once the CAS has metadata, the version of the type system is recorded when the CAS is
+        // checked
+        cas.addFsToIndexes(cas.createAnnotation(getType(cas, CASMetadata.class), 0, 0));
+        assertThat(CasMetadataUtils.getTypeSystemVersion(cas)).isEmpty();
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isFalse();
+        assertThat(CasMetadataUtils.getTypeSystemVersion(cas)).isPresent();
+        
+        // A schema change does not invalidate the recorded version as long as the type system
+        // does not change
+        String typeSystemVersion = CasMetadataUtils.getTypeSystemVersion(cas).get();
+        sut.createLayer(new AnnotationLayer(NamedEntity.class.getName(), "Named entity",
+                SPAN_TYPE, project, true, TOKENS, NO_OVERLAP));
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isFalse();
+        assertThat(CasMetadataUtils.getTypeSystemVersion(cas)).contains(typeSystemVersion);
+    }
+    
+    @Test
+    public void thatProjectSchemaIsLoadedOncePerSchemaVersion() throws Exception
+    {
+        AnnotationSchemaServiceImpl schemaService = (AnnotationSchemaServiceImpl) sut;
+        
+        Project project = new Project("project3");
+        projectService.createProject(project);
+        
+        ProjectSchema schema = sut.getProjectSchema(project);
+        assertThat(schema.getLayers()).isEmpty();
+        
+        // As long as the schema does not change, it is obtained without querying the database
+        long queryCount = schemaService.getSchemaQueryCount();
+        assertThat(sut.getProjectSchema(project)).isSameAs(schema);
+        assertThat(schemaService.getSchemaQueryCount()).isEqualTo(queryCount);
+        
+        AnnotationLayer layer = new AnnotationLayer(NamedEntity.class.getName(), "Named entity",
+                SPAN_TYPE, project, true, TOKENS, NO_OVERLAP);
+        sut.createLayer(layer);
+        TagSet tagSet = new TagSet();
+        tagSet.setName("Named entity tags");
+        tagSet.setProject(project);
+        sut.createTagSet(tagSet);
+        sut.createTag(new Tag(tagSet, "PER"));
+        sut.createTag(new Tag(tagSet, "LOC"));
+        
+        schema = sut.getProjectSchema(project);
+        assertThat(schema.getLayers()).containsExactly(layer);
+        assertThat(schema.getLayer(NamedEntity.class.getName())).contains(layer);
+        assertThat(schema.getTagSets()).containsExactly(tagSet);
+        assertThat(schema.getTags(tagSet)).extracting(Tag::getName).containsExactly("LOC", "PER");
+    }
+    
+    @Configuration
+    public static class TestContext {
+        @Bean
+        public ProjectService projectService()
+        {
+            return new ProjectServiceImpl();
+        }
+        
+        @Bean
+        public UserDao userRepository()
+        {
+            return new UserDaoImpl();
+        }
+        
+        @Bean
+        public AnnotationSchemaService annotationSchemaService()
+        {
+            return new AnnotationSchemaServiceImpl();
+        }
+        
+        @Bean
+        public FeatureSupportRegistry featureSupportRegistry()
+        {
+            return new FeatureSupportRegistryImpl(asList());
+        }
+        
+        @Bean
+        public LayerSupportRegistry layerSupportRegistry()
+        {
+            return new LayerSupportRegistryImpl(asList());
+        }
+        
+        @Bean
+        public RepositoryProperties repositoryProperties()
+        {
+            return new RepositoryProperties();
+        }
+
+        @Bean
+        public ApplicationContextProvider contextProvider()
+        {
+            return new ApplicationContextProvider();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.BulkCasUpgradeService.UpgradeJob;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class BulkCasUpgradeServiceTest
+{
+    private @Mock ProjectService projectService;
+    private @Mock DocumentService documentService;
+    private @Mock CasStorageService casStorageService;
+
+    private Project project;
+    private SourceDocument doc1;
+    private SourceDocument doc2;
+    private BulkCasUpgradeService sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        doc1 = makeDocument(1l, "doc1");
+        doc2 = makeDocument(2l, "doc2");
+
+        when(projectService.getProject(1l)).thenReturn(project);
+        when(documentService.listSourceDocuments(project)).thenReturn(asList(doc1, doc2));
+        when(documentService.listAllAnnotationDocuments(doc1)).thenReturn(asList(
+                new AnnotationDocument(doc1.getName(), project, "user1", doc1),
+                new AnnotationDocument(doc1.getName(), project, "user2", doc1)));
+        when(documentService.listAllAnnotationDocuments(doc2)).thenReturn(asList(
+                new AnnotationDocument(doc2.getName(), project, "user1", doc2)));
+
+        sut = new BulkCasUpgradeService(projectService, documentService, casStorageService,
+                new CasStorageProperties());
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatAllCasesOfProjectAreUpgraded() throws Exception
+    {
+        when(casStorageService.upgradeCasIfRequired(any(), any())).thenReturn(true);
+
+        UpgradeJob job = await(sut.startUpgrade(project));
+
+        // Initial CAS, curation CAS and the annotator CASes of each document
+        assertThat(job.getTotal()).isEqualTo(7);
+        assertThat(job.getProcessed()).isEqualTo(7);
+        assertThat(job.getUpgraded()).isEqualTo(7);
+        assertThat(job.getFailed()).isEqualTo(0);
+        assertThat(sut.getUpgradedCasCount()).isEqualTo(7);
+
+        verify(casStorageService).upgradeCasIfRequired(doc1, INITIAL_CAS_PSEUDO_USER);
+        verify(casStorageService).upgradeCasIfRequired(doc1, CURATION_USER);
+        verify(casStorageService).upgradeCasIfRequired(doc1, "user1");
+        verify(casStorageService).upgradeCasIfRequired(doc1, "user2");
+        verify(casStorageService).upgradeCasIfRequired(doc2, INITIAL_CAS_PSEUDO_USER);
+        verify(casStorageService).upgradeCasIfRequired(doc2, CURATION_USER);
+        verify(casStorageService).upgradeCasIfRequired(doc2, "user1");
+        verify(casStorageService, never()).upgradeCasIfRequired(doc2, "user2");
+    }
+
+    @Test
+    public void thatUpToDateCasesAreNotCountedAsUpgraded() throws Exception
+    {
+        // Only the annotator CASes of user1 are outdated - all others are reported as up-to-date
+        when(casStorageService.upgradeCasIfRequired(any(), eq("user1"))).thenReturn(true);
+
+        UpgradeJob job = await(sut.startUpgrade(project));
+
+        assertThat(job.getProcessed()).isEqualTo(7);
+        assertThat(job.getUpgraded()).isEqualTo(2);
+        assertThat(job.getFailed()).isEqualTo(0);
+        assertThat(sut.getUpgradedCasCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void thatFailureOnOneDocumentDoesNotAbortUpgrade() throws Exception
+    {
+        when(casStorageService.upgradeCasIfRequired(any(), any())).thenReturn(true);
+        when(casStorageService.upgradeCasIfRequired(doc1, "user2"))
+                .thenThrow(new IOException("Unable to read CAS"));
+
+        UpgradeJob job = await(sut.startUpgrade(project));
+
+        assertThat(job.getProcessed()).isEqualTo(7);
+        assertThat(job.getUpgraded()).isEqualTo(6);
+        assertThat(job.getFailed()).isEqualTo(1);
+        assertThat(sut.getFailedCasUpgradeCount()).isEqualTo(1);
+        verify(casStorageService).upgradeCasIfRequired(doc2, "user1");
+    }
+
+    @Test
+    public void thatUpgradeCanBeStartedManually() throws Exception
+    {
+        when(casStorageService.upgradeCasIfRequired(any(), any())).thenReturn(true);
+
+        sut.upgradeProject(project.getId());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sut.getUpgradedCasCount() < 7 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(sut.getUpgradedCasCount()).isEqualTo(7);
+    }
+
+    private SourceDocument makeDocument(long aId, String aName)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName(aName);
+        doc.setProject(project);
+        return doc;
+    }
+
+    private UpgradeJob await(UpgradeJob aJob) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!aJob.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(aJob.isDone()).as("upgrade finished").isTrue();
+        return aJob;
+    }
+}
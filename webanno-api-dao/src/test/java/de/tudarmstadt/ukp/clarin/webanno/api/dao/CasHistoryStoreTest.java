@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasHistoryStoreTest
+{
+    private static final String USER = "test";
+
+    private BackupProperties backupProperties;
+    private CasHistoryStore sut;
+    private File casFile;
+    private File chunkFolder;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception
+    {
+        backupProperties = new BackupProperties();
+        backupProperties.setInterval(10);
+
+        sut = new CasHistoryStore(backupProperties);
+
+        casFile = new File(testFolder.newFolder(), USER + ".ser");
+        chunkFolder = new File(new File(casFile.getParentFile(), CasHistoryStore.HISTORY_FOLDER),
+                "chunks");
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.shutdown();
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws Exception
+    {
+        byte[] v1 = randomBytes(1, 200_000);
+        write(v1, 100_000);
+        assertThat(sut.snapshot(casFile, USER)).isTrue();
+
+        // Within the interval - no new version
+        write(v1, 105_000);
+        assertThat(sut.snapshot(casFile, USER)).isFalse();
+
+        // Change a few bytes in the middle
+        byte[] v2 = v1.clone();
+        for (int i = 0; i < 100; i++) {
+            v2[100_000 + i] ^= 0xff;
+        }
+        write(v2, 120_000);
+        assertThat(sut.snapshot(casFile, USER)).isTrue();
+
+        assertThat(sut.listVersions(casFile, USER)).containsExactly(100_000l, 120_000l);
+
+        File restored = testFolder.newFile();
+        sut.restore(casFile, USER, 100_000l, restored);
+        assertThat(Files.readAllBytes(restored.toPath())).isEqualTo(v1);
+        sut.restore(casFile, USER, 120_000l, restored);
+        assertThat(Files.readAllBytes(restored.toPath())).isEqualTo(v2);
+    }
+
+    @Test
+    public void testUnchangedChunksAreShared() throws Exception
+    {
+        byte[] v1 = randomBytes(2, 500_000);
+        write(v1, 100_000);
+        sut.snapshot(casFile, USER);
+        int chunksAfterFirstVersion = chunkFolder.list().length;
+
+        byte[] v2 = v1.clone();
+        v2[250_000] ^= 0xff;
+        write(v2, 200_000);
+        sut.snapshot(casFile, USER);
+
+        // A local change only affects the chunks around it
+        assertThat(chunkFolder.list().length - chunksAfterFirstVersion).isBetween(1, 2);
+    }
+
+    @Test
+    public void testPruneByNumber() throws Exception
+    {
+        backupProperties.getKeep().setNumber(2);
+
+        for (int i = 1; i <= 4; i++) {
+            write(randomBytes(i, 50_000), i * 100_000);
+            sut.snapshot(casFile, USER);
+        }
+        sut.shutdown();
+
+        assertThat(sut.listVersions(casFile, USER)).containsExactly(300_000l, 400_000l);
+
+        // Chunks of the pruned versions are gone and the remaining versions are intact
+        File restored = testFolder.newFile();
+        sut.restore(casFile, USER, 300_000l, restored);
+        assertThat(Files.readAllBytes(restored.toPath())).isEqualTo(randomBytes(3, 50_000));
+        assertThat(chunkFolder.list().length).isLessThan(
+                (int) (2 * 50_000 / (2 * 1024)) + 3);
+    }
+
+    @Test
+    public void testPruneByTime() throws Exception
+    {
+        backupProperties.getKeep().setTime(150);
+
+        write(randomBytes(1, 10_000), 100_000);
+        sut.snapshot(casFile, USER);
+        write(randomBytes(2, 10_000), 200_000);
+        sut.snapshot(casFile, USER);
+        write(randomBytes(3, 10_000), 300_000);
+        sut.snapshot(casFile, USER);
+        sut.shutdown();
+
+        assertThat(sut.listVersions(casFile, USER)).containsExactly(200_000l, 300_000l);
+    }
+
+    @Test
+    public void testForcedSnapshotIgnoresInterval() throws Exception
+    {
+        write(randomBytes(1, 10_000), 100_000);
+        sut.snapshot(casFile, USER);
+
+        write(randomBytes(2, 10_000), 101_000);
+        assertThat(sut.snapshot(casFile, USER)).isFalse();
+        assertThat(sut.snapshot(casFile, USER, true)).isTrue();
+
+        // The same version is never recorded twice
+        assertThat(sut.snapshot(casFile, USER, true)).isFalse();
+        assertThat(sut.listVersions(casFile, USER)).containsExactly(100_000l, 101_000l);
+    }
+
+    @Test
+    public void testForgetKeepsHistory() throws Exception
+    {
+        write(randomBytes(1, 10_000), 100_000);
+        sut.snapshot(casFile, USER);
+        assertThat(sut.getTrackedCount()).isEqualTo(1);
+
+        sut.forget(casFile, USER);
+
+        assertThat(sut.getTrackedCount()).isEqualTo(0);
+        assertThat(sut.listVersions(casFile, USER)).containsExactly(100_000l);
+
+        // The latest version is picked up from the index again
+        write(randomBytes(2, 10_000), 105_000);
+        assertThat(sut.snapshot(casFile, USER)).isFalse();
+    }
+
+    @Test
+    public void testForgetAllDropsAllUsersOfDocument() throws Exception
+    {
+        File otherCasFile = new File(casFile.getParentFile(), "other.ser");
+        write(randomBytes(1, 10_000), 100_000);
+        sut.snapshot(casFile, USER);
+        Files.copy(casFile.toPath(), otherCasFile.toPath());
+        sut.snapshot(otherCasFile, "other");
+        assertThat(sut.getTrackedCount()).isEqualTo(2);
+
+        sut.forgetAll(casFile.getParentFile());
+
+        assertThat(sut.getTrackedCount()).isEqualTo(0);
+    }
+
+    private void write(byte[] aData, long aTimestamp) throws Exception
+    {
+        Files.write(casFile.toPath(), aData);
+        casFile.setLastModified(aTimestamp);
+    }
+
+    private static byte[] randomBytes(long aSeed, int aLength)
+    {
+        byte[] data = new byte[aLength];
+        new Random(aSeed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Compares the size and the read/write times of the CAS storage codecs and checks that the
+ * binary codecs need considerably less space than the legacy serialized format. By default,
+ * synthetic documents are used. To run the comparison on an existing corpus, set the system
+ * property {@code benchmark.corpus} to a folder containing CAS files (e.g. the
+ * {@code annotation} folder of a document or a whole repository).
+ */
+public class CasStorageCodecComparisonTest
+{
+    private static final int ROUNDS = 3;
+    private static final int DOCUMENTS = 5;
+    
+    // The serialized format stores the type system in every CAS file while the binary format
+    // stores it once per project and encodes the CAS data much more compactly
+    private static final double MAX_BINARY_SIZE_RATIO = 0.5;
+    
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void thatBinaryCodecsAreSmallerThanSerialized() throws Exception
+    {
+        List<CAS> casses = loadCorpus();
+        
+        Map<String, CasStorageCodec> codecs = new LinkedHashMap<>();
+        codecs.put("serialized", new SerializedCasStorageCodec());
+        codecs.put("binary", new BinaryCasStorageCodec(false));
+        codecs.put("binary+deflate", new BinaryCasStorageCodec(true));
+        
+        System.out.printf("%d documents, %d rounds%n", casses.size(), ROUNDS);
+        System.out.printf("%-16s %12s %12s %12s%n", "codec", "size (bytes)", "write (ms)",
+                "read (ms)");
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, CasStorageCodec> e : codecs.entrySet()) {
+            CasStorageCodec codec = e.getValue();
+            File projectFolder = testFolder.newFolder();
+            
+            long size = 0;
+            long writeTime = 0;
+            long readTime = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                size = 0;
+                for (int i = 0; i < casses.size(); i++) {
+                    File file = new File(projectFolder, "document/" + i + "/annotation/user.ser");
+                    
+                    long start = System.nanoTime();
+                    codec.write(casses.get(i), file);
+                    writeTime += System.nanoTime() - start;
+                    
+                    CAS target = createCas();
+                    start = System.nanoTime();
+                    codec.read(target, file);
+                    readTime += System.nanoTime() - start;
+                    
+                    size += file.length();
+                }
+            }
+            
+            // The type systems are stored once per project
+            size += FileUtils.sizeOfDirectory(projectFolder) - sizeOfCasFiles(projectFolder);
+            
+            System.out.printf("%-16s %12d %12d %12d%n", e.getKey(), size,
+                    writeTime / ROUNDS / 1_000_000, readTime / ROUNDS / 1_000_000);
+            sizes.put(e.getKey(), size);
+        }
+        
+        long serializedSize = sizes.get("serialized");
+        assertThat((double) sizes.get("binary") / serializedSize)
+                .as("size of binary relative to serialized")
+                .isLessThan(MAX_BINARY_SIZE_RATIO);
+        assertThat((double) sizes.get("binary+deflate") / serializedSize)
+                .as("size of binary+deflate relative to serialized")
+                .isLessThan(MAX_BINARY_SIZE_RATIO);
+    }
+    
+    private long sizeOfCasFiles(File aProjectFolder)
+    {
+        return FileUtils.listFiles(aProjectFolder, new String[] { "ser" }, true).stream()
+                .mapToLong(File::length)
+                .sum();
+    }
+    
+    private List<CAS> loadCorpus() throws Exception
+    {
+        List<CAS> casses = new ArrayList<>();
+        
+        String corpus = System.getProperty("benchmark.corpus");
+        if (corpus != null) {
+            for (File file : FileUtils.listFiles(new File(corpus), new String[] { "ser" },
+                    true)) {
+                CAS cas = createCas();
+                CasPersistenceUtils.readSerializedCas(cas, file);
+                casses.add(cas);
+            }
+        }
+        else {
+            for (int i = 0; i < DOCUMENTS; i++) {
+                casses.add(createSyntheticCas(10_000 + i * 5_000).getCas());
+            }
+        }
+        
+        return casses;
+    }
+    
+    private static JCas createSyntheticCas(int aTokens) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas(createTypeSystemDescription());
+        
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aTokens; i++) {
+            text.append("token").append(i % 100).append(' ');
+        }
+        jcas.setDocumentText(text.toString());
+        
+        int begin = 0;
+        int sentenceBegin = 0;
+        for (int i = 0; i < aTokens; i++) {
+            int end = text.indexOf(" ", begin);
+            Token token = new Token(jcas, begin, end);
+            POS pos = new POS(jcas, begin, end);
+            pos.setPosValue(i % 2 == 0 ? "NN" : "VB");
+            pos.addToIndexes();
+            token.setPos(pos);
+            token.addToIndexes();
+            if (i % 20 == 19) {
+                new Sentence(jcas, sentenceBegin, end).addToIndexes();
+                sentenceBegin = end + 1;
+            }
+            begin = end + 1;
+        }
+        
+        return jcas;
+    }
+    
+    private static CAS createCas() throws Exception
+    {
+        return CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasStorageCodecTest
+{
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    
+    private File projectFolder;
+    
+    @Before
+    public void setup() throws Exception
+    {
+        projectFolder = new File(testFolder.getRoot(), "project/1");
+    }
+    
+    @Test
+    public void thatSerializedCodecRoundTrips() throws Exception
+    {
+        assertRoundTrip(new SerializedCasStorageCodec());
+    }
+
+    @Test
+    public void thatBinaryCodecRoundTrips() throws Exception
+    {
+        assertRoundTrip(new BinaryCasStorageCodec(false));
+    }
+
+    @Test
+    public void thatCompressedBinaryCodecRoundTrips() throws Exception
+    {
+        assertRoundTrip(new BinaryCasStorageCodec(true));
+    }
+    
+    @Test
+    public void thatBinaryCodecStoresTypeSystemOncePerProject() throws Exception
+    {
+        CasStorageCodec codec = new BinaryCasStorageCodec(false);
+        
+        codec.write(createTestCas().getCas(), casFile(1, "user1"));
+        codec.write(createTestCas().getCas(), casFile(1, "user2"));
+        codec.write(createTestCas().getCas(), casFile(2, "user1"));
+        
+        File typeSystemFolder = new File(projectFolder, BinaryCasStorageCodec.TYPE_SYSTEM_FOLDER);
+        assertThat(typeSystemFolder.listFiles()).hasSize(1);
+    }
+    
+    @Test
+    public void thatFormatIsDetectedWhenReading() throws Exception
+    {
+        JCas original = createTestCas();
+        
+        File legacyFile = casFile(1, "legacy");
+        CasPersistenceUtils.writeSerializedCas(original.getCas(), legacyFile);
+        File binaryFile = casFile(1, "binary");
+        new BinaryCasStorageCodec(true).write(original.getCas(), binaryFile);
+        
+        assertThat(CasPersistenceUtils.getCodec(legacyFile).getId())
+                .isEqualTo(SerializedCasStorageCodec.ID);
+        assertThat(CasPersistenceUtils.getCodec(binaryFile).getId())
+                .isEqualTo(BinaryCasStorageCodec.ID);
+        
+        for (File file : new File[] { legacyFile, binaryFile }) {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CasPersistenceUtils.readSerializedCas(cas, file);
+            assertThat(cas.getDocumentText()).isEqualTo(original.getDocumentText());
+        }
+    }
+    
+    @Test
+    public void thatMigrationConvertsFiles() throws Exception
+    {
+        JCas original = createTestCas();
+        File file = casFile(1, "user");
+        CasPersistenceUtils.writeSerializedCas(original.getCas(), file);
+        long timestamp = file.lastModified();
+        
+        CasStorageMigration migration = new CasStorageMigration(new BinaryCasStorageCodec(false));
+        migration.migrateRepository(testFolder.getRoot());
+        
+        assertThat(migration.getConverted()).isEqualTo(1);
+        assertThat(migration.getFailed()).isEqualTo(0);
+        assertThat(CasPersistenceUtils.getCodec(file).getId()).isEqualTo(BinaryCasStorageCodec.ID);
+        assertThat(file.lastModified()).isEqualTo(timestamp);
+    }
+    
+    private void assertRoundTrip(CasStorageCodec aCodec) throws Exception
+    {
+        JCas original = createTestCas();
+        File file = casFile(1, "user");
+        
+        aCodec.write(original.getCas(), file);
+        
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        aCodec.read(cas, file);
+        
+        assertThat(cas.getDocumentText()).isEqualTo(original.getDocumentText());
+        assertThat(CasUtil.selectAll(cas)).hasSameSizeAs(CasUtil.selectAll(original.getCas()));
+        assertThat(cas.getTypeSystem().getType(Token.class.getName())).isNotNull();
+    }
+    
+    private File casFile(long aDocumentId, String aUser)
+    {
+        return new File(projectFolder, "document/" + aDocumentId + "/annotation/" + aUser
+                + ".ser");
+    }
+    
+    private static JCas createTestCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas(createTypeSystemDescription());
+        jcas.setDocumentText("This is a test . And another one .");
+        new Sentence(jcas, 0, 16).addToIndexes();
+        new Sentence(jcas, 17, 34).addToIndexes();
+        int begin = 0;
+        for (String token : jcas.getDocumentText().split(" ")) {
+            new Token(jcas, begin, begin + token.length()).addToIndexes();
+            begin += token.length() + 1;
+        }
+        return jcas;
+    }
+}
@@ -21,10 +21,19 @@ import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTyp
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -36,8 +45,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageLockManager.CasStorageLock;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -59,7 +70,8 @@ public class CasStorageServiceImplTest
         repositoryProperties = new RepositoryProperties();
         repositoryProperties.setPath(testFolder.newFolder());
         
-        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                new CasStorageProperties());
     }
     
     @Test
@@ -127,7 +139,164 @@ public class CasStorageServiceImplTest
         assertThat(sut.getCasFile(doc, user)).doesNotExist();
         assertThat(sut.existsCas(doc, user)).isFalse();
     }
+    
+    @Test
+    public void testRestoreCas() throws Exception
+    {
+        backupProperties.setInterval(3600);
+        SourceDocument doc = makeSourceDocument(7l, 7l);
+        String user = "test";
+        
+        sut.writeCas(doc, JCasFactory.createText("First version").getCas(), user);
+        List<Long> versions = sut.listCasVersions(doc, user);
+        assertThat(versions).hasSize(1);
+        
+        // Within the backup interval - the second version is not in the history yet
+        sut.writeCas(doc, JCasFactory.createText("Second version").getCas(), user);
+        sut.getCasFile(doc, user).setLastModified(versions.get(0) + 5000);
+        assertThat(sut.listCasVersions(doc, user)).hasSize(1);
+        
+        sut.restoreCas(doc, user, versions.get(0));
+        
+        assertThat(sut.readCas(doc, user).getDocumentText()).isEqualTo("First version");
+        assertThat(sut.getCasTimestamp(doc, user).get()).isGreaterThan(versions.get(0) + 5000);
+        
+        // The replaced version was recorded and can be restored as well
+        assertThat(sut.listCasVersions(doc, user)).containsExactly(versions.get(0),
+                versions.get(0) + 5000);
+        sut.restoreCas(doc, user, versions.get(0) + 5000);
+        assertThat(sut.readCas(doc, user).getDocumentText()).isEqualTo("Second version");
+    }
+    
+    @Test
+    public void testConcurrentAccessToDifferentCases() throws Exception
+    {
+        int documents = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(documents);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < documents; i++) {
+                SourceDocument doc = makeSourceDocument(3l, 100l + i);
+                results.add(executor.submit(() -> {
+                    for (int n = 0; n < 10; n++) {
+                        JCas cas = JCasFactory.createText("This is test " + n);
+                        sut.writeCas(doc, cas.getCas(), "test");
+                        assertThat(sut.readCas(doc, "test").getDocumentText())
+                                .isEqualTo(cas.getDocumentText());
+                    }
+                    return null;
+                }));
+            }
+            
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        CasStorageServiceImpl impl = (CasStorageServiceImpl) sut;
+        assertThat(impl.getLockCount()).isGreaterThan(0);
+        assertThat(impl.getActiveLockCount()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testSharedCacheIsInvalidatedOnWrite() throws Exception
+    {
+        CasStorageServiceImpl impl = (CasStorageServiceImpl) sut;
+        SourceDocument doc = makeSourceDocument(4l, 4l);
+        String user = "test";
+        
+        sut.writeCas(doc, JCasFactory.createText("First version").getCas(), user);
+        
+        // First read populates the cache, second read is served from it
+        assertThat(sut.readCas(doc, user).getDocumentText()).isEqualTo("First version");
+        CAS cas = sut.readCas(doc, user);
+        assertThat(cas.getDocumentText()).isEqualTo("First version");
+        assertThat(impl.getSharedCacheHits()).isEqualTo(1);
+        assertThat(impl.getSharedCacheSize()).isGreaterThan(0);
+        
+        // Modifying a checked-out CAS must not affect the cache
+        int annotations = cas.getAnnotationIndex().size();
+        cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 5));
+        assertThat(sut.readCas(doc, user).getAnnotationIndex().size()).isEqualTo(annotations);
+        
+        sut.writeCas(doc, JCasFactory.createText("Second version").getCas(), user);
+        assertThat(impl.getSharedCacheInvalidations()).isEqualTo(1);
+        assertThat(sut.readCas(doc, user).getDocumentText()).isEqualTo("Second version");
         
+        sut.deleteCas(doc, user);
+        assertThat(impl.getSharedCacheEntryCount()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testLockOnOneCasDoesNotBlockOtherCas() throws Exception
+    {
+        CasStorageLockManager lockManager = new CasStorageLockManager();
+        CasCacheKey key1 = new CasCacheKey(1l, "user");
+        CasCacheKey key2 = new CasCacheKey(2l, "user");
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CasStorageLock lock = lockManager.writeLock(key1)) {
+            CountDownLatch acquired = new CountDownLatch(1);
+            executor.submit(() -> {
+                try (CasStorageLock lock2 = lockManager.writeLock(key2)) {
+                    acquired.countDown();
+                }
+            });
+            assertThat(acquired.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        assertThat(lockManager.getContendedLockCount()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testUpgradeCasIfRequired() throws Exception
+    {
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        CasStorageServiceImpl upgradingSut = new CasStorageServiceImpl(null, schemaService,
+                repositoryProperties, backupProperties, new CasStorageProperties());
+        SourceDocument doc = makeSourceDocument(7l, 7l);
+        String user = "test";
+        
+        assertThat(upgradingSut.upgradeCasIfRequired(doc, user)).isFalse();
+        
+        upgradingSut.writeCas(doc, makeCasWithMetadata("This is a test").getCas(), user);
+        int annotations = upgradingSut.readCas(doc, user).getAnnotationIndex().size();
+        Optional<Long> timestamp = upgradingSut.getCasTimestamp(doc, user);
+        
+        // A compatible CAS is not written again
+        when(schemaService.upgradeCasIfRequired(any(CAS.class), any(SourceDocument.class)))
+                .thenReturn(false);
+        assertThat(upgradingSut.upgradeCasIfRequired(doc, user)).isFalse();
+        assertThat(upgradingSut.getCasTimestamp(doc, user)).isEqualTo(timestamp);
+        
+        // Pretend that the upgrade changes the CAS
+        when(schemaService.upgradeCasIfRequired(any(CAS.class), any(SourceDocument.class)))
+                .thenAnswer(_call -> {
+                    CAS cas = _call.getArgument(0);
+                    cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+                    return true;
+                });
+        assertThat(upgradingSut.upgradeCasIfRequired(doc, user)).isTrue();
+        assertThat(upgradingSut.readCas(doc, user).getAnnotationIndex().size())
+                .isEqualTo(annotations + 1);
+    }
+    
+    private JCas makeCasWithMetadata(String aText) throws UIMAException
+    {
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText(aText);
+        return cas;
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
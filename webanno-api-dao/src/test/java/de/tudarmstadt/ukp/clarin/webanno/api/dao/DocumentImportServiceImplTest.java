@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.TransactionStatus;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class DocumentImportServiceImplTest
+{
+    private DocumentImportServiceImpl sut;
+
+    private @Mock DocumentService documentService;
+    private @Mock ImportExportService importExportService;
+    private @Mock ApplicationEventPublisher applicationEventPublisher;
+    private @Mock PlatformTransactionManager txManager;
+
+    private CasStorageService storageService;
+    private File repository;
+    private long nextDocId = 1;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        repository = testFolder.newFolder();
+        RepositoryProperties repositoryProperties = new RepositoryProperties();
+        repositoryProperties.setPath(repository);
+        storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
+                new BackupProperties(), new CasStorageProperties());
+
+        when(txManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+
+        // Emulate the database assigning the IDs
+        doAnswer(_call -> {
+            _call.getArgument(0, SourceDocument.class).setId(nextDocId++);
+            return null;
+        }).when(documentService).createSourceDocument(any());
+
+        when(documentService.getSourceDocumentFile(any())).thenAnswer(_call -> {
+            SourceDocument doc = _call.getArgument(0, SourceDocument.class);
+            return new File(repository, "source/" + doc.getId() + "/" + doc.getName());
+        });
+
+        // Use the contents of the file as document text - unless it is "broken"
+        when(importExportService.importCasFromFile(any(), any(), any())).thenAnswer(_call -> {
+            String text = new String(Files.readAllBytes(_call.getArgument(0, File.class)
+                    .toPath()), UTF_8);
+            if (text.equals("broken")) {
+                throw new IOException("Unable to convert");
+            }
+            return JCasFactory.createText(text).getCas();
+        });
+
+        sut = new DocumentImportServiceImpl(documentService, importExportService,
+                storageService, applicationEventPublisher, txManager);
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatDocumentsAreImportedDespiteFailingDocument() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        Map<SourceDocument, InputStreamSource> documents = new LinkedHashMap<>();
+        // More documents than fit into a single batch
+        for (int i = 0; i < 60; i++) {
+            documents.put(makeSourceDocument(project, "doc" + i + ".txt"),
+                    source(i == 10 ? "broken" : "Document " + i));
+        }
+
+        List<String> failed = new ArrayList<>();
+        List<Integer> progress = new ArrayList<>();
+        List<SourceDocument> imported = sut.importSourceDocuments(documents,
+                (document, error, processed, total) -> {
+                    progress.add(processed);
+                    assertThat(total).isEqualTo(60);
+                    if (error != null) {
+                        failed.add(document.getName());
+                    }
+                });
+
+        assertThat(failed).containsExactly("doc10.txt");
+        assertThat(progress).hasSize(60);
+        assertThat(progress.get(59)).isEqualTo(60);
+        assertThat(imported).hasSize(59);
+        assertThat(imported).extracting(SourceDocument::getName)
+                .doesNotContain("doc10.txt")
+                .startsWith("doc0.txt", "doc1.txt");
+
+        // Two batches - two transactions
+        verify(txManager, times(2)).commit(any());
+        verify(documentService, times(59)).createSourceDocument(any());
+
+        verify(applicationEventPublisher, times(59))
+                .publishEvent(any(AfterDocumentCreatedEvent.class));
+
+        for (SourceDocument doc : imported) {
+            assertThat(documentService.getSourceDocumentFile(doc)).exists();
+            assertThat(storageService
+                    .readCas(doc, WebAnnoConst.INITIAL_CAS_PSEUDO_USER)
+                    .getDocumentText())
+                    .isEqualTo("Document " + doc.getName().replaceAll("\\D", ""));
+        }
+    }
+
+    @Test
+    public void thatNoEventsArePublishedWhenCommitFails() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        Map<SourceDocument, InputStreamSource> documents = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            documents.put(makeSourceDocument(project, "doc" + i + ".txt"),
+                    source("Document " + i));
+        }
+
+        doThrow(new TransactionSystemException("Commit failed")).when(txManager).commit(any());
+
+        List<String> failed = new ArrayList<>();
+        List<SourceDocument> imported = sut.importSourceDocuments(documents,
+                (document, error, processed, total) -> {
+                    if (error != null) {
+                        failed.add(document.getName());
+                    }
+                });
+
+        assertThat(imported).isEmpty();
+        assertThat(failed).containsExactly("doc0.txt", "doc1.txt", "doc2.txt");
+        verify(applicationEventPublisher, never()).publishEvent(any());
+        for (SourceDocument doc : documents.keySet()) {
+            assertThat(documentService.getSourceDocumentFile(doc)).doesNotExist();
+        }
+    }
+
+    private InputStreamSource source(String aText)
+    {
+        return () -> new ByteArrayInputStream(aText.getBytes(UTF_8));
+    }
+
+    private SourceDocument makeSourceDocument(Project aProject, String aName)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setProject(aProject);
+        doc.setName(aName);
+        doc.setFormat("text");
+        return doc;
+    }
+}
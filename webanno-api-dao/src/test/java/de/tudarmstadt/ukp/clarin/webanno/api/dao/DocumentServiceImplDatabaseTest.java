@@ -18,8 +18,18 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,8 +40,10 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
@@ -59,6 +71,9 @@ public class DocumentServiceImplDatabaseTest
     private @Autowired ProjectService projectService;
     private @Autowired UserDao userRepository;
     private @Autowired DocumentService documentService;
+    private @Autowired EntityManagerFactory entityManagerFactory;
+    private @Autowired PlatformTransactionManager transactionManager;
+    private @PersistenceContext EntityManager entityManager;
     
     @Test
     public void testThatAnnotationDocumentsForNonExistingUserAreNotReturned() throws Exception
@@ -89,6 +104,70 @@ public class DocumentServiceImplDatabaseTest
         assertThat(documentService.listAnnotationDocuments(doc)).isEmpty();
     }
     
+    @Test
+    public void thatListingAnnotationDocumentsOfProjectUsesConstantNumberOfQueries()
+        throws Exception
+    {
+        long statementsForFewDocuments = countStatementsForListingAnnotationDocuments("few", 2);
+        long statementsForManyDocuments = countStatementsForListingAnnotationDocuments("many",
+                20);
+        
+        assertThat(statementsForManyDocuments).isEqualTo(statementsForFewDocuments);
+    }
+    
+    private long countStatementsForListingAnnotationDocuments(String aName, int aDocumentCount)
+        throws Exception
+    {
+        List<String> users = asList(aName + "-user1", aName + "-user2");
+        
+        Project project = new Project(aName);
+        projectService.createProject(project);
+        for (String user : users) {
+            userRepository.create(new User(user));
+            projectService.createProjectPermission(new ProjectPermission(project, user, ANNOTATOR));
+        }
+        
+        for (int i = 0; i < aDocumentCount; i++) {
+            SourceDocument doc = new SourceDocument(aName + "-doc" + i, project, "text");
+            documentService.createSourceDocument(doc);
+            for (String user : users) {
+                documentService.createAnnotationDocument(
+                        new AnnotationDocument(doc.getName(), project, user, doc));
+            }
+        }
+        
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class)
+                .getStatistics();
+        statistics.setStatisticsEnabled(true);
+        
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            // Make sure that nothing is served from the persistence context, otherwise lazy
+            // per-document loads would not show up in the statement count
+            entityManager.flush();
+            entityManager.clear();
+            statistics.clear();
+            
+            Map<SourceDocument, List<AnnotationDocument>> annotationDocuments = documentService
+                    .listAnnotationDocumentsBySourceDocument(project);
+            
+            // Also touch the associations which are used when rendering the monitoring page
+            annotationDocuments.forEach((doc, annDocs) -> {
+                doc.getProject().getName();
+                annDocs.forEach(annDoc -> annDoc.getDocument().getName());
+            });
+            
+            long statements = statistics.getPrepareStatementCount();
+            
+            assertThat(annotationDocuments).hasSize(aDocumentCount);
+            assertThat(annotationDocuments.values())
+                    .allSatisfy(annDocs -> assertThat(annDocs)
+                            .extracting(AnnotationDocument::getUser)
+                            .containsExactlyElementsOf(users));
+            
+            return statements;
+        });
+    }
+    
     @Configuration
     public static class TestContext {
         @Autowired ApplicationEventPublisher applicationEventPublisher;
@@ -116,7 +195,7 @@ public class DocumentServiceImplDatabaseTest
         public CasStorageService casStorageService()
         {
             return new CasStorageServiceImpl(null, null, repositoryProperties(),
-                    backupProperties());
+                    backupProperties(), casStorageProperties());
         }
         
         @Bean
@@ -131,6 +210,12 @@ public class DocumentServiceImplDatabaseTest
             return new BackupProperties();
         }
 
+        @Bean 
+        public CasStorageProperties casStorageProperties()
+        {
+            return new CasStorageProperties();
+        }
+
         @Bean
         public ApplicationContextProvider contextProvider()
         {
@@ -76,7 +76,7 @@ public class DocumentServiceImplTest
         repositoryProperties.setPath(testFolder.newFolder());
 
         storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
         sut = new DocumentServiceImpl(repositoryProperties, userRepository, storageService,
                 importExportService, projectService, applicationEventPublisher, entityManager);
@@ -24,12 +24,11 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.Mockito.doCallRealMethod;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
-import static org.mockito.MockitoAnnotations.initMocks;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
@@ -45,7 +44,6 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
-import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
@@ -60,7 +58,7 @@ public class ImportExportServiceImplTest
     private BackupProperties backupProperties;
     private RepositoryProperties repositoryProperties;
     private CasStorageServiceImpl storageService;
-    private @Mock AnnotationSchemaService schemaService;
+    private AnnotationSchemaService schemaService;
     
     public @Rule TemporaryFolder testFolder = new TemporaryFolder();
     
@@ -69,9 +67,9 @@ public class ImportExportServiceImplTest
     @Before
     public void setup() throws Exception
     {
-        initMocks(this);
-        
-        schemaService = mock(AnnotationSchemaServiceImpl.class);
+        // Use a spy on a real instance - the service caches the compiled type systems in fields
+        // which are not initialized on a mock
+        schemaService = spy(new AnnotationSchemaServiceImpl());
         
         backupProperties = new BackupProperties();
 
@@ -79,21 +77,16 @@ public class ImportExportServiceImplTest
         repositoryProperties.setPath(testFolder.newFolder());
 
         storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
         sut = new ImportExportServiceImpl(repositoryProperties, asList(new XmiFormatSupport()),
                 storageService, schemaService);
         sut.onContextRefreshedEvent();
         
-        when(schemaService.listAnnotationLayer(any(Project.class))).thenReturn(emptyList());
-        // We don't want to re-write the prepareCasForExport method - call the original
-        when(schemaService.prepareCasForExport(any(), any())).thenCallRealMethod();
-        // The prepareCasForExport method internally calls getFullProjectTypeSystem, so we need to
-        // ensure this is actually callable and doesn't run into a mocked version which simply 
-        // returns null.
-        when(schemaService.getFullProjectTypeSystem(any(), anyBoolean())).thenCallRealMethod();
-        doCallRealMethod().when(schemaService).upgradeCas(any(), any(),
-                any(TypeSystemDescription.class));
+        // The layers and features are normally loaded from the database. All other methods
+        // such as prepareCasForExport and getFullProjectTypeSystem use the real implementation.
+        doReturn(emptyList()).when(schemaService).listAnnotationLayer(any(Project.class));
+        doReturn(emptyList()).when(schemaService).listAnnotationFeature(any(Project.class));
     }
 
     @Test
@@ -143,6 +136,40 @@ public class ImportExportServiceImplTest
         assertThat(result).hasSize(0);
     }
     
+    @Test
+    public void thatExportToStreamSendsAllWrittenFiles() throws Exception
+    {
+        SourceDocument sd = makeSourceDocument(1l, 1l);
+        
+        JCas jcas = JCasFactory.createJCas(mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem())));
+        jcas.setDocumentText("This is a test .");
+        DocumentMetaData.create(jcas);
+        
+        // The XMI writer produces the XMI file and a type system file, so the exporter must send
+        // a ZIP archive containing both
+        List<String> fileNames = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        sut.exportCasToStream(jcas.getCas(), sd, "testfile",
+                sut.getFormatById(XmiFormatSupport.ID).get(), true, fileName -> {
+                    fileNames.add(fileName);
+                    return buffer;
+                });
+        
+        List<String> entries = new ArrayList<>();
+        try (ZipArchiveInputStream zipInput = new ZipArchiveInputStream(
+                new ByteArrayInputStream(buffer.toByteArray()))) {
+            ZipArchiveEntry entry;
+            while ((entry = zipInput.getNextZipEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        
+        assertThat(fileNames).hasSize(1);
+        assertThat(fileNames.get(0)).endsWith(".zip");
+        assertThat(entries).hasSize(2).anyMatch(name -> name.endsWith(".xmi"));
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.commons.lang3.StringUtils.repeat;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Test;
+
+public class SharedCasCacheTest
+{
+    @Test
+    public void thatWeightReflectsHeapSize() throws Exception
+    {
+        CAS cas = JCasFactory.createText(repeat("word ", 20_000)).getCas();
+
+        long estimate = SharedCasCache.estimateSize(serializeCASComplete((CASImpl) cas));
+
+        // Java strings use two bytes per character
+        assertThat(estimate).isGreaterThan(2l * cas.getDocumentText().length());
+    }
+
+    @Test
+    public void thatLeastRecentlyUsedSnapshotsAreEvicted() throws Exception
+    {
+        CAS cas = JCasFactory.createText(repeat("word ", 20_000)).getCas();
+        long weight = SharedCasCache.estimateSize(serializeCASComplete((CASImpl) cas));
+
+        SharedCasCache sut = new SharedCasCache(weight * 2 + weight / 2);
+        CasCacheKey key1 = new CasCacheKey(1l, "user1");
+        CasCacheKey key2 = new CasCacheKey(1l, "user2");
+        CasCacheKey key3 = new CasCacheKey(1l, "user3");
+
+        sut.put(key1, 1, cas);
+        sut.put(key2, 1, cas);
+        assertThat(sut.checkout(key1, 1, JCasFactory.createJCas().getCas())).isTrue();
+        sut.put(key3, 1, cas);
+
+        assertThat(sut.getEntryCount()).isEqualTo(2);
+        assertThat(sut.getSize()).isLessThanOrEqualTo(sut.getMaxSize());
+        assertThat(sut.checkout(key2, 1, JCasFactory.createJCas().getCas())).isFalse();
+        assertThat(sut.checkout(key1, 1, JCasFactory.createJCas().getCas())).isTrue();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_ANNOTATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class ProjectExportServiceImplTest
+{
+    private Project project;
+    
+    private ProjectExportServiceImpl sut;
+    
+    @Before
+    public void setUp()
+    {
+        project = new Project();
+        project.setId(1l);
+        project.setName("Test Project");
+        project.setMode(PROJECT_TYPE_ANNOTATION);
+        
+        sut = new ProjectExportServiceImpl(asList(new DummyExporter()), null);
+        sut.init();
+    }
+    
+    @Test
+    public void thatExportIsStreamedIntoArchive() throws Exception
+    {
+        ProjectExportRequest request = new ProjectExportRequest(project, "text", true);
+        
+        ClosingAwareOutputStream out = new ClosingAwareOutputStream();
+        sut.exportProject(request, out);
+        
+        assertThat(out.closed).isFalse();
+        assertThat(request.progress).isEqualTo(100);
+        
+        List<String> entries = new ArrayList<>();
+        String content = null;
+        try (ZipInputStream zip = new ZipInputStream(
+                new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+                if (entry.getName().equals("source/test.txt")) {
+                    content = IOUtils.toString(zip, UTF_8);
+                }
+            }
+        }
+        
+        // The project model is only complete after all exporters have run, so it must come last
+        assertThat(entries).containsExactly("source/test.txt",
+                ProjectExportServiceImpl.EXPORTED_PROJECT + ".json");
+        assertThat(content).isEqualTo("Test Project");
+    }
+    
+    private static class DummyExporter
+        implements ProjectExporter
+    {
+        @Override
+        public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+                ZipOutputStream aStage)
+            throws IOException
+        {
+            aStage.putNextEntry(new ZipEntry("source/test.txt"));
+            aStage.write(aRequest.getProject().getName().getBytes(UTF_8));
+            aStage.closeEntry();
+        }
+
+        @Override
+        public void importData(ProjectImportRequest aRequest, Project aProject,
+                ExportedProject aExProject, ZipFile aZip)
+        {
+            // Nothing to do
+        }
+    }
+    
+    private static class ClosingAwareOutputStream
+        extends ByteArrayOutputStream
+    {
+        private boolean closed = false;
+        
+        @Override
+        public void close() throws IOException
+        {
+            closed = true;
+            super.close();
+        }
+    }
+}
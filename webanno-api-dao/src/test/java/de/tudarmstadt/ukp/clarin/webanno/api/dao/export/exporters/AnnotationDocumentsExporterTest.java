@@ -21,20 +21,35 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_ANNOTATION;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_CORRECTION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Rule;
@@ -49,11 +64,15 @@ import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.BackupProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.ImportExportServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.xmi.XmiFormatSupport;
@@ -93,10 +112,10 @@ public class AnnotationDocumentsExporterTest
         repositoryProperties.setPath(workFolder);
 
         casStorageService = spy(new CasStorageServiceImpl(null, schemaService, repositoryProperties,
-                backupProperties));
+                backupProperties, new CasStorageProperties()));
         
-        importExportSerivce = new ImportExportServiceImpl(repositoryProperties,
-                asList(new XmiFormatSupport()), casStorageService, schemaService);
+        importExportSerivce = spy(new ImportExportServiceImpl(repositoryProperties,
+                asList(new XmiFormatSupport()), casStorageService, schemaService));
         
         // documentService.getCasFile() is just a stupid wrapper around storageService.getCasFile()
         // and it is easiest we emulate it here
@@ -116,7 +135,77 @@ public class AnnotationDocumentsExporterTest
             return doc;
         });
                 
-        sut = new AnnotationDocumentExporter(documentService, null, importExportSerivce);
+        sut = new AnnotationDocumentExporter(documentService, importExportSerivce);
+    }
+
+    @Test
+    public void thatExportingKeepsDocumentOrder() throws Exception
+    {
+        project.setMode(PROJECT_TYPE_ANNOTATION);
+        
+        List<SourceDocument> docs = new ArrayList<>();
+        Map<SourceDocument, List<AnnotationDocument>> annDocs = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            SourceDocument doc = new SourceDocument();
+            doc.setId(nextDocId++);
+            doc.setProject(project);
+            doc.setName("doc" + i + ".txt");
+            doc.setFormat(XmiFormatSupport.ID);
+            docs.add(doc);
+            
+            AnnotationDocument annDoc = new AnnotationDocument(doc.getName(), project, "admin",
+                    doc);
+            annDoc.setState(AnnotationDocumentState.IN_PROGRESS);
+            annDocs.put(doc, asList(annDoc));
+            
+            FileUtils.write(casStorageService.getCasFile(doc, INITIAL_CAS_PSEUDO_USER), "initial",
+                    UTF_8);
+            FileUtils.write(casStorageService.getCasFile(doc, "admin"), "admin", UTF_8);
+        }
+        
+        when(documentService.listAnnotationDocumentsBySourceDocument(project))
+                .thenReturn(annDocs);
+        doReturn(Optional.of(new XmiFormatSupport())).when(importExportSerivce)
+                .getWritableFormatById(XmiFormatSupport.ID);
+        
+        // Let the conversions of the first documents take longest, so they complete out of order
+        doAnswer(invocation -> {
+            SourceDocument doc = invocation.getArgument(0, SourceDocument.class);
+            Thread.sleep((docs.size() - docs.indexOf(doc)) * 10);
+            File file = new File(invocation.getArgument(6, File.class), "admin.xmi");
+            FileUtils.write(file, doc.getName(), UTF_8);
+            return file;
+        }).when(importExportSerivce).exportAnnotationDocument(any(), any(), any(), any(), any(),
+                anyBoolean(), any());
+        
+        ProjectExportRequest request = new ProjectExportRequest(project, FORMAT_AUTO, true);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(buffer)) {
+            sut.exportData(request, new ExportedProject(), zip);
+        }
+        
+        List<String> expectedEntries = new ArrayList<>();
+        for (SourceDocument doc : docs) {
+            expectedEntries.add("annotation_ser/" + doc.getName() + "/INITIAL_CAS.ser");
+            expectedEntries.add("annotation_ser/" + doc.getName() + "/admin.ser");
+            expectedEntries.add("annotation/" + doc.getName() + "/admin.xmi");
+        }
+        
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(
+                new ByteArrayInputStream(buffer.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+                if (entry.getName().startsWith("annotation/")) {
+                    assertThat(IOUtils.toString(zip, UTF_8))
+                            .isEqualTo(entry.getName().split("/")[1]);
+                }
+            }
+        }
+        
+        assertThat(entries).containsExactlyElementsOf(expectedEntries);
+        assertThat(request.progress).isEqualTo(80);
     }
 
     @Test
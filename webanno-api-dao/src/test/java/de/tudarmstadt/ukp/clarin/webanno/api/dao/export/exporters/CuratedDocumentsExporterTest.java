@@ -49,6 +49,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.BackupProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.ImportExportServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportServiceImpl;
@@ -93,7 +94,7 @@ public class CuratedDocumentsExporterTest
         repositoryProperties.setPath(workFolder);
 
         casStorageService = spy(new CasStorageServiceImpl(null, schemaService, repositoryProperties,
-                backupProperties));
+                backupProperties, new CasStorageProperties()));
         
         importExportSerivce = new ImportExportServiceImpl(repositoryProperties,
                 asList(new XmiFormatSupport()), casStorageService, schemaService);
@@ -33,14 +33,12 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
-import java.io.File;
 import java.util.List;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
@@ -54,12 +52,9 @@ import de.tudarmstadt.ukp.clarin.webanno.model.ValidationMode;
 
 public class LayerExporterTest
 {
-    public @Rule TemporaryFolder tempFolder = new TemporaryFolder();
-    
     private @Mock AnnotationSchemaService annotationService;
     
     private Project project;
-    private File workFolder;
 
     private LayerExporter sut;
 
@@ -73,8 +68,6 @@ public class LayerExporterTest
         project.setName("Test Project");
         project.setMode(PROJECT_TYPE_ANNOTATION);
         
-        workFolder = tempFolder.newFolder();
-        
         when(annotationService.listAnnotationLayer(any())).thenReturn(layers());
         
         sut = new LayerExporter(annotationService);
@@ -115,7 +108,9 @@ public class LayerExporterTest
         exportRequest.setProject(project);
         ExportedProject exportedProject = new ExportedProject();
 
-        sut.exportData(exportRequest, exportedProject, workFolder);
+        ZipOutputStream stage = mock(ZipOutputStream.class);
+
+        sut.exportData(exportRequest, exportedProject, stage);
 
         // Import the project again
         ArgumentCaptor<AnnotationLayer> captor = ArgumentCaptor.forClass(AnnotationLayer.class);
@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 import org.apache.uima.UIMAException;
@@ -96,7 +97,55 @@ public interface CasStorageService
             CasUpgradeMode aUpgradeMode, CasProvider aSupplier)
         throws IOException;
 
+    /**
+     * Upgrades the persisted annotation CAS of a given user for a given {@link SourceDocument} to
+     * the current type system of the project and writes it back - but only if the CAS is not
+     * compatible with the type system yet. The CAS is locked exclusively from reading to writing,
+     * so concurrent changes to the CAS cannot get lost.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @return whether the CAS was upgraded. If the CAS does not exist, {@code false} is
+     *         returned.
+     * @throws IOException
+     *             if there was a problem loading, upgrading or writing the CAS.
+     */
+    boolean upgradeCasIfRequired(SourceDocument aDocument, String aUsername) throws IOException;
+
     boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException;
+
+    /**
+     * Lists the versions of the annotation CAS of a given user kept by the internal backup.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @return the timestamps of the versions (oldest first).
+     * @throws IOException
+     *             if the history cannot be read.
+     */
+    List<Long> listCasVersions(SourceDocument aDocument, String aUsername) throws IOException;
+
+    /**
+     * Replaces the annotation CAS of a given user with a version from the internal backup. The
+     * current state of the CAS is recorded as a new version first, so the restore can be undone.
+     * Users who still have the CAS open have to reload it before they can save again.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @param aTimestamp
+     *            the timestamp of the version to restore (cf.
+     *            {@link #listCasVersions(SourceDocument, String)}).
+     * @throws IOException
+     *             if there is no such version or it cannot be restored.
+     */
+    void restoreCas(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException;
     
     File getAnnotationFolder(SourceDocument aDocument) throws IOException;
     
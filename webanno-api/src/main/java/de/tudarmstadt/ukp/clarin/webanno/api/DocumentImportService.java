@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.security.access.prepost.PreAuthorize;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Imports many source documents at once. Unlike importing the documents one by one using
+ * {@link DocumentService#uploadSourceDocument(java.io.InputStream, SourceDocument)}, the
+ * documents are converted in parallel and their metadata is committed to the database in
+ * batches.
+ */
+public interface DocumentImportService
+{
+    String SERVICE_NAME = "documentImportService";
+
+    /**
+     * Imports the given source documents. A document which cannot be imported (e.g. because it
+     * cannot be converted) does not prevent the others from being imported.
+     *
+     * @param aDocuments
+     *            the new source documents (in particular with name, project and format) and the
+     *            sources of their contents. Each source is read exactly once and only by the
+     *            calling thread.
+     * @param aListener
+     *            (optional) notified on the calling thread whenever a document has been imported
+     *            or failed to import.
+     * @return the documents which have been imported successfully in the order in which they
+     *         were given.
+     * @throws IOException
+     *             if the import as a whole could not be performed. Problems with individual
+     *             documents are reported via the listener instead.
+     */
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN','ROLE_USER','ROLE_REMOTE')")
+    List<SourceDocument> importSourceDocuments(Map<SourceDocument, InputStreamSource> aDocuments,
+            DocumentImportListener aListener)
+        throws IOException;
+
+    @FunctionalInterface
+    public static interface DocumentImportListener
+    {
+        /**
+         * @param aDocument
+         *            the document.
+         * @param aError
+         *            the reason why the document could not be imported or {@code null} if it was
+         *            imported successfully.
+         * @param aProcessed
+         *            the number of documents processed so far (including this one).
+         * @param aTotal
+         *            the total number of documents to import.
+         */
+        void documentProcessed(SourceDocument aDocument, Exception aError, int aProcessed,
+                int aTotal);
+    }
+}
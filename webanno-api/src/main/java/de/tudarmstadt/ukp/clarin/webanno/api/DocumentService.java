@@ -428,6 +428,24 @@ public interface DocumentService
      */
     List<AnnotationDocument> listAnnotationDocuments(Project project, User user);
 
+    /**
+     * List the {@link AnnotationDocument annotation documents} of all source documents in a
+     * project, grouped by source document. This fetches the data for the whole project using a
+     * fixed number of queries and should be preferred over calling
+     * {@link #listAnnotationDocuments(SourceDocument)} for every document in the project.
+     * <p>
+     * The map contains every document returned by {@link #listSourceDocuments(Project)} in the
+     * same order - documents without annotation documents are mapped to an empty list. As with
+     * {@link #listAnnotationDocuments(SourceDocument)}, only annotation documents of annotators
+     * of the project which actually exist in the system are returned.
+     * 
+     * @param project
+     *            the project.
+     * @return the annotation documents per source document.
+     */
+    Map<SourceDocument, List<AnnotationDocument>> listAnnotationDocumentsBySourceDocument(
+            Project project);
+
     /**
      * Number of expected annotation documents in this project (numUser X document - Ignored)
      *
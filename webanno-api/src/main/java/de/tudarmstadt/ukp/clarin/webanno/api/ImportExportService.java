@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -113,6 +114,20 @@ public interface ImportExportService
     File exportCasToFile(CAS cas, SourceDocument aDocument, String aFileName, FormatSupport aFormat,
             boolean aStripExtension)
         throws IOException, UIMAException;
+
+    /**
+     * Exports the given CAS like {@link #exportCasToFile} but sends the exported file to the
+     * stream provided by the given target instead of leaving it on disk. If the writer produces
+     * more than one file, a ZIP archive containing all of them is sent. The target is only
+     * opened after the conversion has completed successfully, so a failed conversion does not
+     * leave partial data in the target.
+     * 
+     * @param aTarget
+     *            the target to which the exported file is sent.
+     */
+    void exportCasToStream(CAS cas, SourceDocument aDocument, String aFileName,
+            FormatSupport aFormat, boolean aStripExtension, ExportTarget aTarget)
+        throws IOException, UIMAException;
     
     /**
      * Exports an {@link AnnotationDocument } CAS Object as TCF/TXT/XMI... file formats. 
@@ -143,4 +158,46 @@ public interface ImportExportService
     File exportAnnotationDocument(SourceDocument document, String user, FormatSupport aFormat,
             String fileName, Mode mode, boolean stripExtension)
         throws UIMAException, IOException, ClassNotFoundException;
+
+    /**
+     * Exports an {@link AnnotationDocument} CAS like
+     * {@link #exportAnnotationDocument(SourceDocument, String, FormatSupport, String, Mode)} but
+     * places the exported file in the given folder instead of the temporary folder of the system.
+     * Since the name of the exported file is derived from the file name, concurrent exports must
+     * use different target folders.
+     * 
+     * @param aTargetFolder
+     *            the folder in which the exported file is placed.
+     * @return the exported file.
+     */
+    File exportAnnotationDocument(SourceDocument document, String user, FormatSupport aFormat,
+            String fileName, Mode mode, boolean stripExtension, File aTargetFolder)
+        throws UIMAException, IOException, ClassNotFoundException;
+
+    /**
+     * Exports an {@link AnnotationDocument} CAS like
+     * {@link #exportAnnotationDocument(SourceDocument, String, FormatSupport, String, Mode)} but
+     * sends the exported file to the stream provided by the given target.
+     * 
+     * @param aTarget
+     *            the target to which the exported file is sent.
+     * @see #exportCasToStream
+     */
+    void exportAnnotationDocumentToStream(SourceDocument document, String user,
+            FormatSupport aFormat, String fileName, Mode mode, boolean stripExtension,
+            ExportTarget aTarget)
+        throws UIMAException, IOException, ClassNotFoundException;
+    
+    @FunctionalInterface
+    public static interface ExportTarget
+    {
+        /**
+         * @param aFileName
+         *            the name of the exported file. The extension depends on the format and on
+         *            whether the exported files were packaged as a ZIP archive.
+         * @return the stream to which the exported file is written. The stream is not closed
+         *         after writing.
+         */
+        OutputStream open(String aFileName) throws IOException;
+    }
 }
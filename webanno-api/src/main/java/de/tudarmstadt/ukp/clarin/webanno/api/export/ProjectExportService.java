@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.ZipFile;
 
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -29,4 +30,22 @@ public interface ProjectExportService
         throws ProjectExportException;
 
     File exportProject(ProjectExportRequest aRequest) throws ProjectExportException, IOException;
+
+    /**
+     * Exports the project as a ZIP archive into the given stream. The archive is written while it
+     * is produced, i.e. the project is not staged on disk before. The stream is not closed. If the
+     * export fails, the archive is not finished, i.e. it lacks the ZIP central directory, so
+     * partially written data is not mistaken for a complete archive.
+     * 
+     * @param aRequest
+     *            the export request.
+     * @param aOut
+     *            the stream to which the ZIP archive is written.
+     * @throws ProjectExportException
+     *             if the export failed.
+     * @throws IOException
+     *             if the archive could not be written.
+     */
+    void exportProject(ProjectExportRequest aRequest, OutputStream aOut)
+        throws ProjectExportException, IOException;
 }
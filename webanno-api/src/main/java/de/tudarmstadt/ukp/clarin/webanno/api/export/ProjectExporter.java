@@ -17,11 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
-import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -36,7 +36,22 @@ public interface ProjectExporter
         return Collections.emptyList();
     }
     
-    void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    /**
+     * Exports the data handled by this exporter. Data for the project model is added to the
+     * exported project. Files are written directly as entries to the ZIP stream of the export
+     * archive. An exporter must close every entry it opens.
+     * 
+     * @param aRequest
+     *            the export request.
+     * @param aExProject
+     *            the exported project model.
+     * @param aStage
+     *            the ZIP stream of the export archive.
+     * @throws Exception
+     *             if there was an error.
+     */
+    void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws Exception;
 
     void importData(ProjectImportRequest aRequest, Project aProject, ExportedProject aExProject,
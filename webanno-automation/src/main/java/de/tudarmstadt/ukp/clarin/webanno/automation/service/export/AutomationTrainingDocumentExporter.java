@@ -27,6 +27,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -50,6 +51,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 
 @Component
@@ -57,7 +59,6 @@ public class AutomationTrainingDocumentExporter
     implements ProjectExporter
 {
     private static final String TRAIN = "train";
-    private static final String TRAIN_FOLDER = "/" + TRAIN;
     private static final String TRAINING_DOCUMENTS = "training_documents";
     
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -72,7 +73,8 @@ public class AutomationTrainingDocumentExporter
     }
 
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aCopyDir)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aCopyDir)
         throws Exception
     {
         exportTrainingDocuments(aRequest.getProject(), aExProject);
@@ -105,20 +107,19 @@ public class AutomationTrainingDocumentExporter
     }
     
     private void exportTrainingDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aCopyDir)
+            ExportedProject aExProject, ZipOutputStream aCopyDir)
         throws IOException, ProjectExportException
     {
         Project project = aRequest.getProject();
-        File trainDocumentDir = new File(aCopyDir + TRAIN_FOLDER);
-        FileUtils.forceMkdir(trainDocumentDir);
         // Get all the training documents from the project
         List<TrainingDocument> documents = automationService.listTrainingDocuments(project);
         int i = 1;
         for (TrainingDocument trainingDocument : documents) {
             try {
-                FileUtils.copyFileToDirectory(
-                        automationService.getTrainingDocumentFile(trainingDocument),
-                        trainDocumentDir);
+                File trainingDocumentFile = automationService
+                        .getTrainingDocumentFile(trainingDocument);
+                ZipUtils.addFileToZip(aCopyDir, TRAIN + "/" + trainingDocumentFile.getName(),
+                        trainingDocumentFile);
                 aRequest.progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
                 i++;
                 log.info("Imported content for training document [" + trainingDocument.getId()
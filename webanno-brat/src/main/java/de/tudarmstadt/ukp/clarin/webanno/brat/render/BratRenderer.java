@@ -130,7 +130,8 @@ public class BratRenderer
         
         // Render visible (custom) layers
         Map<String[], Queue<String>> colorQueues = new HashMap<>();
-        for (AnnotationLayer layer : aAnnotationService.listAnnotationLayer(aState.getProject())) {
+        for (AnnotationLayer layer : aAnnotationService.getProjectSchema(aState.getProject())
+                .getLayers()) {
             ColoringStrategy coloringStrategy = aColoringStrategy != null ? aColoringStrategy
                     : ColoringStrategy.getStrategy(aAnnotationService, layer,
                             aState.getPreferences(), colorQueues);
@@ -428,7 +429,8 @@ public class BratRenderer
             // For link features, we also need to configure the arcs, even though there is no arc
             // layer here.
             boolean hasLinkFeatures = false;
-            for (AnnotationFeature f : aAnnotationService.listAnnotationFeature(layer)) {
+            for (AnnotationFeature f : aAnnotationService.getProjectSchema(layer.getProject())
+                    .getFeatures(layer)) {
                 if (!LinkMode.NONE.equals(f.getLinkMode())) {
                     hasLinkFeatures = true;
                     break;
@@ -470,8 +472,9 @@ public class BratRenderer
         // determine which layers attach to with other layers. Currently we only use attachType,
         // but do not follow attachFeature if it is set.
         if (aTarget.isBuiltIn() && aTarget.getName().equals(POS.class.getName())) {
-            attachingLayers.add(aAnnotationService.findLayer(aTarget.getProject(),
-                    Dependency.class.getName()));
+            aAnnotationService.getProjectSchema(aTarget.getProject())
+                    .getLayer(Dependency.class.getName())
+                    .ifPresent(attachingLayers::add);
         }
 
         // Custom layers
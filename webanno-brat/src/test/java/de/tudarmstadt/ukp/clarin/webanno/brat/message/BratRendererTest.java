@@ -27,6 +27,7 @@ import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.contentOf;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -43,6 +44,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
@@ -138,12 +140,21 @@ public class BratRendererTest
         when(schemaService.listAnnotationLayer(any())).thenReturn(asList(posLayer));
         when(schemaService.listAnnotationFeature(any(AnnotationLayer.class)))
                 .thenReturn(asList(posFeature));
+        ProjectSchema projectSchema = mock(ProjectSchema.class);
+        when(projectSchema.getLayers()).thenReturn(asList(posLayer));
+        when(projectSchema.getFeatures(any(AnnotationLayer.class)))
+                .thenReturn(asList(posFeature));
+        when(schemaService.getProjectSchema(any())).thenReturn(projectSchema);
         when(schemaService.getAdapter(any(AnnotationLayer.class))).then(_call -> {
             AnnotationLayer layer = _call.getArgument(0);
             return layerRegistry.getLayerSupport(layer).createAdapter(layer);
         });
+        when(schemaService.getRenderer(any(AnnotationLayer.class))).then(_call -> {
+            AnnotationLayer layer = _call.getArgument(0);
+            return layerRegistry.getLayerSupport(layer).getRenderer(layer);
+        });
         
-        preRenderer = new PreRendererImpl(layerRegistry, schemaService);
+        preRenderer = new PreRendererImpl(schemaService);
     }
     
     /**
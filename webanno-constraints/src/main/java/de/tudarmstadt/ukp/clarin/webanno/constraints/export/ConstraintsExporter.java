@@ -17,12 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.constraints.export;
 
-import java.io.File;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,24 +41,23 @@ import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 public class ConstraintsExporter
     implements ProjectExporter
 {
-    private static final String CONSTRAINTS = "/constraints/";
+    private static final String CONSTRAINTS = ConstraintsService.CONSTRAINTS + "/";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private @Autowired ConstraintsService constraintsService;
 
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws Exception
     {
-        File constraintsDir = new File(aStage + CONSTRAINTS);
-        FileUtils.forceMkdir(constraintsDir);
         String fileName;
         for (ConstraintSet set : constraintsService.listConstraintSets(aRequest.getProject())) {
             fileName = set.getName();
             // Copying with file's original name to save ConstraintSet's name
-            FileUtils.copyFile(constraintsService.exportConstraintAsFile(set),
-                    new File(constraintsDir, fileName));
+            ZipUtils.addFileToZip(aStage, CONSTRAINTS + fileName,
+                    constraintsService.exportConstraintAsFile(set));
         }
     }
     
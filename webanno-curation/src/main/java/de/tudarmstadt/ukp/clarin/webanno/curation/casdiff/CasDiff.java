@@ -668,6 +668,38 @@ public class CasDiff
         {
             return position;
         }
+        
+        /**
+         * @param aCasId
+         *            the CAS id.
+         * @return a copy of this set which refers to the CAS with the given id.
+         */
+        public ConfigurationSet withCasId(int aCasId)
+        {
+            ConfigurationSet set = new ConfigurationSet(position.withCasId(aCasId));
+            set.casGroupIds.addAll(casGroupIds);
+            for (Configuration cfg : configurations) {
+                set.configurations.add(cfg.withCasId(set.position));
+            }
+            return set;
+        }
+        
+        private ConfigurationSet restrictTo(Set<String> aCasGroupIds)
+        {
+            ConfigurationSet set = new ConfigurationSet(position);
+            for (String casGroupId : casGroupIds) {
+                if (aCasGroupIds.contains(casGroupId)) {
+                    set.casGroupIds.add(casGroupId);
+                }
+            }
+            for (Configuration cfg : configurations) {
+                Configuration restrictedCfg = cfg.restrictTo(aCasGroupIds);
+                if (!restrictedCfg.fsAddresses.isEmpty()) {
+                    set.configurations.add(restrictedCfg);
+                }
+            }
+            return set;
+        }
     }
     
     public Collection<Position> getPositions() {
@@ -683,6 +715,38 @@ public class CasDiff
         return configSets.get(aPosition);
     }
     
+    /**
+     * Derives the diff for a subset of the CAS groups from this diff. The result is the same as if
+     * the diff had been calculated over the given CAS groups only, but it is much cheaper than
+     * calculating a new diff, e.g. when looking at all pairs of a larger set of CAS groups.
+     * 
+     * @param aCasGroupIds
+     *            the CAS groups to retain.
+     * @return the restricted diff.
+     */
+    public CasDiff getDiffForCasGroups(Collection<String> aCasGroupIds)
+    {
+        CasDiff diff = new CasDiff(begin, end, typeAdapters.values(), linkCompareBehavior);
+        diff.recurseIntoLinkFeatures = recurseIntoLinkFeatures;
+        
+        for (String casGroupId : aCasGroupIds) {
+            if (cases.containsKey(casGroupId)) {
+                diff.cases.put(casGroupId, cases.get(casGroupId));
+            }
+        }
+        
+        // Positions at which none of the retained CAS groups has an annotation would not exist
+        // in a diff over these CAS groups alone
+        for (Entry<Position, ConfigurationSet> e : configSets.entrySet()) {
+            ConfigurationSet set = e.getValue().restrictTo(diff.cases.keySet());
+            if (!set.casGroupIds.isEmpty()) {
+                diff.configSets.put(e.getKey(), set);
+            }
+        }
+        
+        return diff;
+    }
+    
     /**
      * Compare two feature structure to each other. Comparison is done recursively, but stops at
      * feature values that are annotations. For these, only offsets are checked, but feature values
@@ -868,10 +932,10 @@ public class CasDiff
         private final Map<String, AID> fsAddresses = new TreeMap<>();
         
         /**
-         * Flag indicating that there is at least once CAS group containing more than one annotation
-         * at this position - i.e. a stacked annotation.
+         * CAS groups containing more than one annotation at this position - i.e. a stacked
+         * annotation.
          */
-        private boolean stacked = false;
+        private final Set<String> stackedCasGroupIds = new HashSet<>();
 
         public Set<String> getCasGroupIds()
         {
@@ -890,21 +954,45 @@ public class CasDiff
         
         public boolean isStacked()
         {
-            return stacked;
+            return !stackedCasGroupIds.isEmpty();
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS) {
             AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));
             if (old != null) {
-                stacked = true;
+                stackedCasGroupIds.add(aCasGroupId);
             }
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS, String aFeature, int aSlot) {
             AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));
             if (old != null) {
-                stacked = true;
+                stackedCasGroupIds.add(aCasGroupId);
+            }
+        }
+        
+        private Configuration withCasId(Position aPosition)
+        {
+            Configuration cfg = new Configuration(aPosition);
+            cfg.fsAddresses.putAll(fsAddresses);
+            cfg.stackedCasGroupIds.addAll(stackedCasGroupIds);
+            return cfg;
+        }
+        
+        private Configuration restrictTo(Set<String> aCasGroupIds)
+        {
+            Configuration cfg = new Configuration(position);
+            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+                if (aCasGroupIds.contains(e.getKey())) {
+                    cfg.fsAddresses.put(e.getKey(), e.getValue());
+                }
             }
+            for (String casGroupId : stackedCasGroupIds) {
+                if (aCasGroupIds.contains(casGroupId)) {
+                    cfg.stackedCasGroupIds.add(casGroupId);
+                }
+            }
+            return cfg;
         }
 
         public AID getRepresentativeAID()
@@ -1005,7 +1093,50 @@ public class CasDiff
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
             cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
         }
+
+        private DiffResult(Map<Position, ConfigurationSet> aData, Set<String> aCasGroupIds)
+        {
+            data = Collections.unmodifiableMap(aData);
+            casGroupIds = aCasGroupIds;
+            cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
+        }
+
+        /**
+         * @param aCasId
+         *            the CAS id.
+         * @return a copy of this result in which all positions refer to the CAS with the given
+         *         id. This is meant for results calculated for a single CAS.
+         */
+        public DiffResult withCasId(int aCasId)
+        {
+            Map<Position, ConfigurationSet> rebased = new TreeMap<>();
+            for (ConfigurationSet set : data.values()) {
+                ConfigurationSet rebasedSet = set.withCasId(aCasId);
+                rebased.put(rebasedSet.getPosition(), rebasedSet);
+            }
+            return new DiffResult(rebased, new LinkedHashSet<>(casGroupIds));
+        }
         
+        /**
+         * Combines diff results which were calculated separately for different CASes, e.g. one
+         * document at a time. The positions of the individual results must not overlap, i.e.
+         * each result must refer to different CASes (cf. {@link #withCasId(int)}).
+         *
+         * @param aResults
+         *            the partial results.
+         * @return the combined result.
+         */
+        public static DiffResult merge(Collection<DiffResult> aResults)
+        {
+            Map<Position, ConfigurationSet> data = new TreeMap<>();
+            Set<String> casGroupIds = new LinkedHashSet<>();
+            for (DiffResult result : aResults) {
+                data.putAll(result.data);
+                casGroupIds.addAll(result.casGroupIds);
+            }
+            return new DiffResult(data, casGroupIds);
+        }
+
         public boolean hasDifferences()
         {
             return cachedHasDifferences;
@@ -34,6 +34,13 @@ public interface Position
      */
     int getCasId();
     
+    /**
+     * @param aCasId
+     *            the CAS id.
+     * @return a copy of this position which refers to the CAS with the given id.
+     */
+    Position withCasId(int aCasId);
+    
     /**
      * @return the type.
      */
@@ -22,12 +22,13 @@ import org.apache.commons.lang3.StringUtils;
 
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
 
-public abstract class Position_ImplBase implements Position
+public abstract class Position_ImplBase implements Position, Cloneable
 {
     private static final long serialVersionUID = -1237180459049008357L;
     
     private final String type;
-    private final int casId;
+    // Not final so it can be changed in a clone - cf. withCasId
+    private int casId;
     private final String feature;
 
     private final String role;
@@ -72,6 +73,19 @@ public abstract class Position_ImplBase implements Position
         return casId;
     }
     
+    @Override
+    public Position withCasId(int aCasId)
+    {
+        try {
+            Position_ImplBase copy = (Position_ImplBase) clone();
+            copy.casId = aCasId;
+            return copy;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
     @Override
     public String getFeature()
     {
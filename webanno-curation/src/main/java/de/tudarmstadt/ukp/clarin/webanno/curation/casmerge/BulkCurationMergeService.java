@@ -0,0 +1,479 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static java.util.stream.Collectors.toList;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.fit.util.CasUtil.getType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Merges the annotations on which the annotators agree into the curation CASes of all documents
+ * of a project in the background. This is the same merge which is otherwise performed when a
+ * document is opened for curation for the first time, so curators can start right away with the
+ * disagreements - the number of conflicting positions of every document is reported by the
+ * {@link MergeJob merge job}.
+ * <p>
+ * Only documents with at least one finished annotation document and for which curation has not
+ * started yet (i.e. there is no curation CAS yet) are merged - the work of the curators is never
+ * overwritten. The documents are processed in batches by parallel workers. There is at most one
+ * merge per project - starting a merge cancels the merge which may still be running for the
+ * project.
+ */
+@ManagedResource
+@Component(BulkCurationMergeService.SERVICE_NAME)
+public class BulkCurationMergeService
+    implements DisposableBean
+{
+    public static final String SERVICE_NAME = "bulkCurationMergeService";
+
+    // Documents processed by the same worker share the adapter and feature caches of the merge
+    private static final int BATCH_SIZE = 10;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final CasStorageService casStorageService;
+    private final AnnotationSchemaService annotationService;
+    private final ExecutorService executor;
+
+    private final Map<Long, MergeJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public BulkCurationMergeService(@Autowired DocumentService aDocumentService,
+            @Autowired CasStorageService aCasStorageService,
+            @Autowired AnnotationSchemaService aAnnotationService)
+    {
+        documentService = aDocumentService;
+        casStorageService = aCasStorageService;
+        annotationService = aAnnotationService;
+
+        // Leave some processing power to the users working while a large merge is running
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "curation-merge-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        MergeJob job = jobs.remove(aEvent.getProject().getId());
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Starts merging the agreed annotations of all documents of the given project in the
+     * background.
+     *
+     * @param aProject
+     *            the project.
+     * @param aMergeIncompleteAnnotations
+     *            whether to merge annotations on which the annotators agree even if not all
+     *            annotators have annotated the position.
+     * @return the merge job which can be used to track the progress and to obtain the conflicts.
+     */
+    public MergeJob startMerge(Project aProject, boolean aMergeIncompleteAnnotations)
+    {
+        MergeJob job = new MergeJob(aProject, aMergeIncompleteAnnotations);
+        MergeJob previous = jobs.put(aProject.getId(), job);
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        executor.execute(() -> plan(job));
+        return job;
+    }
+
+    /**
+     * @param aProject
+     *            the project.
+     * @return the last merge job started for the given project (if any). The job remains
+     *         available after it is done such that its results can be inspected.
+     */
+    public Optional<MergeJob> getMerge(Project aProject)
+    {
+        return Optional.ofNullable(jobs.get(aProject.getId()));
+    }
+
+    private void plan(MergeJob aJob)
+    {
+        if (aJob.isCancelled()) {
+            return;
+        }
+
+        Project project = aJob.getProject();
+        int total = 0;
+        try {
+            // The layers and diff adapters are the same for all documents, so we obtain them
+            // from the database only once
+            List<String> layerNames = annotationService.listAnnotationLayer(project).stream()
+                    .filter(AnnotationLayer::isEnabled)
+                    .filter(layer -> !Token.class.getName().equals(layer.getName()))
+                    .filter(layer -> !CHAIN_TYPE.equals(layer.getType()))
+                    .map(AnnotationLayer::getName)
+                    .collect(toList());
+            List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, project);
+
+            List<DocumentMerge> batch = new ArrayList<>();
+            for (Map.Entry<SourceDocument, List<AnnotationDocument>> e : documentService
+                    .listAnnotationDocumentsBySourceDocument(project).entrySet()) {
+                SourceDocument doc = e.getKey();
+                if (SourceDocumentState.CURATION_IN_PROGRESS.equals(doc.getState())
+                        || SourceDocumentState.CURATION_FINISHED.equals(doc.getState())) {
+                    continue;
+                }
+
+                List<String> annotators = e.getValue().stream()
+                        .filter(annDoc -> AnnotationDocumentState.FINISHED
+                                .equals(annDoc.getState()))
+                        .map(AnnotationDocument::getUser)
+                        .collect(toList());
+                if (annotators.isEmpty()) {
+                    continue;
+                }
+
+                total++;
+                batch.add(new DocumentMerge(doc, annotators));
+                if (batch.size() == BATCH_SIZE) {
+                    submit(aJob, layerNames, adapters, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                submit(aJob, layerNames, adapters, batch);
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to plan curation merge of project [{}]({})", project.getName(),
+                    project.getId(), e);
+        }
+        finally {
+            aJob.setTotal(total);
+            finishIfComplete(aJob);
+        }
+    }
+
+    private void submit(MergeJob aJob, List<String> aLayerNames, List<DiffAdapter> aAdapters,
+            List<DocumentMerge> aBatch)
+    {
+        executor.execute(() -> {
+            CasMerge casMerge = new CasMerge(annotationService);
+            casMerge.setMergeIncompleteAnnotations(aJob.isMergeIncompleteAnnotations());
+            for (DocumentMerge merge : aBatch) {
+                merge(aJob, casMerge, aLayerNames, aAdapters, merge);
+            }
+        });
+    }
+
+    private void merge(MergeJob aJob, CasMerge aCasMerge, List<String> aLayerNames,
+            List<DiffAdapter> aAdapters, DocumentMerge aMerge)
+    {
+        SourceDocument doc = aMerge.document;
+        try {
+            if (aJob.isCancelled()) {
+                return;
+            }
+
+            // Avoid loading the annotator CASes if curation has already started
+            if (casStorageService.existsCas(doc, CURATION_USER)) {
+                aJob.skipped.incrementAndGet();
+                return;
+            }
+
+            // The curation CAS is created under the lock of the storage, so a curator opening
+            // the document in the meantime either sees the merge result or supersedes it
+            AtomicReference<CasMergeStatistics> statistics = new AtomicReference<>();
+            casStorageService.readOrCreateCas(doc, CURATION_USER, () -> {
+                try {
+                    return mergeDocument(aCasMerge, aLayerNames, aAdapters, aMerge, statistics);
+                }
+                catch (IOException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    throw new IOException(e);
+                }
+            });
+
+            if (statistics.get() != null) {
+                aJob.statistics.put(doc, statistics.get());
+                aJob.merged.incrementAndGet();
+                mergedCount.incrementAndGet();
+            }
+            else {
+                aJob.skipped.incrementAndGet();
+            }
+        }
+        catch (Exception e) {
+            aJob.failed.incrementAndGet();
+            failedCount.incrementAndGet();
+            log.error("Unable to merge document [{}]({}) in project [{}]({})", doc.getName(),
+                    doc.getId(), doc.getProject().getName(), doc.getProject().getId(), e);
+        }
+        finally {
+            aJob.processed.incrementAndGet();
+            finishIfComplete(aJob);
+        }
+    }
+
+    private CAS mergeDocument(CasMerge aCasMerge, List<String> aLayerNames,
+            List<DiffAdapter> aAdapters, DocumentMerge aMerge,
+            AtomicReference<CasMergeStatistics> aStatistics)
+        throws Exception
+    {
+        Map<String, CAS> casses = new LinkedHashMap<>();
+        for (String user : aMerge.annotators) {
+            casses.put(user, casStorageService.readCas(aMerge.document, user));
+        }
+
+        // The merge only retains the text, tokens and sentences of the target CAS, so we can
+        // start from a copy of any of the annotator CASes
+        CAS targetCas = createCas();
+        deserializeCASComplete(serializeCASComplete((CASImpl) casses.values().iterator().next()),
+                (CASImpl) targetCas);
+
+        List<Type> entryTypes = new ArrayList<>();
+        for (String layerName : aLayerNames) {
+            entryTypes.add(getType(targetCas, layerName));
+        }
+
+        DiffResult diff = doDiffSingle(entryTypes, aAdapters, LINK_ROLE_AS_LABEL, casses, 0,
+                targetCas.getDocumentText().length()).toResult();
+
+        aStatistics.set(aCasMerge.reMergeCas(diff, aMerge.document, CURATION_USER, targetCas,
+                casses));
+
+        return targetCas;
+    }
+
+    private void finishIfComplete(MergeJob aJob)
+    {
+        if (!aJob.isDone() || !aJob.finished.compareAndSet(false, true)) {
+            return;
+        }
+
+        Project project = aJob.getProject();
+        for (Map.Entry<SourceDocument, CasMergeStatistics> e : aJob.getStatistics().entrySet()) {
+            log.debug("Merged document [{}]({}): {} conflicts, {} incomplete, {} failed",
+                    e.getKey().getName(), e.getKey().getId(), e.getValue().getConflicts(),
+                    e.getValue().getIncomplete(), e.getValue().getFailed());
+        }
+        log.info("Merged {} of {} documents in project [{}]({}) in {}ms ({} skipped, {} failed, "
+                + "{} conflicts)", aJob.getMerged(), aJob.getTotal(), project.getName(),
+                project.getId(), System.currentTimeMillis() - aJob.start, aJob.getSkipped(),
+                aJob.getFailed(), aJob.getConflicts());
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getMergedDocumentCount()
+    {
+        return mergedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getFailedDocumentMergeCount()
+    {
+        return failedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getRunningMergeCount()
+    {
+        return (int) jobs.values().stream().filter(job -> !job.isDone()).count();
+    }
+
+    private static class DocumentMerge
+    {
+        private final SourceDocument document;
+        private final List<String> annotators;
+
+        public DocumentMerge(SourceDocument aDocument, List<String> aAnnotators)
+        {
+            document = aDocument;
+            annotators = aAnnotators;
+        }
+    }
+
+    /**
+     * The progress and the results of merging the documents of a project.
+     */
+    public static class MergeJob
+    {
+        private final Project project;
+        private final boolean mergeIncompleteAnnotations;
+        private final long start = System.currentTimeMillis();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger merged = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final Map<SourceDocument, CasMergeStatistics> statistics = 
+                new ConcurrentHashMap<>();
+        private volatile int total = -1;
+        private volatile boolean cancelled;
+
+        private MergeJob(Project aProject, boolean aMergeIncompleteAnnotations)
+        {
+            project = aProject;
+            mergeIncompleteAnnotations = aMergeIncompleteAnnotations;
+        }
+
+        public Project getProject()
+        {
+            return project;
+        }
+
+        public boolean isMergeIncompleteAnnotations()
+        {
+            return mergeIncompleteAnnotations;
+        }
+
+        /**
+         * @return the number of documents to merge or {@code -1} if they have not been determined
+         *         yet.
+         */
+        public int getTotal()
+        {
+            return total;
+        }
+
+        private void setTotal(int aTotal)
+        {
+            total = aTotal;
+        }
+
+        public int getProcessed()
+        {
+            return processed.get();
+        }
+
+        public int getMerged()
+        {
+            return merged.get();
+        }
+
+        /**
+         * @return the number of documents which have been skipped because curation has started
+         *         in the meantime.
+         */
+        public int getSkipped()
+        {
+            return skipped.get();
+        }
+
+        public int getFailed()
+        {
+            return failed.get();
+        }
+
+        /**
+         * @return the merge statistics (including the number of conflicts) of every merged
+         *         document.
+         */
+        public Map<SourceDocument, CasMergeStatistics> getStatistics()
+        {
+            return Collections.unmodifiableMap(statistics);
+        }
+
+        /**
+         * @return the number of conflicts over all merged documents.
+         */
+        public int getConflicts()
+        {
+            return statistics.values().stream().mapToInt(CasMergeStatistics::getConflicts).sum();
+        }
+
+        public boolean isDone()
+        {
+            int t = total;
+            return t >= 0 && processed.get() >= t;
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        private void cancel()
+        {
+            cancelled = true;
+        }
+    }
+}
@@ -28,20 +28,18 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokens;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.setFeature;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectAt;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -53,7 +51,6 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,6 +101,8 @@ public class CasMerge
     private boolean silenceEvents = false;
     private Map<AnnotationLayer, List<AnnotationFeature>> featureCache = new HashMap<>();
     private LoadingCache<AnnotationLayer, TypeAdapter> adapterCache;
+    // Only set while re-merging - the single-annotation merges from the UI use the CAS indexes
+    private TargetCasIndex targetIndex;
     
     public CasMerge(AnnotationSchemaService aSchemaService)
     {
@@ -116,9 +115,10 @@ public class CasMerge
         schemaService = aSchemaService;
         eventPublisher = aEventPublisher;
         
+        // The adapters may be silenced, so we cannot use the shared ones
         adapterCache = Caffeine.newBuilder()
                 .maximumSize(100)
-                .build(schemaService::getAdapter);
+                .build(schemaService::createAdapter);
     }
     
     public void setSilenceEvents(boolean aSilenceEvents)
@@ -141,7 +141,8 @@ public class CasMerge
         return mergeIncompleteAnnotations;
     }
 
-    private boolean shouldMerge(DiffResult aDiff, ConfigurationSet cfgs)
+    private boolean shouldMerge(DiffResult aDiff, ConfigurationSet cfgs,
+            CasMergeStatistics aStatistics)
     {
         boolean stacked = cfgs.getConfigurations().stream()
                 .filter(Configuration::isStacked)
@@ -149,16 +150,19 @@ public class CasMerge
                 .isPresent();
         if (stacked) {
             LOG.trace(" `-> Not merging stacked annotation");
+            aStatistics.incrementConflicts();
             return false;
         }
         
-        if (!aDiff.isComplete(cfgs) && !isMergeIncompleteAnnotations()) {
-            LOG.trace(" `-> Not merging incomplete annotation");
+        if (!aDiff.isAgreement(cfgs)) {
+            LOG.trace(" `-> Not merging annotation with disagreement");
+            aStatistics.incrementConflicts();
             return false;
         }
         
-        if (!aDiff.isAgreement(cfgs)) {
-            LOG.trace(" `-> Not merging annotation with disagreement");
+        if (!aDiff.isComplete(cfgs) && !isMergeIncompleteAnnotations()) {
+            LOG.trace(" `-> Not merging incomplete annotation");
+            aStatistics.incrementIncomplete();
             return false;
         }
         
@@ -185,23 +189,22 @@ public class CasMerge
      *            the {@link DiffResult}
      * @param aCases
      *            a map of {@code CAS}s for each users and the random merge
+     * @return what has been merged and how many positions could not be merged.
      */
-    public void reMergeCas(DiffResult aDiff, SourceDocument aTargetDocument, String aTargetUsername,
-            CAS aTargetCas, Map<String, CAS> aCases)
+    public CasMergeStatistics reMergeCas(DiffResult aDiff, SourceDocument aTargetDocument,
+            String aTargetUsername, CAS aTargetCas, Map<String, CAS> aCases)
         throws AnnotationException, UIMAException
     {
         silenceEvents = true;
         
-        int updated = 0;
-        int created = 0;
-        Set<LogMessage> messages = new LinkedHashSet<>();
+        CasMergeStatistics statistics = new CasMergeStatistics();
         
         // Remove any annotations from the target CAS - keep type system, sentences and tokens
         clearAnnotations(aTargetCas);
         
         // If there is nothing to merge, bail out
         if (aCases.isEmpty()) {
-            return;
+            return statistics;
         }
                 
         // Set up a cache for resolving type to layer to avoid hammering the DB as we process each
@@ -226,157 +229,166 @@ public class CasMerge
             layerNames.add(0, Sentence.class.getName());
         }
         
-        // First we process the SPAN layers since other layers can refer to them (via slot features
-        // or as relation layers).
-        // We process layer by layer so that we can order the layers (important to process tokens
-        // and sentences before the others)
-        for (String layerName : layerNames) {
-            List<SpanPosition> positions = aDiff.getPositions().stream()
-                    .filter(pos -> layerName.equals(pos.getType()))
-                    .filter(pos -> pos instanceof SpanPosition)
-                    .map(pos -> (SpanPosition) pos)
-                    // We don't process slot features here (they are span sub-positions)
-                    .filter(pos -> pos.getFeature() == null)
-                    .collect(Collectors.toList());
-            
-            if (positions.isEmpty()) {
-                continue;
+        // Sort the positions by layer and kind in a single pass instead of filtering all positions
+        // once for every layer and kind
+        Map<String, List<SpanPosition>> spanPositions = new HashMap<>();
+        Map<String, List<SpanPosition>> slotPositions = new HashMap<>();
+        Map<String, List<RelationPosition>> relationPositions = new HashMap<>();
+        for (Position pos : aDiff.getPositions()) {
+            if (pos instanceof SpanPosition) {
+                // Slot features are span sub-positions
+                (pos.getFeature() == null ? spanPositions : slotPositions)
+                        .computeIfAbsent(pos.getType(), k -> new ArrayList<>())
+                        .add((SpanPosition) pos);
             }
-
-            LOG.debug("Processing {} span positions on layer {}", positions.size(), layerName);
-
-            // First we merge the spans so that we can attach the relations to something later.
-            // Slots are also excluded for the moment
-            for (SpanPosition position : positions) {
-                LOG.trace(" |   processing {}", position);
-                ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
+            else if (pos instanceof RelationPosition) {
+                relationPositions.computeIfAbsent(pos.getType(), k -> new ArrayList<>())
+                        .add((RelationPosition) pos);
+            }
+        }
+        
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        aCases.forEach((k, v) -> casMap.put(k, asList(v)));
+        
+        targetIndex = new TargetCasIndex(aTargetCas);
+        try {
+            // First we process the SPAN layers since other layers can refer to them (via slot
+            // features or as relation layers).
+            // We process layer by layer so that we can order the layers (important to process
+            // tokens and sentences before the others)
+            for (String layerName : layerNames) {
+                List<SpanPosition> positions = spanPositions.getOrDefault(layerName, emptyList());
                 
-                if (!shouldMerge(aDiff, cfgs)) {
+                if (positions.isEmpty()) {
                     continue;
                 }
-                
-                try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
-                    AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
-                            .getRepresentative(casMap);
-                    CasMergeOpertationResult result = mergeSpanAnnotation(aTargetDocument,
-                            aTargetUsername, type2layer.get(position.getType()), aTargetCas,
-                            sourceFS, false);
-                    LOG.trace(" `-> merged annotation with agreement");
+    
+                LOG.debug("Processing {} span positions on layer {}", positions.size(), layerName);
+    
+                // First we merge the spans so that we can attach the relations to something later.
+                // Slots are also excluded for the moment
+                for (SpanPosition position : positions) {
+                    LOG.trace(" |   processing {}", position);
+                    ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
                     
-                    switch (result) {
-                    case CREATED:
-                        created++;
-                        break;
-                    case UPDATED:
-                        updated++;
-                        break;
+                    if (!shouldMerge(aDiff, cfgs, statistics)) {
+                        continue;
+                    }
+                    
+                    try {
+                        AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
+                                .getRepresentative(casMap);
+                        CasMergeOpertationResult result = mergeSpanAnnotation(aTargetDocument,
+                                aTargetUsername, type2layer.get(position.getType()), aTargetCas,
+                                sourceFS, false);
+                        LOG.trace(" `-> merged annotation with agreement");
+                        
+                        switch (result) {
+                        case CREATED:
+                            statistics.incrementCreated();
+                            break;
+                        case UPDATED:
+                            statistics.incrementUpdated();
+                            break;
+                        }
+                    }
+                    catch (AnnotationException e) {
+                        LOG.trace(" `-> not merged annotation: {}", e.getMessage());
+                        statistics.addFailure(LogMessage.error(this, "%s", e.getMessage()));
                     }
-                }
-                catch (AnnotationException e) {
-                    LOG.trace(" `-> not merged annotation: {}", e.getMessage());
-                    messages.add(LogMessage.error(this, "%s", e.getMessage()));
                 }
             }
-        }
-        
-        // After the spans are in place, we can merge the slot features
-        for (String layerName : layerNames) {
-            List<SpanPosition> positions = aDiff.getPositions().stream()
-                    .filter(pos -> layerName.equals(pos.getType()))
-                    .filter(pos -> pos instanceof SpanPosition)
-                    .map(pos -> (SpanPosition) pos)
-                    // We only process slot features here
-                    .filter(pos -> pos.getFeature() != null)
-                    .collect(Collectors.toList());
             
-            if (positions.isEmpty()) {
-                continue;
-            }
-
-            LOG.debug("Processing {} slot positions on layer [{}]", positions.size(), layerName);
-            
-            for (SpanPosition position : positions) {
-                LOG.trace(" |   processing {}", position);
-                ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
+            // After the spans are in place, we can merge the slot features
+            for (String layerName : layerNames) {
+                List<SpanPosition> positions = slotPositions.getOrDefault(layerName, emptyList());
                 
-                if (!shouldMerge(aDiff, cfgs)) {
+                if (positions.isEmpty()) {
                     continue;
                 }
+    
+                LOG.debug("Processing {} slot positions on layer [{}]", positions.size(),
+                        layerName);
                 
-                try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
-                    AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
-                            .getRepresentative(casMap);
-                    AID sourceFsAid = cfgs.getConfigurations().get(0)
-                            .getRepresentativeAID();
-                    mergeSlotFeature(aTargetDocument, aTargetUsername,
-                            type2layer.get(position.getType()), aTargetCas, sourceFS,
-                            sourceFsAid.feature, sourceFsAid.index);
-                    LOG.trace(" `-> merged annotation with agreement");
-                }
-                catch (AnnotationException e) {
-                    LOG.trace(" `-> not merged annotation: {}", e.getMessage());
-                    messages.add(LogMessage.error(this, "%s", e.getMessage()));
+                for (SpanPosition position : positions) {
+                    LOG.trace(" |   processing {}", position);
+                    ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
+                    
+                    if (!shouldMerge(aDiff, cfgs, statistics)) {
+                        continue;
+                    }
+                    
+                    try {
+                        AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
+                                .getRepresentative(casMap);
+                        AID sourceFsAid = cfgs.getConfigurations().get(0)
+                                .getRepresentativeAID();
+                        mergeSlotFeature(aTargetDocument, aTargetUsername,
+                                type2layer.get(position.getType()), aTargetCas, sourceFS,
+                                sourceFsAid.feature, sourceFsAid.index);
+                        LOG.trace(" `-> merged annotation with agreement");
+                    }
+                    catch (AnnotationException e) {
+                        LOG.trace(" `-> not merged annotation: {}", e.getMessage());
+                        statistics.addFailure(LogMessage.error(this, "%s", e.getMessage()));
+                    }
                 }
             }
-        }
-        
-        // Finally, we merge the relations
-        for (String layerName : layerNames) {
-            List<RelationPosition> positions = aDiff.getPositions().stream()
-                    .filter(pos -> layerName.equals(pos.getType()))
-                    .filter(pos -> pos instanceof RelationPosition)
-                    .map(pos -> (RelationPosition) pos)
-                    .collect(Collectors.toList());
-            
-            if (positions.isEmpty()) {
-                continue;
-            }
-
-            LOG.debug("Processing {} relation positions on layer [{}]", positions.size(),
-                    layerName);
             
-            for (RelationPosition position : positions) {
-                LOG.trace(" |   processing {}", position);
-                ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
+            // Finally, we merge the relations
+            for (String layerName : layerNames) {
+                List<RelationPosition> positions = relationPositions.getOrDefault(layerName,
+                        emptyList());
                 
-                if (!shouldMerge(aDiff, cfgs)) {
+                if (positions.isEmpty()) {
                     continue;
                 }
+    
+                LOG.debug("Processing {} relation positions on layer [{}]", positions.size(),
+                        layerName);
                 
-                try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
-                    AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
-                            .getRepresentative(casMap);
-                    CasMergeOpertationResult result = mergeRelationAnnotation(aTargetDocument,
-                            aTargetUsername, type2layer.get(position.getType()), aTargetCas,
-                            sourceFS, false);
-                    LOG.trace(" `-> merged annotation with agreement");
+                for (RelationPosition position : positions) {
+                    LOG.trace(" |   processing {}", position);
+                    ConfigurationSet cfgs = aDiff.getConfigurtionSet(position);
                     
-                    switch (result) {
-                    case CREATED:
-                        created++;
-                        break;
-                    case UPDATED:
-                        updated++;
-                        break;
+                    if (!shouldMerge(aDiff, cfgs, statistics)) {
+                        continue;
+                    }
+                    
+                    try {
+                        AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
+                                .getRepresentative(casMap);
+                        CasMergeOpertationResult result = mergeRelationAnnotation(
+                                aTargetDocument, aTargetUsername,
+                                type2layer.get(position.getType()), aTargetCas, sourceFS, false);
+                        LOG.trace(" `-> merged annotation with agreement");
+                        
+                        switch (result) {
+                        case CREATED:
+                            statistics.incrementCreated();
+                            break;
+                        case UPDATED:
+                            statistics.incrementUpdated();
+                            break;
+                        }
+                    }
+                    catch (AnnotationException e) {
+                        LOG.trace(" `-> not merged annotation: {}", e.getMessage());
+                        statistics.addFailure(LogMessage.error(this, "%s", e.getMessage()));
                     }
-                }
-                catch (AnnotationException e) {
-                    LOG.trace(" `-> not merged annotation: {}", e.getMessage());
-                    messages.add(LogMessage.error(this, "%s", e.getMessage()));
                 }
             }
         }
+        finally {
+            targetIndex = null;
+        }
         
         if (eventPublisher != null) {
             eventPublisher.publishEvent(
                     new BulkAnnotationEvent(this, aTargetDocument, aTargetUsername, null));
         }
+        
+        return statistics;
     }
 
     private static void clearAnnotations(CAS aCas)
@@ -476,21 +488,48 @@ public class CasMerge
         }
     }
 
-    private static boolean existsSameAt(CAS aCas, AnnotationFS aFs)
+    private List<AnnotationFS> selectAtTarget(CAS aTargetCas, Type aType, int aBegin, int aEnd)
+    {
+        if (targetIndex != null && targetIndex.getCas() == aTargetCas) {
+            return targetIndex.selectAt(aType, aBegin, aEnd);
+        }
+        
+        return selectAt(aTargetCas, aType, aBegin, aEnd);
+    }
+
+    private void addedToTarget(CAS aTargetCas, AnnotationFS aAnnotation)
+    {
+        if (targetIndex != null && targetIndex.getCas() == aTargetCas) {
+            targetIndex.add(aAnnotation);
+        }
+    }
+
+    private void removedFromTarget(CAS aTargetCas)
+    {
+        // Deleting an annotation may also delete annotations attached to it, so we rebuild the
+        // index from scratch
+        if (targetIndex != null && targetIndex.getCas() == aTargetCas) {
+            targetIndex.invalidate();
+        }
+    }
+
+    private boolean existsSameAt(CAS aCas, AnnotationFS aFs)
     {
-        return CasUtil.selectAt(aCas, aFs.getType(), aFs.getBegin(), aFs.getEnd()).stream()
+        return selectAtTarget(aCas, aFs.getType(), aFs.getBegin(), aFs.getEnd()).stream()
                 .filter(cand -> isSameAnno(aFs, cand))
                 .findAny()
                 .isPresent();
     }
 
-    private static List<AnnotationFS> selectCandidateRelationsAt(CAS aTargetCas,
+    private List<AnnotationFS> selectCandidateRelationsAt(CAS aTargetCas,
             AnnotationFS aSourceFs, AnnotationFS aSourceOriginFs, AnnotationFS aSourceTargetFs)
     {
         Type type = aSourceFs.getType();
         Feature sourceFeat = type.getFeatureByBaseName(WebAnnoConst.FEAT_REL_SOURCE);
         Feature targetFeat = type.getFeatureByBaseName(WebAnnoConst.FEAT_REL_TARGET);
-        return selectCovered(aTargetCas, type, aSourceFs.getBegin(), aSourceFs.getEnd()).stream()
+        // The offsets of a relation are those of its target, so any relation between the given
+        // origin and target is located exactly at the offsets of the source relation
+        return selectAtTarget(aTargetCas, type, aSourceFs.getBegin(), aSourceFs.getEnd()).stream()
                 .filter(fs -> fs.getFeatureValue(sourceFeat).equals(aSourceOriginFs)
                         && fs.getFeatureValue(targetFeat).equals(aSourceTargetFs))
                 .collect(Collectors.toList());
@@ -531,9 +570,10 @@ public class CasMerge
         }
     }
 
-    private static List<AnnotationFS> getCandidateAnnotations(CAS aTargetCas, AnnotationFS aSource)
+    private List<AnnotationFS> getCandidateAnnotations(CAS aTargetCas, AnnotationFS aSource)
     {
-        return selectCovered(aTargetCas, aSource.getType(), aSource.getBegin(), aSource.getEnd())
+        // Same annotations have the same offsets, so looking at the exact offsets is sufficient
+        return selectAtTarget(aTargetCas, aSource.getType(), aSource.getBegin(), aSource.getEnd())
                 .stream()
                 .filter(fs -> isSameAnno(fs, aSource))
                 .collect(Collectors.toList());
@@ -563,13 +603,14 @@ public class CasMerge
         }
 
         // a) if stacking allowed add this new annotation to the mergeview
-        List<AnnotationFS> existingAnnos = selectAt(aTargetCas, aSourceFs.getType(),
+        List<AnnotationFS> existingAnnos = selectAtTarget(aTargetCas, aSourceFs.getType(),
                 aSourceFs.getBegin(), aSourceFs.getEnd());
         if (existingAnnos.isEmpty() || aAllowStacking) {
             // Create the annotation via the adapter - this also takes care of attaching to an
             // annotation if necessary
             AnnotationFS mergedSpan = adapter.add(aDocument, aUsername, aTargetCas,
                     aSourceFs.getBegin(), aSourceFs.getEnd());
+            addedToTarget(aTargetCas, mergedSpan);
             
             try {
                 copyFeatures(aDocument, aUsername, adapter, mergedSpan, aSourceFs);
@@ -578,6 +619,7 @@ public class CasMerge
                 // If there was an error while setting the features, then we skip the entire
                 // annotation
                 adapter.delete(aDocument, aUsername, aTargetCas, new VID(mergedSpan));
+                removedFromTarget(aTargetCas);
             }
             return CasMergeOpertationResult.CREATED;
         }
@@ -648,6 +690,7 @@ public class CasMerge
         if (existingAnnos.isEmpty() || aAllowStacking) {
             AnnotationFS mergedRelation = adapter.add(aDocument, aUsername, originFs, targetFs,
                     aTargetCas);
+            addedToTarget(aTargetCas, mergedRelation);
             try {
                 copyFeatures(aDocument, aUsername, adapter, mergedRelation, aSourceFs);
             }
@@ -655,6 +698,7 @@ public class CasMerge
                 // If there was an error while setting the features, then we skip the entire
                 // annotation
                 adapter.delete(aDocument, aUsername, aTargetCas, new VID(mergedRelation));
+                removedFromTarget(aTargetCas);
             }
             return CasMergeOpertationResult.CREATED;
         }
@@ -724,7 +768,7 @@ public class CasMerge
         setFeature(mergeFs, slotFeature, links);
     }
 
-    private static List<AnnotationFS> checkAndGetTargets(CAS aCas, AnnotationFS aOldTraget)
+    private List<AnnotationFS> checkAndGetTargets(CAS aCas, AnnotationFS aOldTraget)
         throws UnfulfilledPrerequisitesException
     {
         List<AnnotationFS> targets = getCandidateAnnotations(aCas, aOldTraget);
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+/**
+ * Outcome of merging the CASes of the annotators into the target CAS (cf.
+ * {@link CasMerge#reMergeCas}).
+ */
+public class CasMergeStatistics
+    implements Serializable
+{
+    private static final long serialVersionUID = -2906826164622587380L;
+
+    private int created;
+    private int updated;
+    private int conflicts;
+    private int incomplete;
+    private int failed;
+    private final Set<LogMessage> messages = new LinkedHashSet<>();
+
+    void incrementCreated()
+    {
+        created++;
+    }
+
+    void incrementUpdated()
+    {
+        updated++;
+    }
+
+    void incrementConflicts()
+    {
+        conflicts++;
+    }
+
+    void incrementIncomplete()
+    {
+        incomplete++;
+    }
+
+    void addFailure(LogMessage aMessage)
+    {
+        failed++;
+        messages.add(aMessage);
+    }
+
+    /**
+     * @return the number of annotations created in the target CAS.
+     */
+    public int getCreated()
+    {
+        return created;
+    }
+
+    /**
+     * @return the number of annotations in the target CAS which have been updated.
+     */
+    public int getUpdated()
+    {
+        return updated;
+    }
+
+    /**
+     * @return the number of positions which have not been merged because the annotators disagree
+     *         or because there are stacked annotations.
+     */
+    public int getConflicts()
+    {
+        return conflicts;
+    }
+
+    /**
+     * @return the number of positions which have not been merged because not all annotators
+     *         have annotated them.
+     */
+    public int getIncomplete()
+    {
+        return incomplete;
+    }
+
+    /**
+     * @return the number of positions which could not be merged into the target CAS, e.g.
+     *         because a relation endpoint is missing there.
+     */
+    public int getFailed()
+    {
+        return failed;
+    }
+
+    public Set<LogMessage> getMessages()
+    {
+        return Collections.unmodifiableSet(messages);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+
+/**
+ * Offset index over the annotations of the target CAS of a merge. Looking up the annotations at
+ * a given position in the CAS annotation index requires a scan of the index, so doing this for
+ * every merged position makes merging a large document quadratic. This index maps the offsets to
+ * the annotations instead. It is built lazily for each type and must be informed about the
+ * annotations added to the target CAS during the merge. If annotations are removed from the
+ * target CAS, the index must be {@link #invalidate() invalidated}.
+ */
+class TargetCasIndex
+{
+    private final CAS cas;
+    private final Map<String, Map<Long, List<AnnotationFS>>> index = new HashMap<>();
+
+    public TargetCasIndex(CAS aCas)
+    {
+        cas = aCas;
+    }
+
+    public CAS getCas()
+    {
+        return cas;
+    }
+
+    /**
+     * Equivalent to {@link CasUtil#selectAt(CAS, Type, int, int)} on the target CAS.
+     * 
+     * @param aType
+     *            the type - it may also stem from the type system of a different CAS.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations of the given type (or a subtype) at the given offsets.
+     */
+    public List<AnnotationFS> selectAt(Type aType, int aBegin, int aEnd)
+    {
+        List<AnnotationFS> annotations = index
+                .computeIfAbsent(aType.getName(), this::indexType)
+                .get(key(aBegin, aEnd));
+        return annotations != null ? new ArrayList<>(annotations) : new ArrayList<>();
+    }
+
+    /**
+     * Adds an annotation which has been created in the target CAS to the index.
+     * 
+     * @param aAnnotation
+     *            the annotation.
+     */
+    public void add(AnnotationFS aAnnotation)
+    {
+        TypeSystem ts = cas.getTypeSystem();
+        for (Map.Entry<String, Map<Long, List<AnnotationFS>>> e : index.entrySet()) {
+            if (ts.subsumes(ts.getType(e.getKey()), aAnnotation.getType())) {
+                e.getValue()
+                        .computeIfAbsent(key(aAnnotation.getBegin(), aAnnotation.getEnd()),
+                            k -> new ArrayList<>())
+                        .add(aAnnotation);
+            }
+        }
+    }
+
+    /**
+     * Drops the index. It is rebuilt from the target CAS when it is accessed the next time.
+     */
+    public void invalidate()
+    {
+        index.clear();
+    }
+
+    private Map<Long, List<AnnotationFS>> indexType(String aTypeName)
+    {
+        Map<Long, List<AnnotationFS>> offsets = new HashMap<>();
+        for (AnnotationFS fs : CasUtil.select(cas, CasUtil.getType(cas, aTypeName))) {
+            offsets.computeIfAbsent(key(fs.getBegin(), fs.getEnd()), k -> new ArrayList<>())
+                    .add(fs);
+        }
+        return offsets;
+    }
+
+    private static long key(int aBegin, int aEnd)
+    {
+        return ((long) aBegin << 32) | (aEnd & 0xffffffffL);
+    }
+}
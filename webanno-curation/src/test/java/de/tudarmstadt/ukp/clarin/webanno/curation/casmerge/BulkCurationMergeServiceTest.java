@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.BulkCurationMergeService.MergeJob;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class BulkCurationMergeServiceTest
+    extends CasMergeTestBase
+{
+    private @Mock DocumentService documentService;
+    private @Mock CasStorageService casStorageService;
+
+    private Map<SourceDocument, List<AnnotationDocument>> annotationDocuments;
+    private Map<SourceDocument, CAS> curationCases;
+    private BulkCurationMergeService mergeService;
+
+    @Before
+    public void setupMergeService() throws Exception
+    {
+        project.setId(1l);
+        project.setName("project");
+
+        annotationDocuments = new LinkedHashMap<>();
+        curationCases = new LinkedHashMap<>();
+
+        when(schemaService.listAnnotationLayer(project)).thenReturn(asList(posLayer));
+        when(documentService.listAnnotationDocumentsBySourceDocument(project))
+                .thenReturn(annotationDocuments);
+        when(casStorageService.readOrCreateCas(any(), eq(CURATION_USER), any()))
+                .thenAnswer(call -> {
+                    CAS cas = call.getArgument(2, CasProvider.class).get();
+                    curationCases.put(call.getArgument(0, SourceDocument.class), cas);
+                    return cas;
+                });
+
+        mergeService = new BulkCurationMergeService(documentService, casStorageService,
+                schemaService);
+    }
+
+    @After
+    public void tearDown()
+    {
+        mergeService.destroy();
+    }
+
+    @Test
+    public void thatConflictsAreCounted() throws Exception
+    {
+        SourceDocument doc = makeDocument(1l, "doc1", SourceDocumentState.ANNOTATION_FINISHED);
+        
+        JCas user1 = JCasFactory.createText("one two three");
+        token(user1, 0, 3, "X");
+        token(user1, 4, 7, "X");
+        token(user1, 8, 13, "X");
+        
+        JCas user2 = JCasFactory.createText("one two three");
+        token(user2, 0, 3, "X");
+        token(user2, 4, 7, "Y");
+        token(user2, 8, 13, "Z");
+        
+        annotate(doc, "user1", AnnotationDocumentState.FINISHED, user1);
+        annotate(doc, "user2", AnnotationDocumentState.FINISHED, user2);
+
+        MergeJob job = await(mergeService.startMerge(project, false));
+
+        assertThat(job.getTotal()).isEqualTo(1);
+        assertThat(job.getMerged()).isEqualTo(1);
+        assertThat(job.getFailed()).isEqualTo(0);
+        assertThat(job.getConflicts()).isEqualTo(2);
+        assertThat(job.getStatistics().get(doc).getConflicts()).isEqualTo(2);
+        assertThat(select(curationCases.get(doc).getJCas(), POS.class))
+                .extracting(POS::getCoveredText)
+                .containsExactly("one");
+        assertThat(mergeService.getMergedDocumentCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void thatDocumentsInCurationAreNotMerged() throws Exception
+    {
+        SourceDocument inProgress = makeDocument(1l, "doc1",
+                SourceDocumentState.CURATION_IN_PROGRESS);
+        SourceDocument finished = makeDocument(2l, "doc2", SourceDocumentState.CURATION_FINISHED);
+        SourceDocument unfinished = makeDocument(3l, "doc3",
+                SourceDocumentState.ANNOTATION_IN_PROGRESS);
+
+        annotate(inProgress, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+        annotate(finished, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+        annotate(unfinished, "user1", AnnotationDocumentState.IN_PROGRESS, annotatorCas());
+
+        MergeJob job = await(mergeService.startMerge(project, false));
+
+        assertThat(job.getTotal()).isEqualTo(0);
+        assertThat(job.getMerged()).isEqualTo(0);
+        verify(casStorageService, never()).readCas(any(), any());
+        verify(casStorageService, never()).readOrCreateCas(any(), any(), any());
+    }
+
+    @Test
+    public void thatDocumentsWithCurationCasAreSkipped() throws Exception
+    {
+        SourceDocument curated = makeDocument(1l, "doc1", SourceDocumentState.ANNOTATION_FINISHED);
+        SourceDocument uncurated = makeDocument(2l, "doc2",
+                SourceDocumentState.ANNOTATION_FINISHED);
+
+        annotate(curated, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+        annotate(uncurated, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+        when(casStorageService.existsCas(curated, CURATION_USER)).thenReturn(true);
+
+        MergeJob job = await(mergeService.startMerge(project, false));
+
+        assertThat(job.getTotal()).isEqualTo(2);
+        assertThat(job.getMerged()).isEqualTo(1);
+        assertThat(job.getSkipped()).isEqualTo(1);
+        assertThat(curationCases).containsOnlyKeys(uncurated);
+        verify(casStorageService, never()).readCas(curated, "user1");
+    }
+
+    @Test
+    public void thatStartingMergeAgainCancelsRunningMerge() throws Exception
+    {
+        SourceDocument doc = makeDocument(1l, "doc1", SourceDocumentState.ANNOTATION_FINISHED);
+        annotate(doc, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+
+        // Hold the planning of the merges until both have been started
+        CountDownLatch started = new CountDownLatch(1);
+        when(documentService.listAnnotationDocumentsBySourceDocument(project))
+                .thenAnswer(call -> {
+                    started.await(10, TimeUnit.SECONDS);
+                    return annotationDocuments;
+                });
+
+        MergeJob first = mergeService.startMerge(project, false);
+        MergeJob second = mergeService.startMerge(project, false);
+        started.countDown();
+
+        await(first);
+        await(second);
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(first.getMerged()).isEqualTo(0);
+        assertThat(second.isCancelled()).isFalse();
+        assertThat(second.getMerged()).isEqualTo(1);
+        assertThat(mergeService.getMerge(project)).containsSame(second);
+    }
+
+    @Test
+    public void thatRemovingProjectCancelsMerge() throws Exception
+    {
+        SourceDocument doc = makeDocument(1l, "doc1", SourceDocumentState.ANNOTATION_FINISHED);
+        annotate(doc, "user1", AnnotationDocumentState.FINISHED, annotatorCas());
+
+        CountDownLatch removed = new CountDownLatch(1);
+        when(documentService.listAnnotationDocumentsBySourceDocument(project))
+                .thenAnswer(call -> {
+                    removed.await(10, TimeUnit.SECONDS);
+                    return annotationDocuments;
+                });
+
+        MergeJob job = mergeService.startMerge(project, false);
+        mergeService.onBeforeProjectRemoved(new BeforeProjectRemovedEvent(this, project));
+        removed.countDown();
+
+        await(job);
+
+        assertThat(job.isCancelled()).isTrue();
+        assertThat(job.getMerged()).isEqualTo(0);
+        assertThat(mergeService.getMerge(project)).isEmpty();
+        verify(casStorageService, never()).readOrCreateCas(any(), any(), any());
+    }
+
+    private SourceDocument makeDocument(long aId, String aName, SourceDocumentState aState)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName(aName);
+        doc.setProject(project);
+        doc.setState(aState);
+        return doc;
+    }
+
+    private void annotate(SourceDocument aDocument, String aUser, AnnotationDocumentState aState,
+            JCas aCas)
+        throws Exception
+    {
+        AnnotationDocument annDoc = new AnnotationDocument(aDocument.getName(), project, aUser,
+                aDocument);
+        annDoc.setState(aState);
+        annotationDocuments.computeIfAbsent(aDocument, k -> new ArrayList<>())
+                .add(annDoc);
+        when(casStorageService.readCas(aDocument, aUser)).thenReturn(aCas.getCas());
+    }
+
+    private JCas annotatorCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createText("word");
+        token(jcas, 0, 4, "X");
+        return jcas;
+    }
+
+    private Token token(JCas aJCas, int aBegin, int aEnd, String aPos)
+    {
+        POS pos = null;
+        if (aPos != null) {
+            pos = new POS(aJCas, aBegin, aEnd);
+            pos.setPosValue(aPos);
+            pos.addToIndexes();
+        }
+        Token token = new Token(aJCas, aBegin, aEnd);
+        token.setPos(pos);
+        token.addToIndexes();
+        return token;
+    }
+
+    private MergeJob await(MergeJob aJob) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!aJob.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(aJob.isDone()).as("merge finished").isTrue();
+        return aJob;
+    }
+}
@@ -152,6 +152,39 @@ public class CasMergeTest
         assertThat(select(curatorCas, POS.class)).hasSize(1);
     }
 
+    @Test
+    public void thatConflictsAreCounted()
+        throws Exception
+    {
+        JCas user1 = JCasFactory.createText("one two three");
+        token(user1, 0, 3, "X");
+        token(user1, 4, 7, "X");
+        token(user1, 8, 13, "X");
+        
+        JCas user2 = JCasFactory.createText("one two three");
+        token(user2, 0, 3, "X");
+        token(user2, 4, 7, "Y");
+        token(user2, 8, 13, null);
+        
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1.getCas()));
+        casByUser.put("user2", asList(user2.getCas()));
+        
+        JCas curatorCas = createText(user1.getDocumentText());
+        
+        DiffResult result = doDiff(entryTypes, diffAdapters, LINK_TARGET_AS_LABEL, casByUser)
+                .toResult();
+
+        CasMergeStatistics statistics = sut.reMergeCas(result, document, null,
+                curatorCas.getCas(), getSingleCasByUser(casByUser));
+
+        assertThat(select(curatorCas, POS.class))
+                .extracting(POS::getCoveredText)
+                .containsExactly("one");
+        assertThat(statistics.getConflicts()).isEqualTo(1);
+        assertThat(statistics.getIncomplete()).isEqualTo(1);
+    }
+    
     private Token token(JCas aJCas, int aBegin, int aEnd, String aPos)
     {
         POS pos = null;
@@ -30,6 +30,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
 import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.OVERLAP_ONLY;
 import static java.util.Arrays.asList;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -41,6 +42,7 @@ import org.junit.Before;
 import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
@@ -345,8 +347,13 @@ public class CasMergeTestBase
             }
             throw new IllegalStateException("Unknown layer type: " + type.getName());
         });
+        
+        ProjectSchema projectSchema = mock(ProjectSchema.class);
+        when(projectSchema.getFeatures(any(AnnotationLayer.class))).thenAnswer(call -> 
+                schemaService.listAnnotationFeature(call.getArgument(0, AnnotationLayer.class)));
+        when(schemaService.getProjectSchema(any())).thenReturn(projectSchema);
 
-        when(schemaService.getAdapter(any(AnnotationLayer.class))).thenAnswer(call -> { 
+        when(schemaService.createAdapter(any(AnnotationLayer.class))).thenAnswer(call -> { 
             AnnotationLayer type = call.getArgument(0, AnnotationLayer.class);
             return layerSupportRegistry.getLayerSupport(type).createAdapter(type);
         });
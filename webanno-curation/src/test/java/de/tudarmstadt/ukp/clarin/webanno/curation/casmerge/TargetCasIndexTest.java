@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.selectAt;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class TargetCasIndexTest
+{
+    private CAS cas;
+    private Type posType;
+    private Type neType;
+    private TargetCasIndex sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        cas = JCasFactory.createText("one two three").getCas();
+        posType = getType(cas, POS.class);
+        neType = getType(cas, NamedEntity.class);
+        sut = new TargetCasIndex(cas);
+    }
+
+    @Test
+    public void thatExistingAnnotationsAreFound()
+    {
+        AnnotationFS pos = add(posType, 0, 3);
+        add(posType, 4, 7);
+        add(neType, 0, 3);
+
+        assertThat(sut.selectAt(posType, 0, 3)).containsExactly(pos);
+        assertThat(sut.selectAt(posType, 0, 7)).isEmpty();
+        assertThat(sut.selectAt(posType, 8, 13)).isEmpty();
+    }
+
+    @Test
+    public void thatAddedAnnotationsAreFound()
+    {
+        // Build the index before the annotations are created
+        assertThat(sut.selectAt(posType, 4, 7)).isEmpty();
+
+        AnnotationFS pos = add(posType, 4, 7);
+        sut.add(pos);
+        AnnotationFS ne = add(neType, 4, 7);
+        sut.add(ne);
+
+        assertThat(sut.selectAt(posType, 4, 7)).containsExactly(pos);
+        assertThat(sut.selectAt(neType, 4, 7)).containsExactly(ne);
+        assertThat(sut.selectAt(posType, 4, 7))
+                .containsExactlyElementsOf(selectAt(cas, posType, 4, 7));
+    }
+
+    @Test
+    public void thatIndexMatchesCasAfterDeleteAndInvalidate()
+    {
+        AnnotationFS pos1 = add(posType, 0, 3);
+        AnnotationFS pos2 = add(posType, 0, 3);
+        assertThat(sut.selectAt(posType, 0, 3)).containsExactly(pos1, pos2);
+
+        cas.removeFsFromIndexes(pos1);
+        sut.invalidate();
+
+        assertThat(sut.selectAt(posType, 0, 3)).containsExactly(pos2);
+        assertThat(sut.selectAt(posType, 0, 3))
+                .containsExactlyElementsOf(selectAt(cas, posType, 0, 3));
+
+        AnnotationFS pos3 = add(posType, 0, 3);
+        sut.add(pos3);
+
+        assertThat(sut.selectAt(posType, 0, 3)).containsExactly(pos2, pos3);
+    }
+
+    @Test
+    public void thatReturnedListsDoNotAffectIndex()
+    {
+        AnnotationFS pos = add(posType, 0, 3);
+
+        sut.selectAt(posType, 0, 3).clear();
+
+        assertThat(sut.selectAt(posType, 0, 3)).containsExactly(pos);
+    }
+
+    private AnnotationFS add(Type aType, int aBegin, int aEnd)
+    {
+        AnnotationFS fs = cas.createAnnotation(aType, aBegin, aEnd);
+        cas.addFsToIndexes(fs);
+        return fs;
+    }
+}
@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -38,6 +41,7 @@ import org.apache.uima.UIMAException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -53,6 +57,7 @@ import com.github.openjson.JSONArray;
 import com.github.openjson.JSONObject;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentImportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -98,6 +103,7 @@ public class LegacyRemoteApiController
 
     private @Autowired ProjectService projectRepository;
     private @Autowired DocumentService documentRepository;
+    private @Autowired DocumentImportService documentImportService;
     private @Autowired ImportExportService importExportService;
     private @Autowired AnnotationSchemaService annotationService;
     private @Autowired UserDao userRepository;
@@ -184,6 +190,7 @@ public class LegacyRemoteApiController
         aFile.transferTo(zipFile);
         ZipFile zip = new ZipFile(zipFile);
 
+        Map<SourceDocument, InputStreamSource> documents = new LinkedHashMap<>();
         for (Enumeration<?> zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
             // Get ZipEntry which is a file or a directory
             ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
@@ -211,9 +218,27 @@ public class LegacyRemoteApiController
             else if (!FilenameUtils.getExtension(entry.toString()).equals("")
                     && !FilenameUtils.getName(entry.toString()).equals(".")) {
 
-                uploadSourceDocument(zip, entry, project, aFileType);
+                SourceDocument document = new SourceDocument();
+                document.setName(FilenameUtils.getName(entry.toString()));
+                document.setProject(project);
+                document.setFormat(aFileType);
+                documents.put(document, () -> zip.getInputStream(entry));
             }
         }
+        
+        // Import the source documents in bulk - failing documents do not stop the import of the
+        // others, but the request still fails
+        List<String> failed = new ArrayList<>();
+        documentImportService.importSourceDocuments(documents,
+                (document, error, processed, total) -> {
+                    if (error != null) {
+                        failed.add(document.getName());
+                    }
+                });
+        if (!failed.isEmpty()) {
+            throw new IOException("Unable to import documents " + failed + " into project ["
+                    + aName + "]");
+        }
                 
         LOG.info("Successfully created project [" + aName + "] for user [" + username + "]");
         
@@ -919,20 +944,4 @@ public class LegacyRemoteApiController
             documentRepository.uploadSourceDocument(is, document);
         }
     }
-
-    private void uploadSourceDocument(ZipFile zip, ZipEntry entry, Project project,
-            String aFileType)
-        throws IOException, UIMAException
-    {
-        String fileName = FilenameUtils.getName(entry.toString());
-
-        InputStream zipStream = zip.getInputStream(entry);
-        SourceDocument document = new SourceDocument();
-        document.setName(fileName);
-        document.setProject(project);
-        document.setFormat(aFileType);
-        // Meta data entry to the database
-        // Import source document to the project repository folder
-        documentRepository.uploadSourceDocument(zipStream, document);
-    }
 }
@@ -21,8 +21,8 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokens;
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RMessageLevel.ERROR;
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RMessageLevel.INFO;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
-import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
 import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM_VALUE;
@@ -30,7 +30,6 @@ import static org.springframework.http.MediaType.MULTIPART_FORM_DATA_VALUE;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,10 +42,12 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 import java.util.zip.ZipFile;
 
 import javax.persistence.NoResultException;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -62,11 +63,6 @@ import org.apache.uima.jcas.cas.Sofa;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -87,6 +83,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.BulkCurationMergeService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.BulkCurationMergeService.MergeJob;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.export.ImportUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -109,8 +107,10 @@ import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.Incompa
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.ObjectExistsException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.ObjectNotFoundException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.RemoteApiException;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.ServerBusyException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.UnsupportedFormatException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RAnnotation;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RCurationMerge;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RDocument;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RProject;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RResponse;
@@ -139,6 +139,7 @@ public class AeroRemoteApiController
     private static final String PARAM_PROJECT_ID = "projectId";
     private static final String PARAM_ANNOTATOR_ID = "userId";
     private static final String PARAM_DOCUMENT_ID = "documentId";
+    private static final String PARAM_MERGE_INCOMPLETE = "mergeIncomplete";
     
     private static final String VAL_ORIGINAL = "ORIGINAL";
     
@@ -150,6 +151,14 @@ public class AeroRemoteApiController
     
     private static final String FORMAT_DEFAULT = "text";
     
+    // Converting documents is memory-intensive, so only a limited number of conversions may run
+    // at the same time. Further requests wait in line for a limited time and are rejected
+    // right away if the line is already too long.
+    private static final int MAX_CONCURRENT_CONVERSIONS = Math.max(1,
+            Runtime.getRuntime().availableProcessors() / 2);
+    private static final int MAX_QUEUED_CONVERSIONS = MAX_CONCURRENT_CONVERSIONS * 4;
+    private static final long CONVERSION_QUEUE_TIMEOUT = 60;
+    
     private final Logger LOG = LoggerFactory.getLogger(getClass());
 
     private @Autowired DocumentService documentService;
@@ -159,6 +168,9 @@ public class AeroRemoteApiController
     private @Autowired AnnotationSchemaService annotationService;
     private @Autowired UserDao userRepository;
     private @Autowired ProjectExportService exportService;
+    private @Autowired BulkCurationMergeService curationMergeService;
+    
+    private final Semaphore conversionPermits = new Semaphore(MAX_CONCURRENT_CONVERSIONS, true);
 
     @ExceptionHandler(value = RemoteApiException.class)
     public ResponseEntity<RResponse<Void>> handleException(RemoteApiException aException)
@@ -171,9 +183,19 @@ public class AeroRemoteApiController
     }
 
     @ExceptionHandler
-    public ResponseEntity<RResponse<Void>> handleException(Exception aException) throws IOException
+    public ResponseEntity<RResponse<Void>> handleException(Exception aException,
+            HttpServletResponse aResponse)
+        throws Exception
     {
         LOG.error(aException.getMessage(), aException);
+        
+        // If parts of the response body have already been sent (e.g. while streaming a project
+        // export), an error response would be appended to it. Instead, let the exception
+        // propagate so that the container aborts the response.
+        if (aResponse.isCommitted()) {
+            throw aException;
+        }
+        
         return ResponseEntity.status(INTERNAL_SERVER_ERROR)
                 .contentType(APPLICATION_JSON_UTF8)
                 .body(new RResponse<>(ERROR, "Internal server error: " + 
@@ -424,9 +446,10 @@ public class AeroRemoteApiController
             value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORT), 
             method = RequestMethod.GET,
             produces = { "application/zip", APPLICATION_JSON_UTF8_VALUE })
-    public ResponseEntity<InputStreamResource> projectExport(
+    public void projectExport(
             @PathVariable(PARAM_PROJECT_ID) long aProjectId,
-            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat)
+            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat,
+            HttpServletResponse aResponse)
         throws Exception
     {
         // Get project (this also ensures that it exists and that the current user can access it
@@ -445,26 +468,74 @@ public class AeroRemoteApiController
         
         ProjectExportRequest request = new ProjectExportRequest(project,
                 aFormat.orElse(WebAnnoTsv3FormatSupport.ID), true);
-        File exportedFile = exportService.exportProject(request);
-        
-        // Turn the file into a resource and auto-delete the file when the resource closes the
-        // stream.
-        InputStreamResource result = new InputStreamResource(new FileInputStream(exportedFile) {
-            @Override
-            public void close() throws IOException
-            {
-                super.close();
-                FileUtils.forceDelete(exportedFile);
-            } 
-        });
-
-        HttpHeaders httpHeaders = new HttpHeaders();
-        httpHeaders.setContentType(MediaType.valueOf("application/zip"));
-        httpHeaders.setContentLength(exportedFile.length());
-        httpHeaders.set("Content-Disposition",
-                "attachment; filename=\"" + exportedFile.getName() + "\"");
-
-        return new ResponseEntity<>(result, httpHeaders, HttpStatus.OK);
+        
+        // The archive is streamed to the client while it is produced, so the export does not
+        // need any temporary disk space. Since its size is not known in advance, no content
+        // length is sent. The project and the format have been checked above, so the most
+        // likely failures are reported before anything is written.
+        aResponse.setContentType("application/zip");
+        aResponse.setHeader("Content-Disposition",
+                "attachment; filename=\"webanno-project-" + project.getId() + ".zip\"");
+        try {
+            exportService.exportProject(request, aResponse.getOutputStream());
+            aResponse.flushBuffer();
+        }
+        catch (Exception e) {
+            // If nothing has been sent yet, drop the partial archive and the ZIP headers so that
+            // a regular error response can be sent instead. Otherwise, the error handler lets
+            // the container abort the response - the client then sees an incomplete transfer of
+            // an archive which lacks its central directory.
+            if (!aResponse.isCommitted()) {
+                aResponse.reset();
+            }
+            throw e;
+        }
+    }
+    
+    @ApiOperation(value = "Merge the agreed annotations of all documents in a project into "
+            + "their curations in the background")
+    @ApiImplicitParams({
+        @ApiImplicitParam(name = PARAM_MERGE_INCOMPLETE, paramType = "form"),
+    })
+    @RequestMapping(
+            value = "/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + CURATION, 
+            method = RequestMethod.POST,
+            produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<RResponse<RCurationMerge>> projectCurationMergeStart(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId,
+            @RequestParam(PARAM_MERGE_INCOMPLETE) Optional<Boolean> aMergeIncomplete,
+            UriComponentsBuilder aUcb)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        // Documents for which curation has already started are skipped by the merge
+        MergeJob job = curationMergeService.startMerge(project, aMergeIncomplete.orElse(false));
+        
+        return ResponseEntity.accepted()
+                .location(aUcb.path(API_BASE + "/" + PROJECTS + "/{pid}/" + CURATION)
+                        .buildAndExpand(project.getId()).toUri())
+                .body(new RResponse<>(new RCurationMerge(job)));
+    }
+    
+    @ApiOperation(value = "Get the progress of the curation merge of a project")
+    @RequestMapping(
+            value = "/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + CURATION, 
+            method = RequestMethod.GET,
+            produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<RResponse<RCurationMerge>> projectCurationMergeRead(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        MergeJob job = curationMergeService.getMerge(project)
+                .orElseThrow(() -> new ObjectNotFoundException(
+                        "No curation merge has been started for project [" + aProjectId + "]."));
+        
+        return ResponseEntity.ok(new RResponse<>(new RCurationMerge(job)));
     }
     
     @ApiOperation(value = "List documents in a project")
@@ -568,10 +639,11 @@ public class AeroRemoteApiController
                     + PARAM_DOCUMENT_ID + "}",
             method = RequestMethod.GET,
             produces = { APPLICATION_OCTET_STREAM_VALUE, APPLICATION_JSON_UTF8_VALUE })
-    public ResponseEntity documentRead(
+    public void documentRead(
             @PathVariable(PARAM_PROJECT_ID) long aProjectId,
             @PathVariable(PARAM_DOCUMENT_ID) long aDocumentId,
-            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat)
+            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat,
+            HttpServletResponse aResponse)
         throws Exception
     {               
         // Get project (this also ensures that it exists and that the current user can access it
@@ -600,17 +672,16 @@ public class AeroRemoteApiController
             // Export the original file - no temporary file created here, we export directly from
             // the file system
             File docFile = documentService.getSourceDocumentFile(doc);
-            FileSystemResource resource = new FileSystemResource(docFile);
-            HttpHeaders httpHeaders = new HttpHeaders();
-            httpHeaders.setContentLength(resource.contentLength());
-            httpHeaders.set("Content-Disposition",
+            aResponse.setContentType(APPLICATION_OCTET_STREAM_VALUE);
+            aResponse.setContentLengthLong(docFile.length());
+            aResponse.setHeader("Content-Disposition",
                     "attachment; filename=\"" + doc.getName() + "\"");
-            return new ResponseEntity<org.springframework.core.io.Resource>(resource, httpHeaders,
-                    OK);
+            FileUtils.copyFile(docFile, aResponse.getOutputStream());
+            aResponse.flushBuffer();
         }
         else {
-            // Export a converted file - here we first export to a local temporary file and then
-            // send that back to the client
+            // Export a converted file - the converted file is streamed to the client, so its
+            // size is not known in advance and no content length is sent
             
             // Check if the format is supported
             FormatSupport format = importExportService.getWritableFormatById(formatId)
@@ -621,28 +692,16 @@ public class AeroRemoteApiController
                                     .sorted()
                                     .collect(Collectors.toList()).toString()));
             
-            // Create a temporary export file from the annotations
-            CAS cas = documentService.createOrReadInitialCas(doc);
-            
-            File exportedFile = null;
+            acquireConversionPermit();
             try {
-                // Load the converted file into memory
-                exportedFile = importExportService.exportCasToFile(cas, doc,
-                        doc.getName(), format, true);
-                byte[] resource = FileUtils.readFileToByteArray(exportedFile);
+                CAS cas = documentService.createOrReadInitialCas(doc);
                 
-                // Send it back to the client
-                HttpHeaders httpHeaders = new HttpHeaders();
-                httpHeaders.setContentLength(resource.length);
-                httpHeaders.set("Content-Disposition",
-                        "attachment; filename=\"" + exportedFile.getName() + "\"");
-                
-                return new ResponseEntity<>(resource, httpHeaders, OK);
+                importExportService.exportCasToStream(cas, doc, doc.getName(), format, true,
+                        fileName -> openDownload(aResponse, fileName));
+                aResponse.flushBuffer();
             }
             finally {
-                if (exportedFile != null) {
-                    FileUtils.forceDelete(exportedFile);
-                }
+                conversionPermits.release();
             }
         }
     }
@@ -751,14 +810,16 @@ public class AeroRemoteApiController
                     + PARAM_DOCUMENT_ID + "}/" + ANNOTATIONS + "/{" + PARAM_ANNOTATOR_ID + "}",
             method = RequestMethod.GET,
             produces = { APPLICATION_OCTET_STREAM_VALUE, APPLICATION_JSON_UTF8_VALUE })
-    public ResponseEntity<byte[]> annotationsRead(
+    public void annotationsRead(
             @PathVariable(PARAM_PROJECT_ID) long aProjectId,
             @PathVariable(PARAM_DOCUMENT_ID) long aDocumentId,
             @PathVariable(PARAM_ANNOTATOR_ID) String aAnnotatorId,
-            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat)
+            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat,
+            HttpServletResponse aResponse)
         throws Exception
     {               
-        return readAnnotation(aProjectId, aDocumentId, aAnnotatorId, Mode.ANNOTATION, aFormat);
+        readAnnotation(aProjectId, aDocumentId, aAnnotatorId, Mode.ANNOTATION, aFormat,
+                aResponse);
 
     }
     
@@ -857,14 +918,15 @@ public class AeroRemoteApiController
                     + PARAM_DOCUMENT_ID + "}/" + CURATION,
             method = RequestMethod.GET,
             produces = { APPLICATION_OCTET_STREAM_VALUE, APPLICATION_JSON_UTF8_VALUE })
-    public ResponseEntity<byte[]> curationRead(
+    public void curationRead(
             @PathVariable(PARAM_PROJECT_ID) long aProjectId,
             @PathVariable(PARAM_DOCUMENT_ID) long aDocumentId,
-            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat)
+            @RequestParam(value = PARAM_FORMAT) Optional<String> aFormat,
+            HttpServletResponse aResponse)
         throws Exception
     {               
-        return readAnnotation(aProjectId, aDocumentId, WebAnnoConst.CURATION_USER, Mode.CURATION,
-                aFormat);
+        readAnnotation(aProjectId, aDocumentId, WebAnnoConst.CURATION_USER, Mode.CURATION,
+                aFormat, aResponse);
     }
     
     @ApiOperation(value = "Delete a user's annotations of one document from a project")
@@ -901,8 +963,8 @@ public class AeroRemoteApiController
                         + aDocumentId + "] deleted from project [" + aProjectId + "]."));
     }    
 
-    private ResponseEntity<byte[]> readAnnotation(long aProjectId, long aDocumentId,
-            String aAnnotatorId, Mode aMode, Optional<String> aFormat)
+    private void readAnnotation(long aProjectId, long aDocumentId, String aAnnotatorId,
+            Mode aMode, Optional<String> aFormat, HttpServletResponse aResponse)
         throws RemoteApiException, ClassNotFoundException, IOException, UIMAException
     {
         // Get project (this also ensures that it exists and that the current user can access it
@@ -939,30 +1001,48 @@ public class AeroRemoteApiController
             getAnnotation(doc, aAnnotatorId, false);
         }
         
-        // Create a temporary export file from the annotations
-        File exportedAnnoFile = null;
-        byte[] resource;
+        // Stream the converted annotations to the client - the size is not known in advance,
+        // so no content length is sent
+        acquireConversionPermit();
         try {
-            exportedAnnoFile = importExportService.exportAnnotationDocument(doc, aAnnotatorId,
-                    format, doc.getName(), Mode.ANNOTATION);
-            resource = FileUtils.readFileToByteArray(exportedAnnoFile);
+            importExportService.exportAnnotationDocumentToStream(doc, aAnnotatorId, format,
+                    doc.getName(), Mode.ANNOTATION, true, exportedFileName -> {
+                        String filename = FilenameUtils.removeExtension(doc.getName());
+                        filename += "-" + aAnnotatorId;
+                        filename += "." + FilenameUtils.getExtension(exportedFileName);
+                        return openDownload(aResponse, filename);
+                    });
+            aResponse.flushBuffer();
         }
         finally {
-            if (exportedAnnoFile != null) {
-                FileUtils.forceDelete(exportedAnnoFile);
+            conversionPermits.release();
+        }
+    }
+    
+    private OutputStream openDownload(HttpServletResponse aResponse, String aFileName)
+        throws IOException
+    {
+        aResponse.setContentType(APPLICATION_OCTET_STREAM_VALUE);
+        aResponse.setHeader("Content-Disposition", "attachment; filename=\"" + aFileName + "\"");
+        return aResponse.getOutputStream();
+    }
+    
+    private void acquireConversionPermit()
+        throws ServerBusyException
+    {
+        try {
+            if (
+                    conversionPermits.getQueueLength() >= MAX_QUEUED_CONVERSIONS ||
+                    !conversionPermits.tryAcquire(CONVERSION_QUEUE_TIMEOUT, SECONDS)
+            ) {
+                throw new ServerBusyException(
+                        "Too many concurrent conversion requests. Please try again later.");
             }
         }
-        
-        String filename = FilenameUtils.removeExtension(doc.getName());
-        filename += "-" + aAnnotatorId;
-        // Actually, exportedAnnoFile cannot be null here - the warning can be ignored.
-        filename += "." + FilenameUtils.getExtension(exportedAnnoFile.getName());
-        
-        HttpHeaders httpHeaders = new HttpHeaders();
-        httpHeaders.setContentLength(resource.length);
-        httpHeaders.set("Content-Disposition", "attachment; filename=\"" + filename + "\"");
-        
-        return new ResponseEntity<>(resource, httpHeaders, OK);
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException("Interrupted while waiting for conversion.");
+        }
     }
     
     private CAS createCompatibleCas(long aProjectId, long aDocumentId, MultipartFile aFile,
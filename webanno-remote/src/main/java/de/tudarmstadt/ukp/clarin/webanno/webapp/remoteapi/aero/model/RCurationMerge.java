@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.BulkCurationMergeService.MergeJob;
+
+public class RCurationMerge
+{
+    public long project;
+    public boolean done;
+    public int total;
+    public int processed;
+    public int merged;
+    public int skipped;
+    public int failed;
+    public int conflicts;
+    
+    public RCurationMerge(MergeJob aJob)
+    {
+        project = aJob.getProject().getId();
+        done = aJob.isDone();
+        total = aJob.getTotal();
+        processed = aJob.getProcessed();
+        merged = aJob.getMerged();
+        skipped = aJob.getSkipped();
+        failed = aJob.getFailed();
+        conflicts = aJob.getConflicts();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import java.io.File;
+
+/**
+ * A message waiting in a {@link WebhookDeliveryQueue}. This is also the format in which the
+ * message is stored in the queue folder.
+ */
+public class QueuedWebhookMessage
+{
+    private String topic;
+    private long created;
+    private String payload;
+    private int attempts;
+    
+    // Not stored
+    File file;
+    
+    public QueuedWebhookMessage()
+    {
+        // Nothing to do
+    }
+
+    public QueuedWebhookMessage(String aTopic, long aCreated, String aPayload)
+    {
+        topic = aTopic;
+        created = aCreated;
+        payload = aPayload;
+    }
+
+    public String getTopic()
+    {
+        return topic;
+    }
+
+    public void setTopic(String aTopic)
+    {
+        topic = aTopic;
+    }
+
+    public long getCreated()
+    {
+        return created;
+    }
+
+    public void setCreated(long aCreated)
+    {
+        created = aCreated;
+    }
+
+    /**
+     * @return the message as JSON.
+     */
+    public String getPayload()
+    {
+        return payload;
+    }
+
+    public void setPayload(String aPayload)
+    {
+        payload = aPayload;
+    }
+
+    /**
+     * @return the number of failed attempts to deliver the message.
+     */
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public void setAttempts(int aAttempts)
+    {
+        attempts = aAttempts;
+    }
+}
@@ -27,6 +27,8 @@ public class Webhook
     private boolean enabled = true;
     private List<String> topics = new ArrayList<>();
     private boolean verifyCertificates = true;
+    private int batchSize = 1;
+    private int maxConcurrentDeliveries = 1;
 
     public String getUrl()
     {
@@ -78,6 +80,37 @@ public class Webhook
         verifyCertificates = aVerifyCertificates;
     }
 
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param aBatchSize
+     *            the maximum number of messages sent in a single request. If this is larger than
+     *            {@code 1}, the request body is always a JSON array of messages with the same
+     *            topic - otherwise it is a single message.
+     */
+    public void setBatchSize(int aBatchSize)
+    {
+        batchSize = aBatchSize;
+    }
+
+    public int getMaxConcurrentDeliveries()
+    {
+        return maxConcurrentDeliveries;
+    }
+
+    /**
+     * @param aMaxConcurrentDeliveries
+     *            the maximum number of requests sent to the hook at the same time. With more than
+     *            one concurrent delivery, messages may arrive out of order.
+     */
+    public void setMaxConcurrentDeliveries(int aMaxConcurrentDeliveries)
+    {
+        maxConcurrentDeliveries = aMaxConcurrentDeliveries;
+    }
+
     @Override
     public String toString()
     {
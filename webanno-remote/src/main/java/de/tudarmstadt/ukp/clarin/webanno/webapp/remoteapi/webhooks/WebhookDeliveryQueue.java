@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.joining;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Outbound queue of the messages for a single webhook. Every message is stored in the queue
+ * folder until it has been delivered, so messages which have not been delivered yet are picked
+ * up again after a restart.
+ * <p>
+ * At most {@link Webhook#getMaxConcurrentDeliveries()} requests are sent to the hook at the same
+ * time. If a delivery fails, the queue pauses and the messages are retried after a delay which
+ * doubles with every failed attempt. Messages which still cannot be delivered after
+ * {@link WebhooksConfiguration#getMaxDeliveryAttempts()} attempts are moved to the
+ * {@code failed} sub-folder of the queue folder.
+ * <p>
+ * Messages are written to the queue folder on the spool executor, so queuing a message does not
+ * block the caller on file I/O. The spool executor must run its tasks one after the other to
+ * retain the order of the messages. The message files are replaced atomically and record the
+ * number of failed delivery attempts, so a message is never read back partially written and
+ * continues its backoff after a restart.
+ */
+class WebhookDeliveryQueue
+{
+    private static final String FAILED_FOLDER = "failed";
+    private static final String MESSAGE_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final WebhookService service;
+    private final WebhooksConfiguration configuration;
+    private final ScheduledExecutorService executor;
+    private final Executor spoolExecutor;
+    private final File folder;
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
+    
+    private volatile Webhook hook;
+    
+    // The fields below are guarded by the queue monitor
+    private final Deque<QueuedWebhookMessage> pending = new ArrayDeque<>();
+    private int running = 0;
+    private boolean paused = false;
+
+    /**
+     * @param aExecutor
+     *            the executor on which the messages are delivered.
+     * @param aSpoolExecutor
+     *            the executor on which new messages are stored. It must execute its tasks in the
+     *            order in which they were submitted.
+     * @param aFolder
+     *            the folder in which the messages are stored. If {@code null}, the messages are
+     *            only kept in memory.
+     */
+    public WebhookDeliveryQueue(WebhookService aService, WebhooksConfiguration aConfiguration,
+            ScheduledExecutorService aExecutor, Executor aSpoolExecutor, Webhook aHook,
+            File aFolder)
+    {
+        service = aService;
+        configuration = aConfiguration;
+        executor = aExecutor;
+        spoolExecutor = aSpoolExecutor;
+        hook = aHook;
+        folder = aFolder;
+    }
+    
+    public void setHook(Webhook aHook)
+    {
+        hook = aHook;
+    }
+    
+    /**
+     * Loads the messages remaining in the queue folder, e.g. from before a restart. Their
+     * delivery starts with the next call to {@link #dispatch()}.
+     * 
+     * @return the number of messages loaded.
+     */
+    public int recover()
+    {
+        if (folder == null) {
+            return 0;
+        }
+        
+        // Temporary files are left over if writing a message was interrupted - the message file
+        // itself is then either absent or still has its previous content
+        File[] tempFiles = folder.listFiles(
+                file -> file.isFile() && file.getName().endsWith(TEMP_SUFFIX));
+        if (tempFiles != null) {
+            for (File file : tempFiles) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        
+        File[] files = folder.listFiles(
+                file -> file.isFile() && file.getName().endsWith(MESSAGE_SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+        
+        // The file names start with the creation time, so this restores the original order
+        Arrays.sort(files);
+        
+        List<QueuedWebhookMessage> messages = new ArrayList<>();
+        for (File file : files) {
+            try {
+                QueuedWebhookMessage message = JSONUtil.fromJsonString(
+                        QueuedWebhookMessage.class, FileUtils.readFileToString(file, UTF_8));
+                message.file = file;
+                messages.add(message);
+            }
+            catch (IOException e) {
+                log.error("Unable to read queued webhook message [{}]", file, e);
+            }
+        }
+        
+        synchronized (this) {
+            pending.addAll(messages);
+        }
+        
+        return messages.size();
+    }
+    
+    /**
+     * Adds a message to the queue. The message is stored and delivered in the background.
+     */
+    public void enqueue(String aTopic, String aPayload)
+    {
+        QueuedWebhookMessage message = new QueuedWebhookMessage(aTopic,
+                System.currentTimeMillis(), aPayload);
+        
+        spoolExecutor.execute(() -> spool(message));
+    }
+    
+    private void spool(QueuedWebhookMessage aMessage)
+    {
+        if (folder != null) {
+            // The sequence number keeps messages created in the same millisecond in order
+            aMessage.file = new File(folder, String.format("%020d-%010d" + MESSAGE_SUFFIX,
+                    aMessage.getCreated(), nextSequenceNumber.getAndIncrement()));
+            try {
+                store(aMessage);
+            }
+            catch (IOException e) {
+                log.error("Unable to store message [{}] - it is only kept in memory until "
+                        + "delivered", aMessage.file, e);
+                aMessage.file = null;
+            }
+        }
+        
+        synchronized (this) {
+            pending.add(aMessage);
+        }
+        
+        dispatch();
+    }
+    
+    private void store(QueuedWebhookMessage aMessage)
+        throws IOException
+    {
+        // Write to a temporary file first and then move it into place, so the message file never
+        // contains a partially written message
+        Path target = aMessage.file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        Files.createDirectories(target.getParent());
+        Files.write(temp, JSONUtil.toJsonString(aMessage).getBytes(UTF_8));
+        Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+    
+    public synchronized int size()
+    {
+        return pending.size();
+    }
+    
+    /**
+     * Starts deliveries for the pending messages as far as the concurrency limit of the hook
+     * permits.
+     */
+    public synchronized void dispatch()
+    {
+        while (!paused && running < hook.getMaxConcurrentDeliveries() && !pending.isEmpty()) {
+            List<QueuedWebhookMessage> batch = takeBatch();
+            running++;
+            executor.execute(() -> deliver(batch));
+        }
+    }
+    
+    private List<QueuedWebhookMessage> takeBatch()
+    {
+        // A request can only carry messages with the same topic since the topic is sent as a
+        // header
+        List<QueuedWebhookMessage> batch = new ArrayList<>();
+        batch.add(pending.poll());
+        while (
+                batch.size() < hook.getBatchSize() && 
+                !pending.isEmpty() && 
+                pending.peek().getTopic().equals(batch.get(0).getTopic())
+        ) {
+            batch.add(pending.poll());
+        }
+        return batch;
+    }
+    
+    private void deliver(List<QueuedWebhookMessage> aBatch)
+    {
+        Webhook currentHook = hook;
+        
+        String body;
+        if (currentHook.getBatchSize() > 1) {
+            body = aBatch.stream()
+                    .map(QueuedWebhookMessage::getPayload)
+                    .collect(joining(",", "[", "]"));
+        }
+        else {
+            body = aBatch.get(0).getPayload();
+        }
+        
+        try {
+            service.send(currentHook, aBatch.get(0).getTopic(), body);
+        }
+        catch (Exception e) {
+            service.deliveryFailed();
+            retryOrDrop(aBatch, e);
+            return;
+        }
+        
+        for (QueuedWebhookMessage message : aBatch) {
+            if (message.file != null) {
+                FileUtils.deleteQuietly(message.file);
+            }
+            service.messageDelivered(message);
+        }
+        
+        synchronized (this) {
+            running--;
+        }
+        
+        dispatch();
+    }
+    
+    private void retryOrDrop(List<QueuedWebhookMessage> aBatch, Exception aCause)
+    {
+        List<QueuedWebhookMessage> retry = new ArrayList<>();
+        for (QueuedWebhookMessage message : aBatch) {
+            message.setAttempts(message.getAttempts() + 1);
+            
+            // Record the attempt, so the backoff continues where it left off after a restart
+            if (message.file != null) {
+                try {
+                    store(message);
+                }
+                catch (IOException e) {
+                    log.error("Unable to update queued message [{}]", message.file, e);
+                }
+            }
+            
+            if (message.getAttempts() < configuration.getMaxDeliveryAttempts()) {
+                retry.add(message);
+            }
+            else {
+                log.error("Unable to deliver message to webhook [{}] after {} attempts - "
+                        + "giving up", hook, message.getAttempts(), aCause);
+                drop(message);
+            }
+        }
+        
+        if (retry.isEmpty()) {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+            return;
+        }
+        
+        long delay = retryDelay(retry.get(0).getAttempts());
+        log.warn("Unable to deliver message to webhook [{}] (attempt {}) - retrying in {}ms: {}",
+                hook, retry.get(0).getAttempts(), delay, aCause.getMessage());
+        
+        synchronized (this) {
+            running--;
+            
+            // Put the messages back at the head of the queue to retain the order
+            for (int i = retry.size() - 1; i >= 0; i--) {
+                pending.addFirst(retry.get(i));
+            }
+            
+            // Other deliveries which failed at the same time have already scheduled a retry
+            if (paused) {
+                return;
+            }
+            paused = true;
+        }
+        
+        executor.schedule(this::resume, delay, MILLISECONDS);
+    }
+    
+    private long retryDelay(int aAttempts)
+    {
+        // Exponential backoff - the shift is limited to avoid an overflow
+        long delay = configuration.getInitialRetryDelay() << Math.min(aAttempts - 1, 30);
+        return Math.min(delay, configuration.getMaxRetryDelay());
+    }
+    
+    private void resume()
+    {
+        synchronized (this) {
+            paused = false;
+        }
+        
+        dispatch();
+    }
+    
+    private void drop(QueuedWebhookMessage aMessage)
+    {
+        service.messageDropped();
+        
+        if (aMessage.file == null) {
+            return;
+        }
+        
+        try {
+            FileUtils.moveFileToDirectory(aMessage.file, new File(folder, FAILED_FOLDER), true);
+        }
+        catch (IOException e) {
+            log.error("Unable to move undeliverable message [{}]", aMessage.file, e);
+        }
+    }
+}
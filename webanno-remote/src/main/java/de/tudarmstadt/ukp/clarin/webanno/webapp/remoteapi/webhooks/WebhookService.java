@@ -17,15 +17,24 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.io.File;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 
@@ -36,6 +45,7 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.ssl.TrustStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.client.RestTemplateBuilder;
@@ -44,11 +54,14 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.client.RestTemplate;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.ProjectStateChangedEvent;
@@ -57,8 +70,15 @@ import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.Annotati
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.DocumentStateChangeMessage;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.ProjectStateChangeMessage;
 
+/**
+ * Sends notifications about state changes to the configured webhooks. The messages are not sent
+ * directly when the event occurs. Instead, they are placed in a persistent
+ * {@link WebhookDeliveryQueue queue} per hook from which they are delivered in the background.
+ */
+@ManagedResource
 @Component
-public class WebhookService implements InitializingBean
+public class WebhookService
+    implements InitializingBean, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
     
@@ -71,6 +91,8 @@ public class WebhookService implements InitializingBean
     public static final String ANNOTATION_STATE = "ANNOTATION_STATE";
     public static final String PROJECT_STATE = "PROJECT_STATE";
     
+    private static final String QUEUE_FOLDER = "webhooks";
+    
     static {
         Map<Class<? extends ApplicationEvent>, String> names = new HashMap<>();
         names.put(ProjectStateChangedEvent.class, PROJECT_STATE);
@@ -81,9 +103,25 @@ public class WebhookService implements InitializingBean
     
     private @Autowired WebhooksConfiguration configuration;
     private @Autowired RestTemplateBuilder restTemplateBuilder;
+    private @Autowired(required = false) RepositoryProperties repositoryProperties;
 
     private HttpComponentsClientHttpRequestFactory nonValidatingRequestFactory = null;
     
+    // The rest templates are thread-safe and re-used for all deliveries
+    private RestTemplate restTemplate;
+    private RestTemplate nonValidatingRestTemplate;
+    
+    private final ScheduledExecutorService deliveryExecutor;
+    private final ExecutorService spoolExecutor;
+    private final Map<String, WebhookDeliveryQueue> queues = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private final AtomicLong deliveredMessages = new AtomicLong();
+    private final AtomicLong failedDeliveries = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong totalDeliveryLatency = new AtomicLong();
+    private final AtomicLong maxDeliveryLatency = new AtomicLong();
+    
     public WebhookService()
         throws KeyManagementException, NoSuchAlgorithmException, KeyStoreException
     {
@@ -99,6 +137,24 @@ public class WebhookService implements InitializingBean
 
         nonValidatingRequestFactory = new HttpComponentsClientHttpRequestFactory();
         nonValidatingRequestFactory.setHttpClient(httpClient);
+        
+        // The deliveries mostly wait for the receivers, so a few threads suffice. The number
+        // of concurrent deliveries per hook is limited by the delivery queues.
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        deliveryExecutor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "webhook-delivery-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        // New messages are written to the queue folders by a single thread, so they are not
+        // written on the thread which triggered the event and remain in order
+        spoolExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "webhook-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
     @Override
@@ -109,16 +165,42 @@ public class WebhookService implements InitializingBean
     
     public void init()
     {
+        Duration timeout = Duration.ofMillis(configuration.getTimeout());
+        restTemplate = restTemplateBuilder
+                .setConnectTimeout(timeout)
+                .setReadTimeout(timeout)
+                .build();
+        nonValidatingRestTemplate = restTemplateBuilder
+                .requestFactory(this::getNonValidatingRequestFactory)
+                .setConnectTimeout(timeout)
+                .setReadTimeout(timeout)
+                .build();
+        
         if (!configuration.getGlobalHooks().isEmpty()) {
             log.info("Global webhooks registered:");
             for (Webhook hook : configuration.getGlobalHooks()) {
                 log.info("- " + hook);
+                
+                // Creating the queue picks up any messages not delivered before the last
+                // shutdown
+                getQueue(hook);
             }
         }
     }
     
+    @Override
+    public void destroy() throws InterruptedException
+    {
+        // Give the messages which have been queued already the chance to be written to the queue
+        // folders. Messages which have not been delivered yet remain there.
+        spoolExecutor.shutdown();
+        if (!spoolExecutor.awaitTermination(5, SECONDS)) {
+            log.warn("Not all queued webhook messages could be stored before shutdown");
+        }
+        deliveryExecutor.shutdownNow();
+    }
+    
     @TransactionalEventListener(fallbackExecution = true)
-    @Async
     public void onApplicationEvent(ApplicationEvent aEvent)
     {
         String topic = EVENT_TOPICS.get(aEvent.getClass());
@@ -146,38 +228,138 @@ public class WebhookService implements InitializingBean
                 continue;
             }
 
+            // Count the message before queuing it since it might be delivered right away
+            queuedMessages.incrementAndGet();
             try {
-                // Configure rest template without SSL certification check if that is disabled.
-                RestTemplate restTemplate;
-                if (hook.isVerifyCertificates()) {
-                    restTemplate = restTemplateBuilder.build();
-                }
-                else {
-                    restTemplate = restTemplateBuilder
-                            .requestFactory(this::getNonValidatingRequestFactory).build();
-                }
-                
-                HttpHeaders requestHeaders = new HttpHeaders();
-                requestHeaders.setContentType(MediaType.APPLICATION_JSON_UTF8);
-                requestHeaders.set(X_AERO_NOTIFICATION, topic);
-                
-                // If a secret is set, then add a digest header that allows the client to verify
-                // the message integrity
-                String json = JSONUtil.toJsonString(message);
-                if (isNotBlank(hook.getSecret())) {
-                    String digest = DigestUtils.shaHex(hook.getSecret() + json);
-                    requestHeaders.set(X_AERO_SIGNATURE, digest);
-                }
-    
-                HttpEntity<?> httpEntity = new HttpEntity<Object>(json, requestHeaders);
-                restTemplate.postForEntity(hook.getUrl(), httpEntity, Void.class);
+                getQueue(hook).enqueue(topic, JSONUtil.toJsonString(message));
             }
             catch (Exception e) {
-                log.error("Unable to invoke webhook [{}]", hook, e);
+                queuedMessages.decrementAndGet();
+                log.error("Unable to queue message for webhook [{}]", hook, e);
             }
         }
     }
     
+    private WebhookDeliveryQueue getQueue(Webhook aHook)
+    {
+        WebhookDeliveryQueue queue = queues.computeIfAbsent(aHook.getUrl(), url -> {
+            File folder = getQueueFolder(aHook);
+            WebhookDeliveryQueue newQueue = new WebhookDeliveryQueue(this, configuration,
+                    deliveryExecutor, spoolExecutor, aHook, folder);
+            int recovered = newQueue.recover();
+            if (recovered > 0) {
+                log.info("Recovered {} undelivered messages for webhook [{}]", recovered, aHook);
+                queuedMessages.addAndGet(recovered);
+                newQueue.dispatch();
+            }
+            return newQueue;
+        });
+        
+        // Always deliver using the current configuration of the hook
+        queue.setHook(aHook);
+        
+        return queue;
+    }
+    
+    private File getQueueFolder(Webhook aHook)
+    {
+        File baseFolder = configuration.getQueueFolder();
+        if (baseFolder == null && repositoryProperties != null) {
+            baseFolder = new File(repositoryProperties.getPath(), QUEUE_FOLDER);
+        }
+        
+        if (baseFolder == null) {
+            log.warn("No queue folder configured - messages for webhook [{}] are only kept in "
+                    + "memory until delivered", aHook);
+            return null;
+        }
+        
+        return new File(baseFolder, DigestUtils.sha1Hex(aHook.getUrl()));
+    }
+    
+    /* package private */ int getPendingMessageCount(Webhook aHook)
+    {
+        return getQueue(aHook).size();
+    }
+    
+    /* package private */ void send(Webhook aHook, String aTopic, String aBody)
+    {
+        // Use the rest template without SSL certification check if that is disabled.
+        RestTemplate template = aHook.isVerifyCertificates() ? restTemplate
+                : nonValidatingRestTemplate;
+        
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        requestHeaders.set(X_AERO_NOTIFICATION, aTopic);
+        
+        // If a secret is set, then add a digest header that allows the client to verify
+        // the message integrity
+        if (isNotBlank(aHook.getSecret())) {
+            String digest = DigestUtils.shaHex(aHook.getSecret() + aBody);
+            requestHeaders.set(X_AERO_SIGNATURE, digest);
+        }
+
+        HttpEntity<?> httpEntity = new HttpEntity<Object>(aBody, requestHeaders);
+        template.postForEntity(aHook.getUrl(), httpEntity, Void.class);
+    }
+    
+    /* package private */ void messageDelivered(QueuedWebhookMessage aMessage)
+    {
+        long latency = System.currentTimeMillis() - aMessage.getCreated();
+        queuedMessages.decrementAndGet();
+        deliveredMessages.incrementAndGet();
+        totalDeliveryLatency.addAndGet(latency);
+        maxDeliveryLatency.accumulateAndGet(latency, Math::max);
+    }
+    
+    /* package private */ void deliveryFailed()
+    {
+        failedDeliveries.incrementAndGet();
+    }
+    
+    /* package private */ void messageDropped()
+    {
+        queuedMessages.decrementAndGet();
+        droppedMessages.incrementAndGet();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getQueuedMessageCount()
+    {
+        return queuedMessages.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getDeliveredMessageCount()
+    {
+        return deliveredMessages.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getFailedDeliveryCount()
+    {
+        return failedDeliveries.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getDroppedMessageCount()
+    {
+        return droppedMessages.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
+    public long getAverageDeliveryLatency()
+    {
+        long delivered = deliveredMessages.get();
+        return delivered > 0 ? totalDeliveryLatency.get() / delivered : 0;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
+    public long getMaxDeliveryLatency()
+    {
+        return maxDeliveryLatency.get();
+    }
+    
     private HttpComponentsClientHttpRequestFactory getNonValidatingRequestFactory()
     {
         return nonValidatingRequestFactory;
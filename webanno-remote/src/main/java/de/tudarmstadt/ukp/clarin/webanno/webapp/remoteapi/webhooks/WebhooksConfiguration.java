@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,6 +31,12 @@ public class WebhooksConfiguration
     public static final String PROPERTY_PREFIX = "webhooks";
     
     private List<Webhook> globalHooks = new ArrayList<>();
+    
+    private File queueFolder;
+    private int maxDeliveryAttempts = 10;
+    private long initialRetryDelay = 1000;
+    private long maxRetryDelay = 10 * 60 * 1000;
+    private long timeout = 30 * 1000;
 
     public List<Webhook> getGlobalHooks()
     {
@@ -40,4 +47,68 @@ public class WebhooksConfiguration
     {
         globalHooks = aWebhooks;
     }
+
+    public File getQueueFolder()
+    {
+        return queueFolder;
+    }
+
+    /**
+     * @param aQueueFolder
+     *            the folder in which messages are kept until they have been delivered. If not
+     *            set, the {@code webhooks} folder in the repository is used.
+     */
+    public void setQueueFolder(File aQueueFolder)
+    {
+        queueFolder = aQueueFolder;
+    }
+
+    public int getMaxDeliveryAttempts()
+    {
+        return maxDeliveryAttempts;
+    }
+
+    public void setMaxDeliveryAttempts(int aMaxDeliveryAttempts)
+    {
+        maxDeliveryAttempts = aMaxDeliveryAttempts;
+    }
+
+    public long getInitialRetryDelay()
+    {
+        return initialRetryDelay;
+    }
+
+    /**
+     * @param aInitialRetryDelay
+     *            the delay (in milliseconds) before a failed delivery is retried for the first
+     *            time. The delay doubles with every further failed attempt.
+     */
+    public void setInitialRetryDelay(long aInitialRetryDelay)
+    {
+        initialRetryDelay = aInitialRetryDelay;
+    }
+
+    public long getMaxRetryDelay()
+    {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(long aMaxRetryDelay)
+    {
+        maxRetryDelay = aMaxRetryDelay;
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * @param aTimeout
+     *            the connect and read timeout (in milliseconds) for requests to the hooks.
+     */
+    public void setTimeout(long aTimeout)
+    {
+        timeout = aTimeout;
+    }
 }
@@ -71,11 +71,13 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.RelationLayerSuppo
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.SpanLayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.AnnotationSchemaServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.BackupProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.DocumentServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.ImportExportServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.BulkCurationMergeService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.project.ProjectServiceImpl;
@@ -274,6 +276,33 @@ public class RemoteApiController2Test
             .andExpect(jsonPath("$.body[0].state").value("ANNOTATION-IN-PROGRESS"));
     }
 
+    @Test
+    public void t006_testProjectCurationMerge() throws Exception
+    {
+        mvc.perform(get(API_BASE + "/projects/1/curation")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isNotFound());
+        
+        // The only document is still being annotated, so there is nothing to merge
+        mvc.perform(post(API_BASE + "/projects/1/curation")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN"))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .param("mergeIncomplete", "true"))
+            .andExpect(status().isAccepted())
+            .andExpect(content().contentType("application/json;charset=UTF-8"))
+            .andExpect(jsonPath("$.body.project").value("1"));
+        
+        mvc.perform(get(API_BASE + "/projects/1/curation")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("application/json;charset=UTF-8"))
+            .andExpect(jsonPath("$.body.project").value("1"))
+            .andExpect(jsonPath("$.body.merged").value("0"));
+    }
+
     @Configuration
     public static class TestContext {
         @Autowired ApplicationEventPublisher applicationEventPublisher;
@@ -320,7 +349,7 @@ public class RemoteApiController2Test
         public CasStorageService casStorageService()
         {
             return new CasStorageServiceImpl(null, null, repositoryProperties(),
-                    backupProperties());
+                    backupProperties(), casStorageProperties());
         }
         
         @Bean
@@ -336,6 +365,13 @@ public class RemoteApiController2Test
             return new CurationDocumentServiceImpl();
         }
 
+        @Bean
+        public BulkCurationMergeService curationMergeService()
+        {
+            return new BulkCurationMergeService(documentService(), casStorageService(),
+                    annotationService());
+        }
+
         @Bean
         public ProjectExportService exportService()
         {
@@ -354,6 +390,12 @@ public class RemoteApiController2Test
             return new BackupProperties();
         }
 
+        @Bean 
+        public CasStorageProperties casStorageProperties()
+        {
+            return new CasStorageProperties();
+        }
+
         @Bean
         public ApplicationContextProvider contextProvider()
         {
@@ -21,14 +21,26 @@ import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.Webhoo
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.DOCUMENT_STATE;
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.PROJECT_STATE;
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.X_AERO_NOTIFICATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -56,6 +68,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.ProjectState;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.AnnotationStateChangeMessage;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.DocumentStateChangeMessage;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.json.ProjectStateChangeMessage;
@@ -69,9 +82,20 @@ public class WebhookServiceTest
     private @Autowired ApplicationEventPublisher applicationEventPublisher;
     private @Autowired WebhooksConfiguration webhooksConfiguration;
     private @Autowired TestService testService;
+    private @Autowired WebhookService webhookService;
+    
+    public @Rule TemporaryFolder tempFolder = new TemporaryFolder();
+    
+    @Before
+    public void setup()
+    {
+        webhooksConfiguration.setQueueFolder(null);
+        webhooksConfiguration.setInitialRetryDelay(10);
+        webhooksConfiguration.setMaxDeliveryAttempts(10);
+    }
 
     @Test
-    public void test()
+    public void test() throws Exception
     {
         Webhook hook = new Webhook();
         hook.setUrl("http://localhost:" + port + "/test/subscribe");
@@ -102,18 +126,166 @@ public class WebhookServiceTest
         applicationEventPublisher.publishEvent(
                 new AnnotationStateChangeEvent(this, ann, AnnotationDocumentState.IN_PROGRESS));
         
+        // The messages are delivered in the background
+        waitFor(() -> testService.projectStateChangeMsgs.size() == 1
+                && testService.docStateChangeMsgs.size() == 1
+                && testService.annStateChangeMsgs.size() == 1);
+        
         assertEquals(1, testService.projectStateChangeMsgs.size());
         assertEquals(1, testService.docStateChangeMsgs.size());
         assertEquals(1, testService.annStateChangeMsgs.size());
     }
 
+    @Test
+    public void thatMessagesAreBatched() throws Exception
+    {
+        Webhook hook = new Webhook();
+        hook.setUrl("http://localhost:" + port + "/test/batch");
+        hook.setTopics(asList(DOCUMENT_STATE));
+        hook.setBatchSize(5);
+
+        webhooksConfiguration.setGlobalHooks(asList(hook));
+        
+        // The first request blocks until all events have been published, so the remaining
+        // messages pile up in the queue and are sent in batches
+        for (int i = 0; i < 10; i++) {
+            applicationEventPublisher.publishEvent(makeDocumentStateChangedEvent(i));
+        }
+        // Messages are added to the queue in the background
+        waitFor(() -> webhookService.getPendingMessageCount(hook) == 9);
+        testService.batchLatch.countDown();
+        
+        waitFor(() -> testService.batchSizes.stream().mapToInt(Integer::intValue).sum() == 10);
+        
+        assertEquals(asList(1, 5, 4), testService.batchSizes);
+    }
+    
+    @Test
+    public void thatFailedDeliveriesAreRetried() throws Exception
+    {
+        Webhook hook = new Webhook();
+        hook.setUrl("http://localhost:" + port + "/test/flaky");
+        hook.setTopics(asList(DOCUMENT_STATE));
+
+        webhooksConfiguration.setGlobalHooks(asList(hook));
+        
+        long failedDeliveries = webhookService.getFailedDeliveryCount();
+        
+        applicationEventPublisher.publishEvent(makeDocumentStateChangedEvent(1));
+        
+        waitFor(() -> testService.flakyMsgs.size() == 1);
+        
+        assertEquals(1, testService.flakyMsgs.size());
+        assertEquals(3, testService.flakyAttempts.get());
+        assertEquals(failedDeliveries + 2, webhookService.getFailedDeliveryCount());
+    }
+    
+    @Test
+    public void thatMessagesAreKeptInQueueFolderUntilDelivered() throws Exception
+    {
+        File queueFolder = tempFolder.newFolder();
+        webhooksConfiguration.setQueueFolder(queueFolder);
+        
+        Webhook hook = new Webhook();
+        hook.setUrl("http://localhost:" + port + "/test/unavailable");
+        hook.setTopics(asList(DOCUMENT_STATE));
+
+        webhooksConfiguration.setGlobalHooks(asList(hook));
+        
+        long failedDeliveries = webhookService.getFailedDeliveryCount();
+        
+        applicationEventPublisher.publishEvent(makeDocumentStateChangedEvent(1));
+        
+        waitFor(() -> webhookService.getFailedDeliveryCount() > failedDeliveries);
+        
+        assertEquals(1, listQueuedFiles(queueFolder).size());
+        
+        testService.available = true;
+        
+        waitFor(() -> testService.unavailableMsgs.size() == 1);
+        waitFor(() -> listQueuedFiles(queueFolder).isEmpty());
+        
+        assertEquals(1, testService.unavailableMsgs.size());
+        assertEquals(0, listQueuedFiles(queueFolder).size());
+    }
+    
+    @Test
+    public void thatDeliveryAttemptsAreStoredInQueueFolder() throws Exception
+    {
+        File queueFolder = tempFolder.newFolder();
+        webhooksConfiguration.setQueueFolder(queueFolder);
+        webhooksConfiguration.setMaxDeliveryAttempts(3);
+        
+        Webhook hook = new Webhook();
+        hook.setUrl("http://localhost:" + port + "/test/down");
+        hook.setTopics(asList(DOCUMENT_STATE));
+
+        webhooksConfiguration.setGlobalHooks(asList(hook));
+        
+        applicationEventPublisher.publishEvent(makeDocumentStateChangedEvent(1));
+        
+        // Undeliverable messages are moved to the failed folder in the queue folder
+        waitFor(() -> listQueuedFiles(queueFolder).stream()
+                .anyMatch(f -> f.getParentFile().getName().equals("failed")));
+        
+        Collection<File> files = listQueuedFiles(queueFolder);
+        assertEquals(1, files.size());
+        
+        QueuedWebhookMessage message = JSONUtil.fromJsonString(QueuedWebhookMessage.class,
+                FileUtils.readFileToString(files.iterator().next(), UTF_8));
+        assertEquals(DOCUMENT_STATE, message.getTopic());
+        assertEquals(3, message.getAttempts());
+        
+        // No temporary files are left behind
+        assertEquals(1, FileUtils.listFiles(queueFolder, null, true).size());
+    }
+    
+    private DocumentStateChangedEvent makeDocumentStateChangedEvent(long aId)
+    {
+        Project project = new Project();
+        project.setId(1l);
+        
+        SourceDocument doc = new SourceDocument();
+        doc.setProject(project);
+        doc.setId(aId);
+        doc.setState(SourceDocumentState.ANNOTATION_IN_PROGRESS);
+
+        return new DocumentStateChangedEvent(this, doc, SourceDocumentState.NEW);
+    }
+    
+    private static Collection<File> listQueuedFiles(File aQueueFolder)
+    {
+        return FileUtils.listFiles(aQueueFolder, new String[] { "json" }, true);
+    }
+    
+    private static void waitFor(BooleanSupplier aCondition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!aCondition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
     @RequestMapping("/test")
     @Controller
     public static class TestService
     {
-        private List<ProjectStateChangeMessage> projectStateChangeMsgs = new ArrayList<>();
-        private List<DocumentStateChangeMessage> docStateChangeMsgs = new ArrayList<>();
-        private List<AnnotationStateChangeMessage> annStateChangeMsgs = new ArrayList<>();
+        // The messages are delivered from background threads
+        private List<ProjectStateChangeMessage> projectStateChangeMsgs =
+                new CopyOnWriteArrayList<>();
+        private List<DocumentStateChangeMessage> docStateChangeMsgs =
+                new CopyOnWriteArrayList<>();
+        private List<AnnotationStateChangeMessage> annStateChangeMsgs =
+                new CopyOnWriteArrayList<>();
+        
+        private CountDownLatch batchLatch = new CountDownLatch(1);
+        private List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        
+        private AtomicInteger flakyAttempts = new AtomicInteger();
+        private List<DocumentStateChangeMessage> flakyMsgs = new CopyOnWriteArrayList<>();
+        
+        private volatile boolean available = false;
+        private List<DocumentStateChangeMessage> unavailableMsgs = new CopyOnWriteArrayList<>();
         
         @RequestMapping(value = "/subscribe", 
                 method = RequestMethod.POST, 
@@ -153,6 +325,65 @@ public class WebhookServiceTest
             annStateChangeMsgs.add(aMsg);
             return ResponseEntity.ok().build();
         }
+        
+        @RequestMapping(value = "/batch", 
+                method = RequestMethod.POST, 
+                headers = X_AERO_NOTIFICATION + "=" + DOCUMENT_STATE,
+                consumes = APPLICATION_JSON_UTF8_VALUE, 
+                produces = APPLICATION_JSON_UTF8_VALUE)
+        public ResponseEntity<Void> onDocumentStateEventBatch(
+                @RequestBody List<DocumentStateChangeMessage> aMsgs)
+            throws Exception
+        {
+            batchLatch.await(10, SECONDS);
+            batchSizes.add(aMsgs.size());
+            return ResponseEntity.ok().build();
+        }
+        
+        @RequestMapping(value = "/flaky", 
+                method = RequestMethod.POST, 
+                headers = X_AERO_NOTIFICATION + "=" + DOCUMENT_STATE,
+                consumes = APPLICATION_JSON_UTF8_VALUE, 
+                produces = APPLICATION_JSON_UTF8_VALUE)
+        public ResponseEntity<Void> onDocumentStateEventFlaky(
+                @RequestBody DocumentStateChangeMessage aMsg)
+            throws Exception
+        {
+            // Fail the first two attempts
+            if (flakyAttempts.incrementAndGet() <= 2) {
+                return ResponseEntity.status(SERVICE_UNAVAILABLE).build();
+            }
+            flakyMsgs.add(aMsg);
+            return ResponseEntity.ok().build();
+        }
+        
+        @RequestMapping(value = "/unavailable", 
+                method = RequestMethod.POST, 
+                headers = X_AERO_NOTIFICATION + "=" + DOCUMENT_STATE,
+                consumes = APPLICATION_JSON_UTF8_VALUE, 
+                produces = APPLICATION_JSON_UTF8_VALUE)
+        public ResponseEntity<Void> onDocumentStateEventUnavailable(
+                @RequestBody DocumentStateChangeMessage aMsg)
+            throws Exception
+        {
+            if (!available) {
+                return ResponseEntity.status(SERVICE_UNAVAILABLE).build();
+            }
+            unavailableMsgs.add(aMsg);
+            return ResponseEntity.ok().build();
+        }
+        
+        @RequestMapping(value = "/down", 
+                method = RequestMethod.POST, 
+                headers = X_AERO_NOTIFICATION + "=" + DOCUMENT_STATE,
+                consumes = APPLICATION_JSON_UTF8_VALUE, 
+                produces = APPLICATION_JSON_UTF8_VALUE)
+        public ResponseEntity<Void> onDocumentStateEventDown(
+                @RequestBody DocumentStateChangeMessage aMsg)
+            throws Exception
+        {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE).build();
+        }
     }
 
     @Configuration
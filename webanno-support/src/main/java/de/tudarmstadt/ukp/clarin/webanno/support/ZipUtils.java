@@ -116,6 +116,62 @@ public class ZipUtils
         }
     }
 
+    /**
+     * Adds the given file to the ZIP stream.
+     * 
+     * @param aZip
+     *            the ZIP stream.
+     * @param aEntryName
+     *            the name of the entry in the ZIP file.
+     * @param aFile
+     *            the file.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void addFileToZip(ZipOutputStream aZip, String aEntryName, File aFile)
+        throws IOException
+    {
+        try (InputStream in = new FileInputStream(aFile)) {
+            aZip.putNextEntry(new ZipEntry(aEntryName));
+            IOUtils.copy(in, aZip);
+            aZip.closeEntry();
+        }
+    }
+
+    /**
+     * Adds all files in the given folder and its sub-folders to the ZIP stream. The entries are
+     * named by their path relative to the folder prefixed with the given path.
+     * 
+     * @param aZip
+     *            the ZIP stream.
+     * @param aPath
+     *            the path in the ZIP file under which the files are placed, e.g.
+     *            {@code "source/"}.
+     * @param aFolder
+     *            the folder.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void addFolderToZip(ZipOutputStream aZip, String aPath, File aFolder)
+        throws IOException
+    {
+        File[] files = aFolder.getAbsoluteFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        
+        // Sort the files so the order of the entries does not depend on the file system
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addFolderToZip(aZip, aPath + file.getName() + "/", file);
+            }
+            else {
+                addFileToZip(aZip, aPath + file.getName(), file);
+            }
+        }
+    }
+
     public static String normalizeEntryName(ZipEntry aEntry)
     {
         // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Collections.emptySortedSet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSortedSet;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Records which sentences of a document are connected by annotations crossing sentence
+ * boundaries. Sentences are identified by their (1-based) number in the document.
+ * <p>
+ * The index is immutable. It depends only on the annotator CASes it was built from, so it can be
+ * shared between requests and users as long as these CASes do not change.
+ */
+public class CrossSentenceIndex
+    implements Serializable
+{
+    private static final long serialVersionUID = 2436171426424624386L;
+
+    private final Map<Integer, SortedSet<Integer>> connectedSentences;
+    private final Map<Integer, Integer> extendedEnds;
+
+    private CrossSentenceIndex(Map<Integer, SortedSet<Integer>> aConnectedSentences,
+            Map<Integer, Integer> aExtendedEnds)
+    {
+        Map<Integer, SortedSet<Integer>> connectedSentences = new HashMap<>();
+        aConnectedSentences.forEach((k, v) -> connectedSentences.put(k,
+                unmodifiableSortedSet(new TreeSet<>(v))));
+        this.connectedSentences = unmodifiableMap(connectedSentences);
+        extendedEnds = unmodifiableMap(new HashMap<>(aExtendedEnds));
+    }
+
+    /**
+     * Builds the index visiting the annotations of each CAS only once.
+     * 
+     * @param aCasses
+     *            the CASes.
+     * @param aEntryTypes
+     *            the types of the annotations to consider.
+     * @param aBegin
+     *            the begin of the range in which to consider annotations.
+     * @param aEnd
+     *            the end of the range in which to consider annotations.
+     * @return the index.
+     */
+    public static CrossSentenceIndex build(Collection<CAS> aCasses, List<Type> aEntryTypes,
+            int aBegin, int aEnd)
+    {
+        Map<Integer, SortedSet<Integer>> connectedSentences = new HashMap<>();
+        Map<Integer, Integer> extendedEnds = new HashMap<>();
+        
+        for (CAS cas : aCasses) {
+            int[] sentenceEnds = select(cas, getType(cas, Sentence.class)).stream()
+                    .mapToInt(AnnotationFS::getEnd).toArray();
+            if (sentenceEnds.length == 0) {
+                continue;
+            }
+            
+            for (Type type : aEntryTypes) {
+                for (AnnotationFS fs : selectCovered(cas, getType(cas, type.getName()), aBegin,
+                        aEnd)) {
+                    int beginSentence = findSentence(sentenceEnds, fs.getBegin());
+                    int endSentence = findSentence(sentenceEnds, fs.getEnd());
+                    if (beginSentence == endSentence) {
+                        continue;
+                    }
+                    
+                    connectedSentences.computeIfAbsent(beginSentence + 1, k -> new TreeSet<>())
+                            .add(endSentence + 1);
+                    connectedSentences.computeIfAbsent(endSentence + 1, k -> new TreeSet<>())
+                            .add(beginSentence + 1);
+                    extendedEnds.merge(beginSentence + 1, sentenceEnds[endSentence], Math::max);
+                }
+            }
+        }
+        
+        return new CrossSentenceIndex(connectedSentences, extendedEnds);
+    }
+    
+    /**
+     * @return the index of the first sentence ending at or after the given offset.
+     */
+    private static int findSentence(int[] aSentenceEnds, int aOffset)
+    {
+        int i = Arrays.binarySearch(aSentenceEnds, aOffset);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return Math.min(i, aSentenceEnds.length - 1);
+    }
+
+    /**
+     * @param aSentenceNumber
+     *            a sentence number.
+     * @return the numbers of the sentences connected to the given sentence by cross-sentence
+     *         annotations.
+     */
+    public SortedSet<Integer> getConnectedSentences(int aSentenceNumber)
+    {
+        return connectedSentences.getOrDefault(aSentenceNumber, emptySortedSet());
+    }
+
+    /**
+     * @param aSentenceNumber
+     *            a sentence number.
+     * @param aSentenceEnd
+     *            the end offset of the sentence.
+     * @return the end offset of the last sentence reached by an annotation starting in the given
+     *         sentence or the end of the sentence itself if there is no such annotation.
+     */
+    public int getExtendedEnd(int aSentenceNumber, int aSentenceEnd)
+    {
+        return Math.max(aSentenceEnd, extendedEnds.getOrDefault(aSentenceNumber, aSentenceEnd));
+    }
+}
@@ -42,6 +42,8 @@ public class CurationContainer
 
     private AnnotatorState state;
 
+    private CrossSentenceIndex crossSentenceIndex;
+
     public List<SourceListView> getCurationViews()
     {
         List<Integer> viewsBegin = new ArrayList<>(curationViewByBegin.keySet());
@@ -72,4 +74,14 @@ public class CurationContainer
     {
         state = aState;
     }
+
+    public CrossSentenceIndex getCrossSentenceIndex()
+    {
+        return crossSentenceIndex;
+    }
+
+    public void setCrossSentenceIndex(CrossSentenceIndex aCrossSentenceIndex)
+    {
+        crossSentenceIndex = aCrossSentenceIndex;
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outcome of comparing the annotator CASes of a document for the curation sidebar: the
+ * segments (sentences, possibly extended to include cross-sentence annotations), their
+ * agreement state and the cross-sentence annotations. It is obtained from the annotator CASes
+ * only, so it remains valid while the curator edits the merge CAS.
+ */
+public class CurationStatus
+    implements Serializable
+{
+    private static final long serialVersionUID = 7853180235541862530L;
+
+    private final HashMap<Integer, Integer> segmentEnds;
+    private final HashMap<Integer, SentenceState> segmentStates;
+    private final CrossSentenceIndex crossSentenceIndex;
+
+    /**
+     * @param aSegmentEnds
+     *            the end offset of each segment by its begin offset.
+     * @param aSegmentStates
+     *            the state of each segment by its begin offset.
+     * @param aCrossSentenceIndex
+     *            the cross-sentence annotations.
+     */
+    public CurationStatus(Map<Integer, Integer> aSegmentEnds,
+            Map<Integer, SentenceState> aSegmentStates, CrossSentenceIndex aCrossSentenceIndex)
+    {
+        segmentEnds = new HashMap<>(aSegmentEnds);
+        segmentStates = new HashMap<>(aSegmentStates);
+        crossSentenceIndex = aCrossSentenceIndex;
+    }
+
+    public Map<Integer, Integer> getSegmentEnds()
+    {
+        return segmentEnds;
+    }
+
+    public Map<Integer, SentenceState> getSegmentStates()
+    {
+        return segmentStates;
+    }
+
+    public CrossSentenceIndex getCrossSentenceIndex()
+    {
+        return crossSentenceIndex;
+    }
+}
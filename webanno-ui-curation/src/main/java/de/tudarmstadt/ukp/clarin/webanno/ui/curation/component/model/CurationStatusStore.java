@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Persists the {@link CurationStatus} calculated by the {@link SuggestionBuilder} for a document
+ * so that the curation sidebar can be built without loading and comparing the annotator CASes
+ * as long as these do not change.
+ * <p>
+ * A stored status is only valid for the exact versions of the annotator CASes it was calculated
+ * from. The version of a CAS is its timestamp in the CAS storage.
+ */
+public interface CurationStatusStore
+{
+    /**
+     * @param aDocument
+     *            the document.
+     * @param aConfigurationKey
+     *            the layers and diff adapters used to calculate the status.
+     * @param aVersions
+     *            the current versions of the annotator CASes by annotator.
+     * @param aSegmentBegins
+     *            the begin offsets of the sentences in the merge CAS.
+     * @return the stored status if it was calculated for the given configuration, CAS versions
+     *         and sentences.
+     */
+    Optional<CurationStatus> load(SourceDocument aDocument, String aConfigurationKey,
+            Map<String, Long> aVersions, Set<Integer> aSegmentBegins);
+
+    /**
+     * Stores the status for the given document. The versions must have been determined
+     * <b>before</b> the CASes were read - otherwise a concurrent change might go unnoticed.
+     */
+    void store(SourceDocument aDocument, String aConfigurationKey, Map<String, Long> aVersions,
+            CurationStatus aStatus);
+
+    /**
+     * Removes the status stored for the given document.
+     */
+    void invalidate(SourceDocument aDocument);
+}
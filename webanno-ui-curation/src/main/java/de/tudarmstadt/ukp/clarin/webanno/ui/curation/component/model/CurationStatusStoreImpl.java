@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the status as a serialized file in the {@code curation-status} folder within the
+ * annotation folder of the document. The annotation folder itself is reserved for the CAS files
+ * which are named after the users. Only the status for the most recently used configuration is
+ * kept. The status is dropped whenever one
+ * of the annotation CASes of the document is written. Changes to the curation CAS do not
+ * affect it.
+ */
+@ManagedResource
+@Component
+public class CurationStatusStoreImpl
+    implements CurationStatusStore
+{
+    // The status must not use the <username>.ser naming of the CAS files in the annotation folder
+    private static final String STATUS_FOLDER = "curation-status";
+    private static final String STATUS_FILE = "status.bin";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasStorageService casStorageService;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CurationStatusStoreImpl(CasStorageService aCasStorageService)
+    {
+        casStorageService = aCasStorageService;
+    }
+
+    @EventListener
+    public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument());
+    }
+
+    @EventListener
+    public void onAfterDocumentReset(AfterDocumentResetEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument());
+    }
+
+    @Override
+    public Optional<CurationStatus> load(SourceDocument aDocument, String aConfigurationKey,
+            Map<String, Long> aVersions, Set<Integer> aSegmentBegins)
+    {
+        try {
+            File file = getStatusFile(aDocument);
+            if (file.exists()) {
+                StoredStatus stored;
+                try (ObjectInputStream is = new ObjectInputStream(
+                        new BufferedInputStream(new FileInputStream(file)))) {
+                    stored = (StoredStatus) is.readObject();
+                }
+
+                if (stored.configurationKey.equals(aConfigurationKey)
+                        && stored.versions.equals(aVersions)
+                        && stored.status.getSegmentEnds().keySet().equals(aSegmentBegins)) {
+                    hits.incrementAndGet();
+                    return Optional.of(stored.status);
+                }
+            }
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // The status is only a cache, so if it cannot be read, we simply calculate it again
+            log.debug("Unable to read curation status for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    @Override
+    public void store(SourceDocument aDocument, String aConfigurationKey,
+            Map<String, Long> aVersions, CurationStatus aStatus)
+    {
+        StoredStatus stored = new StoredStatus(aConfigurationKey, aVersions, aStatus);
+
+        File tmpFile = null;
+        try {
+            File file = getStatusFile(aDocument);
+            Files.createDirectories(file.getParentFile().toPath());
+
+            // Write to a temporary file first so that concurrent readers never see a partially
+            // written status
+            tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (ObjectOutputStream os = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                os.writeObject(stored);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Unable to store curation status for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(SourceDocument aDocument)
+    {
+        try {
+            if (Files.deleteIfExists(getStatusFile(aDocument).toPath())) {
+                log.trace("Removed curation status for document [{}]({})", aDocument.getName(),
+                        aDocument.getId());
+            }
+        }
+        catch (IOException e) {
+            log.warn("Unable to remove curation status for document [{}]({})",
+                    aDocument.getName(), aDocument.getId(), e);
+        }
+    }
+
+    private File getStatusFile(SourceDocument aDocument) throws IOException
+    {
+        return new File(new File(casStorageService.getAnnotationFolder(aDocument), STATUS_FOLDER),
+                STATUS_FILE);
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static class StoredStatus
+        implements Serializable
+    {
+        private static final long serialVersionUID = 4151627304482816129L;
+
+        private final String configurationKey;
+        private final Map<String, Long> versions;
+        private final CurationStatus status;
+
+        public StoredStatus(String aConfigurationKey, Map<String, Long> aVersions,
+                CurationStatus aStatus)
+        {
+            configurationKey = aConfigurationKey;
+            versions = new HashMap<>(aVersions);
+            status = aStatus;
+        }
+    }
+}
@@ -22,18 +22,21 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
 import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.AUTOMATION;
 import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
+import java.util.Optional;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
@@ -90,12 +93,7 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
-
-    private int diffRangeBegin, diffRangeEnd;
-    private boolean firstload = true;
-    public static Map<Integer, Set<Integer>> crossSentenceLists;
-    //
-    Map<Integer, Integer> segmentBeginEnd = new HashMap<>();
+    private CurationStatusStore curationStatusStore;
 
     public SuggestionBuilder(CasStorageService aCasStorageService,
             DocumentService aDocumentService,
@@ -111,6 +109,18 @@ public class SuggestionBuilder
         casStorageService = aCasStorageService;
     }
 
+    /**
+     * Enables re-using the curation status of documents whose annotator CASes did not change
+     * since the status was last calculated. This applies only to the curation mode.
+     * 
+     * @param aCurationStatusStore
+     *            the store used to persist the curation status.
+     */
+    public void setCurationStatusStore(CurationStatusStore aCurationStatusStore)
+    {
+        curationStatusStore = aCurationStatusStore;
+    }
+
     public CurationContainer buildCurationContainer(AnnotatorState aBModel)
         throws UIMAException, ClassNotFoundException, IOException, AnnotationException
     {
@@ -131,10 +141,13 @@ public class SuggestionBuilder
             }
         }
 
-        Map<String, CAS> casses = new HashMap<>();
+        Map<String, CAS> casses = null;
+        Map<String, Long> versions = null;
 
         AnnotationDocument randomAnnotationDocument = null;
         CAS mergeCas;
+        int diffRangeBegin;
+        int diffRangeEnd;
 
         // get the correction/automation CAS for the logged in user
         if (aBModel.getMode().equals(Mode.AUTOMATION)
@@ -144,20 +157,26 @@ public class SuggestionBuilder
             mergeCas = getMergeCas(aBModel, sourceDocument, casses, randomAnnotationDocument,
                     false, false);
             String username = casses.keySet().iterator().next();
-            updateSegment(aBModel, segmentBeginEnd, segmentNumber, segmentAdress,
-                    casses.get(username), username, aBModel.getWindowBeginOffset(),
-                    aBModel.getWindowEndOffset());
+            diffRangeBegin = aBModel.getWindowBeginOffset();
+            diffRangeEnd = aBModel.getWindowEndOffset();
+            updateSegment(segmentBeginEnd, segmentNumber, segmentAdress, casses.get(username),
+                    username, diffRangeBegin, diffRangeEnd);
         }
         else {
-            casses = listCassesforCuration(finishedAnnotationDocuments, randomAnnotationDocument,
-                    aBModel.getMode());
-            mergeCas = getMergeCas(aBModel, sourceDocument, casses, randomAnnotationDocument,
+            // The versions must be determined before any of the annotator CASes are read
+            if (curationStatusStore != null) {
+                versions = getCasVersions(sourceDocument, finishedAnnotationDocuments);
+            }
+            
+            // The merge CAS has already been prepared when the document was opened, so we do
+            // not need the annotator CASes here - they are only loaded if the differences need
+            // to be calculated
+            mergeCas = getMergeCas(aBModel, sourceDocument, emptyMap(), randomAnnotationDocument,
                     false, false);
-            updateSegment(aBModel, segmentBeginEnd, segmentNumber, segmentAdress, mergeCas,
-                    WebAnnoConst.CURATION_USER,
-                    WebAnnoCasUtil.getFirstSentence(mergeCas).getBegin(),
-                    mergeCas.getDocumentText().length());
-
+            diffRangeBegin = WebAnnoCasUtil.getFirstSentence(mergeCas).getBegin();
+            diffRangeEnd = mergeCas.getDocumentText().length();
+            updateSegment(segmentBeginEnd, segmentNumber, segmentAdress, mergeCas,
+                    WebAnnoConst.CURATION_USER, diffRangeBegin, diffRangeEnd);
         }
 
         List<Type> entryTypes = null;
@@ -174,64 +193,64 @@ public class SuggestionBuilder
             entryTypes = getEntryTypes(mergeCas, aBModel.getAnnotationLayers(), annotationService);
         }
 
-        // for cross-sentences annotation, update the end of the segment
-        if (firstload) {
+        List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, aBModel.getProject());
+
+        String configurationKey = null;
+        Optional<CurationStatus> storedStatus = Optional.empty();
+        if (versions != null) {
+            configurationKey = getConfigurationKey(entryTypes, adapters);
+            storedStatus = curationStatusStore.load(sourceDocument, configurationKey, versions,
+                    segmentBeginEnd.keySet());
+        }
+        
+        Map<Integer, SentenceState> segmentStates;
+        CrossSentenceIndex crossSentenceIndex;
+        if (storedStatus.isPresent()) {
+            log.debug("Using stored curation status");
+            segmentBeginEnd.putAll(storedStatus.get().getSegmentEnds());
+            segmentStates = storedStatus.get().getSegmentStates();
+            crossSentenceIndex = storedStatus.get().getCrossSentenceIndex();
+        }
+        else {
+            if (casses == null) {
+                casses = listCassesforCuration(finishedAnnotationDocuments,
+                        randomAnnotationDocument, aBModel.getMode());
+            }
+            
             long start = System.currentTimeMillis();
-            log.debug("Updating cross sentence annotation list...");
-            updateCrossSentAnnoList(segmentBeginEnd, segmentNumber, casses, entryTypes);
-            firstload = false;
-            log.debug("Cross sentence annotation list complete in {}ms",
+            log.debug("Building cross sentence annotation index...");
+            crossSentenceIndex = CrossSentenceIndex.build(casses.values(), entryTypes,
+                    diffRangeBegin, diffRangeEnd);
+            log.debug("Cross sentence annotation index complete in {}ms",
                     (System.currentTimeMillis() - start));
+            
+            // for cross-sentences annotation, update the end of the segment
+            for (Entry<Integer, Integer> e : segmentBeginEnd.entrySet()) {
+                e.setValue(crossSentenceIndex.getExtendedEnd(segmentNumber.get(e.getKey()),
+                        e.getValue()));
+            }
+            
+            long diffStart = System.currentTimeMillis();
+            log.debug("Calculating differences...");
+            segmentStates = calculateSegmentStates(entryTypes, adapters, casses,
+                    segmentBeginEnd);
+            log.debug("Difference calculation completed in {}ms",
+                    (System.currentTimeMillis() - diffStart));
+            
+            if (versions != null) {
+                curationStatusStore.store(sourceDocument, configurationKey, versions,
+                        new CurationStatus(segmentBeginEnd, segmentStates, crossSentenceIndex));
+            }
         }
-
-        List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, aBModel.getProject());
-
-        long diffStart = System.currentTimeMillis();
-        log.debug("Calculating differences...");
-        int count = 0;
+        
+        curationContainer.setCrossSentenceIndex(crossSentenceIndex);
+        
         for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
-
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
-            }
-
-            DiffResult diff = CasDiff.doDiffSingle(entryTypes, adapters, LINK_ROLE_AS_LABEL,
-                    casses, begin, end).toResult();
-
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
-            curationSegment.setEnd(end);
+            curationSegment.setEnd(segmentBeginEnd.get(begin));
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
-            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-                // Is this confSet a diff due to stacked annotations (with same configuration)?
-                boolean stackedDiff = false;
-
-                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
-                        .values()) {
-                    for (Configuration c : d.getConfigurations()) {
-                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-                            stackedDiff = true;
-                            break stackedDiffSet;
-                        }
-                    }
-                }
-
-                if (stackedDiff) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else {
-                    curationSegment.setSentenceState(SentenceState.AGREE);
-                }
-            }
-            else {
-                curationSegment.setSentenceState(SentenceState.AGREE);
-            }
+            curationSegment.setSentenceState(segmentStates.get(begin));
 
             for (String username : segmentAdress.keySet()) {
                 curationSegment.getSentenceAddress().put(username,
@@ -239,96 +258,136 @@ public class SuggestionBuilder
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
         }
-        log.debug("Difference calculation completed in {}ms",
-                (System.currentTimeMillis() - diffStart));
 
         return curationContainer;
     }
 
-    private void updateCrossSentAnnoList(Map<Integer, Integer> aSegmentBeginEnd,
-            Map<Integer, Integer> aSegmentNumber, Map<String, CAS> aCases, List<Type> aEntryTypes)
+    /**
+     * Determines the current versions of the annotator CASes, i.e. their timestamps in the CAS
+     * storage. CASes which do not exist are represented by a negative value.
+     */
+    private Map<String, Long> getCasVersions(SourceDocument aDocument,
+            List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException
     {
-        // FIXME Remove this side-effect and instead return this hashmap
-        crossSentenceLists = new HashMap<>();
-
-        // Extract the sentences for all the CASes
-        Map<CAS, List<AnnotationFS>> idxSentences = new HashMap<>();
-        for (CAS c : aCases.values()) {
-            Type sentenceType = getType(c, Sentence.class);
-            idxSentences.put(c, new ArrayList<>(select(c, sentenceType)));
+        Map<String, Long> versions = new HashMap<>();
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            versions.put(annotationDocument.getUser(), documentService
+                    .getAnnotationCasTimestamp(aDocument, annotationDocument.getUser())
+                    .orElse(-1l));
         }
+        return versions;
+    }
+    
+    /**
+     * Describes the layers and diff adapters which affect the curation status.
+     */
+    private static String getConfigurationKey(List<Type> aEntryTypes,
+            List<DiffAdapter> aAdapters)
+    {
+        StringBuilder key = new StringBuilder();
+        for (Type type : aEntryTypes) {
+            key.append('|').append(type.getName());
+        }
+        for (DiffAdapter adapter : aAdapters) {
+            key.append('|').append(adapter.getType()).append(adapter.getLabelFeatures());
+        }
+        return key.toString();
+    }
 
-        Set<Integer> sentenceBegins = aSegmentBeginEnd.keySet();
-        int count = 0;
-        for (int sentBegin : sentenceBegins) {
-            count++;
-
-            if (count % 100 == 0) {
-                log.debug("Updating cross-sentence annoations: {} of {} sentences...", count,
-                        sentenceBegins.size());
+    /**
+     * Determines for each segment whether the annotators agree on it. Instead of calculating a
+     * separate diff for every segment, a single diff is calculated over the range spanned by all
+     * segments and each configuration set in which the annotators disagree is attributed to all
+     * segments covering it. Segments may overlap if they have been extended to include
+     * cross-sentence annotations. The result is the same as when calculating the diff for each
+     * segment separately.
+     * 
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            the diff adapters.
+     * @param aCasses
+     *            the CASes by user.
+     * @param aSegmentBeginEnd
+     *            the end offset of each segment by its begin offset.
+     * @return the state of each segment by its begin offset.
+     */
+    public static Map<Integer, SentenceState> calculateSegmentStates(List<Type> aEntryTypes,
+            List<DiffAdapter> aAdapters, Map<String, CAS> aCasses,
+            Map<Integer, Integer> aSegmentBeginEnd)
+    {
+        Map<Integer, SentenceState> states = new HashMap<>();
+        if (aSegmentBeginEnd.isEmpty()) {
+            return states;
+        }
+        
+        // Segments sorted by begin - for each segment, we also remember the largest end of all
+        // segments up to it. Once that is smaller than the end of an annotation, no segment
+        // further to the left can cover the annotation.
+        int[] begins = aSegmentBeginEnd.keySet().stream().mapToInt(Integer::intValue).sorted()
+                .toArray();
+        int[] ends = new int[begins.length];
+        int[] maxEnds = new int[begins.length];
+        for (int i = 0; i < begins.length; i++) {
+            ends[i] = aSegmentBeginEnd.get(begins[i]);
+            maxEnds[i] = i > 0 ? Math.max(maxEnds[i - 1], ends[i]) : ends[i];
+            states.put(begins[i], SentenceState.AGREE);
+        }
+        
+        DiffResult diff = CasDiff.doDiffSingle(aEntryTypes, aAdapters, LINK_ROLE_AS_LABEL,
+                aCasses, begins[0], maxEnds[maxEnds.length - 1]).toResult();
+        
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (Entry<String, CAS> e : aCasses.entrySet()) {
+            casMap.put(e.getKey(), asList(e.getValue()));
+        }
+        
+        for (ConfigurationSet set : diff.getConfigurationSets()) {
+            if (!isDisagreement(diff, set)) {
+                continue;
             }
-
-            int sentEnd = aSegmentBeginEnd.get(sentBegin);
-            int currentSentenceNumber = -1;
-
-            Set<Integer> crossSents = new HashSet<>();
-
-            for (Type t : aEntryTypes) {
-                for (CAS c : aCases.values()) {
-                    // Determine sentence number for the current segment begin. This takes quite
-                    // a while, so we only do it for the first CAS in the batch. Will be the
-                    // same for all others anyway.
-                    if (currentSentenceNumber == -1) {
-                        currentSentenceNumber = aSegmentNumber.get(sentBegin);
-                    }
-
-                    // update cross-sentence annotation lists
-                    for (AnnotationFS fs : selectCovered(c, t, diffRangeBegin, diffRangeEnd)) {
-                        // CASE 1. annotation begins here
-                        if (sentBegin <= fs.getBegin() && fs.getBegin() <= sentEnd) {
-                            if (fs.getEnd() < sentBegin || sentEnd < fs.getEnd()) {
-                                AnnotationFS s = getSentenceByAnnoEnd(idxSentences.get(c),
-                                        fs.getEnd());
-                                int thatSent = idxSentences.get(c).indexOf(s) + 1;
-                                crossSents.add(thatSent);
-                            }
-                        }
-                        // CASE 2. Annotation ends here
-                        else if (sentBegin <= fs.getEnd() && fs.getEnd() <= sentEnd) {
-                            if (fs.getBegin() < sentBegin || sentEnd < fs.getBegin()) {
-                                int thatSent = WebAnnoCasUtil.getSentenceNumber(c, fs.getBegin());
-                                crossSents.add(thatSent);
-                            }
-                        }
-                    }
-
-                    for (AnnotationFS fs : selectCovered(c, t, sentBegin, diffRangeEnd)) {
-                        if (fs.getBegin() <= sentEnd && fs.getEnd() > sentEnd) {
-                            AnnotationFS s = getSentenceByAnnoEnd(idxSentences.get(c), fs.getEnd());
-                            aSegmentBeginEnd.put(sentBegin, s.getEnd());
-                        }
-                    }
+            
+            // All annotations in a configuration set are located at the same offsets, so
+            // any of them tells us which segments the set belongs to
+            AnnotationFS fs = (AnnotationFS) set.getConfigurations().get(0)
+                    .getRepresentative(casMap);
+            
+            int i = Arrays.binarySearch(begins, fs.getBegin());
+            if (i < 0) {
+                // Index of the last segment starting before the annotation
+                i = -i - 2;
+            }
+            for (; i >= 0 && maxEnds[i] >= fs.getEnd(); i--) {
+                if (ends[i] >= fs.getEnd()) {
+                    states.put(begins[i], SentenceState.DISAGREE);
                 }
             }
-            crossSentenceLists.put(currentSentenceNumber, crossSents);
         }
+        
+        return states;
     }
-
+    
     /**
-     * Get a sentence at the end of an annotation
+     * A configuration set marks its segment as disagreeing if not all annotators contributed to
+     * it or if it contains differing configurations which not all of its annotators share (e.g.
+     * due to stacked annotations).
      */
-    private static AnnotationFS getSentenceByAnnoEnd(List<AnnotationFS> aSentences, int aEnd)
+    private static boolean isDisagreement(DiffResult aDiff, ConfigurationSet aSet)
     {
-        int prevEnd = 0;
-        AnnotationFS sent = null;
-        for (AnnotationFS sentence : aSentences) {
-            if (prevEnd >= aEnd) {
-                return sent;
+        if (!aDiff.isComplete(aSet)) {
+            return true;
+        }
+        
+        if (!aDiff.isAgreement(aSet)) {
+            for (Configuration c : aSet.getConfigurations()) {
+                if (c.getCasGroupIds().size() != aSet.getCasGroupIds().size()) {
+                    return true;
+                }
             }
-            sent = sentence;
-            prevEnd = sent.getEnd();
         }
-        return sent;
+        
+        return false;
     }
 
     private Map<String, CAS> listCasesforCorrection(AnnotationDocument randomAnnotationDocument,
@@ -455,23 +514,19 @@ public class SuggestionBuilder
      * Puts CASes into a list and get a random annotation document that will be used as a base for
      * the diff.
      */
-    private void updateSegment(AnnotatorState aBratAnnotatorModel,
-            Map<Integer, Integer> aIdxSentenceBeginEnd,
+    private static void updateSegment(Map<Integer, Integer> aIdxSentenceBeginEnd,
             Map<Integer, Integer> aIdxSentenceBeginNumber,
             Map<String, Map<Integer, Integer>> aSegmentAdress, CAS aCas, String aUsername,
             int aWindowStart, int aWindowEnd)
     {
-        diffRangeBegin = aWindowStart;
-        diffRangeEnd = aWindowEnd;
-
         // Get the number of the first sentence - instead of fetching the number over and over
         // we can just increment this one.
-        int sentenceNumber = WebAnnoCasUtil.getSentenceNumber(aCas, diffRangeBegin);
+        int sentenceNumber = WebAnnoCasUtil.getSentenceNumber(aCas, aWindowStart);
 
         aSegmentAdress.put(aUsername, new HashMap<>());
         Type sentenceType = CasUtil.getType(aCas, Sentence.class);
-        for (AnnotationFS sentence : selectCovered(aCas, sentenceType, diffRangeBegin,
-                diffRangeEnd)) {
+        for (AnnotationFS sentence : selectCovered(aCas, sentenceType, aWindowStart,
+                aWindowEnd)) {
             aIdxSentenceBeginEnd.put(sentence.getBegin(), sentence.getEnd());
             aIdxSentenceBeginNumber.put(sentence.getBegin(), sentenceNumber);
             aSegmentAdress.get(aUsername).put(sentence.getBegin(), getAddr(sentence));
@@ -106,7 +106,9 @@ import de.tudarmstadt.ukp.clarin.webanno.ui.annotation.component.DocumentNamePan
 import de.tudarmstadt.ukp.clarin.webanno.ui.annotation.detail.AnnotationDetailEditorPanel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.SuggestionViewPanel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.AnnotationSelection;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CrossSentenceIndex;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CurationContainer;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CurationStatusStore;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SourceListView;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.UserAnnotationSegment;
@@ -135,6 +137,7 @@ public class CurationPage
     private @SpringBean BratProperties defaultPreferences;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean CurationStatusStore curationStatusStore;
 
     private long currentprojectId;
 
@@ -627,6 +630,7 @@ public class CurationPage
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
                     userRepository);
+            builder.setCurationStatusStore(curationStatusStore);
             curationContainer = builder.buildCurationContainer(state);
             curationContainer.setState(state);
             editor.reset(aTarget);
@@ -812,19 +816,18 @@ public class CurationPage
         int lSN = getModelObject().getLastVisibleUnitIndex();
 
         List<String> crossSentAnnos = new ArrayList<>();
-        if (SuggestionBuilder.crossSentenceLists != null) {
-            for (int sn : SuggestionBuilder.crossSentenceLists.keySet()) {
-                if (sn >= fSN && sn <= lSN) {
-                    List<Integer> cr = new ArrayList<>();
-                    for (int c : SuggestionBuilder.crossSentenceLists.get(sn)) {
-                        if (c < fSN || c > lSN) {
-                            cr.add(c);
-                        }
-                    }
-                    if (!cr.isEmpty()) {
-                        crossSentAnnos.add(sn + "-->" + cr);
+        CrossSentenceIndex crossSentenceIndex = curationContainer.getCrossSentenceIndex();
+        if (crossSentenceIndex != null) {
+            for (int sn = fSN; sn <= lSN; sn++) {
+                List<Integer> cr = new ArrayList<>();
+                for (int c : crossSentenceIndex.getConnectedSentences(sn)) {
+                    if (c < fSN || c > lSN) {
+                        cr.add(c);
                     }
                 }
+                if (!cr.isEmpty()) {
+                    crossSentAnnos.add(sn + "-->" + cr);
+                }
             }
         }
 
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class CrossSentenceIndexTest
+{
+    @Test
+    public void thatCrossSentenceAnnotationsAreIndexed() throws Exception
+    {
+        // Three sentences: [0-9] [10-19] [20-29]
+        JCas user1 = createCas();
+        new Lemma(user1, 2, 5).addToIndexes();
+        new Lemma(user1, 7, 12).addToIndexes();
+        
+        JCas user2 = createCas();
+        new Lemma(user2, 15, 25).addToIndexes();
+        
+        List<Type> entryTypes = asList(user1.getTypeSystem().getType(Lemma.class.getName()));
+        
+        CrossSentenceIndex index = CrossSentenceIndex.build(
+                asList(user1.getCas(), user2.getCas()), entryTypes, 0, 30);
+        
+        assertEquals(asList(2), asList(index.getConnectedSentences(1).toArray()));
+        assertEquals(asList(1, 3), asList(index.getConnectedSentences(2).toArray()));
+        assertEquals(asList(2), asList(index.getConnectedSentences(3).toArray()));
+        
+        assertEquals(19, index.getExtendedEnd(1, 9));
+        assertEquals(29, index.getExtendedEnd(2, 19));
+        assertEquals(29, index.getExtendedEnd(3, 29));
+    }
+    
+    @Test
+    public void thatAnnotationsOutsideRangeAreIgnored() throws Exception
+    {
+        JCas user1 = createCas();
+        new Lemma(user1, 7, 12).addToIndexes();
+        
+        List<Type> entryTypes = asList(user1.getTypeSystem().getType(Lemma.class.getName()));
+        
+        CrossSentenceIndex index = CrossSentenceIndex.build(asList(user1.getCas()), entryTypes,
+                10, 30);
+        
+        assertTrue(index.getConnectedSentences(1).isEmpty());
+        assertEquals(9, index.getExtendedEnd(1, 9));
+    }
+    
+    private static JCas createCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createText("sentence1 sentence2 sentence3");
+        new Sentence(jcas, 0, 9).addToIndexes();
+        new Sentence(jcas, 10, 19).addToIndexes();
+        new Sentence(jcas, 20, 29).addToIndexes();
+        return jcas;
+    }
+}
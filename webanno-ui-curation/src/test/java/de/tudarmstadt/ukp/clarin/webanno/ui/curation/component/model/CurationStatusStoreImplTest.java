@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CurationStatusStoreImplTest
+{
+    public @Rule TemporaryFolder repositoryFolder = new TemporaryFolder();
+    
+    private CurationStatusStoreImpl sut;
+    private SourceDocument document;
+    private Map<String, Long> versions;
+    private CurationStatus status;
+    
+    @Before
+    public void setup() throws Exception
+    {
+        CasStorageService casStorageService = mock(CasStorageService.class);
+        when(casStorageService.getAnnotationFolder(any()))
+                .thenReturn(repositoryFolder.getRoot());
+        
+        sut = new CurationStatusStoreImpl(casStorageService);
+        
+        document = new SourceDocument();
+        document.setName("document");
+        
+        versions = new HashMap<>();
+        versions.put("user1", 1000l);
+        versions.put("user2", -1l);
+        
+        Map<Integer, Integer> segmentEnds = new HashMap<>();
+        segmentEnds.put(0, 10);
+        segmentEnds.put(11, 30);
+        Map<Integer, SentenceState> segmentStates = new HashMap<>();
+        segmentStates.put(0, SentenceState.AGREE);
+        segmentStates.put(11, SentenceState.DISAGREE);
+        CrossSentenceIndex crossSentenceIndex = CrossSentenceIndex.build(emptyList(),
+                emptyList(), 0, 30);
+        
+        status = new CurationStatus(segmentEnds, segmentStates, crossSentenceIndex);
+    }
+    
+    @Test
+    public void thatStoredStatusCanBeLoaded()
+    {
+        sut.store(document, "key", versions, status);
+        
+        CurationStatus loaded = sut.load(document, "key", versions, segmentBegins(0, 11))
+                .get();
+        
+        assertEquals(status.getSegmentEnds(), loaded.getSegmentEnds());
+        assertEquals(status.getSegmentStates(), loaded.getSegmentStates());
+        assertEquals(1, sut.getHits());
+    }
+    
+    @Test
+    public void thatStatusIsNotUsedForOtherVersionsConfigurationsOrSentences()
+    {
+        sut.store(document, "key", versions, status);
+        
+        Map<String, Long> newVersions = new HashMap<>(versions);
+        newVersions.put("user2", 2000l);
+        
+        assertFalse(sut.load(document, "key", newVersions, segmentBegins(0, 11)).isPresent());
+        assertFalse(sut.load(document, "other", versions, segmentBegins(0, 11)).isPresent());
+        assertFalse(sut.load(document, "key", versions, segmentBegins(0, 12)).isPresent());
+        assertEquals(3, sut.getMisses());
+    }
+    
+    @Test
+    public void thatInvalidateRemovesStatus()
+    {
+        sut.store(document, "key", versions, status);
+        
+        sut.invalidate(document);
+        
+        assertFalse(sut.load(document, "key", versions, segmentBegins(0, 11)).isPresent());
+    }
+    
+    @Test
+    public void thatStatusDoesNotTouchCasFiles() throws Exception
+    {
+        // A user may be named like the status store
+        File casFile = new File(repositoryFolder.getRoot(), "curation-status.ser");
+        Files.write(casFile.toPath(), new byte[] { 1, 2, 3 });
+        
+        sut.store(document, "key", versions, status);
+        
+        assertEquals(1, repositoryFolder.getRoot()
+                .listFiles((dir, name) -> name.endsWith(".ser")).length);
+        
+        sut.invalidate(document);
+        
+        assertTrue(casFile.exists());
+        assertEquals(3, casFile.length());
+    }
+    
+    private static Set<Integer> segmentBegins(Integer... aBegins)
+    {
+        Set<Integer> begins = new HashSet<>();
+        for (Integer begin : aBegins) {
+            begins.add(begin);
+        }
+        return begins;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Checks that the single-pass calculation of the segment states in
+ * {@link SuggestionBuilder#calculateSegmentStates} yields the same states as calculating a
+ * separate diff for each segment and that it is faster. The tests use synthetic curation cases
+ * in which every annotator annotates a lemma on each token. Some annotators leave out or change
+ * a few lemmas, stack lemmas or annotate lemmas crossing the sentence boundary.
+ */
+public class SuggestionBuilderTest
+{
+    private static final int TOKENS_PER_SENTENCE = 20;
+    private static final int TOKEN_LENGTH = 6;
+    private static final int ANNOTATORS = 6;
+    private static final int BENCHMARK_SENTENCES = 1_000;
+    private static final int BENCHMARK_RUNS = 3;
+    
+    private final List<DiffAdapter> adapters = asList(
+            new SpanDiffAdapter(Lemma.class.getName(), "value"));
+    
+    @Test
+    public void thatSegmentStatesMatchPerSegmentDiff() throws Exception
+    {
+        Map<String, CAS> casses = createSyntheticCasses(200);
+        Map<Integer, Integer> segments = createSegments(casses.values().iterator().next());
+
+        Map<Integer, SentenceState> expected = calculateSegmentStatesPerSegment(casses,
+                segments);
+        
+        // Make sure the synthetic data actually covers both states
+        assertTrue(expected.containsValue(SentenceState.AGREE));
+        assertTrue(expected.containsValue(SentenceState.DISAGREE));
+        
+        assertEquals(expected, SuggestionBuilder.calculateSegmentStates(entryTypes(casses),
+                adapters, casses, segments));
+    }
+    
+    @Test
+    public void thatSinglePassIsFasterThanPerSegmentDiff() throws Exception
+    {
+        Map<String, CAS> casses = createSyntheticCasses(BENCHMARK_SENTENCES);
+        Map<Integer, Integer> segments = createSegments(casses.values().iterator().next());
+        List<Type> entryTypes = entryTypes(casses);
+
+        // Take the best of several runs to reduce the influence of JIT compilation and GC
+        long perSegmentTime = Long.MAX_VALUE;
+        long singlePassTime = Long.MAX_VALUE;
+        Map<Integer, SentenceState> expected = null;
+        Map<Integer, SentenceState> actual = null;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            long start = System.nanoTime();
+            expected = calculateSegmentStatesPerSegment(casses, segments);
+            perSegmentTime = Math.min(perSegmentTime, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            actual = SuggestionBuilder.calculateSegmentStates(entryTypes, adapters, casses,
+                    segments);
+            singlePassTime = Math.min(singlePassTime, System.nanoTime() - start);
+        }
+        
+        System.out.printf("%d segments - per segment: %dms, single pass: %dms%n",
+                segments.size(), perSegmentTime / 1_000_000, singlePassTime / 1_000_000);
+        
+        assertEquals(expected, actual);
+        assertTrue("Single pass (" + singlePassTime + "ns) must be faster than one diff per "
+                + "segment (" + perSegmentTime + "ns)", singlePassTime < perSegmentTime);
+    }
+    
+    /**
+     * The way the segment states were calculated before - one diff per segment.
+     */
+    private Map<Integer, SentenceState> calculateSegmentStatesPerSegment(
+            Map<String, CAS> aCasses, Map<Integer, Integer> aSegments)
+    {
+        Map<Integer, SentenceState> states = new HashMap<>();
+        for (Integer begin : aSegments.keySet()) {
+            DiffResult diff = CasDiff.doDiffSingle(entryTypes(aCasses), adapters,
+                    LINK_ROLE_AS_LABEL, aCasses, begin, aSegments.get(begin)).toResult();
+            
+            boolean stackedDiff = false;
+            stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
+                    .values()) {
+                for (Configuration c : d.getConfigurations()) {
+                    if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
+                        stackedDiff = true;
+                        break stackedDiffSet;
+                    }
+                }
+            }
+            
+            states.put(begin,
+                    stackedDiff || !diff.getIncompleteConfigurationSets().isEmpty()
+                            ? SentenceState.DISAGREE
+                            : SentenceState.AGREE);
+        }
+        return states;
+    }
+    
+    private static List<Type> entryTypes(Map<String, CAS> aCasses)
+    {
+        CAS cas = aCasses.values().iterator().next();
+        return asList(cas.getTypeSystem().getType(Lemma.class.getName()));
+    }
+    
+    /**
+     * Creates one segment per sentence. Like the curation page does, segments containing the
+     * begin of a cross-sentence annotation are extended to the end of the following sentence.
+     */
+    private static Map<Integer, Integer> createSegments(CAS aCas)
+    {
+        int sentenceLength = TOKENS_PER_SENTENCE * TOKEN_LENGTH;
+        int sentences = aCas.getDocumentText().length() / sentenceLength;
+        
+        Map<Integer, Integer> segments = new LinkedHashMap<>();
+        for (int s = 0; s < sentences; s++) {
+            int begin = s * sentenceLength;
+            int end = begin + sentenceLength - 1;
+            if (isCrossSentence(s) && s + 1 < sentences) {
+                end += sentenceLength;
+            }
+            segments.put(begin, end);
+        }
+        return segments;
+    }
+    
+    private static boolean isCrossSentence(int aSentence)
+    {
+        return aSentence % 50 == 49;
+    }
+    
+    private static Map<String, CAS> createSyntheticCasses(int aSentences) throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aSentences * TOKENS_PER_SENTENCE; i++) {
+            text.append("token ");
+        }
+        
+        Map<String, CAS> casses = new LinkedHashMap<>();
+        for (int a = 0; a < ANNOTATORS; a++) {
+            JCas jcas = JCasFactory.createJCas();
+            jcas.setDocumentText(text.toString());
+            
+            for (int s = 0; s < aSentences; s++) {
+                int sentenceBegin = s * TOKENS_PER_SENTENCE * TOKEN_LENGTH;
+                new Sentence(jcas, sentenceBegin,
+                        sentenceBegin + TOKENS_PER_SENTENCE * TOKEN_LENGTH - 1).addToIndexes();
+                
+                for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                    int token = s * TOKENS_PER_SENTENCE + t;
+                    int begin = token * TOKEN_LENGTH;
+                    
+                    // One annotator occasionally leaves out a lemma, another one occasionally
+                    // chooses a different one
+                    if (a == 1 && token % 997 == 0) {
+                        continue;
+                    }
+                    
+                    Lemma lemma = new Lemma(jcas, begin, begin + TOKEN_LENGTH - 1);
+                    lemma.setValue(a == 2 && token % 1009 == 0 ? "other" : "token");
+                    lemma.addToIndexes();
+                    
+                    // A third annotator occasionally stacks a lemma
+                    if (a == 3 && token % 1013 == 0) {
+                        Lemma stacked = new Lemma(jcas, begin, begin + TOKEN_LENGTH - 1);
+                        stacked.setValue("stacked");
+                        stacked.addToIndexes();
+                    }
+                }
+                
+                // Some annotators connect the last token of a sentence with the first token of
+                // the next sentence
+                if (isCrossSentence(s) && s + 1 < aSentences && a % 2 == 0) {
+                    int begin = sentenceBegin + (TOKENS_PER_SENTENCE - 1) * TOKEN_LENGTH;
+                    Lemma lemma = new Lemma(jcas, begin, begin + 2 * TOKEN_LENGTH - 1);
+                    lemma.setValue("cross");
+                    lemma.addToIndexes();
+                }
+            }
+            
+            casses.put("annotator" + a, jcas.getCas());
+        }
+        return casses;
+    }
+}
@@ -17,19 +17,38 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJECT_ID;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.enabledWhen;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import javax.persistence.NoResultException;
@@ -39,6 +58,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.fit.util.FSUtil;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.wicket.Component;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.WebMarkupContainer;
@@ -61,11 +81,16 @@ import org.slf4j.LoggerFactory;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.agilecoders.wicket.extensions.markup.html.bootstrap.form.select.BootstrapSelect;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AggreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AggreementMeasureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AggreementMeasureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.AgreementSummaryStore;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAggreementMeasure_ImplBase;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -95,11 +120,23 @@ public class AgreementPage
     private static final String MID_TRAITS = "traits";
     private static final String MID_RESULTS = "results";
     
+    /**
+     * Number of threads loading CASes for the agreement calculation. This is also the number of
+     * documents which are loaded ahead of the document currently being processed.
+     */
+    private static final int CAS_LOADER_THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    
+    private static final long VERSION_MISSING = -1;
+    private static final long VERSION_SKIPPED = -2;
+    
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
     private @SpringBean AggreementMeasureSupportRegistry agreementRegistry;
+    private @SpringBean AgreementSummaryStore summaryStore;
 
     private ProjectSelectionForm projectSelectionForm;
     private AgreementForm agreementForm;
@@ -256,7 +293,18 @@ public class AgreementPage
                     (DefaultAgreementTraits) traitsContainer.get(MID_TRAITS)
                             .getDefaultModelObject());
             
-            Serializable result = measure.getAgreement(getCasMap());
+            // Process the documents one at a time instead of loading all CASes of the project
+            // into memory at once
+            Serializable result;
+            try (DocumentCasLoader loader = new DocumentCasLoader()) {
+                if (measure instanceof CodingAggreementMeasure_ImplBase) {
+                    result = calculateCodingAgreement(
+                            (CodingAggreementMeasure_ImplBase) measure, loader);
+                }
+                else {
+                    result = measure.getAgreement(loader.getUsers(), loader);
+                }
+            }
             
             resultsContainer.addOrReplace(ams.createResultsPanel(MID_RESULTS, Model.of(result),
                     AgreementPage.this::getCasMap));
@@ -379,114 +427,354 @@ public class AgreementPage
         }
     }
     
-    // The CASes cannot be serialized, so we make them transient here. However, it does not matter
-    // as we do not access the field directly but via getCases() which will re-load them if
-    // necessary, e.g. if the transient field is empty after a session is restored from a
-    // persisted state.
-    private transient Map<String, List<CAS>> cachedCASes;
-    private transient Project cachedProject;
-    private transient boolean cachedLimitToFinishedDocuments;
+    /**
+     * Calculates the agreement re-using the per-document studies stored by a previous
+     * calculation for all documents whose CASes did not change since. Only the CASes of the
+     * remaining documents are loaded and diffed.
+     */
+    private PairwiseAnnotationResult<CodingAgreementResult> calculateCodingAgreement(
+            CodingAggreementMeasure_ImplBase<?> aMeasure, DocumentCasLoader aLoader)
+    {
+        List<String> users = aLoader.getUsers();
+        // The pairs of annotators are derived from the list of users, so it is part of the key
+        String configurationKey = aMeasure.getConfigurationKey() + "|" + users;
+        List<SourceDocument> documents = aLoader.getDocuments();
+
+        Map<SourceDocument, List<CodingAgreementResult>> documentStudies = new HashMap<>();
+        Map<SourceDocument, Map<String, Long>> changedDocuments = new LinkedHashMap<>();
+        for (SourceDocument document : documents) {
+            Map<String, Long> versions = aLoader.getVersions(document);
+            Optional<List<CodingAgreementResult>> studies = summaryStore.load(document,
+                    configurationKey, versions);
+            if (studies.isPresent()) {
+                documentStudies.put(document, studies.get());
+            }
+            else {
+                changedDocuments.put(document, versions);
+            }
+        }
+        
+        LOG.debug("Agreement summaries available for {} of {} documents",
+                documents.size() - changedDocuments.size(), documents.size());
+
+        aLoader.restrictTo(new ArrayList<>(changedDocuments.keySet()));
+        for (Entry<SourceDocument, Map<String, Long>> e : changedDocuments.entrySet()) {
+            SourceDocument document = e.getKey();
+            List<CodingAgreementResult> studies = aMeasure.makeDocumentStudies(users,
+                    aLoader.next());
+            documentStudies.put(document, studies);
+            
+            // Do not persist the studies if the CASes could not be loaded properly
+            if (!aLoader.isFailed(document)) {
+                summaryStore.store(document, configurationKey, e.getValue(), studies);
+            }
+        }
 
+        return aMeasure.mergeDocumentStudies(users,
+                documents.stream().map(documentStudies::get).collect(toList()));
+    }
+    
+    /**
+     * Loads the CASes of all annotators for all documents in the selected project. The CASes are
+     * not cached - use {@link DocumentCasLoader} directly when they do not all need to be in
+     * memory at the same time.
+     */
     public Map<String, List<CAS>> getCasMap()
     {
         if (agreementForm.featureList.getModelObject() == null) {
             return Collections.emptyMap();
         }
 
-        Project project = agreementForm.featureList.getModelObject().getProject();
-
-        DefaultAgreementTraits traits = (DefaultAgreementTraits) agreementForm.traitsContainer
-                .get(MID_TRAITS).getDefaultModelObject();
+        try (DocumentCasLoader loader = new DocumentCasLoader()) {
+            Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+            loader.getUsers().forEach(user -> casMap.put(user, new ArrayList<>()));
+            
+            while (loader.hasNext()) {
+                Map<String, CAS> document = loader.next();
+                // The lists can contain null values if a user didn't work on a source document 
+                // yet
+                casMap.forEach((user, cases) -> cases.add(document.get(user)));
+            }
+            
+            return casMap;
+        }
+    }
+    
+    /**
+     * Provides the CASes of the annotators one source document at a time. The next few
+     * documents are loaded ahead in parallel on a bounded thread pool. Thus, at most
+     * {@link #CAS_LOADER_THREADS} documents plus the one currently being processed are held in
+     * memory. All database access happens on the calling thread: the annotation documents are
+     * fetched when the loader is created and missing initial CASes are created before a document
+     * is handed to the worker threads. The worker threads only read the CAS files (without
+     * running the CAS doctor) and upgrade the CASes.
+     * <p>
+     * By default, the loader provides all documents of the project. Before starting the
+     * iteration, it can be {@link #restrictTo restricted} to a subset of the documents.
+     */
+    private class DocumentCasLoader
+        implements Iterator<Map<String, CAS>>, AutoCloseable
+    {
+        private final Project project;
+        private final boolean limitToFinishedDocuments;
+        private final List<String> users;
+        private final Map<String, Map<SourceDocument, AnnotationDocument>> annotationDocuments;
+        private final TypeSystemDescription typeSystem;
+        private final List<SourceDocument> allDocuments;
+        private Iterator<SourceDocument> documents;
+        private final Deque<Future<Map<String, CAS>>> pending = new ArrayDeque<>();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        private final Set<SourceDocument> failedDocuments = ConcurrentHashMap.newKeySet();
+        private final ExecutorService executor;
+        
+        public DocumentCasLoader()
+        {
+            project = agreementForm.featureList.getModelObject().getProject();
+            
+            DefaultAgreementTraits traits = (DefaultAgreementTraits) agreementForm.traitsContainer
+                    .get(MID_TRAITS).getDefaultModelObject();
+            limitToFinishedDocuments = traits.isLimitToFinishedDocuments();
+            
+            users = new ArrayList<>();
+            annotationDocuments = new HashMap<>();
+            for (User user : projectService.listProjectUsersWithPermissions(project, ANNOTATOR)) {
+                users.add(user.getUsername());
+                // Bulk-fetch all annotation documents of the user which is faster then looking
+                // them up individually
+                annotationDocuments.put(user.getUsername(), documentService
+                        .listAnnotationDocuments(project, user).stream()
+                        .collect(toMap(AnnotationDocument::getDocument, identity(),
+                            (a, b) -> a)));
+            }
+            
+            // Obtain the type system only once - this is faster than upgrading the CASes via the
+            // project since that would rebuild the type system for every document.
+            try {
+                typeSystem = annotationService.getFullProjectTypeSystem(project);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("Unable to obtain project type system", e);
+            }
+            
+            allDocuments = documentService.listSourceDocuments(project);
+            documents = allDocuments.iterator();
+            
+            executor = Executors.newFixedThreadPool(CAS_LOADER_THREADS, r -> {
+                Thread thread = new Thread(r, "agreement-cas-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        public List<String> getUsers()
+        {
+            return users;
+        }
+        
+        public List<SourceDocument> getDocuments()
+        {
+            return allDocuments;
+        }
+        
+        public void restrictTo(List<SourceDocument> aDocuments)
+        {
+            if (!pending.isEmpty()) {
+                throw new IllegalStateException("Loading has already started");
+            }
+            documents = aDocuments.iterator();
+        }
+        
+        /**
+         * @return whether there were problems loading the CASes of the given document.
+         */
+        public boolean isFailed(SourceDocument aDocument)
+        {
+            return failedDocuments.contains(aDocument);
+        }
         
-        // Avoid reloading the CASes when switching features within the same project
-        if (
-                cachedCASes != null && 
-                project.equals(cachedProject) &&
-                cachedLimitToFinishedDocuments == traits.isLimitToFinishedDocuments()
-        ) {
-            return cachedCASes;
+        /**
+         * Determines the current versions of the CASes which would be loaded for the given
+         * document, i.e. their timestamps in the CAS storage. CASes which would be skipped or
+         * which do not exist (yet) are represented by negative values.
+         */
+        public Map<String, Long> getVersions(SourceDocument aDocument)
+        {
+            Map<String, Long> versions = new HashMap<>();
+            for (String user : users) {
+                long version = VERSION_SKIPPED;
+                
+                try {
+                    if (isIncluded(aDocument, user)) {
+                        String casUser = usesInitialCas(aDocument, user) ? INITIAL_CAS_PSEUDO_USER
+                                : user;
+                        version = casStorageService.getCasTimestamp(aDocument, casUser)
+                                .orElse(VERSION_MISSING);
+                    }
+                }
+                catch (IOException e) {
+                    version = VERSION_MISSING;
+                }
+                
+                versions.put(user, version);
+            }
+            return versions;
         }
         
-        List<User> users = projectService.listProjectUsersWithPermissions(project, ANNOTATOR);
+        @Override
+        public boolean hasNext()
+        {
+            fill();
+            return !pending.isEmpty();
+        }
 
-        List<SourceDocument> sourceDocuments = documentService
-                .listSourceDocuments(project);
+        @Override
+        public Map<String, CAS> next()
+        {
+            fill();
+            if (pending.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            
+            Future<Map<String, CAS>> document = pending.poll();
+            fill();
+            
+            try {
+                return document.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading data", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to load data", e.getCause());
+            }
+            finally {
+                // Report problems from the worker threads via the request thread
+                String error;
+                while ((error = errors.poll()) != null) {
+                    AgreementPage.this.error(error);
+                }
+            }
+        }
         
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<CAS> cases = new ArrayList<>();
-
-            // Bulk-fetch all source documents for which there is already an annoation document for
-            // the user which is faster then checking for their existence individually
-            List<SourceDocument> docsForUser = documentService
-                    .listAnnotationDocuments(project, user).stream()
-                    .map(AnnotationDocument::getDocument)
-                    .distinct()
-                    .collect(Collectors.toList());
+        @Override
+        public void close()
+        {
+            executor.shutdownNow();
+            pending.clear();
+        }
+        
+        private void fill()
+        {
+            while (pending.size() < CAS_LOADER_THREADS && documents.hasNext()) {
+                SourceDocument document = documents.next();
+                prepareInitialCas(document);
+                pending.add(executor.submit(() -> load(document)));
+            }
+        }
+        
+        /**
+         * @return whether the CAS of the given user is considered for the given document.
+         */
+        private boolean isIncluded(SourceDocument aDocument, String aUser)
+        {
+            AnnotationDocument annotationDocument = annotationDocuments.get(aUser).get(aDocument);
+            if (annotationDocument == null) {
+                // ... if we are not limited to finished documents and if there is no annotation
+                // document, then we use the initial CAS for that user.
+                return !limitToFinishedDocuments;
+            }
             
-            nextDocument: for (SourceDocument document : sourceDocuments) {
+            return !limitToFinishedDocuments || annotationDocument.getState().equals(FINISHED);
+        }
+        
+        /**
+         * @return whether the initial CAS is used in place of the CAS of the given user, i.e.
+         *         whether the user has not started working on the document yet.
+         */
+        private boolean usesInitialCas(SourceDocument aDocument, String aUser) throws IOException
+        {
+            return !annotationDocuments.get(aUser).containsKey(aDocument)
+                    || !casStorageService.existsCas(aDocument, aUser);
+        }
+        
+        /**
+         * Creates the initial CAS of the given document if it is used in place of a missing
+         * annotation CAS but does not exist yet. This involves the database (e.g. to obtain the
+         * type system), so it must happen on the calling thread.
+         */
+        private void prepareInitialCas(SourceDocument aDocument)
+        {
+            try {
+                for (String user : users) {
+                    if (isIncluded(aDocument, user) && usesInitialCas(aDocument, user)) {
+                        if (!casStorageService.existsCas(aDocument, INITIAL_CAS_PSEUDO_USER)) {
+                            documentService.createOrReadInitialCas(aDocument);
+                        }
+                        return;
+                    }
+                }
+            }
+            catch (Exception e) {
+                LOG.error("Unable to create initial CAS", e);
+                failedDocuments.add(aDocument);
+                AgreementPage.this.error(
+                        "Unable to create initial CAS: " + ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        
+        private Map<String, CAS> load(SourceDocument aDocument)
+        {
+            // The initial CAS could not be prepared - the problem has already been reported
+            if (failedDocuments.contains(aDocument)) {
+                return Collections.emptyMap();
+            }
+            
+            Map<String, CAS> cases = new LinkedHashMap<>();
+            for (String user : users) {
+                if (!isIncluded(aDocument, user)) {
+                    // Skip the CAS - it is treated like a missing CAS
+                    continue;
+                }
+                
                 CAS cas = null;
 
                 try {
-                    if (docsForUser.contains(document)) {
-                        AnnotationDocument annotationDocument = documentService
-                                .getAnnotationDocument(document, user);
-                        
-                        if (traits.isLimitToFinishedDocuments()
-                                && !annotationDocument.getState().equals(FINISHED)) {
-                            // Add a skip marker for the current CAS to the CAS list - this is 
-                            // necessary because we expect the CAS lists for all users to have the
-                            // same size
-                            cases.add(null);
-                            continue nextDocument;
-                        }
-                        
-                        cas = documentService.readAnnotationCas(annotationDocument);
-                    }
-                    else if (!traits.isLimitToFinishedDocuments()) {
-                        // ... if we are not limited to finished documents and if there is no
-                        // annotation document, then we use the initial CAS for that user.
-                        cas = documentService.createOrReadInitialCas(document);
-                    }
+                    // Only the CAS storage is accessed here - no database access
+                    String casUser = usesInitialCas(aDocument, user) ? INITIAL_CAS_PSEUDO_USER
+                            : user;
+                    cas = casStorageService.readCas(aDocument, casUser, false);
                 }
                 catch (Exception e) {
                     LOG.error("Unable to load data", e);
-                    error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
+                    failedDocuments.add(aDocument);
+                    errors.add("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
                 }
                 
                 if (cas != null) {
                     // Set the CAS name in the DocumentMetaData so that we can pick it
                     // up in the Diff position for the purpose of debugging / transparency.
                     FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
-                    FSUtil.setFeature(dmd, "documentId", document.getName());
-                    FSUtil.setFeature(dmd, "collectionId", document.getProject().getName());
+                    FSUtil.setFeature(dmd, "documentId", aDocument.getName());
+                    FSUtil.setFeature(dmd, "collectionId", project.getName());
                     
+                    cases.put(user, cas);
                 }
-
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(cas);
             }
             
-            // Bulk-upgrade CASes - this is faster than upgrading them individually since the
-            // bulk upgrade only loads the project type system once.
             try {
-                annotationService.upgradeCasIfRequired(cases, project);
+                annotationService.upgradeCasIfRequired(cases.values(), typeSystem);
                 // REC: I think there is no need to write the CASes here. We would not
                 // want to interfere with currently active annotator users
             }
             catch (Exception e) {
                 LOG.error("Unable to upgrade CAS", e);
-                error("Unable to upgrade CAS: " + ExceptionUtils.getRootCauseMessage(e));
-                continue;
+                failedDocuments.add(aDocument);
+                errors.add("Unable to upgrade CAS: " + ExceptionUtils.getRootCauseMessage(e));
+                return Collections.emptyMap();
             }
-                
-            cachedCASes.put(user.getUsername(), cases);
+            
+            return cases;
         }
-
-        cachedProject = project;
-        cachedLimitToFinishedDocuments = traits.isLimitToFinishedDocuments();
-
-        return cachedCASes;
     }
 }
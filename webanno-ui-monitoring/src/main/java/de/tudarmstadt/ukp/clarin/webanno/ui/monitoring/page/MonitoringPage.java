@@ -22,7 +22,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJ
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.IGNORE_TO_NEW;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_FINISHED;
@@ -33,10 +32,10 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.NEW;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_FINISHED_TO_CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Objects.isNull;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toList;
 
 import java.awt.Color;
 import java.io.Serializable;
@@ -48,10 +47,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.function.BinaryOperator;
 
 import javax.persistence.NoResultException;
 
@@ -108,11 +105,9 @@ import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
-import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
@@ -122,6 +117,7 @@ import de.tudarmstadt.ukp.clarin.webanno.support.EntityModel;
 import de.tudarmstadt.ukp.clarin.webanno.support.jfreechart.SvgChart;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.page.ApplicationPageBase;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.EmbeddableImage;
+import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.ProjectProgressMatrix;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.TableDataProvider;
 
 /**
@@ -155,7 +151,6 @@ public class MonitoringPage
     private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean UserDao userRepository;
-    private @SpringBean CurationDocumentService curationService;
     
     private ProjectSelectionForm projectSelectionForm;
     private MonitoringDetailForm monitoringDetailForm;
@@ -165,6 +160,10 @@ public class MonitoringPage
     private TrainingResultForm trainingResultForm;
 
     private Panel annotationDocumentStatusTable;
+    
+    // The state of all documents of the selected project - shared by the status table and the
+    // charts and loaded at most once per request
+    private IModel<ProjectProgressMatrix> progressMatrix;
 
     private String result;
 
@@ -237,6 +236,8 @@ public class MonitoringPage
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private void commonInit()
     {
+        progressMatrix = LoadableDetachableModel.of(this::loadProgressMatrix);
+        
         projectSelectionForm = new ProjectSelectionForm("projectSelectionForm");
         
         monitoringDetailForm = new MonitoringDetailForm("monitoringDetailForm");
@@ -309,6 +310,30 @@ public class MonitoringPage
         }
     }
     
+    @Override
+    protected void onDetach()
+    {
+        progressMatrix.detach();
+        
+        super.onDetach();
+    }
+    
+    private ProjectProgressMatrix loadProgressMatrix()
+    {
+        Project project = projectSelectionForm.getModelObject().project;
+        if (project == null) {
+            return new ProjectProgressMatrix(emptyList(), emptyMap());
+        }
+        
+        List<String> annotators = projectService
+                .listProjectUsersWithPermissions(project, ANNOTATOR).stream()
+                .map(User::getUsername)
+                .collect(toList());
+        
+        return new ProjectProgressMatrix(annotators,
+                documentService.listAnnotationDocumentsBySourceDocument(project));
+    }
+    
     private JFreeChart renderProjectProgress()
     {
         Map<String, Integer> data = getOverallProjectProgress();
@@ -398,8 +423,14 @@ public class MonitoringPage
                 return;
             }
 
-            List<SourceDocument> sourceDocuments = documentService
-                    .listSourceDocuments(aNewSelection);
+            ProjectSelectionModel projectSelectionModel = ProjectSelectionForm.this
+                    .getModelObject();
+            projectSelectionModel.project = aNewSelection;
+            
+            // Make sure the matrix is (re)loaded for the newly selected project
+            progressMatrix.detach();
+            ProjectProgressMatrix matrix = progressMatrix.getObject();
+            List<SourceDocument> sourceDocuments = matrix.getDocuments();
 
             monitoringDetailForm.setModelObject(aNewSelection);
             monitoringDetailForm.setVisible(true);
@@ -407,22 +438,16 @@ public class MonitoringPage
             updateTrainingResultForm(aNewSelection);
             result = "";
 
-            ProjectSelectionModel projectSelectionModel = ProjectSelectionForm.this
-                    .getModelObject();
-            projectSelectionModel.project = aNewSelection;
             projectSelectionModel.annotatorsProgress = new TreeMap<>();
             projectSelectionModel.annotatorsProgressInPercent = new TreeMap<>();
             projectSelectionModel.totalDocuments = sourceDocuments.size();
             ProjectSelectionForm.this.setVisible(true);
 
             // Annotator's Progress
-            if (projectSelectionModel.project != null) {
-                projectSelectionModel.annotatorsProgressInPercent
-                        .putAll(getPercentageOfFinishedDocumentsPerUser(
-                                projectSelectionModel.project));
-                projectSelectionModel.annotatorsProgress.putAll(
-                        getFinishedDocumentsPerUser(projectSelectionModel.project));
-            }
+            projectSelectionModel.annotatorsProgressInPercent
+                    .putAll(matrix.getPercentageOfFinishedDocumentsPerUser());
+            projectSelectionModel.annotatorsProgress
+                    .putAll(matrix.getFinishedDocumentsPerUser());
             overallProjectProgressImage.setVisible(false);
             annotatorsProgressImage.setVisible(true);
             annotatorsProgressPercentageImage.setVisible(true);
@@ -434,12 +459,9 @@ public class MonitoringPage
             documentListAsColumnHeader.add(CURATION);
 
             // List of users with USER permission level
-            List<User> users = projectService.listProjectUsersWithPermissions(
-                    projectSelectionModel.project, PermissionLevel.ANNOTATOR);
+            List<String> users = matrix.getAnnotators();
 
-            for (User user : users) {
-                documentListAsColumnHeader.add(user.getUsername());
-            }
+            documentListAsColumnHeader.addAll(users);
 
             List<List<String>> userAnnotationDocumentStatusList = new ArrayList<>();
 
@@ -456,14 +478,13 @@ public class MonitoringPage
                 projectTimeStamp.add(LAST_ACCESS + "__");
             }
 
-            for (User user : users) {
+            for (String user : users) {
                 if (projectService.existsProjectTimeStamp(
-                        projectSelectionModel.project, user.getUsername())) {
+                        projectSelectionModel.project, user)) {
                     projectTimeStamp.add(LAST_ACCESS
                             + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss")
                                     .format(projectService.getProjectTimeStamp(
-                                            projectSelectionModel.project,
-                                            user.getUsername())));
+                                            projectSelectionModel.project, user)));
                 }
                 else {
                     projectTimeStamp.add(LAST_ACCESS + "__");
@@ -480,10 +501,9 @@ public class MonitoringPage
                 userAnnotationDocuments.add(WebAnnoConst.CURATION_USER + "-"
                         + DOCUMENT + document.getName());
 
-                for (User user : users) {
+                for (String user : users) {
                     // annotation document status for this annotator
-                    userAnnotationDocuments.add(user.getUsername() + "-" + DOCUMENT
-                            + document.getName());
+                    userAnnotationDocuments.add(user + "-" + DOCUMENT + document.getName());
                 }
 
                 userAnnotationDocumentStatusList.add(userAnnotationDocuments);
@@ -517,66 +537,6 @@ public class MonitoringPage
         }
     };
 
-    private Map<String, Integer> getFinishedDocumentsPerUser(Project aProject)
-    {
-        if (aProject == null) {
-            return emptyMap();
-        }
-
-        Map<String, List<AnnotationDocument>> docsPerUser = documentService
-                .listFinishedAnnotationDocuments(aProject).stream()
-                .collect(groupingBy(AnnotationDocument::getUser));
-
-        // We explicitly use HashMap::new below since we *really* want a mutable map and 
-        // Collectors.toMap(...) doesn't make guarantees about the mutability of the map type it
-        // internally creates.
-        Map<String, Integer> finishedDocumentsPerUser = docsPerUser.entrySet().stream()
-                .collect(toMap(Entry::getKey, e -> e.getValue().size(), throwingMerger(), 
-                        HashMap::new));
-
-        // Make sure we also have all annotators in the map who have not actually annotated
-        // anything
-        projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR).stream()
-                .map(User::getUsername)
-                .forEach(user -> finishedDocumentsPerUser.computeIfAbsent(user, _it -> 0));
-
-        // Add the finished documents for the curation user
-        List<SourceDocument> curatedDocuments = curationService.listCuratedDocuments(aProject);
-        
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        finishedDocumentsPerUser.put(CURATION_USER, curatedDocuments.size());
-        
-        return finishedDocumentsPerUser;
-    }
-    
-    private Map<String, Integer> getPercentageOfFinishedDocumentsPerUser(Project aProject)
-    {
-        if (aProject == null) {
-            return emptyMap();
-        }
-
-        Map<String, Integer> finishedDocumentsPerUser = getFinishedDocumentsPerUser(aProject);
-        
-        Map<String, Integer> percentageFinishedPerUser = new HashMap<>();
-        List<User> annotators = new ArrayList<>(projectService.listProjectUsersWithPermissions(
-                aProject, ANNOTATOR));
-        
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        annotators.add(new User(CURATION_USER));
-        
-        for (User annotator : annotators) {
-            Map<SourceDocument, AnnotationDocument> docsForUser = documentService
-                    .listAnnotatableDocuments(aProject, annotator);
-            
-            int finished = finishedDocumentsPerUser.get(annotator.getUsername());
-            int annotatableDocs = docsForUser.size();
-            percentageFinishedPerUser.put(annotator.getUsername(),
-                    (int) Math.round((double) (finished * 100) / annotatableDocs));
-        }
-        
-        return percentageFinishedPerUser;
-    }
-
     private Map<String, Integer> getOverallProjectProgress()
     {
         Map<String, Integer> overallProjectProgress = new LinkedHashMap<>();
@@ -925,10 +885,6 @@ public class MonitoringPage
         public void populateItem(final Item<ICellPopulator<List<String>>> aCellItem,
                 final String componentId, final IModel<List<String>> rowModel)
         {
-            String username = SecurityContextHolder.getContext().getAuthentication()
-                    .getName();
-            final User user = userRepository.get(username);
-
             int rowNumber = aCellItem.getIndex();
             aCellItem.setOutputMarkupId(true);
 
@@ -941,8 +897,8 @@ public class MonitoringPage
                 aCellItem.add(AttributeModifier.append("class", "centering"));
             }
             else if (value.substring(0, value.indexOf(":")).equals(WebAnnoConst.CURATION_USER)) {
-                SourceDocument document = documentService.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
+                SourceDocument document = progressMatrix.getObject()
+                        .getDocument(value.substring(value.indexOf(":") + 1));
                 SourceDocumentState state = document.getState();
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
                 icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
@@ -955,6 +911,7 @@ public class MonitoringPage
                     @Override
                     protected void onEvent(AjaxRequestTarget aTarget)
                     {
+                        User user = userRepository.getCurrentUser();
                         if (!projectService.isCurator(project, user)) {
                             aTarget.appendJavaScript(
                                     "alert('the state can only be changed explicitly by the curator')");
@@ -982,27 +939,11 @@ public class MonitoringPage
                 });
             }
             else {
-                SourceDocument document = documentService.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                User annotator = userRepository.get(value.substring(0, value.indexOf(":")));
-
-                AnnotationDocumentState state;
-                AnnotationDocument annoDoc = null;
-                if (documentService.existsAnnotationDocument(document, annotator)) {
-                    annoDoc = documentService.getAnnotationDocument(document, annotator);
-                    state = annoDoc.getState();
-                }
-                // user didn't even start working on it
-                else {
-                    state = AnnotationDocumentState.NEW;
-                    AnnotationDocument annotationDocument = new AnnotationDocument();
-                    annotationDocument.setDocument(document);
-                    annotationDocument.setName(document.getName());
-                    annotationDocument.setProject(project);
-                    annotationDocument.setUser(annotator.getUsername());
-                    annotationDocument.setState(state);
-                    documentService.createAnnotationDocument(annotationDocument);
-                }
+                ProjectProgressMatrix matrix = progressMatrix.getObject();
+                SourceDocument document = matrix
+                        .getDocument(value.substring(value.indexOf(":") + 1));
+                AnnotationDocumentState state = matrix.getState(document,
+                        value.substring(0, value.indexOf(":")));
 
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
                 icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
@@ -1043,16 +984,18 @@ public class MonitoringPage
                                 changeAnnotationDocumentState(document, user, IGNORE_TO_NEW);
                             }
                         }
-                        // user didn't even start working on it
+                        // user didn't even start working on it - the cell shows the document as
+                        // new, so we create it and treat it like any other new document
                         else {
                             AnnotationDocument annotationDocument = new AnnotationDocument();
                             annotationDocument.setDocument(document);
                             annotationDocument.setName(document.getName());
                             annotationDocument.setProject(project);
                             annotationDocument.setUser(user.getUsername());
+                            annotationDocument.setState(AnnotationDocumentState.NEW);
                             documentService.createAnnotationDocument(annotationDocument);
                             documentService.transitionAnnotationDocumentState(annotationDocument,
-                                    NEW_TO_ANNOTATION_IN_PROGRESS);
+                                    NEW_TO_IGNORE);
                         }
                         
                         aTarget.add(aCellItem);
@@ -1064,13 +1007,18 @@ public class MonitoringPage
 
         private void updateStats(AjaxRequestTarget aTarget, ProjectSelectionModel aModel)
         {
+            // A state has changed, so the matrix needs to be reloaded before the table and the
+            // charts are rendered again
+            progressMatrix.detach();
+            ProjectProgressMatrix matrix = progressMatrix.getObject();
+            
             aModel.annotatorsProgress.clear();
-            aModel.annotatorsProgress.putAll(getFinishedDocumentsPerUser(project));
+            aModel.annotatorsProgress.putAll(matrix.getFinishedDocumentsPerUser());
             aTarget.add(annotatorsProgressImage);
 
             aModel.annotatorsProgressInPercent.clear();
             aModel.annotatorsProgressInPercent
-                    .putAll(getPercentageOfFinishedDocumentsPerUser(project));
+                    .putAll(matrix.getPercentageOfFinishedDocumentsPerUser());
             aTarget.add(annotatorsProgressPercentageImage);
 
             aTarget.add(monitoringDetailForm);
@@ -1131,11 +1079,4 @@ public class MonitoringPage
             return Optional.empty();
         }
     }
-    
-    private static <T> BinaryOperator<T> throwingMerger()
-    {
-        return (u, v) -> {
-            throw new IllegalStateException(String.format("Duplicate key %s", u));
-        };
-    }
 }
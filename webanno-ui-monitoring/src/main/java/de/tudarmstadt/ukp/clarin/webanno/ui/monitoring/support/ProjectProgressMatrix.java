@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+/**
+ * The state of every document for every annotator of a project. The matrix is built from the
+ * annotation documents of the whole project (cf.
+ * {@code DocumentService#listAnnotationDocumentsBySourceDocument}), so rendering the document
+ * status table and the progress charts of the monitoring page does not require any further
+ * database queries.
+ */
+public class ProjectProgressMatrix
+    implements Serializable
+{
+    private static final long serialVersionUID = 6425331954826377137L;
+
+    private final List<SourceDocument> documents;
+    private final Map<String, SourceDocument> documentsByName;
+    private final List<String> annotators;
+    private final Map<Long, Map<String, AnnotationDocumentState>> states;
+
+    /**
+     * @param aAnnotators
+     *            the names of the annotators of the project.
+     * @param aAnnotationDocuments
+     *            the annotation documents of the project, grouped by source document.
+     */
+    public ProjectProgressMatrix(List<String> aAnnotators,
+            Map<SourceDocument, List<AnnotationDocument>> aAnnotationDocuments)
+    {
+        annotators = new ArrayList<>(aAnnotators);
+        documents = new ArrayList<>(aAnnotationDocuments.keySet());
+        documentsByName = new HashMap<>();
+        states = new HashMap<>();
+        for (Entry<SourceDocument, List<AnnotationDocument>> e : aAnnotationDocuments
+                .entrySet()) {
+            documentsByName.put(e.getKey().getName(), e.getKey());
+            Map<String, AnnotationDocumentState> documentStates = new HashMap<>();
+            for (AnnotationDocument annDoc : e.getValue()) {
+                documentStates.put(annDoc.getUser(), annDoc.getState());
+            }
+            states.put(e.getKey().getId(), documentStates);
+        }
+    }
+
+    public List<SourceDocument> getDocuments()
+    {
+        return Collections.unmodifiableList(documents);
+    }
+
+    public List<String> getAnnotators()
+    {
+        return Collections.unmodifiableList(annotators);
+    }
+
+    /**
+     * @param aName
+     *            the name of the document.
+     * @return the document or {@code null} if the project does not contain such a document.
+     */
+    public SourceDocument getDocument(String aName)
+    {
+        return documentsByName.get(aName);
+    }
+
+    /**
+     * @param aDocument
+     *            the document.
+     * @param aUser
+     *            the annotator.
+     * @return the state of the annotation document of the given annotator. If the annotator has
+     *         no annotation document yet, the state is {@link AnnotationDocumentState#NEW NEW}.
+     */
+    public AnnotationDocumentState getState(SourceDocument aDocument, String aUser)
+    {
+        Map<String, AnnotationDocumentState> documentStates = states.get(aDocument.getId());
+        if (documentStates == null) {
+            return AnnotationDocumentState.NEW;
+        }
+        return documentStates.getOrDefault(aUser, AnnotationDocumentState.NEW);
+    }
+
+    /**
+     * @return the number of documents finished by each annotator and the number of curated
+     *         documents under the name of the curation user.
+     */
+    public Map<String, Integer> getFinishedDocumentsPerUser()
+    {
+        Map<String, Integer> finishedDocumentsPerUser = new HashMap<>();
+        
+        // Make sure we also have all annotators in the map who have not actually annotated
+        // anything
+        for (String annotator : annotators) {
+            finishedDocumentsPerUser.put(annotator, 0);
+        }
+        
+        int curated = 0;
+        for (SourceDocument doc : documents) {
+            for (Entry<String, AnnotationDocumentState> e : states.get(doc.getId()).entrySet()) {
+                if (AnnotationDocumentState.FINISHED.equals(e.getValue())) {
+                    finishedDocumentsPerUser.merge(e.getKey(), 1, Integer::sum);
+                }
+            }
+            
+            if (SourceDocumentState.CURATION_FINISHED.equals(doc.getState())) {
+                curated++;
+            }
+        }
+        
+        finishedDocumentsPerUser.put(CURATION_USER, curated);
+        
+        return finishedDocumentsPerUser;
+    }
+
+    /**
+     * @return the percentage of the documents finished by each annotator (and curated) relative
+     *         to the documents the annotator has not ignored.
+     */
+    public Map<String, Integer> getPercentageOfFinishedDocumentsPerUser()
+    {
+        Map<String, Integer> finishedDocumentsPerUser = getFinishedDocumentsPerUser();
+        
+        Map<String, Integer> ignoredDocumentsPerUser = new HashMap<>();
+        for (Map<String, AnnotationDocumentState> documentStates : states.values()) {
+            for (Entry<String, AnnotationDocumentState> e : documentStates.entrySet()) {
+                if (AnnotationDocumentState.IGNORE.equals(e.getValue())) {
+                    ignoredDocumentsPerUser.merge(e.getKey(), 1, Integer::sum);
+                }
+            }
+        }
+        
+        List<String> users = new ArrayList<>(annotators);
+        users.add(CURATION_USER);
+        
+        Map<String, Integer> percentageFinishedPerUser = new HashMap<>();
+        for (String user : users) {
+            int finished = finishedDocumentsPerUser.get(user);
+            int annotatableDocs = documents.size() - ignoredDocumentsPerUser.getOrDefault(user, 0);
+            
+            // An annotator who has ignored all documents (or a project without documents) has
+            // nothing left to do
+            if (annotatableDocs == 0) {
+                percentageFinishedPerUser.put(user, 0);
+                continue;
+            }
+            
+            percentageFinishedPerUser.put(user,
+                    (int) Math.round((double) (finished * 100) / annotatableDocs));
+        }
+        
+        return percentageFinishedPerUser;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.NEW;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+public class ProjectProgressMatrixTest
+{
+    private Project project;
+    private SourceDocument doc1;
+    private SourceDocument doc2;
+    private SourceDocument doc3;
+    private Map<SourceDocument, List<AnnotationDocument>> annotationDocuments;
+
+    @Before
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        doc1 = makeDocument(1l, "doc1", SourceDocumentState.ANNOTATION_IN_PROGRESS);
+        doc2 = makeDocument(2l, "doc2", SourceDocumentState.CURATION_FINISHED);
+        doc3 = makeDocument(3l, "doc3", SourceDocumentState.NEW);
+
+        annotationDocuments = new LinkedHashMap<>();
+        annotationDocuments.put(doc1, new ArrayList<>());
+        annotationDocuments.put(doc2, new ArrayList<>());
+        annotationDocuments.put(doc3, new ArrayList<>());
+
+        // user1 has finished all documents except the one ignored
+        annotate(doc1, "user1", FINISHED);
+        annotate(doc2, "user1", FINISHED);
+        annotate(doc3, "user1", IGNORE);
+
+        // user2 has not opened doc3 yet, so there is no annotation document for it
+        annotate(doc1, "user2", IN_PROGRESS);
+        annotate(doc2, "user2", FINISHED);
+
+        // user3 has ignored every document
+        annotate(doc1, "user3", IGNORE);
+        annotate(doc2, "user3", IGNORE);
+        annotate(doc3, "user3", IGNORE);
+    }
+
+    @Test
+    public void thatStateDefaultsToNewWithoutAnnotationDocument()
+    {
+        ProjectProgressMatrix sut = new ProjectProgressMatrix(
+                asList("user1", "user2", "user3", "user4"), annotationDocuments);
+
+        assertThat(sut.getState(doc1, "user1")).isEqualTo(FINISHED);
+        assertThat(sut.getState(doc1, "user2")).isEqualTo(IN_PROGRESS);
+        assertThat(sut.getState(doc3, "user1")).isEqualTo(IGNORE);
+        assertThat(sut.getState(doc3, "user2")).isEqualTo(NEW);
+        assertThat(sut.getState(doc1, "user4")).isEqualTo(NEW);
+        assertThat(sut.getState(makeDocument(4l, "doc4", SourceDocumentState.NEW), "user1"))
+                .isEqualTo(NEW);
+    }
+
+    @Test
+    public void thatDocumentsCanBeLookedUpByName()
+    {
+        ProjectProgressMatrix sut = new ProjectProgressMatrix(asList("user1"),
+                annotationDocuments);
+
+        assertThat(sut.getDocuments()).containsExactly(doc1, doc2, doc3);
+        assertThat(sut.getDocument("doc2")).isSameAs(doc2);
+        assertThat(sut.getDocument("doc4")).isNull();
+    }
+
+    @Test
+    public void thatFinishedAndCuratedDocumentsAreCounted()
+    {
+        ProjectProgressMatrix sut = new ProjectProgressMatrix(
+                asList("user1", "user2", "user3", "user4"), annotationDocuments);
+
+        assertThat(sut.getFinishedDocumentsPerUser()).containsOnly(
+                entry("user1", 2),
+                entry("user2", 1),
+                entry("user3", 0),
+                entry("user4", 0),
+                entry(CURATION_USER, 1));
+    }
+
+    @Test
+    public void thatIgnoredDocumentsAreNotCountedInPercentage()
+    {
+        ProjectProgressMatrix sut = new ProjectProgressMatrix(
+                asList("user1", "user2", "user3", "user4"), annotationDocuments);
+
+        assertThat(sut.getPercentageOfFinishedDocumentsPerUser()).containsOnly(
+                entry("user1", 100),
+                entry("user2", 33),
+                entry("user3", 0),
+                entry("user4", 0),
+                entry(CURATION_USER, 33));
+    }
+
+    @Test
+    public void thatProjectWithoutDocumentsHasNoProgress()
+    {
+        ProjectProgressMatrix sut = new ProjectProgressMatrix(asList("user1"),
+                new LinkedHashMap<>());
+
+        assertThat(sut.getFinishedDocumentsPerUser()).containsOnly(
+                entry("user1", 0),
+                entry(CURATION_USER, 0));
+        assertThat(sut.getPercentageOfFinishedDocumentsPerUser()).containsOnly(
+                entry("user1", 0),
+                entry(CURATION_USER, 0));
+    }
+
+    private SourceDocument makeDocument(long aId, String aName, SourceDocumentState aState)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName(aName);
+        doc.setProject(project);
+        doc.setState(aState);
+        return doc;
+    }
+
+    private void annotate(SourceDocument aDocument, String aUser, AnnotationDocumentState aState)
+    {
+        AnnotationDocument annDoc = new AnnotationDocument(aDocument.getName(), project, aUser,
+                aDocument);
+        annDoc.setState(aState);
+        annotationDocuments.get(aDocument).add(annDoc);
+    }
+}
@@ -20,8 +20,11 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.project.documents;
 import static java.util.Objects.isNull;
 import static org.apache.commons.collections.CollectionUtils.isEmpty;
 
-import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -37,8 +40,10 @@ import org.apache.wicket.model.Model;
 import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamSource;
 
 import de.agilecoders.wicket.extensions.markup.html.bootstrap.form.select.BootstrapSelect;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentImportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
@@ -55,6 +60,7 @@ public class ImportDocumentsPanel extends Panel
     private final static Logger LOG = LoggerFactory.getLogger(ImportDocumentsPanel.class);
     
     private @SpringBean DocumentService documentService;
+    private @SpringBean DocumentImportService documentImportService;
     private @SpringBean ImportExportService importExportService;
     
     private FileUploadField fileUpload;
@@ -114,32 +120,45 @@ public class ImportDocumentsPanel extends Panel
             return;
         }
 
+        String formatId = importExportService.getFormatByName(format.getObject()).get().getId();
+        
+        Map<SourceDocument, InputStreamSource> documents = new LinkedHashMap<>();
+        Set<String> fileNames = new HashSet<>();
         for (FileUpload documentToUpload : uploadedFiles) {
             String fileName = documentToUpload.getClientFileName();
 
-            if (documentService.existsSourceDocument(project, fileName)) {
+            if (documentService.existsSourceDocument(project, fileName)
+                    || !fileNames.add(fileName)) {
                 error("Document " + fileName + " already uploaded ! Delete "
                         + "the document if you want to upload again");
                 continue;
             }
 
-            try {
-                SourceDocument document = new SourceDocument();
-                document.setName(fileName);
-                document.setProject(project);
-                document.setFormat(importExportService.getFormatByName(format.getObject())
-                        .get().getId());
-                
-                try (InputStream is = documentToUpload.getInputStream()) {
-                    documentService.uploadSourceDocument(is, document);
-                }
-                info("File [" + fileName + "] has been imported successfully!");
-            }
-            catch (Exception e) {
-                error("Error while uploading document " + fileName + ": "
-                    + ExceptionUtils.getRootCauseMessage(e));
-                LOG.error(fileName + ": " + e.getMessage(), e);
-            }
+            SourceDocument document = new SourceDocument();
+            document.setName(fileName);
+            document.setProject(project);
+            document.setFormat(formatId);
+            documents.put(document, documentToUpload::getInputStream);
+        }
+
+        // The documents are converted in parallel - the messages are still issued from the
+        // request thread
+        try {
+            documentImportService.importSourceDocuments(documents,
+                    (document, exception, processed, total) -> {
+                        if (exception == null) {
+                            info("File [" + document.getName()
+                                    + "] has been imported successfully!");
+                        }
+                        else {
+                            error("Error while uploading document " + document.getName() + ": "
+                                    + ExceptionUtils.getRootCauseMessage(exception));
+                        }
+                    });
+        }
+        catch (Exception e) {
+            error("Error while uploading documents: " + ExceptionUtils.getRootCauseMessage(e));
+            LOG.error(e.getMessage(), e);
         }
         
         WicketUtil.refreshPage(aTarget, getPage());